@@ -0,0 +1,227 @@
+package ru.parse.dump;
+
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Parser of many dumps at once.
+ * <p>
+ * Every dump is parsed in its own task. On JDK 21+ the tasks run on virtual threads, on older JDKs on a bounded pool.
+ * The number of dumps parsed simultaneously is limited by the concurrency limit, and the sum of their estimated memory
+ * by the memory budget, so I/O-bound parses overlap without exhausting the heap.
+ */
+public class DumpBatchParser implements Closeable {
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int MEMORY_PERMIT_SIZE = 1024;
+
+    private final ExecutorService executor;
+    private final Semaphore concurrencyPermits;
+    private final Semaphore memoryPermits;
+    private final int memoryBudgetPermits;
+    private final int streamBufferSize;
+    private final ToLongFunction<Path> memoryEstimation;
+
+    /**
+     * Create the batch parser estimating the index system of a dump as large as the dump file.
+     *
+     * @param maxConcurrency
+     * @param memoryBudget   in bytes
+     */
+    public DumpBatchParser(int maxConcurrency, long memoryBudget) {
+        this(maxConcurrency, memoryBudget, DEFAULT_STREAM_BUFFER_SIZE, DumpBatchParser::fileSize);
+    }
+
+    /**
+     * Create the batch parser.
+     *
+     * @param maxConcurrency   the maximum number of dumps parsed simultaneously
+     * @param memoryBudget     the maximum sum of the memory estimations of simultaneously parsed dumps, in bytes
+     * @param streamBufferSize the read buffer size of every stream
+     * @param memoryEstimation the memory of the index system the dump is parsed into, in bytes. The stream buffer is added to it
+     */
+    public DumpBatchParser(int maxConcurrency, long memoryBudget, int streamBufferSize, ToLongFunction<Path> memoryEstimation) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency limit should be positive");
+        }
+        if (memoryBudget < MEMORY_PERMIT_SIZE) {
+            throw new IllegalArgumentException("Memory budget is too small");
+        }
+
+        this.executor = createExecutor(maxConcurrency);
+        this.concurrencyPermits = new Semaphore(maxConcurrency, true);
+        this.memoryBudgetPermits = (int) Math.min(Integer.MAX_VALUE, memoryBudget / MEMORY_PERMIT_SIZE);
+        this.memoryPermits = new Semaphore(memoryBudgetPermits, true);
+        this.streamBufferSize = streamBufferSize;
+        this.memoryEstimation = memoryEstimation;
+    }
+
+    /**
+     * Parse every regular file of the directory.
+     *
+     * @param directory
+     * @param indexSystemFactory creates the index system for the dump
+     * @return the futures by the dump paths in the directory order
+     * @throws IOException
+     */
+    public Map<Path, CompletableFuture<DumpParsingStatistics>> parseDirectory(Path directory, Function<Path, VirtualIndexSystem> indexSystemFactory) throws IOException {
+        return parseDirectory(directory, "*", indexSystemFactory);
+    }
+
+    /**
+     * Parse the files of the directory matching the glob, e.g. <code>*.phd</code>.
+     *
+     * @param directory
+     * @param glob
+     * @param indexSystemFactory creates the index system for the dump
+     * @return the futures by the dump paths in the directory order
+     * @throws IOException
+     */
+    public Map<Path, CompletableFuture<DumpParsingStatistics>> parseDirectory(Path directory, String glob, Function<Path, VirtualIndexSystem> indexSystemFactory) throws IOException {
+        List<Path> dumps = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : paths) {
+                if (Files.isRegularFile(path)) {
+                    dumps.add(path);
+                }
+            }
+        }
+        Collections.sort(dumps);
+
+        Map<Path, CompletableFuture<DumpParsingStatistics>> result = new LinkedHashMap<>();
+        for (Path dump : dumps) {
+            result.put(dump, submit(dump, indexSystemFactory, null));
+        }
+        return result;
+    }
+
+    /**
+     * Schedule the dump parsing. Cancelling the returned future cancels the parsing or removes it from the queue.
+     *
+     * @param dump
+     * @param virtualIndexSystem
+     * @param listener
+     * @return
+     */
+    public CompletableFuture<DumpParsingStatistics> submit(Path dump, VirtualIndexSystem virtualIndexSystem, DumpParserListener listener) {
+        return submit(dump, path -> virtualIndexSystem, listener);
+    }
+
+    /**
+     * Schedule the dump parsing. The index system is created by the task when the permits are acquired, so only the
+     * index systems of the dumps being parsed are alive.
+     *
+     * @param dump
+     * @param indexSystemFactory creates the index system for the dump
+     * @param listener
+     * @return
+     */
+    public CompletableFuture<DumpParsingStatistics> submit(Path dump, Function<Path, VirtualIndexSystem> indexSystemFactory, DumpParserListener listener) {
+        CompletableFuture<DumpParsingStatistics> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(parse(dump, indexSystemFactory, listener, future));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private DumpParsingStatistics parse(Path dump, Function<Path, VirtualIndexSystem> indexSystemFactory, DumpParserListener listener,
+                                        CompletableFuture<DumpParsingStatistics> future) throws IOException, InterruptedException {
+        if (future.isCancelled()) {
+            return null;
+        }
+        int memoryNeeded = memoryPermitsNeeded(dump);
+
+        concurrencyPermits.acquire();
+        try {
+            // Cancelled while waiting: give the permit back to the other dumps right away
+            if (future.isCancelled()) {
+                return null;
+            }
+            memoryPermits.acquire(memoryNeeded);
+            try {
+                if (future.isCancelled()) {
+                    return null;
+                }
+
+                VirtualIndexSystem virtualIndexSystem = indexSystemFactory.apply(dump);
+                try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+                     DumpParserStream stream = DumpParserStream.create(input, streamBufferSize)) {
+                    future.whenComplete((result, error) -> {
+                        if (future.isCancelled()) {
+                            stream.cancel();
+                        }
+                    });
+                    return stream.readObjects(virtualIndexSystem, listener);
+                }
+            } finally {
+                memoryPermits.release(memoryNeeded);
+            }
+        } finally {
+            concurrencyPermits.release();
+        }
+    }
+
+    /**
+     * The memory estimation is clamped by the whole budget, so a dump larger than the budget is parsed alone.
+     */
+    private int memoryPermitsNeeded(Path dump) {
+        long bytes = streamBufferSize + memoryEstimation.applyAsLong(dump);
+        long permits = (bytes + MEMORY_PERMIT_SIZE - 1) / MEMORY_PERMIT_SIZE;
+        return (int) Math.max(1, Math.min(memoryBudgetPermits, permits));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Waiting for the parses in progress
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long fileSize(Path dump) {
+        try {
+            return Files.size(dump);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ExecutorService createExecutor(int maxConcurrency) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads are not available, the pool size matches the concurrency limit
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package ru.parse.dump;
+
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.util.ByteArrayList;
+import ru.parse.dump.util.IntArrayList;
+import ru.parse.dump.util.LongArrayList;
+import ru.parse.dump.util.PrimitiveSort;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Points of the dump body where the decoding can be resumed.
+ * <p>
+ * Records are delta-encoded: an address is a gap from the previous one, a class is often an index in the cache of
+ * the recently used classes. A checkpoint keeps the file offset of a record together with this state, so the records
+ * from the checkpoint on can be decoded without reading the file from the start. The records between two checkpoints
+ * form a page, the address range of every page is kept for the lookups.
+ * <p>
+ * The range of a page is not disjoint from the others: a class record or a jump back to a lower heap region makes it
+ * span the records of many other pages. So the lookups use the runs instead: a run is the records of a page with
+ * ascending addresses not interrupted by a class record, a class record is a run of its own. The runs are ordered by
+ * the minimal address with the running maximum, a lookup walks back from the last run starting at the address or
+ * below while the running maximum still covers the address.
+ */
+public class DumpCheckpointIndex {
+    public static final int DEFAULT_RECORDS_PER_PAGE = 4096;
+    public static final int NO_PAGE = -1;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int PAGE_BUFFER_SIZE = 64 * 1024;
+
+    private final DumpHeader header;
+    private final long[] offsets;
+    private final long[] lastAddresses;
+    private final long[] cachedClassAddresses;
+    private final byte[] cacheFilled;
+    private final int[] records;
+    private final int[] classes;
+    private final long endOffset;
+    private final long[] minAddresses;
+    private final long[] maxAddresses;
+    /**
+     * Runs ordered by the minimal address: their pages, minimal and maximal addresses, and the maximal address of
+     * the runs up to and including the run.
+     */
+    private final int[] runPages;
+    private final long[] runMinAddresses;
+    private final long[] runMaxAddresses;
+    private final long[] runningMaxAddresses;
+
+    private DumpCheckpointIndex(DumpHeader header, long[] offsets, long[] lastAddresses, long[] cachedClassAddresses,
+                                byte[] cacheFilled, int[] records, int[] classes, long endOffset, long[] minAddresses,
+                                long[] maxAddresses, int[] runPages, long[] runMinAddresses, long[] runMaxAddresses) {
+        this.header = header;
+        this.offsets = offsets;
+        this.lastAddresses = lastAddresses;
+        this.cachedClassAddresses = cachedClassAddresses;
+        this.cacheFilled = cacheFilled;
+        this.records = records;
+        this.classes = classes;
+        this.endOffset = endOffset;
+        this.minAddresses = minAddresses;
+        this.maxAddresses = maxAddresses;
+
+        // Sort the run numbers by the minimal address, then lay the runs out in that order
+        int[] order = new int[runPages.length];
+        for (int run = 0; run < order.length; ++run) {
+            order[run] = run;
+        }
+        long[] sortedMinAddresses = runMinAddresses.clone();
+        PrimitiveSort.sort(sortedMinAddresses, order, 0, order.length);
+        this.runMinAddresses = sortedMinAddresses;
+        this.runPages = new int[order.length];
+        this.runMaxAddresses = new long[order.length];
+        this.runningMaxAddresses = new long[order.length];
+        long runningMax = Long.MIN_VALUE;
+        for (int i = 0; i < order.length; ++i) {
+            this.runPages[i] = runPages[order[i]];
+            this.runMaxAddresses[i] = runMaxAddresses[order[i]];
+            runningMax = Math.max(runningMax, this.runMaxAddresses[i]);
+            this.runningMaxAddresses[i] = runningMax;
+        }
+    }
+
+    /**
+     * Build the index of the dump file.
+     *
+     * @param dump
+     * @param recordsPerPage
+     * @return
+     * @throws IOException
+     */
+    public static DumpCheckpointIndex build(Path dump, int recordsPerPage) throws IOException {
+        try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            return stream.readCheckpoints(recordsPerPage, null);
+        }
+    }
+
+    public DumpHeader getHeader() {
+        return header;
+    }
+
+    public int getPageCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @param page
+     * @return the file offset of the first record of the page
+     */
+    public long getOffset(int page) {
+        return offsets[page];
+    }
+
+    public int getRecords(int page) {
+        return records[page];
+    }
+
+    /**
+     * @param page
+     * @return the number of the class records of the page
+     */
+    public int getClasses(int page) {
+        return classes[page];
+    }
+
+    /**
+     * @return the file offset of the body end tag
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public long getMinAddress(int page) {
+        return minAddresses[page];
+    }
+
+    public long getMaxAddress(int page) {
+        return maxAddresses[page];
+    }
+
+    /**
+     * Find the page having a run whose address range contains the address, the run starting closest to the address
+     * if there are several. The address is not necessarily a record of the page, only the decoding tells it,
+     * see {@link #findPages(long)} for all the candidates.
+     *
+     * @param address
+     * @return the page or {@link #NO_PAGE}
+     */
+    public int findPage(long address) {
+        for (int i = lastRunStartingAtOrBelow(address); i >= 0 && runningMaxAddresses[i] >= address; --i) {
+            if (address <= runMaxAddresses[i]) {
+                return runPages[i];
+            }
+        }
+        return NO_PAGE;
+    }
+
+    /**
+     * Find all the pages having a run whose address range contains the address. The runs of a well-formed dump
+     * overlap only across the jumps between heap regions, so there is usually a single page.
+     *
+     * @param address
+     * @return the pages, the one of the run starting closest to the address first, empty if there are none
+     */
+    public int[] findPages(long address) {
+        int count = 0;
+        int[] pages = new int[1];
+        for (int i = lastRunStartingAtOrBelow(address); i >= 0 && runningMaxAddresses[i] >= address; --i) {
+            if (address <= runMaxAddresses[i] && !contains(pages, count, runPages[i])) {
+                if (count == pages.length) {
+                    pages = Arrays.copyOf(pages, count * 2);
+                }
+                pages[count++] = runPages[i];
+            }
+        }
+        return (count == pages.length ? pages : Arrays.copyOf(pages, count));
+    }
+
+    private int lastRunStartingAtOrBelow(long address) {
+        int position = Arrays.binarySearch(runMinAddresses, address);
+        if (position < 0) {
+            return -position - 2;
+        }
+        // Equal minimums go in any order, take the last one
+        while (position + 1 < runMinAddresses.length && runMinAddresses[position + 1] == address) {
+            ++position;
+        }
+        return position;
+    }
+
+    private static boolean contains(int[] values, int size, int value) {
+        for (int i = 0; i < size; ++i) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of the runs of ascending addresses over all the pages
+     */
+    public int getRunCount() {
+        return runPages.length;
+    }
+
+    /**
+     * Decode the records of the page. The channel is read with positional reads, so it may be shared.
+     *
+     * @param channel            the channel of the dump file
+     * @param page
+     * @param virtualIndexSystem receives the records
+     * @return the number of records decoded
+     * @throws IOException
+     */
+    public int decodePage(FileChannel channel, int page, VirtualIndexSystem virtualIndexSystem) throws IOException {
+        try (DumpParserStream stream = DumpParserStream.create(channel, offsets[page], PAGE_BUFFER_SIZE)) {
+            return stream.readRecords(header, getContext(page), records[page], virtualIndexSystem);
+        }
+    }
+
+    /**
+     * @param page
+     * @return the decoding state before the first record of the page
+     */
+    DumpParserStream.ParsingContext getContext(int page) {
+        DumpParserStream.ParsingContext context = new DumpParserStream.ParsingContext();
+        context.lastAddress = lastAddresses[page];
+        context.cacheFilled = cacheFilled[page];
+        System.arraycopy(cachedClassAddresses, page * DumpParserStream.ParsingContext.MAX_CLASSES_CACHE_SIZE,
+                context.cachedClassAddresses, 0, DumpParserStream.ParsingContext.MAX_CLASSES_CACHE_SIZE);
+        return context;
+    }
+
+    /**
+     * Collector of the checkpoints while the body is scanned.
+     */
+    static class Builder {
+        private final DumpHeader header;
+        private final int recordsPerPage;
+        private final LongArrayList offsets = new LongArrayList();
+        private final LongArrayList lastAddresses = new LongArrayList();
+        private final LongArrayList cachedClassAddresses = new LongArrayList();
+        private final ByteArrayList cacheFilled = new ByteArrayList();
+        private final IntArrayList records = new IntArrayList();
+        private final IntArrayList classes = new IntArrayList();
+        private final LongArrayList minAddresses = new LongArrayList();
+        private final LongArrayList maxAddresses = new LongArrayList();
+        private final IntArrayList runPages = new IntArrayList();
+        private final LongArrayList runMinAddresses = new LongArrayList();
+        private final LongArrayList runMaxAddresses = new LongArrayList();
+        private boolean runOpen = false;
+        private int pageRecords = 0;
+        private long endOffset = -1;
+
+        Builder(DumpHeader header, int recordsPerPage) {
+            if (recordsPerPage <= 0) {
+                throw new IllegalArgumentException("Records per page should be positive");
+            }
+            this.header = header;
+            this.recordsPerPage = recordsPerPage;
+        }
+
+        void beforeRecord(long offset, DumpParserStream.ParsingContext context) {
+            if (records.isEmpty() || pageRecords == recordsPerPage) {
+                if (!records.isEmpty()) {
+                    records.set(records.size() - 1, pageRecords);
+                }
+                offsets.add(offset);
+                lastAddresses.add(context.lastAddress);
+                for (int i = 0; i < DumpParserStream.ParsingContext.MAX_CLASSES_CACHE_SIZE; ++i) {
+                    cachedClassAddresses.add(context.cachedClassAddresses[i]);
+                }
+                cacheFilled.add((byte) context.cacheFilled);
+                records.add(0);
+                classes.add(0);
+                minAddresses.add(Long.MAX_VALUE);
+                maxAddresses.add(Long.MIN_VALUE);
+                runOpen = false;
+                pageRecords = 0;
+            }
+        }
+
+        void afterRecord(long address, boolean aClass) {
+            ++pageRecords;
+            int page = minAddresses.size() - 1;
+            if (aClass) {
+                classes.set(page, classes.get(page) + 1);
+            }
+            minAddresses.set(page, Math.min(minAddresses.get(page), address));
+            maxAddresses.set(page, Math.max(maxAddresses.get(page), address));
+
+            int run = runPages.size() - 1;
+            if (runOpen && !aClass && address > runMaxAddresses.get(run)) {
+                runMaxAddresses.set(run, address);
+            } else {
+                runPages.add(page);
+                runMinAddresses.add(address);
+                runMaxAddresses.add(address);
+                // Classes are far from the objects, a class is a run of its own
+                runOpen = !aClass;
+            }
+        }
+
+        void end(long offset) {
+            endOffset = offset;
+        }
+
+        DumpCheckpointIndex build() {
+            if (!records.isEmpty()) {
+                records.set(records.size() - 1, pageRecords);
+            }
+            return new DumpCheckpointIndex(header, offsets.toArray(), lastAddresses.toArray(), cachedClassAddresses.toArray(),
+                    cacheFilled.toArray(), records.toArray(), classes.toArray(), endOffset, minAddresses.toArray(),
+                    maxAddresses.toArray(), runPages.toArray(), runMinAddresses.toArray(), runMaxAddresses.toArray());
+        }
+    }
+}
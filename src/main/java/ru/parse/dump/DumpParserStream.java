@@ -6,8 +6,14 @@ import ru.parse.dump.objects.*;
 import ru.parse.dump.vind.VirtualIndexSystem;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A stream parsing the PHD file.
@@ -16,12 +22,18 @@ import java.util.Objects;
 public class DumpParserStream implements Closeable {
     private static final int BUFFER_SIZE = 64 * 1024 * 1024;
     private static final int BYTES_CACHE_SIZE = 1024;
+    private static final int REFERENCE_BLOCK_SIZE = 64 * 1024;
+    private static final int WORD_SIZE = 4;
+    private static final int FOLLOWING_BUFFER_SIZE = 1024 * 1024;
 //    private static final Logger LOGGER = LoggerFactory.getLogger(DumpParserStream.class);
 
     private InputStream stream;
+    private final FollowingInputStream follower;
     private byte[] bytesCache = new byte[BYTES_CACHE_SIZE];
 
     private long bytesReadTotal = 0;
+    private long bytesReadReported = 0;
+    private volatile boolean cancelled = false;
 
 //    private static final long READ_TOTAL_LOG_INTERVAL = 100 * 1024 * 1024;
 //    private long logReadTotalAfter = READ_TOTAL_LOG_INTERVAL;
@@ -33,7 +45,48 @@ public class DumpParserStream implements Closeable {
      * @return
      */
     public static DumpParserStream create(InputStream stream) {
-        return new DumpParserStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        return create(stream, BUFFER_SIZE);
+    }
+
+    /**
+     * Create a stream from common {@link InputStream} with the given read buffer size.
+     * Useful when many dumps are parsed at once and the default 64 Mb buffer per stream is too much.
+     *
+     * @param stream
+     * @param bufferSize
+     * @return
+     */
+    public static DumpParserStream create(InputStream stream, int bufferSize) {
+        return new DumpParserStream(new BufferedInputStream(stream, bufferSize), null);
+    }
+
+    /**
+     * Create a stream following the dump file while it is still being written.
+     * When the current end of the file is reached before the body end, the stream waits for the file growth.
+     * The progress is reported to the listener every time the written part of the file is parsed.
+     *
+     * @param file
+     * @param pollIntervalMillis how often the file size is checked when the end is reached
+     * @param idleTimeoutMillis  how long to wait for the file growth before failing
+     * @return
+     * @throws IOException
+     */
+    public static DumpParserStream createFollowing(Path file, long pollIntervalMillis, long idleTimeoutMillis) throws IOException {
+        FollowingInputStream follower = new FollowingInputStream(file, pollIntervalMillis, idleTimeoutMillis);
+        return new DumpParserStream(new BufferedInputStream(follower, FOLLOWING_BUFFER_SIZE), follower);
+    }
+
+    /**
+     * Create a stream reading the channel from the position.
+     * The channel is read with positional reads only, so many streams may share it. Closing the stream doesn't close the channel.
+     *
+     * @param channel
+     * @param position
+     * @param bufferSize
+     * @return
+     */
+    public static DumpParserStream create(FileChannel channel, long position, int bufferSize) {
+        return new DumpParserStream(new BufferedInputStream(new ChannelInputStream(channel, position), bufferSize), null);
     }
 
     /**
@@ -43,7 +96,7 @@ public class DumpParserStream implements Closeable {
      * @return
      */
     public static DumpParserStream create(byte[] bytes) {
-        return new DumpParserStream(new ByteArrayInputStream(bytes));
+        return new DumpParserStream(new ByteArrayInputStream(bytes), null);
     }
 
     /**
@@ -64,6 +117,182 @@ public class DumpParserStream implements Closeable {
         return readBody(header, virtualIndexSystem, listener);
     }
 
+    /**
+     * Quickly scan the PHD stream for the classes only.
+     * Other records are skipped using their length fields, their references are not read.
+     * The class table filled this way lets the consumers of the following full pass resolve the instance sizes and
+     * the class names of the records inline, no matter where the class records are placed in the body.
+     *
+     * @param virtualIndexSystem receives the classes only
+     * @param listener
+     * @return the statistics of all records, both read and skipped
+     * @throws IOException
+     */
+    public DumpParsingStatistics readClasses(VirtualIndexSystem virtualIndexSystem, DumpParserListener listener) throws IOException {
+        DumpHeader header = readHeader();
+        if (listener != null) {
+            listener.onHeaderReceive(bytesReadTotal, header);
+        }
+
+        return scanClasses(header, virtualIndexSystem, listener);
+    }
+
+    /**
+     * Scan the PHD stream recording a checkpoint every given number of records.
+     * Records are skipped like in {@link #readClasses}, the decoding can be resumed later at any checkpoint.
+     *
+     * @param recordsPerPage
+     * @param listener
+     * @return
+     * @throws IOException
+     */
+    public DumpCheckpointIndex readCheckpoints(int recordsPerPage, DumpParserListener listener) throws IOException {
+        return readCheckpoints(recordsPerPage, null, listener);
+    }
+
+    /**
+     * Scan the PHD stream for the checkpoints of every page of the records, saving the classes met.
+     *
+     * @param recordsPerPage
+     * @param virtualIndexSystem receives the classes in the file order, may be null
+     * @param listener
+     * @return
+     * @throws IOException
+     */
+    public DumpCheckpointIndex readCheckpoints(int recordsPerPage, VirtualIndexSystem virtualIndexSystem, DumpParserListener listener) throws IOException {
+        DumpHeader header = readHeader();
+        if (listener != null) {
+            listener.onHeaderReceive(bytesReadTotal, header);
+        }
+
+        int startTag = readUnsignedByte();
+        if (startTag != 2) {
+            throw new IllegalStateException("Body has an invalid format");
+        }
+
+        final long readTotalLogInterval = 100 * 1024 * 1024;
+        long logReadTotalAfter = readTotalLogInterval;
+
+        DumpCheckpointIndex.Builder builder = new DumpCheckpointIndex.Builder(header, recordsPerPage);
+        ParsingContext context = new ParsingContext();
+        while (true) {
+            if (cancelled) {
+                throw new CancellationException(String.format("Parsing is cancelled. %d bytes read", bytesReadTotal));
+            }
+
+            long offset = bytesReadTotal;
+            int recordTag = readUnsignedByte();
+            if (recordTag == 3) {
+                builder.end(offset);
+                break;
+            }
+            builder.beforeRecord(offset, context);
+            if (recordTag == 6) {
+                DumpClass aClass = readClass(header, context);
+                if (virtualIndexSystem != null) {
+                    virtualIndexSystem.save(aClass);
+                }
+                ++context.totalClassesParsed;
+            } else {
+                skipRecord(header, recordTag, context);
+            }
+            builder.afterRecord(context.lastAddress, recordTag == 6);
+
+            if (bytesReadTotal > logReadTotalAfter) {
+                logReadTotalAfter += readTotalLogInterval;
+                reportProgress(listener, header, context);
+            }
+        }
+
+        if (listener != null) {
+            listener.onDataPortionReceive(bytesReadTotal, context.statistics(header));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decode the records starting at a checkpoint. The stream should be positioned at the checkpoint offset.
+     *
+     * @param header
+     * @param context            the context restored from the checkpoint
+     * @param records            the maximum number of records
+     * @param virtualIndexSystem
+     * @return the number of records decoded, less than requested if the body end is met
+     * @throws IOException
+     */
+    int readRecords(DumpHeader header, ParsingContext context, int records, VirtualIndexSystem virtualIndexSystem) throws IOException {
+        for (int record = 0; record < records; ++record) {
+            if (!readRecord(header, readUnsignedByte(), context, virtualIndexSystem)) {
+                return record;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Read the header and the body start, so the stream is positioned at the first record.
+     *
+     * @return
+     * @throws IOException
+     */
+    public DumpHeader readBodyStart() throws IOException {
+        DumpHeader header = readHeader();
+        if (readUnsignedByte() != 2) {
+            throw new IllegalStateException("Body has an invalid format");
+        }
+        return header;
+    }
+
+    /**
+     * @return the number of bytes consumed from the underlying stream
+     */
+    public long getBytesRead() {
+        return bytesReadTotal;
+    }
+
+    /**
+     * Parse the PHD stream in the executor.
+     * Cancelling the returned future stops the parsing cooperatively: the body loop checks the flag before every record
+     * and fails with {@link CancellationException}. The stream is not closed, it's still owned by the caller.
+     *
+     * @param virtualIndexSystem
+     * @param listener
+     * @param executor
+     * @return
+     */
+    public CompletableFuture<DumpParsingStatistics> readObjectsAsync(VirtualIndexSystem virtualIndexSystem, DumpParserListener listener, Executor executor) {
+        CompletableFuture<DumpParsingStatistics> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                cancel();
+            }
+        });
+
+        executor.execute(() -> {
+            try {
+                future.complete(readObjects(virtualIndexSystem, listener));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Request the cooperative cancellation of the parsing. May be called from any thread.
+     * A following stream also stops waiting for the file growth.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (follower != null) {
+            follower.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     @Override
     public void close() throws IOException {
         if (stream != null) {
@@ -78,6 +307,10 @@ public class DumpParserStream implements Closeable {
      * @throws IOException
      */
     DumpHeader readHeader() throws IOException {
+        if (cancelled) {
+            throw new CancellationException("Parsing is cancelled");
+        }
+
         long bytesReadBefore = bytesReadTotal;
 
         String title = readString();
@@ -87,9 +320,9 @@ public class DumpParserStream implements Closeable {
 
         long version = readUnsignedInt();
         long flags = readUnsignedInt();
-        DumpPlatform platform = ((flags & 1) != 0 ? DumpPlatform._64_BIT : DumpPlatform._32_BIT);
-        boolean hashed = ((flags & 2) != 0);
-        boolean j9VM = ((flags & 4) != 0);
+        DumpPlatform platform = ((flags & DumpHeader.FLAG_64_BIT) != 0 ? DumpPlatform._64_BIT : DumpPlatform._32_BIT);
+        boolean hashed = ((flags & DumpHeader.FLAG_HASHED) != 0);
+        boolean j9VM = ((flags & DumpHeader.FLAG_J9_VM) != 0);
 
         int tag = readUnsignedByte();
         if (tag != 1) {
@@ -118,7 +351,7 @@ public class DumpParserStream implements Closeable {
 
 //        LOGGER.info("Total bytes read in header {}", bytesReadTotal - bytesReadBefore);
 
-        return new DumpHeader(version, platform, hashed, j9VM, jvmVersion);
+        return new DumpHeader(version, platform, hashed, j9VM, jvmVersion, flags);
     }
 
     /**
@@ -138,65 +371,135 @@ public class DumpParserStream implements Closeable {
         final long readTotalLogInterval = 100 * 1024 * 1024;
         long logReadTotalAfter = readTotalLogInterval;
 
-        long totalClassesParsed = 0;
-        long totalObjectsParsed = 0;
-        long totalObjectArraysParsed = 0;
-        long totalPrimitiveArraysParsed = 0;
+        ParsingContext context = new ParsingContext();
+
+        if (follower != null) {
+            // The written part of the file is parsed, report it before waiting for the rest
+            follower.setWaitListener(() -> reportProgress(listener, header, context));
+        }
+
+        while (true) {
+            if (cancelled) {
+                throw new CancellationException(String.format("Parsing is cancelled. %d bytes read", bytesReadTotal));
+            }
+
+            int recordTag = readUnsignedByte();
+            if (!readRecord(header, recordTag, context, virtualIndexSystem)) {
+//                LOGGER.info("Exited the body. {} bytes read", bytesReadTotal);
+                break;
+            }
+
+            if (bytesReadTotal > logReadTotalAfter) {
+                logReadTotalAfter += readTotalLogInterval;
+                reportProgress(listener, header, context);
+            }
+        }
+
+        if (follower != null) {
+            follower.setWaitListener(null);
+        }
+
+        DumpParsingStatistics result = context.statistics(header);
+        if (listener != null) {
+            listener.onDataPortionReceive(bytesReadTotal, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Read the record and save it to the index system.
+     *
+     * @param header
+     * @param recordTag
+     * @param context
+     * @param virtualIndexSystem
+     * @return false if the tag is the body end
+     * @throws IOException
+     */
+    boolean readRecord(DumpHeader header, int recordTag, ParsingContext context, VirtualIndexSystem virtualIndexSystem) throws IOException {
+        if ((recordTag & 0x80) != 0) {
+            DumpObject object = readShortObject(header, recordTag, context);
+            virtualIndexSystem.save(object.getAddress(), object);
+            ++context.totalObjectsParsed;
+        } else if ((recordTag & 0x40) != 0) {
+            DumpObject object = readMediumObject(header, recordTag, context);
+            virtualIndexSystem.save(object.getAddress(), object);
+            ++context.totalObjectsParsed;
+        } else if ((recordTag & 0x20) != 0) {
+            DumpPrimitiveArray primitiveArray = readPrimitiveArray(header, recordTag, context);
+            virtualIndexSystem.save(primitiveArray.getAddress(), primitiveArray);
+            ++context.totalPrimitiveArraysParsed;
+        } else if (recordTag == 4) {
+            DumpObject object = readLongObject(header, context);
+            virtualIndexSystem.save(object.getAddress(), object);
+            ++context.totalObjectsParsed;
+        } else if (recordTag == 5) {
+            DumpObjectArray objectArray = readObjectArray(header, context);
+            virtualIndexSystem.save(objectArray.getAddress(), objectArray);
+            ++context.totalObjectArraysParsed;
+        } else if (recordTag == 6) {
+            DumpClass aClass = readClass(header, context);
+            virtualIndexSystem.save(aClass);
+            ++context.totalClassesParsed;
+        } else if (recordTag == 7) {
+            DumpPrimitiveArray primitiveArray = readLongPrimitiveArray(header, context);
+            virtualIndexSystem.save(primitiveArray.getAddress(), primitiveArray);
+            ++context.totalPrimitiveArraysParsed;
+        } else if (recordTag == 8) {
+            DumpObjectArray objectArray = readObjectArrayV5(header, context);
+            virtualIndexSystem.save(objectArray.getAddress(), objectArray);
+            ++context.totalObjectArraysParsed;
+        } else if (recordTag == 3) {
+            return false;
+        } else {
+            throw new IllegalStateException(String.format("Body has an invalid format. %d bytes read", bytesReadTotal));
+        }
+        return true;
+    }
+
+    /**
+     * Read the body classes, skipping other records.
+     *
+     * @param header
+     * @param virtualIndexSystem
+     * @param listener
+     * @throws IOException
+     */
+    DumpParsingStatistics scanClasses(DumpHeader header, VirtualIndexSystem virtualIndexSystem, DumpParserListener listener) throws IOException {
+        int startTag = readUnsignedByte();
+        if (startTag != 2) {
+            throw new IllegalStateException("Body has an invalid format");
+        }
+
+        final long readTotalLogInterval = 100 * 1024 * 1024;
+        long logReadTotalAfter = readTotalLogInterval;
 
         ParsingContext context = new ParsingContext();
 
         while (true) {
+            if (cancelled) {
+                throw new CancellationException(String.format("Parsing is cancelled. %d bytes read", bytesReadTotal));
+            }
+
             int recordTag = readUnsignedByte();
-            if ((recordTag & 0x80) != 0) {
-                DumpObject object = readShortObject(header, recordTag, context);
-                virtualIndexSystem.save(object.getAddress(), object);
-                ++totalObjectsParsed;
-            } else if ((recordTag & 0x40) != 0) {
-                DumpObject object = readMediumObject(header, recordTag, context);
-                virtualIndexSystem.save(object.getAddress(), object);
-                ++totalObjectsParsed;
-            } else if ((recordTag & 0x20) != 0) {
-                DumpPrimitiveArray primitiveArray = readPrimitiveArray(header, recordTag, context);
-                virtualIndexSystem.save(primitiveArray.getAddress(), primitiveArray);
-                ++totalPrimitiveArraysParsed;
-            } else if (recordTag == 4) {
-                DumpObject object = readLongObject(header, context);
-                virtualIndexSystem.save(object.getAddress(), object);
-                ++totalObjectsParsed;
-            } else if (recordTag == 5) {
-                DumpObjectArray objectArray = readObjectArray(header, context);
-                virtualIndexSystem.save(objectArray.getAddress(), objectArray);
-                ++totalObjectArraysParsed;
-            } else if (recordTag == 6) {
+            if (recordTag == 6) {
                 DumpClass aClass = readClass(header, context);
                 virtualIndexSystem.save(aClass);
-                ++totalClassesParsed;
-            } else if (recordTag == 7) {
-                DumpPrimitiveArray primitiveArray = readLongPrimitiveArray(header, context);
-                virtualIndexSystem.save(primitiveArray.getAddress(), primitiveArray);
-                ++totalPrimitiveArraysParsed;
-            } else if (recordTag == 8) {
-                DumpObjectArray objectArray = readObjectArrayV5(header, context);
-                virtualIndexSystem.save(objectArray.getAddress(), objectArray);
-                ++totalObjectArraysParsed;
+                ++context.totalClassesParsed;
             } else if (recordTag == 3) {
-//                LOGGER.info("Exited the body. {} bytes read", bytesReadTotal);
                 break;
             } else {
-                throw new IllegalStateException(String.format("Body has an invalid format. %d bytes read", bytesReadTotal));
+                skipRecord(header, recordTag, context);
             }
 
             if (bytesReadTotal > logReadTotalAfter) {
                 logReadTotalAfter += readTotalLogInterval;
-
-                if (listener != null) {
-                    listener.onDataPortionReceive(bytesReadTotal, new DumpParsingStatistics(header, totalClassesParsed,
-                            totalObjectsParsed, totalObjectArraysParsed, totalPrimitiveArraysParsed));
-                }
+                reportProgress(listener, header, context);
             }
         }
 
-        DumpParsingStatistics result = new DumpParsingStatistics(header, totalClassesParsed, totalObjectsParsed, totalObjectArraysParsed, totalPrimitiveArraysParsed);
+        DumpParsingStatistics result = context.statistics(header);
         if (listener != null) {
             listener.onDataPortionReceive(bytesReadTotal, result);
         }
@@ -204,6 +507,45 @@ public class DumpParserStream implements Closeable {
         return result;
     }
 
+    /**
+     * Skip the record, which is not a class, keeping the context up to date.
+     *
+     * @param header
+     * @param recordTag
+     * @param context
+     * @throws IOException
+     */
+    void skipRecord(DumpHeader header, int recordTag, ParsingContext context) throws IOException {
+        if ((recordTag & 0x80) != 0) {
+            skipShortObject(header, recordTag, context);
+            ++context.totalObjectsParsed;
+        } else if ((recordTag & 0x40) != 0) {
+            skipMediumObject(header, recordTag, context);
+            ++context.totalObjectsParsed;
+        } else if ((recordTag & 0x20) != 0) {
+            skipPrimitiveArray(header, recordTag, context);
+            ++context.totalPrimitiveArraysParsed;
+        } else if (recordTag == 4) {
+            skipLongObject(header, context);
+            ++context.totalObjectsParsed;
+        } else if (recordTag == 5 || recordTag == 8) {
+            skipObjectArray(header, recordTag == 8, context);
+            ++context.totalObjectArraysParsed;
+        } else if (recordTag == 7) {
+            skipLongPrimitiveArray(header, context);
+            ++context.totalPrimitiveArraysParsed;
+        } else {
+            throw new IllegalStateException(String.format("Body has an invalid format. %d bytes read", bytesReadTotal));
+        }
+    }
+
+    private void reportProgress(DumpParserListener listener, DumpHeader header, ParsingContext context) {
+        if (listener != null && bytesReadTotal != bytesReadReported) {
+            bytesReadReported = bytesReadTotal;
+            listener.onDataPortionReceive(bytesReadTotal, context.statistics(header));
+        }
+    }
+
     int readUnsignedByte() throws IOException {
         readBytes(1);
         return 0xff & bytesCache[0];
@@ -337,11 +679,31 @@ public class DumpParserStream implements Closeable {
         readBytes(0, bytesCount);
     }
 
+    private void skipBytes(long bytesCount) throws IOException {
+        long skipped = 0;
+        while (skipped < bytesCount) {
+            long portion = stream.skip(bytesCount - skipped);
+            if (portion <= 0) {
+                // Skip doesn't distinguish the end of stream, read to check it
+                if (stream.read() < 0) {
+                    throw new IOException(String.format("Cannot skip %d bytes. Skipped only %d", bytesCount, skipped));
+                }
+                portion = 1;
+            }
+            skipped += portion;
+        }
+        bytesReadTotal += bytesCount;
+    }
+
     private void readBytes(int cacheOffset, int bytesCount) throws IOException {
         ensureBytesCacheSize(bytesCount);
-        int read = stream.read(bytesCache, cacheOffset, bytesCount);
-        if (read < bytesCount) {
-            throw new IOException(String.format("Cannot read %d bytes. Read only %d", bytesCount, read));
+        int read = 0;
+        while (read < bytesCount) {
+            int portion = stream.read(bytesCache, cacheOffset + read, bytesCount - read);
+            if (portion < 0) {
+                throw new IOException(String.format("Cannot read %d bytes. Read only %d", bytesCount, read));
+            }
+            read += portion;
         }
 
         updateReadBytesCount(read);
@@ -362,8 +724,9 @@ public class DumpParserStream implements Closeable {
         }
     }
 
-    private DumpParserStream(InputStream stream) {
+    private DumpParserStream(InputStream stream, FollowingInputStream follower) {
         this.stream = stream;
+        this.follower = follower;
     }
 
     DumpPrimitiveArray readPrimitiveArray(DumpHeader header, int firstByte, ParsingContext context) throws IOException {
@@ -486,25 +849,7 @@ public class DumpParserStream implements Closeable {
         context.lastAddress = address;
 
         long numberOfReferences = readUnsignedInt();
-        long[] references = new long[(int) numberOfReferences];
-        for (int i = 0; i < numberOfReferences; ++i) {
-            long refAddressGap = 0;
-            switch (Objects.requireNonNull(refSizeMeasurement)) {
-                case BYTE:
-                    refAddressGap = readSignedByte();
-                    break;
-                case SHORT:
-                    refAddressGap = readSignedShort();
-                    break;
-                case INT:
-                    refAddressGap = readSignedInt();
-                    break;
-                case LONG:
-                    refAddressGap = readSignedLong();
-                    break;
-            }
-            references[i] = address + refAddressGap * wordSize;
-        }
+        long[] references = readReferences(address, (int) numberOfReferences, refSizeMeasurement);
 
         long sizeInWords = (readUnsignedInt() & 0xffffffffL);
         long sizeInBytes = sizeInWords * wordSize;
@@ -552,25 +897,7 @@ public class DumpParserStream implements Closeable {
         context.lastAddress = address;
 
         long numberOfReferences = readUnsignedInt();
-        long[] references = new long[(int) numberOfReferences];
-        for (int i = 0; i < numberOfReferences; ++i) {
-            long refAddressGap = 0;
-            switch (Objects.requireNonNull(refSizeMeasurement)) {
-                case BYTE:
-                    refAddressGap = readSignedByte();
-                    break;
-                case SHORT:
-                    refAddressGap = readSignedShort();
-                    break;
-                case INT:
-                    refAddressGap = readSignedInt();
-                    break;
-                case LONG:
-                    refAddressGap = readSignedLong();
-                    break;
-            }
-            references[i] = address + refAddressGap * wordSize;
-        }
+        long[] references = readReferences(address, (int) numberOfReferences, refSizeMeasurement);
 
         long sizeInWords = (readUnsignedInt() & 0xffffffffL);
         long sizeInBytes = sizeInWords * wordSize;
@@ -722,25 +1049,7 @@ public class DumpParserStream implements Closeable {
         context.lastAddress = address;
 
         long numberOfReferences = readUnsignedInt();
-        long[] references = new long[(int) numberOfReferences];
-        for (int i = 0; i < numberOfReferences; ++i) {
-            long refAddressGap = 0;
-            switch (Objects.requireNonNull(refSizeMeasurement)) {
-                case BYTE:
-                    refAddressGap = readSignedByte();
-                    break;
-                case SHORT:
-                    refAddressGap = readSignedShort();
-                    break;
-                case INT:
-                    refAddressGap = readSignedInt();
-                    break;
-                case LONG:
-                    refAddressGap = readSignedLong();
-                    break;
-            }
-            references[i] = address + refAddressGap * wordSize;
-        }
+        long[] references = readReferences(address, (int) numberOfReferences, refSizeMeasurement);
 
         return new DumpObject(address, classAddress, hash, references);
     }
@@ -788,29 +1097,226 @@ public class DumpParserStream implements Closeable {
         context.lastAddress = address;
 
         long numberOfReferences = readUnsignedInt();
-        long[] references = new long[(int) numberOfReferences];
-        for (int i = 0; i < numberOfReferences; ++i) {
-            long refAddressGap = 0;
-            switch (Objects.requireNonNull(refSizeMeasurement)) {
-                case BYTE:
-                    refAddressGap = readSignedByte();
-                    break;
-                case SHORT:
-                    refAddressGap = readSignedShort();
-                    break;
-                case INT:
-                    refAddressGap = readSignedInt();
-                    break;
-                case LONG:
-                    refAddressGap = readSignedLong();
-                    break;
-            }
-            references[i] = address + refAddressGap * wordSize;
-        }
+        long[] references = readReferences(address, (int) numberOfReferences, refSizeMeasurement);
 
         return new DumpClass(address, superClassAddress, instanceSize, className, hash, references);
     }
 
+    void skipShortObject(DumpHeader header, int firstByte, ParsingContext context) throws IOException {
+        int flag = firstByte & 0x7f;
+        int numberOfReferences = (flag >> 3) & 0x3;
+        ObjectGapSize gapSize = gapSize((flag >> 2) & 0x1);
+        Measurement referenceSize = measurement(flag & 0x3);
+
+        int addressGap = (gapSize == ObjectGapSize.BYTE ? readSignedByte() : readSignedShort());
+        skipBytes((header.isHashed() ? 2 : 0) + (long) numberOfReferences * measurementBytes(referenceSize));
+        moveAddress(context, addressGap);
+    }
+
+    void skipMediumObject(DumpHeader header, int firstByte, ParsingContext context) throws IOException {
+        int flag = firstByte & 0x3f;
+        int numberOfReferences = (flag >> 3) & 0x7;
+        ObjectGapSize gapSize = gapSize((flag >> 2) & 0x1);
+        Measurement referenceSize = measurement(flag & 0x3);
+
+        int addressGap = (gapSize == ObjectGapSize.BYTE ? readSignedByte() : readSignedShort());
+        context.putToCache(readUnsignedWord(header.getPlatform()));
+        skipBytes((header.isHashed() ? 2 : 0) + (long) numberOfReferences * measurementBytes(referenceSize));
+        moveAddress(context, addressGap);
+    }
+
+    void skipLongObject(DumpHeader header, ParsingContext context) throws IOException {
+        int flag = readUnsignedByte();
+        Measurement gapMeasurement = measurement((flag >> 6) & 0x3);
+        Measurement refSizeMeasurement = measurement((flag >> 4) & 0x3);
+        boolean hashedAndMoved = ((flag >> 1) & 0x1) == 1;
+
+        long addressGap = readSigned(gapMeasurement);
+        context.putToCache(readUnsignedWord(header.getPlatform()));
+        skipBytes(header.isHashed() ? 2 : (hashedAndMoved ? 4 : 0));
+        moveAddress(context, addressGap);
+
+        long numberOfReferences = readUnsignedInt();
+        skipBytes(numberOfReferences * measurementBytes(refSizeMeasurement));
+    }
+
+    void skipObjectArray(DumpHeader header, boolean v5, ParsingContext context) throws IOException {
+        int flag = readUnsignedByte();
+        Measurement gapMeasurement = measurement((flag >> 6) & 0x3);
+        Measurement refSizeMeasurement = measurement((flag >> 4) & 0x3);
+        boolean hashedAndMoved = ((flag >> 1) & 0x1) == 1;
+
+        long addressGap = readSigned(gapMeasurement);
+        skipBytes(header.getPlatform().getBytes() + (header.isHashed() ? 2 : (hashedAndMoved ? 4 : 0)));
+        moveAddress(context, addressGap);
+
+        long numberOfReferences = readUnsignedInt();
+        // References, size and the actual length of version 5 arrays
+        skipBytes(numberOfReferences * measurementBytes(refSizeMeasurement) + 4 + (v5 ? 4 : 0));
+    }
+
+    void skipPrimitiveArray(DumpHeader header, int firstByte, ParsingContext context) throws IOException {
+        int flag = firstByte & 0x1f;
+        Measurement measurement = measurement(flag & 0x3);
+
+        long addressGap = readSigned(measurement);
+        // Length, hash and size
+        skipBytes(measurementBytes(measurement) + (header.isHashed() ? 2 : 0) + 4);
+        moveAddress(context, addressGap);
+    }
+
+    void skipLongPrimitiveArray(DumpHeader header, ParsingContext context) throws IOException {
+        int flag = readUnsignedByte();
+        int measurement = (flag >> 4) & 0x1;
+        boolean hashedAndMoved = ((flag >> 1) & 0x1) == 1;
+
+        long addressGap;
+        int lengthBytes;
+        if (measurement == 0) {
+            addressGap = readSignedByte();
+            lengthBytes = 1;
+        } else {
+            addressGap = readSignedWord(header.getPlatform());
+            lengthBytes = header.getPlatform().getBytes();
+        }
+        // Length, hash and size
+        skipBytes(lengthBytes + (header.isHashed() ? 2 : (hashedAndMoved ? 4 : 0)) + 4);
+        moveAddress(context, addressGap);
+    }
+
+    private void moveAddress(ParsingContext context, long addressGap) {
+        final int wordSize = 4;
+        long address = context.lastAddress + addressGap * wordSize;
+        if (address < 0) {
+            throw new IllegalStateException(String.format("Got address %d. Base address %d, address gap %d. Bytes read %d", address, context.lastAddress, addressGap, bytesReadTotal));
+        }
+        context.lastAddress = address;
+    }
+
+    private long readSigned(Measurement measurement) throws IOException {
+        switch (Objects.requireNonNull(measurement)) {
+            case BYTE:
+                return readSignedByte();
+            case SHORT:
+                return readSignedShort();
+            case INT:
+                return readSignedInt();
+            case LONG:
+                return readSignedLong();
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Read the references of a record. They have the same width, so they are read in blocks and every block is
+     * decoded in a single loop instead of a read call per reference.
+     *
+     * @param address     the record address the gaps are counted from
+     * @param count
+     * @param measurement the width of the gaps
+     * @return
+     * @throws IOException
+     */
+    private long[] readReferences(long address, int count, Measurement measurement) throws IOException {
+        long[] references = new long[count];
+        int width = measurementBytes(measurement);
+        int referencesPerBlock = REFERENCE_BLOCK_SIZE / width;
+        for (int from = 0; from < count; from += referencesPerBlock) {
+            int portion = Math.min(referencesPerBlock, count - from);
+            readBytes(portion * width);
+            decodeReferences(bytesCache, portion, width, address, references, from);
+        }
+        return references;
+    }
+
+    /**
+     * Convert the big-endian signed gaps in words to the addresses.
+     * The loops are unrolled by four, so the JIT compiler keeps the independent conversions in flight together.
+     *
+     * @param block      the gaps
+     * @param count      the number of the gaps
+     * @param width      the bytes of a gap
+     * @param address    the base address
+     * @param references receives the addresses
+     * @param offset     the position of the first address in the references
+     */
+    static void decodeReferences(byte[] block, int count, int width, long address, long[] references, int offset) {
+        int i = 0;
+        switch (width) {
+            case 1:
+                for (; i + 4 <= count; i += 4) {
+                    references[offset + i] = address + block[i] * (long) WORD_SIZE;
+                    references[offset + i + 1] = address + block[i + 1] * (long) WORD_SIZE;
+                    references[offset + i + 2] = address + block[i + 2] * (long) WORD_SIZE;
+                    references[offset + i + 3] = address + block[i + 3] * (long) WORD_SIZE;
+                }
+                for (; i < count; ++i) {
+                    references[offset + i] = address + block[i] * (long) WORD_SIZE;
+                }
+                break;
+            case 2:
+                for (; i + 4 <= count; i += 4) {
+                    int position = i * 2;
+                    references[offset + i] = address + shortAt(block, position) * (long) WORD_SIZE;
+                    references[offset + i + 1] = address + shortAt(block, position + 2) * (long) WORD_SIZE;
+                    references[offset + i + 2] = address + shortAt(block, position + 4) * (long) WORD_SIZE;
+                    references[offset + i + 3] = address + shortAt(block, position + 6) * (long) WORD_SIZE;
+                }
+                for (; i < count; ++i) {
+                    references[offset + i] = address + shortAt(block, i * 2) * (long) WORD_SIZE;
+                }
+                break;
+            case 4:
+                for (; i + 4 <= count; i += 4) {
+                    int position = i * 4;
+                    references[offset + i] = address + intAt(block, position) * (long) WORD_SIZE;
+                    references[offset + i + 1] = address + intAt(block, position + 4) * (long) WORD_SIZE;
+                    references[offset + i + 2] = address + intAt(block, position + 8) * (long) WORD_SIZE;
+                    references[offset + i + 3] = address + intAt(block, position + 12) * (long) WORD_SIZE;
+                }
+                for (; i < count; ++i) {
+                    references[offset + i] = address + intAt(block, i * 4) * (long) WORD_SIZE;
+                }
+                break;
+            case 8:
+                for (; i < count; ++i) {
+                    int position = i * 8;
+                    long gap = (long) intAt(block, position) << 32 | (0xffffffffL & intAt(block, position + 4));
+                    references[offset + i] = address + gap * WORD_SIZE;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported reference width %d", width));
+        }
+    }
+
+    private static int shortAt(byte[] block, int position) {
+        return (short) (block[position] << 8 | (0xff & block[position + 1]));
+    }
+
+    private static int intAt(byte[] block, int position) {
+        return block[position] << 24 |
+                (0xff & block[position + 1]) << 16 |
+                (0xff & block[position + 2]) << 8 |
+                (0xff & block[position + 3]);
+    }
+
+    private static int measurementBytes(Measurement measurement) {
+        switch (Objects.requireNonNull(measurement)) {
+            case BYTE:
+                return 1;
+            case SHORT:
+                return 2;
+            case INT:
+                return 4;
+            case LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
     private ObjectGapSize gapSize(int value) {
         return (value == 0 ? ObjectGapSize.BYTE : ObjectGapSize.SHORT);
     }
@@ -853,29 +1359,79 @@ public class DumpParserStream implements Closeable {
         }
     }
 
-    static class ParsingContext {
+    /**
+     * Input stream over a channel using positional reads.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+
+        ChannelInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0 ? -1 : single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, length), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = Math.max(0, Math.min(count, channel.size() - position));
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Decoding state carried from record to record. Public for the decoders outside this package sharing the class cache.
+     */
+    public static class ParsingContext {
         static final int MAX_CLASSES_CACHE_SIZE = 4;
         long lastAddress = 0;
         long[] cachedClassAddresses = new long[MAX_CLASSES_CACHE_SIZE];
         int cacheFilled = 0;
 
-        void putToCache(long address) {
-            long[] temp = new long[MAX_CLASSES_CACHE_SIZE];
-            System.arraycopy(cachedClassAddresses, 0, temp, 0, cacheFilled);
+        long totalClassesParsed = 0;
+        long totalObjectsParsed = 0;
+        long totalObjectArraysParsed = 0;
+        long totalPrimitiveArraysParsed = 0;
 
-            int copiedAddresses = 0;
+        DumpParsingStatistics statistics(DumpHeader header) {
+            return new DumpParsingStatistics(header, totalClassesParsed, totalObjectsParsed, totalObjectArraysParsed, totalPrimitiveArraysParsed);
+        }
 
-            cachedClassAddresses[copiedAddresses++] = address;
-            for (int i = 0; i < cacheFilled && copiedAddresses < MAX_CLASSES_CACHE_SIZE; ++i) {
-                if (temp[i] != address) {
-                    cachedClassAddresses[copiedAddresses++] = temp[i];
+        /**
+         * Move the address to the front of the most recently used list, dropping the least recent one if the cache is full.
+         */
+        public void putToCache(long address) {
+            int position = 0;
+            while (position < cacheFilled && cachedClassAddresses[position] != address) {
+                ++position;
+            }
+            if (position == cacheFilled) {
+                if (cacheFilled < MAX_CLASSES_CACHE_SIZE) {
+                    ++cacheFilled;
                 }
+                position = cacheFilled - 1;
             }
 
-            cacheFilled = copiedAddresses;
+            System.arraycopy(cachedClassAddresses, 0, cachedClassAddresses, 1, position);
+            cachedClassAddresses[0] = address;
         }
 
-        long getFromCache(int position) {
+        public long getFromCache(int position) {
             if (position >= cacheFilled) {
                 throw new IndexOutOfBoundsException(String.format("Cache size is %d, but requested %d", cacheFilled, position));
             }
@@ -0,0 +1,291 @@
+package ru.parse.dump;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splitter of the dump into the shard files parsed independently, e.g. on different machines.
+ * <p>
+ * The dump is cut at the checkpoint page boundaries into the shards of about the same size. Every shard file is
+ * a complete dump: the header, the classes of the other shards, then the records of the shard. The first records of
+ * a shard are decoded and re-encoded until the decoding state of the shard file (the last address and the cache of
+ * the recently used classes) becomes the same as in the source, the rest of the shard is copied with
+ * {@link FileChannel#transferTo} without decoding.
+ */
+public class DumpSplitter {
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int PAGE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path dump;
+    private final int recordsPerPage;
+
+    public DumpSplitter(Path dump) {
+        this(dump, DumpCheckpointIndex.DEFAULT_RECORDS_PER_PAGE);
+    }
+
+    /**
+     * @param dump
+     * @param recordsPerPage the granularity of the shard boundaries
+     */
+    public DumpSplitter(Path dump, int recordsPerPage) {
+        this.dump = dump;
+        this.recordsPerPage = recordsPerPage;
+    }
+
+    /**
+     * Split the dump. The shard files are named after the dump with the shard number added before the extension.
+     *
+     * @param shards    the maximum number of shards, less shards are written if the dump has less pages
+     * @param directory
+     * @return the shards written
+     * @throws IOException
+     */
+    public List<Shard> split(int shards, Path directory) throws IOException {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Number of shards should be positive");
+        }
+
+        List<DumpClass> classes = new ArrayList<>();
+        DumpCheckpointIndex index;
+        try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            index = stream.readCheckpoints(recordsPerPage, classCollector(classes), null);
+        }
+
+        int[] boundaries = boundaries(index, shards);
+        List<Shard> result = new ArrayList<>();
+        try (FileChannel source = FileChannel.open(dump, StandardOpenOption.READ)) {
+            int firstClass = 0;
+            for (int shard = 0; shard + 1 < boundaries.length; ++shard) {
+                int shardClasses = 0;
+                for (int page = boundaries[shard]; page < boundaries[shard + 1]; ++page) {
+                    shardClasses += index.getClasses(page);
+                }
+                Path target = directory.resolve(shardName(dump.getFileName().toString(), shard));
+                result.add(writeShard(index, source, boundaries[shard], boundaries[shard + 1], classes, firstClass,
+                        firstClass + shardClasses, target));
+                firstClass += shardClasses;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Choose the first page of every shard, so the shards have about the same number of bytes.
+     *
+     * @return the first pages of the shards followed by the page count
+     */
+    static int[] boundaries(DumpCheckpointIndex index, int shards) {
+        int pages = index.getPageCount();
+        if (pages == 0) {
+            return new int[]{0, 0};
+        }
+        long start = index.getOffset(0);
+        long bodySize = index.getEndOffset() - start;
+
+        int[] boundaries = new int[Math.min(shards, pages) + 1];
+        int count = 1;
+        int page = 0;
+        for (int shard = 1; shard < boundaries.length - 1; ++shard) {
+            long offset = start + bodySize * shard / (boundaries.length - 1);
+            while (page < pages && index.getOffset(page) < offset) {
+                ++page;
+            }
+            if (page > boundaries[count - 1] && page < pages) {
+                boundaries[count++] = page;
+            }
+        }
+        boundaries[count++] = pages;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    private Shard writeShard(DumpCheckpointIndex index, FileChannel source, int fromPage, int toPage,
+                             List<DumpClass> classes, int fromClass, int toClass, Path target) throws IOException {
+        DumpHeader header = index.getHeader();
+        Shard shard = new Shard(target);
+        long endOffset = (toPage < index.getPageCount() ? index.getOffset(toPage) : index.getEndOffset());
+
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DumpWriterStream writer = DumpWriterStream.create(Channels.newOutputStream(output))) {
+            writer.writeHeader(header);
+            for (int i = 0; i < classes.size(); ++i) {
+                if (i < fromClass || i >= toClass) {
+                    writer.writeClass(classes.get(i));
+                    ++shard.copiedClasses;
+                }
+            }
+
+            int records = 0;
+            for (int page = fromPage; page < toPage; ++page) {
+                records += index.getRecords(page);
+            }
+
+            DumpParserStream.ParsingContext context = index.getContext(fromPage);
+            long offset = index.getOffset(fromPage);
+            try (DumpParserStream stream = DumpParserStream.create(source, offset, PAGE_BUFFER_SIZE)) {
+                Object[] record = new Object[1];
+                VirtualIndexSystem recordHolder = recordHolder(record);
+                long[] cacheBefore = new long[DumpParserStream.ParsingContext.MAX_CLASSES_CACHE_SIZE];
+                while (shard.reencodedRecords < records && !sameState(writer.getContext(), context)) {
+                    System.arraycopy(context.cachedClassAddresses, 0, cacheBefore, 0, cacheBefore.length);
+                    int cacheFilledBefore = context.cacheFilled;
+                    stream.readRecords(header, context, 1, recordHolder);
+
+                    if (record[0] instanceof DumpObject) {
+                        // The source moved the class in the cache, the shard should do the same
+                        boolean cacheClass = context.cacheFilled != cacheFilledBefore
+                                || !Arrays.equals(context.cachedClassAddresses, cacheBefore);
+                        writer.writeObject((DumpObject) record[0], cacheClass);
+                    } else {
+                        writer.writeRecord(record[0]);
+                    }
+                    ++shard.reencodedRecords;
+                }
+                offset += stream.getBytesRead();
+            }
+            shard.transferredRecords = records - shard.reencodedRecords;
+
+            writer.flush();
+            while (offset < endOffset) {
+                long transferred = source.transferTo(offset, endOffset - offset, output);
+                offset += transferred;
+                shard.transferredBytes += transferred;
+            }
+            writer.writeEnd();
+        }
+        shard.size = Files.size(target);
+        return shard;
+    }
+
+    private static boolean sameState(DumpParserStream.ParsingContext shard, DumpParserStream.ParsingContext source) {
+        if (shard.lastAddress != source.lastAddress || shard.cacheFilled != source.cacheFilled) {
+            return false;
+        }
+        for (int i = 0; i < source.cacheFilled; ++i) {
+            if (shard.cachedClassAddresses[i] != source.cachedClassAddresses[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String shardName(String fileName, int shard) {
+        int extension = fileName.lastIndexOf('.');
+        if (extension <= 0) {
+            return fileName + "-" + shard;
+        }
+        return fileName.substring(0, extension) + "-" + shard + fileName.substring(extension);
+    }
+
+    private static VirtualIndexSystem classCollector(List<DumpClass> classes) {
+        return new VirtualIndexSystem() {
+            @Override
+            public <T> T find(long address, Class<T> objectType) {
+                return null;
+            }
+
+            @Override
+            public void save(long address, Object object) {
+            }
+
+            @Override
+            public void save(DumpClass aClass) {
+                classes.add(aClass);
+            }
+        };
+    }
+
+    private static VirtualIndexSystem recordHolder(Object[] record) {
+        return new VirtualIndexSystem() {
+            @Override
+            public <T> T find(long address, Class<T> objectType) {
+                return null;
+            }
+
+            @Override
+            public void save(long address, Object object) {
+                record[0] = object;
+            }
+
+            @Override
+            public void save(DumpClass aClass) {
+                record[0] = aClass;
+            }
+        };
+    }
+
+    /**
+     * A shard file written.
+     */
+    public static class Shard {
+        private final Path path;
+        private long size;
+        private long copiedClasses;
+        private long reencodedRecords;
+        private long transferredRecords;
+        private long transferredBytes;
+
+        Shard(Path path) {
+            this.path = path;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of the classes of the other shards
+         */
+        public long getCopiedClasses() {
+            return copiedClasses;
+        }
+
+        /**
+         * @return the number of the shard records decoded and encoded again
+         */
+        public long getReencodedRecords() {
+            return reencodedRecords;
+        }
+
+        /**
+         * @return the number of the shard records copied as is
+         */
+        public long getTransferredRecords() {
+            return transferredRecords;
+        }
+
+        public long getTransferredBytes() {
+            return transferredBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Shard{" +
+                    "path=" + path +
+                    ", size=" + size +
+                    ", copiedClasses=" + copiedClasses +
+                    ", reencodedRecords=" + reencodedRecords +
+                    ", transferredRecords=" + transferredRecords +
+                    ", transferredBytes=" + transferredBytes +
+                    '}';
+        }
+    }
+}
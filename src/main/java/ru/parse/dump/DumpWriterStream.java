@@ -0,0 +1,385 @@
+package ru.parse.dump;
+
+import ru.parse.dump.objects.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stream writing the PHD file, readable by {@link DumpParserStream}.
+ * <p>
+ * Records are encoded in the smallest form: the address gaps and the references take the narrowest measurement
+ * fitting them, objects use the short form when their class is in the cache of the recently used classes and
+ * the medium form when they have a few references. The address gaps are counted from the previous record written, so
+ * the records are usually written in the address order.
+ */
+public class DumpWriterStream implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int WORD_SIZE = 4;
+    private static final String TITLE = "portable heap dump";
+
+    private final DataOutputStream stream;
+    private final DumpParserStream.ParsingContext context = new DumpParserStream.ParsingContext();
+    private DumpHeader header;
+    private long bytesWrittenTotal = 0;
+
+    /**
+     * Create a stream over common {@link OutputStream}.
+     *
+     * @param stream
+     * @return
+     */
+    public static DumpWriterStream create(OutputStream stream) {
+        return new DumpWriterStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+    }
+
+    private DumpWriterStream(OutputStream stream) {
+        this.stream = new DataOutputStream(stream);
+    }
+
+    /**
+     * Write the dump header and start the body.
+     *
+     * @param header
+     * @throws IOException
+     */
+    public void writeHeader(DumpHeader header) throws IOException {
+        if (this.header != null) {
+            throw new IllegalStateException("Header is already written");
+        }
+        this.header = header;
+
+        writeString(TITLE);
+        writeInt((int) header.getVersion());
+        writeInt((int) header.getFlags());
+        writeByte(1);
+        if (header.getJvmVersion() != null) {
+            writeByte(4);
+            writeString(header.getJvmVersion());
+        }
+        writeByte(2);
+
+        // Body start
+        writeByte(2);
+    }
+
+    public void writeObject(DumpObject object) throws IOException {
+        writeObject(object, false);
+    }
+
+    /**
+     * @param object
+     * @param cacheClass write the class word even if the class is cached, so the class moves to the front of the cache
+     * @throws IOException
+     */
+    void writeObject(DumpObject object, boolean cacheClass) throws IOException {
+        long[] references = object.getReferences();
+        long gap = addressGap(object.getAddress());
+        int referenceMeasurement = referenceMeasurement(object.getAddress(), references);
+        boolean shortForm = fitsShort(gap) && (header.isHashed() || object.getHash() == 0);
+
+        int cacheIndex = cacheIndex(object.getClassAddress());
+        if (shortForm && !cacheClass && cacheIndex >= 0 && references.length <= 3) {
+            writeByte(0x80 | cacheIndex << 5 | references.length << 3 | (fitsByte(gap) ? 0 : 1) << 2 | referenceMeasurement);
+            writeObjectGap(gap);
+            if (header.isHashed()) {
+                writeShort(object.getHash());
+            }
+        } else if (shortForm && references.length <= 7) {
+            writeByte(0x40 | references.length << 3 | (fitsByte(gap) ? 0 : 1) << 2 | referenceMeasurement);
+            writeObjectGap(gap);
+            writeWord(object.getClassAddress());
+            context.putToCache(object.getClassAddress());
+            if (header.isHashed()) {
+                writeShort(object.getHash());
+            }
+        } else {
+            writeByte(4);
+            writeByte(measurement(gap) << 6 | referenceMeasurement << 4 | (hashedAndMoved(object.getHash()) ? 1 : 0) << 1);
+            writeMeasured(gap, measurement(gap));
+            writeWord(object.getClassAddress());
+            context.putToCache(object.getClassAddress());
+            writeHash(object.getHash());
+            writeInt(references.length);
+        }
+
+        context.lastAddress = object.getAddress();
+        writeReferences(object.getAddress(), references, referenceMeasurement);
+        ++context.totalObjectsParsed;
+    }
+
+    public void writeObjectArray(DumpObjectArray objectArray) throws IOException {
+        long[] references = objectArray.getReferences();
+        long gap = addressGap(objectArray.getAddress());
+        int referenceMeasurement = referenceMeasurement(objectArray.getAddress(), references);
+        // The version 5 record keeps the length when not all the elements are written
+        boolean v5 = objectArray.getActualLength() != references.length;
+
+        writeByte(v5 ? 8 : 5);
+        writeByte(measurement(gap) << 6 | referenceMeasurement << 4 | (hashedAndMoved(objectArray.getHash()) ? 1 : 0) << 1);
+        writeMeasured(gap, measurement(gap));
+        writeWord(objectArray.getClassAddress());
+        writeHash(objectArray.getHash());
+        context.lastAddress = objectArray.getAddress();
+
+        writeInt(references.length);
+        writeReferences(objectArray.getAddress(), references, referenceMeasurement);
+        writeInt((int) (objectArray.getSize() / WORD_SIZE));
+        if (v5) {
+            writeInt((int) objectArray.getActualLength());
+        }
+        ++context.totalObjectArraysParsed;
+    }
+
+    public void writePrimitiveArray(DumpPrimitiveArray primitiveArray) throws IOException {
+        long gap = addressGap(primitiveArray.getAddress());
+        int type = primitiveArray.getType().ordinal();
+        // The length is unsigned up to the int width, as the parser reads it
+        int measurement = Math.max(measurement(gap), lengthMeasurement(primitiveArray.getLength()));
+
+        if (header.isHashed() || primitiveArray.getHash() == 0) {
+            writeByte(0x20 | type << 2 | measurement);
+            writeMeasured(gap, measurement);
+            writeMeasured(primitiveArray.getLength(), measurement);
+            if (header.isHashed()) {
+                writeShort(primitiveArray.getHash());
+            }
+        } else {
+            boolean word = !fitsByte(gap) || primitiveArray.getLength() < 0 || primitiveArray.getLength() > 0xff;
+            writeByte(7);
+            writeByte(type << 5 | (word ? 1 : 0) << 4 | 1 << 1);
+            if (word) {
+                writeWord(gap);
+                writeWord(primitiveArray.getLength());
+            } else {
+                writeByte((int) gap);
+                writeByte((int) primitiveArray.getLength());
+            }
+            writeInt(primitiveArray.getHash());
+        }
+        writeInt((int) (primitiveArray.getSize() / WORD_SIZE));
+
+        context.lastAddress = primitiveArray.getAddress();
+        ++context.totalPrimitiveArraysParsed;
+    }
+
+    public void writeClass(DumpClass aClass) throws IOException {
+        long[] references = aClass.getReferences();
+        long gap = addressGap(aClass.getAddress());
+        int referenceMeasurement = referenceMeasurement(aClass.getAddress(), references);
+
+        writeByte(6);
+        writeByte(measurement(gap) << 6 | referenceMeasurement << 4 | (hashedAndMoved(aClass.getHash()) ? 1 : 0) << 3);
+        writeMeasured(gap, measurement(gap));
+        writeInt((int) aClass.getInstanceSize());
+        writeHash(aClass.getHash());
+        writeWord(aClass.getSuperClassAddress());
+        writeString(aClass.getClassName() != null ? aClass.getClassName() : "");
+        context.lastAddress = aClass.getAddress();
+
+        writeInt(references.length);
+        writeReferences(aClass.getAddress(), references, referenceMeasurement);
+        ++context.totalClassesParsed;
+    }
+
+    /**
+     * Write the record of any type.
+     *
+     * @param record {@link DumpObject}, {@link DumpObjectArray}, {@link DumpPrimitiveArray} or {@link DumpClass}
+     * @throws IOException
+     */
+    public void writeRecord(Object record) throws IOException {
+        if (record instanceof DumpObject) {
+            writeObject((DumpObject) record);
+        } else if (record instanceof DumpObjectArray) {
+            writeObjectArray((DumpObjectArray) record);
+        } else if (record instanceof DumpPrimitiveArray) {
+            writePrimitiveArray((DumpPrimitiveArray) record);
+        } else if (record instanceof DumpClass) {
+            writeClass((DumpClass) record);
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported record %s", record));
+        }
+    }
+
+    /**
+     * Finish the body.
+     *
+     * @return the statistics of the records written
+     * @throws IOException
+     */
+    public DumpParsingStatistics writeEnd() throws IOException {
+        writeByte(3);
+        stream.flush();
+        return context.statistics(header);
+    }
+
+    /**
+     * Write out the buffered records, so the records may be appended to the target directly.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        stream.flush();
+    }
+
+    public long getBytesWritten() {
+        return bytesWrittenTotal;
+    }
+
+    /**
+     * The decoding state after the records written so far.
+     */
+    DumpParserStream.ParsingContext getContext() {
+        return context;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+
+    private long addressGap(long address) {
+        if (header == null) {
+            throw new IllegalStateException("Header is not written");
+        }
+        long distance = address - context.lastAddress;
+        if (distance % WORD_SIZE != 0) {
+            throw new IllegalStateException(String.format("Address %x is not word aligned to the previous one %x", address, context.lastAddress));
+        }
+        return distance / WORD_SIZE;
+    }
+
+    private int cacheIndex(long classAddress) {
+        for (int i = 0; i < context.cacheFilled; ++i) {
+            if (context.cachedClassAddresses[i] == classAddress) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean hashedAndMoved(int hash) {
+        return !header.isHashed() && hash != 0;
+    }
+
+    private void writeHash(int hash) throws IOException {
+        if (header.isHashed()) {
+            writeShort(hash);
+        } else if (hash != 0) {
+            writeInt(hash);
+        }
+    }
+
+    private int referenceMeasurement(long address, long[] references) {
+        int measurement = 0;
+        for (long reference : references) {
+            long distance = reference - address;
+            if (distance % WORD_SIZE != 0) {
+                throw new IllegalStateException(String.format("Reference %x of %x is not word aligned", reference, address));
+            }
+            measurement = Math.max(measurement, measurement(distance / WORD_SIZE));
+        }
+        return measurement;
+    }
+
+    private void writeReferences(long address, long[] references, int measurement) throws IOException {
+        for (long reference : references) {
+            writeMeasured((reference - address) / WORD_SIZE, measurement);
+        }
+    }
+
+    private void writeObjectGap(long gap) throws IOException {
+        if (fitsByte(gap)) {
+            writeByte((int) gap);
+        } else {
+            writeShort((int) gap);
+        }
+    }
+
+    private static boolean fitsByte(long value) {
+        return value == (byte) value;
+    }
+
+    private static boolean fitsShort(long value) {
+        return value == (short) value;
+    }
+
+    /**
+     * @return the measurement code of the narrowest signed number holding the value
+     */
+    private static int measurement(long value) {
+        if (fitsByte(value)) {
+            return 0;
+        }
+        if (fitsShort(value)) {
+            return 1;
+        }
+        return (value == (int) value ? 2 : 3);
+    }
+
+    /**
+     * @return the measurement code of the narrowest number holding the primitive array length
+     */
+    private static int lengthMeasurement(long length) {
+        if (length >= 0 && length <= 0xff) {
+            return 0;
+        }
+        if (length >= 0 && length <= 0xffff) {
+            return 1;
+        }
+        return (length >= 0 && length <= 0xffffffffL ? 2 : 3);
+    }
+
+    private void writeMeasured(long value, int measurement) throws IOException {
+        switch (measurement) {
+            case 0:
+                writeByte((int) value);
+                break;
+            case 1:
+                writeShort((int) value);
+                break;
+            case 2:
+                writeInt((int) value);
+                break;
+            default:
+                writeLong(value);
+        }
+    }
+
+    private void writeWord(long value) throws IOException {
+        if (header.getPlatform() == DumpPlatform._64_BIT) {
+            writeLong(value);
+        } else {
+            writeInt((int) value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // The length is in symbols, the parser reads the continuation bytes by the leading ones
+        writeShort(value.codePointCount(0, value.length()));
+        stream.write(bytes);
+        bytesWrittenTotal += bytes.length;
+    }
+
+    private void writeByte(int value) throws IOException {
+        stream.writeByte(value);
+        bytesWrittenTotal += 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        stream.writeShort(value);
+        bytesWrittenTotal += 2;
+    }
+
+    private void writeInt(int value) throws IOException {
+        stream.writeInt(value);
+        bytesWrittenTotal += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        stream.writeLong(value);
+        bytesWrittenTotal += 8;
+    }
+}
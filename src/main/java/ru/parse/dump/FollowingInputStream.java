@@ -0,0 +1,144 @@
+package ru.parse.dump;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Input stream over a file which is still being written.
+ * When the current end of the file is reached, the stream polls for the file growth instead of reporting the end of stream.
+ * The end of stream is reported only when the file has not grown during the idle timeout.
+ */
+public class FollowingInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long pollIntervalMillis;
+    private final long idleTimeoutMillis;
+
+    private long position = 0;
+    private long knownSize = 0;
+    private volatile boolean closed = false;
+    private volatile boolean cancelled = false;
+    private Runnable waitListener;
+
+    /**
+     * @param file
+     * @param pollIntervalMillis how often the file size is checked when the end is reached
+     * @param idleTimeoutMillis  how long to wait for the file growth before reporting the end of stream
+     * @throws IOException
+     */
+    public FollowingInputStream(Path file, long pollIntervalMillis, long idleTimeoutMillis) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Set the callback invoked every time the stream starts waiting for the file growth.
+     *
+     * @param waitListener
+     */
+    public void setWaitListener(Runnable waitListener) {
+        this.waitListener = waitListener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return (read < 0 ? -1 : 0xff & single[0]);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, knownSize - position)), position);
+        if (read < 0) {
+            // The file has been truncated
+            return -1;
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && awaitData()) {
+            long portion = Math.min(n - skipped, knownSize - position);
+            position += portion;
+            skipped += portion;
+        }
+        return skipped;
+    }
+
+    /**
+     * The number of bytes known to be written to the file, but not read yet. Doesn't touch the file system.
+     */
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, knownSize - position);
+    }
+
+    /**
+     * Stop waiting for the file growth. The waiting read fails with {@link CancellationException}. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Wait until there are unread bytes in the file.
+     *
+     * @return false if the file has not grown during the idle timeout or the stream is closed
+     * @throws CancellationException if the stream is cancelled while waiting
+     */
+    private boolean awaitData() throws IOException {
+        if (position < knownSize) {
+            return true;
+        }
+
+        long idleSince = System.currentTimeMillis();
+        boolean waiting = false;
+        while (!closed) {
+            if (cancelled) {
+                throw new CancellationException("Waiting for the file growth is cancelled");
+            }
+            knownSize = channel.size();
+            if (position < knownSize) {
+                return true;
+            }
+            if (!waiting && waitListener != null) {
+                waitListener.run();
+            }
+            waiting = true;
+            if (System.currentTimeMillis() - idleSince >= idleTimeoutMillis) {
+                return false;
+            }
+
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the file growth");
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.util.LongLongHashMap;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index system counting the instances and the shallow bytes per class while the dump is parsed.
+ * <p>
+ * Plain objects are counted by the class address only, their bytes are the count times the instance size resolved
+ * at the end, so the instances met before their class record are sized too. Arrays carry their sizes. Primitive
+ * arrays have no class records, they are named by the type descriptors, like <code>[I</code>.
+ * <p>
+ * The memory used depends on the number of classes only.
+ */
+public class ClassHistogram implements VirtualIndexSystem {
+    static final String[] PRIMITIVE_ARRAY_NAMES = {"[Z", "[C", "[F", "[D", "[B", "[S", "[I", "[J"};
+
+    private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+    private final LongLongHashMap counts = new LongLongHashMap();
+    private final LongLongHashMap arrayBytes = new LongLongHashMap();
+    private final long[] primitiveArrayCounts = new long[DumpPrimitiveType.values().length];
+    private final long[] primitiveArrayBytes = new long[DumpPrimitiveType.values().length];
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(classes.find(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            increment(counts, ((DumpObject) object).getClassAddress(), 1);
+        } else if (object instanceof DumpObjectArray) {
+            DumpObjectArray objectArray = (DumpObjectArray) object;
+            increment(counts, objectArray.getClassAddress(), 1);
+            increment(arrayBytes, objectArray.getClassAddress(), objectArray.getSize());
+        } else if (object instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+            ++primitiveArrayCounts[primitiveArray.getType().ordinal()];
+            primitiveArrayBytes[primitiveArray.getType().ordinal()] += primitiveArray.getSize();
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+    }
+
+    /**
+     * The histogram entries, the ones of the classes with the same name merged.
+     *
+     * @return entries in the order of the shallow bytes descending
+     */
+    public List<Entry> getEntries() {
+        Map<String, Entry> entries = new HashMap<>();
+        counts.forEach((classAddress, count) -> {
+            DumpClass aClass = classes.find(classAddress);
+            long bytes = arrayBytes.get(classAddress);
+            if (bytes == LongLongHashMap.NO_VALUE) {
+                bytes = (aClass != null ? count * aClass.getInstanceSize() : 0);
+            }
+            String name = (aClass != null && aClass.getClassName() != null ? aClass.getClassName()
+                    : String.format("<unknown 0x%x>", classAddress));
+            entries.computeIfAbsent(name, Entry::new).add(count, bytes);
+        });
+        for (int type = 0; type < primitiveArrayCounts.length; ++type) {
+            if (primitiveArrayCounts[type] > 0) {
+                entries.computeIfAbsent(PRIMITIVE_ARRAY_NAMES[type], Entry::new)
+                        .add(primitiveArrayCounts[type], primitiveArrayBytes[type]);
+            }
+        }
+
+        List<Entry> result = new ArrayList<>(entries.values());
+        result.sort((first, second) -> {
+            int bytesOrder = Long.compare(second.bytes, first.bytes);
+            return (bytesOrder != 0 ? bytesOrder : first.name.compareTo(second.name));
+        });
+        return result;
+    }
+
+    private static void increment(LongLongHashMap map, long key, long delta) {
+        long value = map.get(key);
+        map.put(key, (value != LongLongHashMap.NO_VALUE ? value : 0) + delta);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassHistogram{" +
+                "classes=" + classes.size() +
+                ", instanceClasses=" + counts.size() +
+                '}';
+    }
+
+    /**
+     * Instances of a class.
+     */
+    public static class Entry {
+        private final String name;
+        private long count;
+        private long bytes;
+
+        public Entry(String name) {
+            this.name = name;
+        }
+
+        public Entry(String name, long count, long bytes) {
+            this.name = name;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        void add(long count, long bytes) {
+            this.count += count;
+            this.bytes += bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the shallow size of the instances, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", count=" + count +
+                    ", bytes=" + bytes +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.util.IntArrayList;
+import ru.parse.dump.util.LongArrayList;
+
+import java.util.*;
+
+/**
+ * Histogram rolled up by the class name segments: packages, outer and inner classes.
+ * <p>
+ * The names are split on the package separators and on <code>$</code>. Generated classes are folded into one node
+ * per generator: <code>Foo$$Lambda$12/0x1f</code> goes to <code>Foo/$$Lambda</code>, <code>$Proxy42</code> to
+ * <code>$Proxy</code>, <code>Foo$$EnhancerByCGLIB$$1a2b</code> to <code>Foo/$$EnhancerByCGLIB</code>. Arrays are
+ * placed under their element class as <code>[]</code> nodes, primitive arrays under <code>&lt;primitive&gt;</code>.
+ * <p>
+ * The trie is kept in primitive arrays. A parent is always created before its children, so the totals are
+ * accumulated bottom-up by a single backward pass over the nodes. The children of every node are stored sorted by
+ * the shallow bytes, a drill-down step only slices an array.
+ */
+public class ClassNameRollup {
+    public static final String PRIMITIVE_SEGMENT = "<primitive>";
+    public static final String ARRAY_SEGMENT = "[]";
+    private static final String[] GENERATED_MARKERS = {"$$Lambda$", "$$EnhancerByCGLIB$$", "$$FastClassByCGLIB$$",
+            "$$EnhancerBySpringCGLIB$$", "$$FastClassBySpringCGLIB$$", "$HibernateProxy$", "$$_javassist_", "$$_jvst"};
+    private static final String PROXY_PREFIX = "$Proxy";
+    private static final int ROOT = 0;
+
+    private final String[] segments;
+    private final int[] parents;
+    private final long[] counts;
+    private final long[] bytes;
+    private final int[] classCounts;
+    private final int[] childStarts;
+    private final int[] children;
+    private final Map<String, Integer> paths;
+
+    private ClassNameRollup(String[] segments, int[] parents, long[] counts, long[] bytes, int[] classCounts) {
+        this.segments = segments;
+        this.parents = parents;
+        this.counts = counts;
+        this.bytes = bytes;
+        this.classCounts = classCounts;
+
+        int nodes = parents.length;
+        childStarts = new int[nodes + 1];
+        for (int node = 1; node < nodes; ++node) {
+            ++childStarts[parents[node] + 1];
+        }
+        for (int node = 0; node < nodes; ++node) {
+            childStarts[node + 1] += childStarts[node];
+        }
+        children = new int[Math.max(nodes - 1, 0)];
+        int[] filled = Arrays.copyOf(childStarts, nodes);
+        for (int node = 1; node < nodes; ++node) {
+            children[filled[parents[node]]++] = node;
+        }
+        for (int node = 0; node < nodes; ++node) {
+            sortChildren(childStarts[node], childStarts[node + 1]);
+        }
+        paths = new HashMap<>(nodes * 2);
+    }
+
+    /**
+     * Roll the histogram up.
+     *
+     * @param histogram
+     * @return
+     */
+    public static ClassNameRollup of(ClassHistogram histogram) {
+        return build(histogram.getEntries());
+    }
+
+    /**
+     * Roll the histogram entries up.
+     *
+     * @param entries
+     * @return
+     */
+    public static ClassNameRollup build(Collection<ClassHistogram.Entry> entries) {
+        Builder builder = new Builder();
+        for (ClassHistogram.Entry entry : entries) {
+            builder.add(entry.getName(), entry.getCount(), entry.getBytes());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Split the class name into the trie path.
+     *
+     * @param className the name with <code>/</code> or <code>.</code> package separators
+     * @return
+     */
+    public static List<String> split(String className) {
+        List<String> path = new ArrayList<>();
+        int dimensions = 0;
+        while (dimensions < className.length() && className.charAt(dimensions) == '[') {
+            ++dimensions;
+        }
+        String element = className.substring(dimensions);
+        if (dimensions > 0) {
+            if (element.startsWith("L") && element.endsWith(";")) {
+                element = element.substring(1, element.length() - 1);
+            } else if (element.length() == 1) {
+                path.add(PRIMITIVE_SEGMENT);
+                element = primitiveName(element.charAt(0));
+            }
+        }
+
+        // The generated suffixes are dropped, a hidden class suffix may contain a slash
+        for (String marker : GENERATED_MARKERS) {
+            int index = element.indexOf(marker);
+            if (index > 0) {
+                element = element.substring(0, index + marker.length());
+                break;
+            }
+        }
+
+        int start = 0;
+        for (int i = 0; i < element.length(); ++i) {
+            char c = element.charAt(i);
+            if (c == '/' || c == '.') {
+                if (i > start) {
+                    path.add(element.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        splitClassName(element.substring(start), path);
+
+        for (int i = 0; i < dimensions; ++i) {
+            path.add(ARRAY_SEGMENT);
+        }
+        return path;
+    }
+
+    private static void splitClassName(String simpleName, List<String> path) {
+        for (String marker : GENERATED_MARKERS) {
+            int index = simpleName.indexOf(marker);
+            if (index > 0) {
+                splitClassName(simpleName.substring(0, index), path);
+                int end = marker.length();
+                while (end > 1 && !Character.isLetter(marker.charAt(end - 1))) {
+                    --end;
+                }
+                path.add(marker.substring(0, end));
+                return;
+            }
+        }
+        if (simpleName.startsWith(PROXY_PREFIX) && isDigits(simpleName, PROXY_PREFIX.length())) {
+            path.add(PROXY_PREFIX);
+            return;
+        }
+
+        int start = 0;
+        for (int i = 1; i < simpleName.length(); ++i) {
+            if (simpleName.charAt(i) == '$' && simpleName.charAt(i - 1) != '$' && i > start) {
+                path.add(simpleName.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (start < simpleName.length() || path.isEmpty()) {
+            path.add(simpleName.substring(start));
+        }
+    }
+
+    private static boolean isDigits(String value, int from) {
+        if (from >= value.length()) {
+            return false;
+        }
+        for (int i = from; i < value.length(); ++i) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String primitiveName(char descriptor) {
+        switch (descriptor) {
+            case 'Z':
+                return "boolean";
+            case 'C':
+                return "char";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            case 'B':
+                return "byte";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            default:
+                return String.valueOf(descriptor);
+        }
+    }
+
+    public Node getRoot() {
+        return new Node(ROOT);
+    }
+
+    /**
+     * Find the node by its path.
+     *
+     * @param path the segments joined with <code>/</code>, the empty path is the root
+     * @return the node or null
+     */
+    public Node find(String path) {
+        if (path.isEmpty()) {
+            return getRoot();
+        }
+        synchronized (paths) {
+            if (paths.isEmpty()) {
+                for (int node = 1; node < parents.length; ++node) {
+                    paths.put(pathOf(node), node);
+                }
+            }
+            Integer node = paths.get(path);
+            return (node != null ? new Node(node) : null);
+        }
+    }
+
+    /**
+     * @return the number of the trie nodes including the root
+     */
+    public int getNodeCount() {
+        return parents.length;
+    }
+
+    private String pathOf(int node) {
+        if (parents[node] == ROOT) {
+            return segments[node];
+        }
+        return pathOf(parents[node]) + '/' + segments[node];
+    }
+
+    private void sortChildren(int from, int to) {
+        // Insertion sort, most of the nodes have a few children
+        if (to - from > 32) {
+            Integer[] boxed = new Integer[to - from];
+            for (int i = from; i < to; ++i) {
+                boxed[i - from] = children[i];
+            }
+            Arrays.sort(boxed, this::compareNodes);
+            for (int i = from; i < to; ++i) {
+                children[i] = boxed[i - from];
+            }
+            return;
+        }
+        for (int i = from + 1; i < to; ++i) {
+            int node = children[i];
+            int j = i - 1;
+            while (j >= from && compareNodes(children[j], node) > 0) {
+                children[j + 1] = children[j];
+                --j;
+            }
+            children[j + 1] = node;
+        }
+    }
+
+    private int compareNodes(int first, int second) {
+        int order = Long.compare(bytes[second], bytes[first]);
+        return (order != 0 ? order : segments[first].compareTo(segments[second]));
+    }
+
+    /**
+     * Node of the rollup: a package, a class or a group of the generated classes.
+     */
+    public final class Node {
+        private final int node;
+
+        private Node(int node) {
+            this.node = node;
+        }
+
+        public String getSegment() {
+            return segments[node];
+        }
+
+        /**
+         * @return the segments from the root joined with <code>/</code>
+         */
+        public String getPath() {
+            return (node == ROOT ? "" : pathOf(node));
+        }
+
+        public Node getParent() {
+            return (node == ROOT ? null : new Node(parents[node]));
+        }
+
+        /**
+         * @return the instances of all the classes under the node
+         */
+        public long getCount() {
+            return counts[node];
+        }
+
+        /**
+         * @return the shallow bytes of all the classes under the node
+         */
+        public long getBytes() {
+            return bytes[node];
+        }
+
+        /**
+         * @return the number of the histogram entries under the node
+         */
+        public int getClassCount() {
+            return classCounts[node];
+        }
+
+        public int getChildCount() {
+            return childStarts[node + 1] - childStarts[node];
+        }
+
+        /**
+         * @param limit
+         * @return the largest children by the shallow bytes
+         */
+        public List<Node> getChildren(int limit) {
+            int from = childStarts[node];
+            int to = (int) Math.min(childStarts[node + 1], (long) from + limit);
+            List<Node> result = new ArrayList<>(Math.max(to - from, 0));
+            for (int i = from; i < to; ++i) {
+                result.add(new Node(children[i]));
+            }
+            return result;
+        }
+
+        public List<Node> getChildren() {
+            return getChildren(Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Node && ((Node) o).node == node && ((Node) o).getRollup() == getRollup();
+        }
+
+        @Override
+        public int hashCode() {
+            return node;
+        }
+
+        private ClassNameRollup getRollup() {
+            return ClassNameRollup.this;
+        }
+
+        @Override
+        public String toString() {
+            return "Node{" +
+                    "path='" + getPath() + '\'' +
+                    ", count=" + counts[node] +
+                    ", bytes=" + bytes[node] +
+                    ", classes=" + classCounts[node] +
+                    '}';
+        }
+    }
+
+    /**
+     * Builder of the trie.
+     */
+    static class Builder {
+        private final List<String> segments = new ArrayList<>();
+        private final IntArrayList parents = new IntArrayList();
+        private final LongArrayList counts = new LongArrayList();
+        private final LongArrayList bytes = new LongArrayList();
+        private final IntArrayList classCounts = new IntArrayList();
+        private final Map<ChildKey, Integer> nodes = new HashMap<>();
+
+        Builder() {
+            addNode(-1, "");
+        }
+
+        void add(String className, long count, long size) {
+            int node = ROOT;
+            for (String segment : split(className)) {
+                ChildKey key = new ChildKey(node, segment);
+                Integer child = nodes.get(key);
+                if (child == null) {
+                    child = addNode(node, segment);
+                    nodes.put(key, child);
+                }
+                node = child;
+            }
+            counts.set(node, counts.get(node) + count);
+            bytes.set(node, bytes.get(node) + size);
+            classCounts.set(node, classCounts.get(node) + 1);
+        }
+
+        private int addNode(int parent, String segment) {
+            segments.add(segment);
+            parents.add(parent);
+            counts.add(0);
+            bytes.add(0);
+            classCounts.add(0);
+            return parents.size() - 1;
+        }
+
+        ClassNameRollup build() {
+            long[] nodeCounts = counts.toArray();
+            long[] nodeBytes = bytes.toArray();
+            int[] nodeClassCounts = classCounts.toArray();
+            int[] nodeParents = parents.toArray();
+            for (int node = nodeParents.length - 1; node > ROOT; --node) {
+                int parent = nodeParents[node];
+                nodeCounts[parent] += nodeCounts[node];
+                nodeBytes[parent] += nodeBytes[node];
+                nodeClassCounts[parent] += nodeClassCounts[node];
+            }
+            return new ClassNameRollup(segments.toArray(new String[0]), nodeParents, nodeCounts, nodeBytes, nodeClassCounts);
+        }
+    }
+
+    private static final class ChildKey {
+        private final int parent;
+        private final String segment;
+
+        ChildKey(int parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChildKey)) {
+                return false;
+            }
+            ChildKey other = (ChildKey) o;
+            return parent == other.parent && segment.equals(other.segment);
+        }
+
+        @Override
+        public int hashCode() {
+            return parent * 31 + segment.hashCode();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index system measuring the heap fragmentation while the dump is parsed.
+ * <p>
+ * Records come in the heap walk order, so the space between the end of the previous record and the address of the
+ * current one is free. Free chunk sizes are collected into a histogram with power of two buckets. A backward jump
+ * or a gap larger than the region gap threshold starts a new address region. The regions are summarized by a histogram
+ * of their occupancy, only the regions with the most free bytes are kept whole.
+ * <p>
+ * The sizes of plain objects are taken from their classes. The classes are looked up in the records saved so far and in
+ * the optional prebuilt class table. Gaps after records of unknown size are counted separately. Class records are not
+ * a part of the walk: PHD has no size for them and they are kept outside of the object heap.
+ * <p>
+ * The memory used doesn't depend on the number of records or regions, only on the number of classes.
+ */
+public class HeapFragmentationAnalyzer implements VirtualIndexSystem {
+    public static final long DEFAULT_REGION_GAP_THRESHOLD = 1024 * 1024;
+    public static final int DEFAULT_TOP_REGIONS = 16;
+    private static final int HISTOGRAM_BUCKETS = 64;
+    private static final int OCCUPANCY_BUCKETS = 10;
+
+    private final VirtualIndexSystem classTable;
+    private final long regionGapThreshold;
+    private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+
+    private final long[] freeChunksByBucket = new long[HISTOGRAM_BUCKETS];
+    private final long[] freeBytesByBucket = new long[HISTOGRAM_BUCKETS];
+    private final long[] regionsByOccupancy = new long[OCCUPANCY_BUCKETS];
+    /**
+     * The finished regions with the most free bytes, in the order of the free bytes descending.
+     */
+    private final Region[] topRegions;
+    private int topRegionCount = 0;
+    private long regionCount = 0;
+
+    private Region currentRegion;
+    private long previousAddress = -1;
+    private long previousSize = -1;
+
+    private long records = 0;
+    private long freeBytes = 0;
+    private long freeChunks = 0;
+    private long overlaps = 0;
+    private long unknownGaps = 0;
+
+    public HeapFragmentationAnalyzer() {
+        this(null, DEFAULT_REGION_GAP_THRESHOLD);
+    }
+
+    /**
+     * @param classTable         the table to look up the classes not met yet, may be null
+     * @param regionGapThreshold the gap starting a new address region, in bytes
+     */
+    public HeapFragmentationAnalyzer(VirtualIndexSystem classTable, long regionGapThreshold) {
+        this(classTable, regionGapThreshold, DEFAULT_TOP_REGIONS);
+    }
+
+    /**
+     * @param classTable         the table to look up the classes not met yet, may be null
+     * @param regionGapThreshold the gap starting a new address region, in bytes
+     * @param topRegions         the number of the regions with the most free bytes kept
+     */
+    public HeapFragmentationAnalyzer(VirtualIndexSystem classTable, long regionGapThreshold, int topRegions) {
+        if (topRegions <= 0) {
+            throw new IllegalArgumentException("Number of the top regions should be positive");
+        }
+        this.classTable = classTable;
+        this.regionGapThreshold = regionGapThreshold;
+        this.topRegions = new Region[topRegions];
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(findClass(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            DumpClass aClass = findClass(((DumpObject) object).getClassAddress());
+            onRecord(address, aClass != null ? aClass.getInstanceSize() : -1);
+        } else if (object instanceof DumpObjectArray) {
+            onRecord(address, ((DumpObjectArray) object).getSize());
+        } else if (object instanceof DumpPrimitiveArray) {
+            onRecord(address, ((DumpPrimitiveArray) object).getSize());
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+    }
+
+    private DumpClass findClass(long address) {
+        DumpClass aClass = classes.find(address);
+        if (aClass == null && classTable != null) {
+            aClass = classTable.find(address, DumpClass.class);
+        }
+        return aClass;
+    }
+
+    private void onRecord(long address, long size) {
+        ++records;
+
+        long previousEnd = previousAddress + Math.max(previousSize, 0);
+        if (currentRegion == null || address < previousAddress || address - previousEnd > regionGapThreshold) {
+            if (currentRegion != null) {
+                finishRegion(currentRegion);
+            }
+            currentRegion = new Region(address);
+            ++regionCount;
+        } else if (previousSize < 0) {
+            ++unknownGaps;
+        } else {
+            long free = address - previousEnd;
+            if (free > 0) {
+                int bucket = 63 - Long.numberOfLeadingZeros(free);
+                ++freeChunksByBucket[bucket];
+                freeBytesByBucket[bucket] += free;
+                ++freeChunks;
+                freeBytes += free;
+                currentRegion.freeBytes += free;
+            } else if (free < 0) {
+                ++overlaps;
+            }
+        }
+
+        ++currentRegion.records;
+        if (size > 0) {
+            currentRegion.usedBytes += size;
+        }
+        currentRegion.end = Math.max(currentRegion.end, address + Math.max(size, 0));
+
+        previousAddress = address;
+        previousSize = size;
+    }
+
+    private void finishRegion(Region region) {
+        ++regionsByOccupancy[occupancyBucket(region)];
+        offer(topRegions, topRegionCount, region);
+        topRegionCount = Math.min(topRegionCount + 1, topRegions.length);
+    }
+
+    private static int occupancyBucket(Region region) {
+        return Math.min(OCCUPANCY_BUCKETS - 1, (int) (region.getOccupancy() * OCCUPANCY_BUCKETS));
+    }
+
+    /**
+     * Insert the region into the ranking by the free bytes, dropping the last one if the ranking is full.
+     */
+    private static void offer(Region[] ranking, int size, Region region) {
+        int position = Math.min(size, ranking.length - 1);
+        if (size == ranking.length && ranking[position].freeBytes >= region.freeBytes) {
+            return;
+        }
+        while (position > 0 && ranking[position - 1].freeBytes < region.freeBytes) {
+            ranking[position] = ranking[position - 1];
+            --position;
+        }
+        ranking[position] = region;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public long getFreeChunks() {
+        return freeChunks;
+    }
+
+    /**
+     * @return the number of records starting before the end of the previous one
+     */
+    public long getOverlaps() {
+        return overlaps;
+    }
+
+    /**
+     * @return the number of gaps after records of unknown size
+     */
+    public long getUnknownGaps() {
+        return unknownGaps;
+    }
+
+    /**
+     * The number of free chunks of size [2^i, 2^(i+1)) bytes at the index i.
+     *
+     * @return
+     */
+    public long[] getFreeChunksHistogram() {
+        return freeChunksByBucket.clone();
+    }
+
+    /**
+     * The total size of free chunks of size [2^i, 2^(i+1)) bytes at the index i.
+     *
+     * @return
+     */
+    public long[] getFreeBytesHistogram() {
+        return freeBytesByBucket.clone();
+    }
+
+    /**
+     * @return the number of the address regions
+     */
+    public long getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * The number of the regions of occupancy [i / 10, (i + 1) / 10) at the index i, the full ones are at the last index.
+     *
+     * @return
+     */
+    public long[] getOccupancyHistogram() {
+        long[] histogram = regionsByOccupancy.clone();
+        if (currentRegion != null) {
+            ++histogram[occupancyBucket(currentRegion)];
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the regions with the most free bytes in the order of the free bytes descending, the last region included
+     */
+    public List<Region> getTopRegions() {
+        Region[] ranking = Arrays.copyOf(topRegions, topRegions.length);
+        int size = topRegionCount;
+        if (currentRegion != null) {
+            offer(ranking, size, currentRegion);
+            size = Math.min(size + 1, ranking.length);
+        }
+        return Collections.unmodifiableList(Arrays.asList(ranking).subList(0, size));
+    }
+
+    @Override
+    public String toString() {
+        return "HeapFragmentationAnalyzer{" +
+                "records=" + records +
+                ", regions=" + regionCount +
+                ", freeBytes=" + freeBytes +
+                ", freeChunks=" + freeChunks +
+                ", overlaps=" + overlaps +
+                ", unknownGaps=" + unknownGaps +
+                '}';
+    }
+
+    /**
+     * Address region: a sequence of records without backward jumps and large gaps.
+     */
+    public static class Region {
+        private final long start;
+        private long end;
+        private long records;
+        private long usedBytes;
+        private long freeBytes;
+
+        Region(long start) {
+            this.start = start;
+            this.end = start;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getUsedBytes() {
+            return usedBytes;
+        }
+
+        public long getFreeBytes() {
+            return freeBytes;
+        }
+
+        /**
+         * @return the used share of the region span, from 0 to 1
+         */
+        public double getOccupancy() {
+            long span = end - start;
+            return (span > 0 ? Math.min(1.0, (double) usedBytes / span) : 0);
+        }
+
+        @Override
+        public String toString() {
+            return "Region{" +
+                    "start=" + Long.toHexString(start) +
+                    ", end=" + Long.toHexString(end) +
+                    ", records=" + records +
+                    ", usedBytes=" + usedBytes +
+                    ", freeBytes=" + freeBytes +
+                    ", occupancy=" + getOccupancy() +
+                    '}';
+        }
+    }
+}
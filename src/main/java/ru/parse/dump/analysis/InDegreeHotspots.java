@@ -0,0 +1,423 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.objects.DumpObjectArray;
+import ru.parse.dump.util.LongLongHashMap;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index system finding the most referenced records in one pass with fixed memory.
+ * <p>
+ * Every reference increments the target in a count-min sketch with the conservative update. The targets with
+ * the largest estimates are kept as hub candidates in a min-heap: a target whose estimate exceeds the smallest one of
+ * a full heap replaces it. Every candidate has a HyperLogLog of its referrers, so the distinct referrers are
+ * estimated too. A candidate admitted late counts only the referrers met since, the estimate is a lower bound then.
+ * <p>
+ * The class of a candidate is known when the candidate is decoded after it's admitted. The optional second pass,
+ * {@link #classPass()}, finds the classes of the rest.
+ * <p>
+ * The sketch estimate never underestimates the in-degree and overestimates it by at most <i>e / width</i> of all
+ * the references with the probability <i>1 - e<sup>-depth</sup></i>. The referrers estimate has the relative
+ * standard error of <i>1.04 / sqrt(registers)</i>.
+ * <p>
+ * The memory is <i>width * depth * 4</i> bytes of the sketch plus about <i>registers</i> bytes per candidate,
+ * about 17 Mb with the defaults, whatever the dump size.
+ */
+public class InDegreeHotspots implements VirtualIndexSystem {
+    public static final int DEFAULT_WIDTH = 1 << 20;
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_CANDIDATES = 1000;
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x85EBCA77C2B2AE63L, 0x27D4EB2F165667C5L};
+
+    private final int width;
+    private final int depth;
+    private final int[] sketch;
+    private long totalReferences = 0;
+
+    private final int capacity;
+    private final long[] addresses;
+    private final long[] estimates;
+    private final long[] classAddresses;
+    private final byte[] registers;
+    /**
+     * The heap of the candidate cells ordered by their estimates, the cells don't move.
+     */
+    private final int[] heap;
+    private final int[] heapPositions;
+    private int size = 0;
+    private final LongLongHashMap cells;
+
+    private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+
+    public InDegreeHotspots() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * @param width      the counters per sketch row, a power of two
+     * @param depth      the sketch rows, from 1 to 8
+     * @param candidates the number of the hubs tracked
+     */
+    public InDegreeHotspots(int width, int depth, int candidates) {
+        if (width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Sketch width should be a power of two");
+        }
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException(String.format("Sketch depth should be from 1 to %d", SEEDS.length));
+        }
+        this.width = width;
+        this.depth = depth;
+        this.sketch = new int[width * depth];
+        this.capacity = candidates;
+        this.addresses = new long[candidates];
+        this.estimates = new long[candidates];
+        this.classAddresses = new long[candidates];
+        this.registers = new byte[candidates * REGISTERS];
+        this.heap = new int[candidates];
+        this.heapPositions = new int[candidates];
+        this.cells = new LongLongHashMap(candidates);
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(classes.find(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            DumpObject dumpObject = (DumpObject) object;
+            onRecord(address, dumpObject.getClassAddress());
+            onReferences(address, dumpObject.getReferences());
+        } else if (object instanceof DumpObjectArray) {
+            DumpObjectArray objectArray = (DumpObjectArray) object;
+            onRecord(address, objectArray.getClassAddress());
+            onReferences(address, objectArray.getReferences());
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+        onReferences(aClass.getAddress(), aClass.getReferences());
+    }
+
+    private void onRecord(long address, long classAddress) {
+        long cell = cells.get(address);
+        if (cell != LongLongHashMap.NO_VALUE) {
+            classAddresses[(int) cell] = classAddress;
+        }
+    }
+
+    /**
+     * Index system of the second pass over the same dump, finding the classes of the candidates decoded before they were
+     * admitted. The candidates are fixed since the call.
+     *
+     * @return
+     */
+    public VirtualIndexSystem classPass() {
+        return new VirtualIndexSystem() {
+            @Override
+            public <T> T find(long address, Class<T> objectType) {
+                return InDegreeHotspots.this.find(address, objectType);
+            }
+
+            @Override
+            public void save(long address, Object object) {
+                if (object instanceof DumpObject) {
+                    onRecord(address, ((DumpObject) object).getClassAddress());
+                } else if (object instanceof DumpObjectArray) {
+                    onRecord(address, ((DumpObjectArray) object).getClassAddress());
+                }
+            }
+
+            @Override
+            public void save(DumpClass aClass) {
+            }
+        };
+    }
+
+    private void onReferences(long referrer, long[] references) {
+        for (long reference : references) {
+            if (reference != 0) {
+                onReference(referrer, reference);
+            }
+        }
+    }
+
+    private void onReference(long referrer, long target) {
+        ++totalReferences;
+        long estimate = increment(target);
+
+        long cell = cells.get(target);
+        if (cell != LongLongHashMap.NO_VALUE) {
+            estimates[(int) cell] = estimate;
+            siftDown(heapPositions[(int) cell]);
+            addReferrer((int) cell, referrer);
+            return;
+        }
+
+        int admitted;
+        boolean replaced = false;
+        if (size < capacity) {
+            admitted = size;
+            place(admitted, size);
+            ++size;
+        } else if (capacity > 0 && estimate > estimates[heap[0]]) {
+            replaced = true;
+            admitted = heap[0];
+            cells.remove(addresses[admitted]);
+            Arrays.fill(registers, admitted * REGISTERS, (admitted + 1) * REGISTERS, (byte) 0);
+        } else {
+            return;
+        }
+        addresses[admitted] = target;
+        estimates[admitted] = estimate;
+        classAddresses[admitted] = 0;
+        cells.put(target, admitted);
+        addReferrer(admitted, referrer);
+        if (replaced) {
+            siftDown(0);
+        } else {
+            siftUp(heapPositions[admitted]);
+        }
+    }
+
+    /**
+     * Conservative update: only the counters equal to the minimum are incremented.
+     *
+     * @return the new estimate
+     */
+    private long increment(long target) {
+        int minimum = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; ++row) {
+            int slot = row * width + (int) (mix(target ^ SEEDS[row]) & (width - 1));
+            minimum = Math.min(minimum, sketch[slot]);
+        }
+        if (minimum == Integer.MAX_VALUE) {
+            return minimum;
+        }
+        int updated = minimum + 1;
+        for (int row = 0; row < depth; ++row) {
+            int slot = row * width + (int) (mix(target ^ SEEDS[row]) & (width - 1));
+            if (sketch[slot] < updated) {
+                sketch[slot] = updated;
+            }
+        }
+        return updated;
+    }
+
+    private void addReferrer(int cell, long referrer) {
+        long hash = mix(referrer);
+        int register = (int) (hash >>> (64 - PRECISION));
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+        int index = cell * REGISTERS + register;
+        if (registers[index] < rank) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    private void siftUp(int position) {
+        int cell = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (estimates[heap[parent]] <= estimates[cell]) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(cell, position);
+    }
+
+    private void siftDown(int position) {
+        int cell = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && estimates[heap[child + 1]] < estimates[heap[child]]) {
+                ++child;
+            }
+            if (estimates[heap[child]] >= estimates[cell]) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(cell, position);
+    }
+
+    private void place(int cell, int position) {
+        heap[position] = cell;
+        heapPositions[cell] = position;
+    }
+
+    private double estimateReferrers(int cell) {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = cell * REGISTERS; i < (cell + 1) * REGISTERS; ++i) {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+                ++zeros;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return estimate;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * The most referenced records.
+     *
+     * @param limit
+     * @return the hubs in the order of the in-degree estimates descending
+     */
+    public List<Hub> getTopHubs(int limit) {
+        List<Hub> hubs = new ArrayList<>(size);
+        long error = getMaxOverestimate();
+        for (int position = 0; position < size; ++position) {
+            int cell = heap[position];
+            DumpClass aClass = (classAddresses[cell] != 0 ? classes.find(classAddresses[cell]) : null);
+            hubs.add(new Hub(addresses[cell], classAddresses[cell], aClass != null ? aClass.getClassName() : null,
+                    estimates[cell], Math.max(0, estimates[cell] - error), Math.round(estimateReferrers(cell))));
+        }
+        hubs.sort((first, second) -> Long.compare(second.inDegree, first.inDegree));
+        return (hubs.size() > limit ? new ArrayList<>(hubs.subList(0, limit)) : hubs);
+    }
+
+    /**
+     * @return the number of the non-null references seen
+     */
+    public long getTotalReferences() {
+        return totalReferences;
+    }
+
+    /**
+     * The in-degree overestimate bound holding with the probability {@link #getConfidence()}.
+     *
+     * @return
+     */
+    public long getMaxOverestimate() {
+        return (long) Math.ceil(Math.E / width * totalReferences);
+    }
+
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    /**
+     * @return the relative standard error of the referrer estimates
+     */
+    public double getReferrersError() {
+        return 1.04 / Math.sqrt(REGISTERS);
+    }
+
+    /**
+     * The memory occupied by the sketch and the candidates, in bytes.
+     *
+     * @return
+     */
+    public long memoryUsed() {
+        return sketch.length * 4L + registers.length + capacity * (8L * 3 + 4 * 2) + cells.capacityBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "InDegreeHotspots{" +
+                "totalReferences=" + totalReferences +
+                ", candidates=" + size +
+                ", maxOverestimate=" + getMaxOverestimate() +
+                '}';
+    }
+
+    /**
+     * Record with an estimated in-degree.
+     */
+    public static class Hub {
+        private final long address;
+        private final long classAddress;
+        private final String className;
+        private final long inDegree;
+        private final long minInDegree;
+        private final long distinctReferrers;
+
+        Hub(long address, long classAddress, String className, long inDegree, long minInDegree, long distinctReferrers) {
+            this.address = address;
+            this.classAddress = classAddress;
+            this.className = className;
+            this.inDegree = inDegree;
+            this.minInDegree = minInDegree;
+            this.distinctReferrers = distinctReferrers;
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        /**
+         * @return the class address or 0 if the record was decoded before the hub was tracked and
+         * {@link #classPass()} wasn't run
+         */
+        public long getClassAddress() {
+            return classAddress;
+        }
+
+        /**
+         * @return the class name or null if unknown
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the in-degree estimate, never below the actual one
+         */
+        public long getInDegree() {
+            return inDegree;
+        }
+
+        /**
+         * @return the in-degree lower bound
+         */
+        public long getMinInDegree() {
+            return minInDegree;
+        }
+
+        public long getDistinctReferrers() {
+            return distinctReferrers;
+        }
+
+        @Override
+        public String toString() {
+            return "Hub{" +
+                    "address=" + Long.toHexString(address) +
+                    ", className='" + className + '\'' +
+                    ", inDegree=" + minInDegree + ".." + inDegree +
+                    ", distinctReferrers=" + distinctReferrers +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.util.LongLongHashMap;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index system keeping the largest records while the dump is parsed: the K largest primitive arrays and object arrays
+ * by size and the K objects and object arrays with the most non-null references.
+ * <p>
+ * Each ranking is a bounded min-heap, a record is compared with the heap minimum only, so a record costs a comparison
+ * and the memory is the heaps and the class table, whatever the dump size. The records with the most references are
+ * the accumulation points: collections, caches, registries.
+ * <p>
+ * The optional second pass, {@link #referrerPass()}, finds the immediate referrers of the kept records, the first one
+ * in the dump order and the number of the references. {@link #getReport()} groups the records by their classes
+ * and by their referrers, a referrer holding many of the largest records is the leak suspect.
+ */
+public class LargestObjectsCollector implements VirtualIndexSystem {
+    public static final int DEFAULT_LIMIT = 100;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final TopHeap primitiveArrays;
+    private final TopHeap objectArrays;
+    private final TopHeap outDegrees;
+    private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+    private long records = 0;
+
+    private List<LeakSuspectsReport.Suspect> suspects;
+    private LongLongHashMap suspectIndexes;
+
+    public LargestObjectsCollector() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit the number of the records kept per ranking
+     */
+    public LargestObjectsCollector(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit should be positive");
+        }
+        primitiveArrays = new TopHeap(limit);
+        objectArrays = new TopHeap(limit);
+        outDegrees = new TopHeap(limit);
+    }
+
+    /**
+     * Run both passes over the dump file.
+     *
+     * @param dump
+     * @param limit the number of the records kept per ranking
+     * @return
+     * @throws IOException
+     */
+    public static LeakSuspectsReport analyze(Path dump, int limit) throws IOException {
+        LargestObjectsCollector collector = new LargestObjectsCollector(limit);
+        parse(dump, collector);
+        parse(dump, collector.referrerPass());
+        return collector.getReport();
+    }
+
+    private static void parse(Path dump, VirtualIndexSystem virtualIndexSystem) throws IOException {
+        try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            stream.readObjects(virtualIndexSystem, null);
+        }
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(classes.find(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        ++records;
+        if (object instanceof DumpObject) {
+            DumpObject dumpObject = (DumpObject) object;
+            // The non-null references are at most all of them, so they aren't counted for the most objects
+            if (outDegrees.admits(dumpObject.getReferences().length)) {
+                long outDegree = countReferences(dumpObject.getReferences());
+                if (outDegrees.admits(outDegree)) {
+                    outDegrees.offer(outDegree, address, dumpObject.getClassAddress(), 0, outDegree, DumpRecordKind.OBJECT);
+                }
+            }
+        } else if (object instanceof DumpObjectArray) {
+            DumpObjectArray objectArray = (DumpObjectArray) object;
+            if (objectArrays.admits(objectArray.getSize())) {
+                objectArrays.offer(objectArray.getSize(), address, objectArray.getClassAddress(), objectArray.getSize(),
+                        countReferences(objectArray.getReferences()), DumpRecordKind.OBJECT_ARRAY);
+            }
+            // The array is at most as long as its size, so the references aren't counted for the most arrays
+            if (outDegrees.admits(objectArray.getReferences().length)) {
+                long outDegree = countReferences(objectArray.getReferences());
+                if (outDegrees.admits(outDegree)) {
+                    outDegrees.offer(outDegree, address, objectArray.getClassAddress(), objectArray.getSize(), outDegree, DumpRecordKind.OBJECT_ARRAY);
+                }
+            }
+        } else if (object instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+            if (primitiveArrays.admits(primitiveArray.getSize())) {
+                primitiveArrays.offer(primitiveArray.getSize(), address, 0, primitiveArray.getSize(), 0,
+                        DumpRecordKind.primitiveArray(primitiveArray.getType()));
+            }
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+    }
+
+    private static long countReferences(long[] references) {
+        long count = 0;
+        for (long reference : references) {
+            if (reference != 0) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Index system of the second pass over the same dump, finding the referrers of the kept records.
+     * The rankings are fixed since the call.
+     *
+     * @return
+     */
+    public VirtualIndexSystem referrerPass() {
+        collectSuspects();
+        return new VirtualIndexSystem() {
+            @Override
+            public <T> T find(long address, Class<T> objectType) {
+                return LargestObjectsCollector.this.find(address, objectType);
+            }
+
+            @Override
+            public void save(long address, Object object) {
+                if (object instanceof DumpObject) {
+                    DumpObject dumpObject = (DumpObject) object;
+                    onReferences(address, dumpObject.getClassAddress(), false, dumpObject.getReferences());
+                } else if (object instanceof DumpObjectArray) {
+                    DumpObjectArray objectArray = (DumpObjectArray) object;
+                    onReferences(address, objectArray.getClassAddress(), false, objectArray.getReferences());
+                }
+            }
+
+            @Override
+            public void save(DumpClass aClass) {
+                onReferences(aClass.getAddress(), aClass.getAddress(), true, aClass.getReferences());
+            }
+        };
+    }
+
+    private void onReferences(long referrer, long referrerClassAddress, boolean staticReferrer, long[] references) {
+        for (long reference : references) {
+            if (reference == 0 || reference == referrer) {
+                continue;
+            }
+            long index = suspectIndexes.get(reference);
+            if (index != LongLongHashMap.NO_VALUE) {
+                suspects.get((int) index).addReferrer(referrer, referrerClassAddress, staticReferrer);
+            }
+        }
+    }
+
+    /**
+     * The rankings and the groups of the kept records. The referrers are known after the {@link #referrerPass()} only.
+     *
+     * @return
+     */
+    public LeakSuspectsReport getReport() {
+        collectSuspects();
+        for (LeakSuspectsReport.Suspect suspect : suspects) {
+            suspect.resolve(classes);
+        }
+        return new LeakSuspectsReport(records, ranking(primitiveArrays), ranking(objectArrays), ranking(outDegrees), suspects);
+    }
+
+    private void collectSuspects() {
+        if (suspects != null) {
+            return;
+        }
+        suspects = new ArrayList<>();
+        suspectIndexes = new LongLongHashMap(primitiveArrays.size + objectArrays.size + outDegrees.size);
+        for (TopHeap heap : new TopHeap[]{primitiveArrays, objectArrays, outDegrees}) {
+            for (int i = 0; i < heap.size; ++i) {
+                if (suspectIndexes.get(heap.addresses[i]) == LongLongHashMap.NO_VALUE) {
+                    suspectIndexes.put(heap.addresses[i], suspects.size());
+                    suspects.add(new LeakSuspectsReport.Suspect(heap.addresses[i], heap.kinds[i], heap.classAddresses[i],
+                            heap.sizes[i], heap.outDegrees[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the suspects of the heap ordered by the heap value descending
+     */
+    private List<LeakSuspectsReport.Suspect> ranking(TopHeap heap) {
+        int[] order = new int[heap.size];
+        for (int i = 0; i < heap.size; ++i) {
+            order[i] = i;
+        }
+        // The heaps are small, an insertion sort by the value descending and the address ascending is enough
+        for (int i = 1; i < order.length; ++i) {
+            int current = order[i];
+            int j = i - 1;
+            while (j >= 0 && heap.precedes(current, order[j])) {
+                order[j + 1] = order[j];
+                --j;
+            }
+            order[j + 1] = current;
+        }
+        List<LeakSuspectsReport.Suspect> result = new ArrayList<>(heap.size);
+        for (int i : order) {
+            result.add(suspects.get((int) suspectIndexes.get(heap.addresses[i])));
+        }
+        return result;
+    }
+
+    /**
+     * The memory occupied by the rankings, in bytes, the class table isn't counted.
+     *
+     * @return
+     */
+    public long memoryUsed() {
+        return primitiveArrays.memoryUsed() + objectArrays.memoryUsed() + outDegrees.memoryUsed()
+                + (suspectIndexes != null ? suspectIndexes.capacityBytes() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "LargestObjectsCollector{" +
+                "records=" + records +
+                ", primitiveArrays=" + primitiveArrays.size +
+                ", objectArrays=" + objectArrays.size +
+                ", outDegrees=" + outDegrees.size +
+                '}';
+    }
+
+    /**
+     * Bounded min-heap of the records by a value, the records are kept in parallel arrays.
+     */
+    private static final class TopHeap {
+        private final int capacity;
+        private final long[] values;
+        private final long[] addresses;
+        private final long[] classAddresses;
+        private final long[] sizes;
+        private final long[] outDegrees;
+        private final byte[] kinds;
+        private int size = 0;
+
+        TopHeap(int capacity) {
+            this.capacity = capacity;
+            values = new long[capacity];
+            addresses = new long[capacity];
+            classAddresses = new long[capacity];
+            sizes = new long[capacity];
+            outDegrees = new long[capacity];
+            kinds = new byte[capacity];
+        }
+
+        /**
+         * @return whether a record of the value may be kept, the only check on the most records
+         */
+        boolean admits(long value) {
+            return size < capacity || value > values[0];
+        }
+
+        void offer(long value, long address, long classAddress, long recordSize, long outDegree, byte kind) {
+            if (size < capacity) {
+                int position = size++;
+                set(position, value, address, classAddress, recordSize, outDegree, kind);
+                siftUp(position);
+            } else {
+                set(0, value, address, classAddress, recordSize, outDegree, kind);
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return whether the first record goes before the second one in the ranking
+         */
+        boolean precedes(int first, int second) {
+            return values[first] > values[second] || (values[first] == values[second] && addresses[first] < addresses[second]);
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (values[parent] <= values[position]) {
+                    break;
+                }
+                swap(parent, position);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && values[child + 1] < values[child]) {
+                    ++child;
+                }
+                if (values[child] >= values[position]) {
+                    break;
+                }
+                swap(child, position);
+                position = child;
+            }
+        }
+
+        private void set(int position, long value, long address, long classAddress, long recordSize, long outDegree, byte kind) {
+            values[position] = value;
+            addresses[position] = address;
+            classAddresses[position] = classAddress;
+            sizes[position] = recordSize;
+            outDegrees[position] = outDegree;
+            kinds[position] = kind;
+        }
+
+        private void swap(int first, int second) {
+            long value = values[first];
+            long address = addresses[first];
+            long classAddress = classAddresses[first];
+            long recordSize = sizes[first];
+            long outDegree = outDegrees[first];
+            byte kind = kinds[first];
+            set(first, values[second], addresses[second], classAddresses[second], sizes[second], outDegrees[second], kinds[second]);
+            set(second, value, address, classAddress, recordSize, outDegree, kind);
+        }
+
+        long memoryUsed() {
+            return capacity * (8L * 5 + 1);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package ru.parse.dump.analysis;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpRecordKind;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+
+import java.util.*;
+
+/**
+ * Largest records of a dump and their groups, built by {@link LargestObjectsCollector}.
+ * <p>
+ * The records of all the rankings are grouped once each: by their class, and by their immediate referrer if it is
+ * known. A group holding many of the largest records or most of their bytes is the accumulation point to look at first.
+ */
+public class LeakSuspectsReport {
+    private final long records;
+    private final List<Suspect> largestPrimitiveArrays;
+    private final List<Suspect> largestObjectArrays;
+    private final List<Suspect> highestOutDegree;
+    private final List<Group> byClass;
+    private final List<Group> byReferrer;
+
+    LeakSuspectsReport(long records, List<Suspect> largestPrimitiveArrays, List<Suspect> largestObjectArrays,
+                       List<Suspect> highestOutDegree, List<Suspect> suspects) {
+        this.records = records;
+        this.largestPrimitiveArrays = largestPrimitiveArrays;
+        this.largestObjectArrays = largestObjectArrays;
+        this.highestOutDegree = highestOutDegree;
+
+        Map<String, Group> classGroups = new HashMap<>();
+        Map<Long, Group> referrerGroups = new HashMap<>();
+        for (Suspect suspect : suspects) {
+            Group classGroup = classGroups.get(suspect.className);
+            if (classGroup == null) {
+                classGroup = new Group(suspect.className, 0);
+                classGroups.put(suspect.className, classGroup);
+            }
+            classGroup.add(suspect);
+
+            if (suspect.referrerCount > 0) {
+                Group referrerGroup = referrerGroups.get(suspect.referrerAddress);
+                if (referrerGroup == null) {
+                    String name = (suspect.staticReferrer ? "class " : "") + suspect.referrerClassName;
+                    referrerGroup = new Group(name, suspect.referrerAddress);
+                    referrerGroups.put(suspect.referrerAddress, referrerGroup);
+                }
+                referrerGroup.add(suspect);
+            }
+        }
+        this.byClass = sorted(classGroups.values());
+        this.byReferrer = sorted(referrerGroups.values());
+    }
+
+    private static List<Group> sorted(Collection<Group> groups) {
+        List<Group> result = new ArrayList<>(groups);
+        result.sort((first, second) -> {
+            int order = Long.compare(second.bytes, first.bytes);
+            if (order == 0) {
+                order = Integer.compare(second.count, first.count);
+            }
+            return (order != 0 ? order : first.name.compareTo(second.name));
+        });
+        return result;
+    }
+
+    /**
+     * @return the number of the records seen by the first pass
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the primitive arrays in the order of the size descending
+     */
+    public List<Suspect> getLargestPrimitiveArrays() {
+        return largestPrimitiveArrays;
+    }
+
+    /**
+     * @return the object arrays in the order of the size descending
+     */
+    public List<Suspect> getLargestObjectArrays() {
+        return largestObjectArrays;
+    }
+
+    /**
+     * @return the objects and the object arrays in the order of the non-null references descending
+     */
+    public List<Suspect> getHighestOutDegree() {
+        return highestOutDegree;
+    }
+
+    /**
+     * @return the groups by the class name in the order of the bytes descending
+     */
+    public List<Group> getByClass() {
+        return byClass;
+    }
+
+    /**
+     * @return the groups by the first referrer in the order of the bytes descending, empty without the referrer pass
+     */
+    public List<Group> getByReferrer() {
+        return byReferrer;
+    }
+
+    @Override
+    public String toString() {
+        return "LeakSuspectsReport{" +
+                "records=" + records +
+                ", largestPrimitiveArrays=" + largestPrimitiveArrays.size() +
+                ", largestObjectArrays=" + largestObjectArrays.size() +
+                ", highestOutDegree=" + highestOutDegree.size() +
+                ", byClass=" + byClass.size() +
+                ", byReferrer=" + byReferrer.size() +
+                '}';
+    }
+
+    /**
+     * One of the largest records.
+     */
+    public static class Suspect {
+        private final long address;
+        private final byte kind;
+        private final long classAddress;
+        private long size;
+        private final long outDegree;
+        private String className;
+
+        private long referrerAddress;
+        private long referrerClassAddress;
+        private boolean staticReferrer;
+        private String referrerClassName;
+        private long referrerCount = 0;
+
+        Suspect(long address, byte kind, long classAddress, long size, long outDegree) {
+            this.address = address;
+            this.kind = kind;
+            this.classAddress = classAddress;
+            this.size = size;
+            this.outDegree = outDegree;
+        }
+
+        /**
+         * The first referrer in the dump order is kept, the others are counted.
+         */
+        void addReferrer(long referrer, long referrerClassAddress, boolean staticReferrer) {
+            if (referrerCount++ == 0) {
+                this.referrerAddress = referrer;
+                this.referrerClassAddress = referrerClassAddress;
+                this.staticReferrer = staticReferrer;
+            }
+        }
+
+        /**
+         * Name the classes and size the plain objects by their class records.
+         */
+        void resolve(DumpClassCacheRegion classes) {
+            if (kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+                className = ClassHistogram.PRIMITIVE_ARRAY_NAMES[kind - DumpRecordKind.PRIMITIVE_ARRAY];
+            } else {
+                DumpClass aClass = classes.find(classAddress);
+                className = name(aClass, classAddress);
+                if (kind == DumpRecordKind.OBJECT && aClass != null) {
+                    size = aClass.getInstanceSize();
+                }
+            }
+            if (referrerCount > 0) {
+                referrerClassName = name(classes.find(referrerClassAddress), referrerClassAddress);
+            }
+        }
+
+        private static String name(DumpClass aClass, long classAddress) {
+            return (aClass != null && aClass.getClassName() != null ? aClass.getClassName()
+                    : String.format("<unknown 0x%x>", classAddress));
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the size in bytes, the instance size for a plain object or 0 if its class is unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of the non-null references, 0 for primitive arrays
+         */
+        public long getOutDegree() {
+            return outDegree;
+        }
+
+        /**
+         * @return the address of the first referrer or 0 if there is none or the referrer pass wasn't run
+         */
+        public long getReferrerAddress() {
+            return referrerAddress;
+        }
+
+        /**
+         * @return the class name of the first referrer, the referrer itself if it is a class
+         */
+        public String getReferrerClassName() {
+            return referrerClassName;
+        }
+
+        /**
+         * @return whether the first referrer is a class, the record is held by its static field then
+         */
+        public boolean isStaticReferrer() {
+            return staticReferrer;
+        }
+
+        /**
+         * @return the number of the references to the record from the other records
+         */
+        public long getReferrerCount() {
+            return referrerCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Suspect{" +
+                    "address=" + Long.toHexString(address) +
+                    ", className='" + className + '\'' +
+                    ", size=" + size +
+                    ", outDegree=" + outDegree +
+                    ", referrer=" + Long.toHexString(referrerAddress) +
+                    ", referrerClassName='" + referrerClassName + '\'' +
+                    ", referrerCount=" + referrerCount +
+                    '}';
+        }
+    }
+
+    /**
+     * Largest records of a class or of a referrer.
+     */
+    public static class Group {
+        private final String name;
+        private final long referrerAddress;
+        private int count = 0;
+        private long bytes = 0;
+        private long references = 0;
+
+        Group(String name, long referrerAddress) {
+            this.name = name;
+            this.referrerAddress = referrerAddress;
+        }
+
+        void add(Suspect suspect) {
+            ++count;
+            bytes += suspect.size;
+            references += suspect.outDegree;
+        }
+
+        /**
+         * @return the class name, the referrer class name for a referrer group, prefixed by <code>class </code> if the
+         * referrer is a class
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the referrer address, 0 for a class group
+         */
+        public long getReferrerAddress() {
+            return referrerAddress;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the size of the records of the group, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the non-null references of the records of the group
+         */
+        public long getReferences() {
+            return references;
+        }
+
+        @Override
+        public String toString() {
+            return "Group{" +
+                    "name='" + name + '\'' +
+                    ", referrerAddress=" + Long.toHexString(referrerAddress) +
+                    ", count=" + count +
+                    ", bytes=" + bytes +
+                    ", references=" + references +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package ru.parse.dump.cli;
+
+import ru.parse.dump.DumpBatchParser;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.export.ColumnarDumpExporter;
+import ru.parse.dump.export.HprofConverter;
+import ru.parse.dump.mapped.LazyRecord;
+import ru.parse.dump.mapped.MappedDump;
+import ru.parse.dump.mapped.RecordCursor;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.validate.DumpValidator;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Command-line tool over the dump files.
+ * <pre>
+ * dumptool stats     [options] &lt;dump&gt;...
+ * dumptool histogram [options] &lt;dump&gt;...
+ * dumptool validate  [options] &lt;dump&gt;...
+ * dumptool export    [options] --output=&lt;path&gt; &lt;dump&gt;
+ * dumptool selftest
+ * </pre>
+ * The dumps are read in the <code>stream</code> mode by {@link DumpBatchParser}, the thread count and the memory budget
+ * are its limits, or in the <code>mapped</code> mode by the {@link RecordCursor}, a thread per dump up to the thread
+ * count. The validation and the HPROF export read the files by themselves.
+ * <p>
+ * The histogram is kept in a {@link HistogramSidecar}, so the repeated histograms of a dump don't parse it again.
+ * The tool is meant to be started often by scripts: it avoids lambdas on the paths the short commands take, their
+ * bootstrap costs more than the sidecar reading, and the <code>selftest</code> command runs every command over
+ * a small generated dump, it is the training run of the class data sharing archive of the distribution.
+ * <p>
+ * The exit code is 0 on success, 1 if a dump is invalid or can't be read, 2 on a usage error.
+ */
+public class DumpTool {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURE = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "Usage: dumptool <command> [options] <dump>...\n" +
+            "Commands:\n" +
+            "  stats       record counts of the dumps\n" +
+            "  histogram   instances and shallow bytes per class\n" +
+            "  validate    check addresses, references and classes\n" +
+            "  export      write the dump as columns or HPROF, --output is required\n" +
+            "  selftest    run every command over a generated dump\n" +
+            "Options:\n" +
+            "  --mode=stream|mapped     input mode, stream by default\n" +
+            "  --threads=N              dumps read at once, 1 by default\n" +
+            "  --memory=SIZE            memory budget of the parsing, like 512m or 2g, half of the heap by default\n" +
+            "  --top=N                  histogram rows printed, all by default\n" +
+            "  --no-sidecar             don't read and write the histogram sidecar files\n" +
+            "  --format=columnar|hprof  export format, columnar by default\n" +
+            "  --output=PATH            export directory or file\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public DumpTool(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        int code = new DumpTool(System.out, System.err).run(args);
+        System.out.flush();
+        if (code != EXIT_OK) {
+            System.exit(code);
+        }
+    }
+
+    /**
+     * Run the command.
+     *
+     * @param args the command, the options and the dumps
+     * @return the exit code
+     */
+    public int run(String... args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println("dumptool: " + e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        try {
+            switch (options.command) {
+                case "stats":
+                    return stats(options);
+                case "histogram":
+                    return histogram(options);
+                case "validate":
+                    return validate(options);
+                case "export":
+                    return export(options);
+                case "selftest":
+                    return selfTest();
+                case "help":
+                    out.print(USAGE);
+                    return EXIT_OK;
+                default:
+                    err.println("dumptool: unknown command " + options.command);
+                    err.print(USAGE);
+                    return EXIT_USAGE;
+            }
+        } catch (IOException | RuntimeException e) {
+            err.println("dumptool: " + e);
+            return EXIT_FAILURE;
+        } catch (ExecutionException e) {
+            err.println("dumptool: " + e.getCause());
+            return EXIT_FAILURE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("dumptool: interrupted");
+            return EXIT_FAILURE;
+        }
+    }
+
+    private int stats(Options options) throws IOException, ExecutionException, InterruptedException {
+        List<VirtualIndexSystem> indexSystems = new ArrayList<>();
+        for (int i = 0; i < options.dumps.size(); ++i) {
+            indexSystems.add(new VirtualIndexSystem() {
+                @Override
+                public <T> T find(long address, Class<T> objectType) {
+                    return null;
+                }
+
+                @Override
+                public void save(long address, Object object) {
+                }
+
+                @Override
+                public void save(DumpClass aClass) {
+                }
+            });
+        }
+        List<DumpParsingStatistics> statistics = parse(options, options.dumps, indexSystems, false);
+        for (int i = 0; i < options.dumps.size(); ++i) {
+            Path dump = options.dumps.get(i);
+            DumpParsingStatistics dumpStatistics = statistics.get(i);
+            DumpHeader header = dumpStatistics.getHeader();
+            printTitle(options, dump);
+            out.println("version           " + header.getVersion());
+            out.println("platform          " + header.getPlatform());
+            out.println("hashed            " + header.isHashed());
+            out.println("j9                " + header.isJ9VM());
+            out.println("jvm               " + header.getJvmVersion());
+            out.println("bytes             " + Files.size(dump));
+            out.println("classes           " + dumpStatistics.getTotalClassesParsed());
+            out.println("objects           " + dumpStatistics.getTotalObjectsParsed());
+            out.println("object arrays     " + dumpStatistics.getTotalObjectArraysParsed());
+            out.println("primitive arrays  " + dumpStatistics.getTotalPrimitiveArraysParsed());
+        }
+        return EXIT_OK;
+    }
+
+    private int histogram(Options options) throws IOException, ExecutionException, InterruptedException {
+        List<List<ClassHistogram.Entry>> histograms = new ArrayList<>();
+        List<Path> parsed = new ArrayList<>();
+        List<VirtualIndexSystem> indexSystems = new ArrayList<>();
+        for (Path dump : options.dumps) {
+            List<ClassHistogram.Entry> entries = (options.sidecar ? HistogramSidecar.read(dump) : null);
+            histograms.add(entries);
+            if (entries == null) {
+                parsed.add(dump);
+                indexSystems.add(new ClassHistogram());
+            }
+        }
+        if (!parsed.isEmpty()) {
+            parse(options, parsed, indexSystems, false);
+        }
+
+        int next = 0;
+        for (int i = 0; i < options.dumps.size(); ++i) {
+            Path dump = options.dumps.get(i);
+            List<ClassHistogram.Entry> entries = histograms.get(i);
+            if (entries == null) {
+                entries = ((ClassHistogram) indexSystems.get(next++)).getEntries();
+                if (options.sidecar) {
+                    try {
+                        HistogramSidecar.write(dump, entries);
+                    } catch (IOException e) {
+                        // A read-only directory, the histogram is still printed
+                        err.println("dumptool: " + dump + ": sidecar not written: " + e);
+                    }
+                }
+            }
+            printTitle(options, dump);
+            printHistogram(entries, options.top);
+        }
+        return EXIT_OK;
+    }
+
+    private void printHistogram(List<ClassHistogram.Entry> entries, int top) {
+        out.println(" num     #instances         #bytes  class name");
+        long totalCount = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < entries.size(); ++i) {
+            ClassHistogram.Entry entry = entries.get(i);
+            if (top == 0 || i < top) {
+                out.println(pad(i + 1 + ":", 5) + pad(entry.getCount(), 15) + pad(entry.getBytes(), 15) + "  " + entry.getName());
+            }
+            totalCount += entry.getCount();
+            totalBytes += entry.getBytes();
+        }
+        out.println("Total" + pad(totalCount, 15) + pad(totalBytes, 15));
+    }
+
+    private int validate(Options options) throws IOException {
+        boolean valid = true;
+        for (Path dump : options.dumps) {
+            DumpValidator.DumpValidationReport report = new DumpValidator(dump).validate();
+            printTitle(options, dump);
+            out.println("valid             " + report.isValid());
+            if (report.getFailure() != null) {
+                out.println("failure           " + report.getFailure());
+            }
+            for (String problem : report.getHeaderProblems()) {
+                out.println("header problem    " + problem);
+            }
+            out.println("truncated         " + report.isTruncated());
+            out.println("records           " + report.getRecords());
+            out.println("regions           " + report.getRegions());
+            out.println("duplicates        " + report.getDuplicateAddresses());
+            out.println("non-monotonic     " + report.getNonMonotonicAddresses());
+            out.println("references        " + report.getReferences());
+            out.println("dangling          " + report.getDanglingReferences());
+            out.println("unresolved        " + report.getUnresolvedClasses());
+            valid &= report.isValid();
+        }
+        return (valid ? EXIT_OK : EXIT_FAILURE);
+    }
+
+    private int export(Options options) throws IOException, ExecutionException, InterruptedException {
+        if (options.dumps.size() != 1 || options.output == null) {
+            err.println("dumptool: export needs a single dump and --output");
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        Path dump = options.dumps.get(0);
+        if ("hprof".equals(options.format)) {
+            DumpParsingStatistics statistics = new HprofConverter(dump).convert(options.output);
+            out.println("records           " + (statistics.getTotalClassesParsed() + statistics.getTotalObjectsParsed()
+                    + statistics.getTotalObjectArraysParsed() + statistics.getTotalPrimitiveArraysParsed()));
+        } else {
+            try (ColumnarDumpExporter exporter = new ColumnarDumpExporter(options.output)) {
+                parse(options, options.dumps, Collections.<VirtualIndexSystem>singletonList(exporter), true);
+                out.println("rows              " + exporter.getRowsWritten());
+                out.println("edges             " + exporter.getEdgesWritten());
+            }
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Write a small dump to a temporary directory and run every command over it in both modes.
+     */
+    private int selfTest() throws IOException {
+        Path directory = Files.createTempDirectory("dumptool");
+        try {
+            Path dump = directory.resolve("selftest.phd");
+            try (OutputStream output = Files.newOutputStream(dump);
+                 DumpWriterStream writer = DumpWriterStream.create(output)) {
+                writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "selftest"));
+                writer.writeClass(new DumpClass(0x1000, 0, 24, "java/lang/Object", 0, new long[0]));
+                writer.writeClass(new DumpClass(0x1100, 0x1000, 32, "ru/parse/dump/cli/DumpTool", 0, new long[]{0x2000}));
+                writer.writeObject(new DumpObject(0x2000, 0x1100, 0, new long[]{0x2100, 0x2200}));
+                writer.writeObjectArray(new DumpObjectArray(0x2100, 0x1000, 0, 32, 2, new long[]{0x2000, 0x2200}));
+                writer.writePrimitiveArray(new DumpPrimitiveArray(0x2200, DumpPrimitiveType.CHAR, 4, 0, 24));
+                writer.writeEnd();
+            }
+
+            PrintStream discarded = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                }
+            });
+            DumpTool tool = new DumpTool(discarded, err);
+            String file = dump.toString();
+            String[][] commands = {
+                    {"stats", file},
+                    {"stats", "--mode=mapped", file},
+                    {"histogram", "--no-sidecar", file},
+                    {"histogram", "--mode=mapped", file},
+                    {"histogram", file},
+                    {"validate", file},
+                    {"export", "--output=" + directory.resolve("columns"), file},
+                    {"export", "--mode=mapped", "--output=" + directory.resolve("mapped-columns"), file},
+                    {"export", "--format=hprof", "--output=" + directory.resolve("selftest.hprof"), file}};
+            for (String[] command : commands) {
+                int code = tool.run(command);
+                if (code != EXIT_OK) {
+                    err.println("dumptool: selftest failed on " + Arrays.toString(command));
+                    return code;
+                }
+            }
+        } finally {
+            delete(directory);
+        }
+        out.println("OK");
+        return EXIT_OK;
+    }
+
+    /**
+     * Parse the dumps into their index systems.
+     *
+     * @param references whether the records of the mapped mode need their references
+     * @return the statistics in the order of the dumps
+     */
+    private static List<DumpParsingStatistics> parse(Options options, List<Path> dumps, List<? extends VirtualIndexSystem> indexSystems,
+                                                     boolean references) throws ExecutionException, InterruptedException {
+        List<Future<DumpParsingStatistics>> futures = new ArrayList<>();
+        if (options.mapped) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.threads, dumps.size()));
+            try {
+                for (int i = 0; i < dumps.size(); ++i) {
+                    final Path dump = dumps.get(i);
+                    final VirtualIndexSystem indexSystem = indexSystems.get(i);
+                    futures.add(executor.submit(new Callable<DumpParsingStatistics>() {
+                        @Override
+                        public DumpParsingStatistics call() throws IOException {
+                            return scan(dump, indexSystem, references);
+                        }
+                    }));
+                }
+                return join(futures);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        try (DumpBatchParser parser = new DumpBatchParser(options.threads, options.memory)) {
+            try {
+                for (int i = 0; i < dumps.size(); ++i) {
+                    futures.add(parser.submit(dumps.get(i), indexSystems.get(i), null));
+                }
+                return join(futures);
+            } finally {
+                // The rest is cancelled if a dump fails, before the parser waits for them
+                for (Future<DumpParsingStatistics> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static List<DumpParsingStatistics> join(List<Future<DumpParsingStatistics>> futures) throws ExecutionException, InterruptedException {
+        List<DumpParsingStatistics> result = new ArrayList<>();
+        for (Future<DumpParsingStatistics> future : futures) {
+            result.add(future.get());
+        }
+        return result;
+    }
+
+    /**
+     * Feed the records of the mapped dump to the index system. Without the references the objects are saved with
+     * no references, so the commands needing the classes and the sizes only don't decode them.
+     */
+    private static DumpParsingStatistics scan(Path dump, VirtualIndexSystem indexSystem, boolean references) throws IOException {
+        long[] noReferences = new long[0];
+        long classes = 0;
+        long objects = 0;
+        long objectArrays = 0;
+        long primitiveArrays = 0;
+        try (MappedDump mapped = MappedDump.open(dump)) {
+            RecordCursor cursor = mapped.cursor();
+            while (cursor.next()) {
+                byte kind = cursor.getKind();
+                if (kind == DumpRecordKind.CLASS) {
+                    ++classes;
+                    indexSystem.save((DumpClass) cursor.toLazyRecord().toRecord());
+                    continue;
+                }
+                if (kind == DumpRecordKind.OBJECT) {
+                    ++objects;
+                } else if (kind == DumpRecordKind.OBJECT_ARRAY) {
+                    ++objectArrays;
+                } else {
+                    ++primitiveArrays;
+                }
+                if (references || kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+                    indexSystem.save(cursor.getAddress(), cursor.toLazyRecord().toRecord());
+                } else if (kind == DumpRecordKind.OBJECT) {
+                    indexSystem.save(cursor.getAddress(), new DumpObject(cursor.getAddress(), cursor.getClassAddress(),
+                            cursor.getHash(), noReferences));
+                } else {
+                    indexSystem.save(cursor.getAddress(), new DumpObjectArray(cursor.getAddress(), cursor.getClassAddress(),
+                            cursor.getHash(), cursor.getSize(), cursor.getLength(), noReferences));
+                }
+            }
+            return new DumpParsingStatistics(mapped.getHeader(), classes, objects, objectArrays, primitiveArrays);
+        }
+    }
+
+    private void printTitle(Options options, Path dump) {
+        if (options.dumps.size() > 1) {
+            out.println("# " + dump);
+        }
+    }
+
+    private static String pad(Object value, int width) {
+        StringBuilder builder = new StringBuilder();
+        String text = String.valueOf(value);
+        for (int i = text.length(); i < width; ++i) {
+            builder.append(' ');
+        }
+        return builder.append(text).toString();
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Parsed command line.
+     */
+    static class Options {
+        String command;
+        boolean mapped = false;
+        int threads = 1;
+        long memory = Runtime.getRuntime().maxMemory() / 2;
+        int top = 0;
+        boolean sidecar = true;
+        String format = "columnar";
+        Path output;
+        final List<Path> dumps = new ArrayList<>();
+
+        static Options parse(String... args) {
+            Options options = new Options();
+            if (args.length == 0) {
+                throw new IllegalArgumentException("no command");
+            }
+            options.command = args[0];
+            for (int i = 1; i < args.length; ++i) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    options.dumps.add(Paths.get(arg));
+                    continue;
+                }
+                int equals = arg.indexOf('=');
+                String name = (equals >= 0 ? arg.substring(2, equals) : arg.substring(2));
+                if (name.equals("no-sidecar")) {
+                    options.sidecar = false;
+                    continue;
+                }
+                String value;
+                if (equals >= 0) {
+                    value = arg.substring(equals + 1);
+                } else if (i + 1 < args.length) {
+                    value = args[++i];
+                } else {
+                    throw new IllegalArgumentException("no value of " + arg);
+                }
+                switch (name) {
+                    case "mode":
+                        if (!value.equals("stream") && !value.equals("mapped")) {
+                            throw new IllegalArgumentException("unknown mode " + value);
+                        }
+                        options.mapped = value.equals("mapped");
+                        break;
+                    case "threads":
+                        options.threads = (int) Math.min(positive(name, parseSize(name, value, false)), Integer.MAX_VALUE);
+                        break;
+                    case "memory":
+                        options.memory = positive(name, parseSize(name, value, true));
+                        break;
+                    case "top":
+                        options.top = (int) Math.min(positive(name, parseSize(name, value, false)), Integer.MAX_VALUE);
+                        break;
+                    case "format":
+                        if (!value.equals("columnar") && !value.equals("hprof")) {
+                            throw new IllegalArgumentException("unknown format " + value);
+                        }
+                        options.format = value;
+                        break;
+                    case "output":
+                        options.output = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+            boolean needsDumps = !options.command.equals("selftest") && !options.command.equals("help");
+            if (needsDumps && options.dumps.isEmpty()) {
+                throw new IllegalArgumentException("no dumps");
+            }
+            return options;
+        }
+
+        /**
+         * @param units whether the value may end with k, m or g
+         */
+        static long parseSize(String name, String value, boolean units) {
+            long multiplier = 1;
+            String digits = value;
+            if (units && !value.isEmpty()) {
+                int unit = "kmg".indexOf(Character.toLowerCase(value.charAt(value.length() - 1)));
+                if (unit >= 0) {
+                    multiplier = 1L << (10 * (unit + 1));
+                    digits = value.substring(0, value.length() - 1);
+                }
+            }
+            try {
+                return Long.parseLong(digits) * multiplier;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + name + " " + value);
+            }
+        }
+
+        private static long positive(String name, long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " should be positive");
+            }
+            return value;
+        }
+    }
+}
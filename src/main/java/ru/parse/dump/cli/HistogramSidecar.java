@@ -0,0 +1,96 @@
+package ru.parse.dump.cli;
+
+import ru.parse.dump.analysis.ClassHistogram;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class histogram of a dump kept in a file next to it, <code>heap.phd.histogram</code> for <code>heap.phd</code>.
+ * <p>
+ * The file starts with the magic, the format version, the size and the modification time of the dump, then the number
+ * of the entries and the entries themselves in the histogram order. The sidecar is stale once the dump size or the
+ * modification time differs, such a sidecar is ignored. The file is written to a temporary one and moved, so a reader
+ * never sees a partial histogram.
+ * <p>
+ * Reading the sidecar needs no dump classes loaded, so a repeated histogram of a large dump costs the JVM start only.
+ */
+public class HistogramSidecar {
+    static final String SUFFIX = ".histogram";
+    private static final int MAGIC = 0x50484448;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private HistogramSidecar() {
+    }
+
+    /**
+     * @param dump
+     * @return the sidecar path of the dump
+     */
+    public static Path path(Path dump) {
+        return dump.resolveSibling(dump.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Read the histogram of the dump.
+     *
+     * @param dump
+     * @return the entries or null if there is no sidecar or it is stale
+     * @throws IOException
+     */
+    public static List<ClassHistogram.Entry> read(Path dump) throws IOException {
+        long size = Files.size(dump);
+        long modified = Files.getLastModifiedTime(dump).toMillis();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path(dump)), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION
+                    || input.readLong() != size || input.readLong() != modified) {
+                return null;
+            }
+            int count = input.readInt();
+            List<ClassHistogram.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                entries.add(new ClassHistogram.Entry(input.readUTF(), input.readLong(), input.readLong()));
+            }
+            return entries;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException e) {
+            // A damaged sidecar, the histogram is computed again
+            return null;
+        }
+    }
+
+    /**
+     * Write the histogram of the dump, replacing the previous sidecar.
+     *
+     * @param dump
+     * @param entries
+     * @throws IOException
+     */
+    public static void write(Path dump, List<ClassHistogram.Entry> entries) throws IOException {
+        Path sidecar = path(dump);
+        Path temporary = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(Files.size(dump));
+            output.writeLong(Files.getLastModifiedTime(dump).toMillis());
+            output.writeInt(entries.size());
+            for (ClassHistogram.Entry entry : entries) {
+                output.writeUTF(entry.getName());
+                output.writeLong(entry.getCount());
+                output.writeLong(entry.getBytes());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,405 @@
+package ru.parse.dump.cluster;
+
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.util.Varints;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Coordinator of the workers analysing the shards of a dump in separate processes.
+ * <p>
+ * The coordinator listens on a TCP port and launches a {@link ShardWorker} per shard, by default a local JVM with
+ * the same class path. The workers may run on other machines as well, then the coordinator is bound to a reachable
+ * address and the launcher starts them remotely. The results are merged while they arrive: the histogram rows and
+ * the counts are summed, the edges are appended to the partition files, so a partition can be processed later
+ * without the others.
+ */
+public class ClusterCoordinator {
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int ACCEPT_POLL_MILLIS = 1000;
+    private static final int SOCKET_BUFFER_SIZE = 1024 * 1024;
+    private static final int EDGE_BYTES = 16;
+
+    private final Path edgeDirectory;
+    private final int partitions;
+    private final InetAddress bindAddress;
+    private final String advertisedHost;
+
+    /**
+     * Create the coordinator of the local workers.
+     *
+     * @param edgeDirectory the directory of the edge partition files
+     * @param partitions    the number of the edge partitions
+     */
+    public ClusterCoordinator(Path edgeDirectory, int partitions) {
+        this(edgeDirectory, partitions, InetAddress.getLoopbackAddress(), InetAddress.getLoopbackAddress().getHostAddress());
+    }
+
+    /**
+     * @param edgeDirectory  the directory of the edge partition files
+     * @param partitions     the number of the edge partitions
+     * @param bindAddress    the address to listen on
+     * @param advertisedHost the host the workers connect to
+     */
+    public ClusterCoordinator(Path edgeDirectory, int partitions, InetAddress bindAddress, String advertisedHost) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partitions should be positive");
+        }
+        this.edgeDirectory = edgeDirectory;
+        this.partitions = partitions;
+        this.bindAddress = bindAddress;
+        this.advertisedHost = advertisedHost;
+    }
+
+    /**
+     * Analyse the shards by local worker JVMs.
+     *
+     * @param shards
+     * @return
+     * @throws IOException
+     */
+    public Result analyzeLocally(List<Path> shards) throws IOException {
+        return analyze(shards, localLauncher(), DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Analyse the shards.
+     *
+     * @param shards
+     * @param launcher      starts a worker per shard
+     * @param timeoutMillis the maximum time to wait for the workers
+     * @return the merged results
+     * @throws IOException
+     * @throws IllegalStateException if a worker fails or doesn't connect in time
+     */
+    public Result analyze(List<Path> shards, WorkerLauncher launcher, long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Result result = new Result(partitions);
+        List<Process> processes = new ArrayList<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        FileChannel[] partitionChannels = new FileChannel[partitions];
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (ServerSocket server = new ServerSocket(0, shards.size(), bindAddress)) {
+            for (int partition = 0; partition < partitions; ++partition) {
+                result.partitionFiles[partition] = edgeDirectory.resolve(String.format("edges-%d.bin", partition));
+                partitionChannels[partition] = FileChannel.open(result.partitionFiles[partition], StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            for (int worker = 0; worker < shards.size(); ++worker) {
+                Process process = launcher.launch(advertisedHost, server.getLocalPort(), worker, shards.get(worker), partitions);
+                if (process != null) {
+                    processes.add(process);
+                }
+            }
+
+            List<Future<?>> handlers = new ArrayList<>();
+            server.setSoTimeout(ACCEPT_POLL_MILLIS);
+            while (handlers.size() < shards.size()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException(String.format("%d of %d workers connected in time", handlers.size(), shards.size()));
+                }
+                for (Process process : processes) {
+                    if (!process.isAlive() && process.exitValue() != 0) {
+                        throw new IllegalStateException(String.format("Worker exited with the code %d before connecting", process.exitValue()));
+                    }
+                }
+                try {
+                    Socket socket = server.accept();
+                    handlers.add(executor.submit(() -> {
+                        receive(socket, result, partitionChannels, failures);
+                        return null;
+                    }));
+                } catch (SocketTimeoutException e) {
+                    // Check the workers again
+                }
+            }
+
+            for (Future<?> handler : handlers) {
+                handler.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("Worker didn't exit in time");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the workers is interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Results of a worker are not received", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Workers didn't finish in time", e);
+        } finally {
+            executor.shutdownNow();
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (FileChannel channel : partitionChannels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException(String.format("Workers failed: %s", failures));
+        }
+        return result;
+    }
+
+    private void receive(Socket socket, Result result, FileChannel[] partitionChannels, List<String> failures) throws IOException {
+        try (Socket closed = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(closed.getInputStream(), SOCKET_BUFFER_SIZE))) {
+            int worker = ClusterProtocol.readHandshake(input);
+            if (!result.registerWorker(worker)) {
+                throw new IllegalStateException(String.format("Worker %d is already connected", worker));
+            }
+            ByteBuffer edges = ByteBuffer.allocate(0);
+            while (true) {
+                byte type = input.readByte();
+                if (type == ClusterProtocol.EDGES) {
+                    int partition = (int) Varints.read(input);
+                    int count = (int) Varints.read(input);
+                    if (partition < 0 || partition >= partitions || count < 0) {
+                        throw new IllegalStateException(String.format("Worker %d sent edges of the partition %d", worker, partition));
+                    }
+                    if (edges.capacity() < count * EDGE_BYTES) {
+                        edges = ByteBuffer.allocate(count * EDGE_BYTES);
+                    }
+                    edges.clear();
+                    long source = 0;
+                    long target = 0;
+                    for (int i = 0; i < count; ++i) {
+                        source += Varints.readSigned(input);
+                        target += Varints.readSigned(input);
+                        edges.putLong(source).putLong(target);
+                    }
+                    edges.flip();
+                    FileChannel channel = partitionChannels[partition];
+                    synchronized (channel) {
+                        while (edges.hasRemaining()) {
+                            channel.write(edges);
+                        }
+                    }
+                    result.addEdges(partition, count);
+                } else if (type == ClusterProtocol.COUNTS) {
+                    long[] counts = new long[ClusterProtocol.COUNTS_LENGTH];
+                    for (int i = 0; i < counts.length; ++i) {
+                        counts[i] = Varints.read(input);
+                    }
+                    result.addCounts(counts);
+                } else if (type == ClusterProtocol.HISTOGRAM) {
+                    int rows = (int) Varints.read(input);
+                    for (int row = 0; row < rows; ++row) {
+                        byte[] name = new byte[(int) Varints.read(input)];
+                        input.readFully(name);
+                        result.addHistogramRow(new String(name, StandardCharsets.UTF_8), Varints.read(input),
+                                Varints.read(input));
+                    }
+                } else if (type == ClusterProtocol.DONE) {
+                    result.addWorker();
+                    return;
+                } else if (type == ClusterProtocol.FAILURE) {
+                    failures.add(String.format("worker %d: %s", worker, input.readUTF()));
+                    return;
+                } else {
+                    throw new IllegalStateException(String.format("Worker %d sent an unknown frame %d", worker, type));
+                }
+            }
+        }
+    }
+
+    /**
+     * The launcher of the worker JVMs on this machine.
+     *
+     * @param jvmOptions the options of the worker JVMs, like <code>-Xmx4g</code>
+     * @return
+     */
+    public static WorkerLauncher localLauncher(String... jvmOptions) {
+        return commandLauncher(Collections.emptyList(), jvmOptions);
+    }
+
+    /**
+     * The launcher running the worker JVM by a command, e.g. <code>ssh node1</code>.
+     * The java executable, the class path and the shard paths should be the same on the machine the command runs on.
+     *
+     * @param commandPrefix
+     * @param jvmOptions    the options of the worker JVMs
+     * @return
+     */
+    public static WorkerLauncher commandLauncher(List<String> commandPrefix, String... jvmOptions) {
+        return (host, port, worker, shard, partitions) -> {
+            List<String> command = new ArrayList<>(commandPrefix);
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(Arrays.asList(jvmOptions));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ShardWorker.class.getName());
+            command.add(host);
+            command.add(String.valueOf(port));
+            command.add(String.valueOf(worker));
+            command.add(shard.toString());
+            command.add(String.valueOf(partitions));
+            return new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        };
+    }
+
+    /**
+     * Starts a worker connecting to the coordinator.
+     */
+    @FunctionalInterface
+    public interface WorkerLauncher {
+        /**
+         * @param host       the coordinator host
+         * @param port       the coordinator port
+         * @param worker     the worker number
+         * @param shard
+         * @param partitions the number of the edge partitions
+         * @return the worker process or null if the worker isn't a process of this machine
+         * @throws IOException
+         */
+        Process launch(String host, int port, int worker, Path shard, int partitions) throws IOException;
+    }
+
+    /**
+     * Merged results of the workers.
+     */
+    public static class Result {
+        private final Map<String, long[]> histogram = new HashMap<>();
+        private final long[] counts = new long[ClusterProtocol.COUNTS_LENGTH];
+        private final Set<Integer> registeredWorkers = new HashSet<>();
+        private final long[] edges;
+        private final Path[] partitionFiles;
+        private int workers;
+
+        Result(int partitions) {
+            edges = new long[partitions];
+            partitionFiles = new Path[partitions];
+        }
+
+        /**
+         * @param worker the number of the handshake
+         * @return false if a worker of the number has already connected
+         */
+        synchronized boolean registerWorker(int worker) {
+            return registeredWorkers.add(worker);
+        }
+
+        synchronized void addEdges(int partition, long count) {
+            edges[partition] += count;
+        }
+
+        synchronized void addCounts(long[] workerCounts) {
+            for (int i = 0; i < ClusterProtocol.COUNTS_LENGTH; ++i) {
+                counts[i] += workerCounts[i];
+            }
+        }
+
+        synchronized void addHistogramRow(String name, long count, long bytes) {
+            long[] row = histogram.computeIfAbsent(name, key -> new long[2]);
+            row[0] += count;
+            row[1] += bytes;
+        }
+
+        synchronized void addWorker() {
+            ++workers;
+        }
+
+        /**
+         * @return the number of the workers finished successfully
+         */
+        public synchronized int getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @return entries in the order of the shallow bytes descending
+         */
+        public synchronized List<ClassHistogram.Entry> getEntries() {
+            List<ClassHistogram.Entry> entries = new ArrayList<>();
+            histogram.forEach((name, row) -> entries.add(new ClassHistogram.Entry(name, row[0], row[1])));
+            entries.sort((first, second) -> {
+                int bytesOrder = Long.compare(second.getBytes(), first.getBytes());
+                return (bytesOrder != 0 ? bytesOrder : first.getName().compareTo(second.getName()));
+            });
+            return entries;
+        }
+
+        public synchronized long getClasses() {
+            return counts[ClusterProtocol.COUNT_CLASSES];
+        }
+
+        public synchronized long getObjects() {
+            return counts[ClusterProtocol.COUNT_OBJECTS];
+        }
+
+        public synchronized long getObjectArrays() {
+            return counts[ClusterProtocol.COUNT_OBJECT_ARRAYS];
+        }
+
+        public synchronized long getPrimitiveArrays() {
+            return counts[ClusterProtocol.COUNT_PRIMITIVE_ARRAYS];
+        }
+
+        /**
+         * @return the number of the non-null references, the edges of all the partitions
+         */
+        public synchronized long getReferences() {
+            return counts[ClusterProtocol.COUNT_REFERENCES];
+        }
+
+        public synchronized long getNullReferences() {
+            return counts[ClusterProtocol.COUNT_NULL_REFERENCES];
+        }
+
+        public synchronized long getEdges(int partition) {
+            return edges[partition];
+        }
+
+        /**
+         * @param partition
+         * @return the file of the edges, the big-endian source and target addresses of every edge
+         */
+        public Path getPartitionFile(int partition) {
+            return partitionFiles[partition];
+        }
+
+        public int getPartitions() {
+            return edges.length;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Result{" +
+                    "workers=" + workers +
+                    ", classes=" + counts[ClusterProtocol.COUNT_CLASSES] +
+                    ", objects=" + counts[ClusterProtocol.COUNT_OBJECTS] +
+                    ", objectArrays=" + counts[ClusterProtocol.COUNT_OBJECT_ARRAYS] +
+                    ", primitiveArrays=" + counts[ClusterProtocol.COUNT_PRIMITIVE_ARRAYS] +
+                    ", references=" + counts[ClusterProtocol.COUNT_REFERENCES] +
+                    ", histogramRows=" + histogram.size() +
+                    ", edges=" + Arrays.toString(edges) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.parse.dump.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between the workers and the coordinator.
+ * <p>
+ * A worker opens the connection with the handshake: the magic, the version and its number. Then it sends the frames,
+ * every frame is a type byte followed by the payload. The numbers are {@link ru.parse.dump.util.Varints varints}, the addresses of the edges are
+ * zigzag-encoded deltas from the previous edge of the frame, so a frame of neighbouring references costs a few bytes
+ * per edge. The worker ends with {@link #DONE} or {@link #FAILURE}.
+ */
+final class ClusterProtocol {
+    static final int MAGIC = 0x50484443;
+    static final int VERSION = 1;
+
+    /**
+     * Histogram rows: count, then the name, the instance count and the bytes of every row.
+     */
+    static final byte HISTOGRAM = 1;
+    /**
+     * Edges of a partition: the partition, count, then the source and the target deltas of every edge.
+     */
+    static final byte EDGES = 2;
+    /**
+     * Record counts: {@link #COUNTS_LENGTH} varints at the <code>COUNT_*</code> indexes.
+     */
+    static final byte COUNTS = 3;
+    static final byte DONE = 4;
+    /**
+     * The worker failed, the payload is the message.
+     */
+    static final byte FAILURE = 5;
+
+    static final int COUNT_CLASSES = 0;
+    static final int COUNT_OBJECTS = 1;
+    static final int COUNT_OBJECT_ARRAYS = 2;
+    static final int COUNT_PRIMITIVE_ARRAYS = 3;
+    static final int COUNT_REFERENCES = 4;
+    static final int COUNT_NULL_REFERENCES = 5;
+    static final int COUNTS_LENGTH = 6;
+
+    private ClusterProtocol() {
+    }
+
+    static void writeHandshake(DataOutputStream output, int worker) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeShort(VERSION);
+        output.writeInt(worker);
+    }
+
+    /**
+     * @param input
+     * @return the worker number
+     * @throws IOException
+     */
+    static int readHandshake(DataInputStream input) throws IOException {
+        int magic = input.readInt();
+        int version = input.readUnsignedShort();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IllegalStateException(String.format("Unsupported worker handshake %08x, version %d", magic, version));
+        }
+        return input.readInt();
+    }
+
+    /**
+     * @param target
+     * @param partitions
+     * @return the partition of the edges to the target
+     */
+    static int partition(long target, int partitions) {
+        long mixed = target * 0x9e3779b97f4a7c15L;
+        return (int) Long.remainderUnsigned(mixed ^ (mixed >>> 32), partitions);
+    }
+}
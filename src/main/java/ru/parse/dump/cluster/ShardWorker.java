@@ -0,0 +1,209 @@
+package ru.parse.dump.cluster;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.objects.DumpObjectArray;
+import ru.parse.dump.util.Varints;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Worker analysing a single shard of the dump, usually in its own JVM.
+ * <p>
+ * The shard is a complete dump, like the ones written by {@link ru.parse.dump.DumpSplitter}. The worker parses it
+ * once and streams the results to the coordinator: the edges as soon as a partition buffer fills up, the counts and
+ * the class histogram at the end. So the worker memory is the histogram and the edge buffers only. The class records
+ * are copied to every shard, so only the worker 0 counts them and sends their references.
+ */
+public class ShardWorker {
+    public static final int DEFAULT_EDGES_PER_FRAME = 64 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int SOCKET_BUFFER_SIZE = 1024 * 1024;
+
+    private final int worker;
+    private final Path shard;
+    private final int partitions;
+    private final int edgesPerFrame;
+
+    /**
+     * @param worker        the number reported to the coordinator
+     * @param shard
+     * @param partitions    the number of the edge partitions
+     * @param edgesPerFrame
+     */
+    public ShardWorker(int worker, Path shard, int partitions, int edgesPerFrame) {
+        if (partitions <= 0 || edgesPerFrame <= 0) {
+            throw new IllegalArgumentException("Partitions and edges per frame should be positive");
+        }
+        this.worker = worker;
+        this.shard = shard;
+        this.partitions = partitions;
+        this.edgesPerFrame = edgesPerFrame;
+    }
+
+    /**
+     * Arguments: the coordinator host, the coordinator port, the worker number, the shard file, the number of the edge partitions.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("Usage: ShardWorker <host> <port> <worker> <shard> <partitions>");
+            System.exit(2);
+        }
+        ShardWorker shardWorker = new ShardWorker(Integer.parseInt(args[2]), Paths.get(args[3]), Integer.parseInt(args[4]),
+                DEFAULT_EDGES_PER_FRAME);
+        if (!shardWorker.run(args[0], Integer.parseInt(args[1]))) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Connect to the coordinator and send the results.
+     *
+     * @param host
+     * @param port
+     * @return whether the shard is analysed successfully
+     * @throws IOException if the coordinator is not reachable
+     */
+    public boolean run(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), SOCKET_BUFFER_SIZE))) {
+            ClusterProtocol.writeHandshake(output, worker);
+            try {
+                analyze(output);
+                output.writeByte(ClusterProtocol.DONE);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                output.writeByte(ClusterProtocol.FAILURE);
+                output.writeUTF(String.valueOf(e));
+                return false;
+            }
+        }
+    }
+
+    void analyze(DataOutputStream output) throws IOException {
+        ShardCollector collector = new ShardCollector(output);
+        try (InputStream input = Files.newInputStream(shard, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            stream.readObjects(collector, null);
+        }
+        collector.finish();
+    }
+
+    /**
+     * Index system collecting the results of the shard.
+     */
+    private class ShardCollector implements VirtualIndexSystem {
+        private final DataOutputStream output;
+        private final ClassHistogram histogram = new ClassHistogram();
+        private final long[][] sources = new long[partitions][edgesPerFrame];
+        private final long[][] targets = new long[partitions][edgesPerFrame];
+        private final int[] filled = new int[partitions];
+        private final long[] counts = new long[ClusterProtocol.COUNTS_LENGTH];
+
+        ShardCollector(DataOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return histogram.find(address, objectType);
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            histogram.save(address, object);
+            if (object instanceof DumpObject) {
+                ++counts[ClusterProtocol.COUNT_OBJECTS];
+                addEdges(address, ((DumpObject) object).getReferences());
+            } else if (object instanceof DumpObjectArray) {
+                ++counts[ClusterProtocol.COUNT_OBJECT_ARRAYS];
+                addEdges(address, ((DumpObjectArray) object).getReferences());
+            } else {
+                ++counts[ClusterProtocol.COUNT_PRIMITIVE_ARRAYS];
+            }
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            histogram.save(aClass);
+            // Every shard has all the classes, they are reported by the first worker only
+            if (worker == 0) {
+                ++counts[ClusterProtocol.COUNT_CLASSES];
+                addEdges(aClass.getAddress(), aClass.getReferences());
+            }
+        }
+
+        private void addEdges(long source, long[] references) {
+            for (long reference : references) {
+                if (reference == 0) {
+                    ++counts[ClusterProtocol.COUNT_NULL_REFERENCES];
+                    continue;
+                }
+                ++counts[ClusterProtocol.COUNT_REFERENCES];
+                int partition = ClusterProtocol.partition(reference, partitions);
+                int position = filled[partition]++;
+                sources[partition][position] = source;
+                targets[partition][position] = reference;
+                if (filled[partition] == edgesPerFrame) {
+                    flushEdges(partition);
+                }
+            }
+        }
+
+        private void flushEdges(int partition) {
+            try {
+                output.writeByte(ClusterProtocol.EDGES);
+                Varints.write(output, partition);
+                Varints.write(output, filled[partition]);
+                long previousSource = 0;
+                long previousTarget = 0;
+                for (int i = 0; i < filled[partition]; ++i) {
+                    Varints.writeSigned(output, sources[partition][i] - previousSource);
+                    Varints.writeSigned(output, targets[partition][i] - previousTarget);
+                    previousSource = sources[partition][i];
+                    previousTarget = targets[partition][i];
+                }
+                filled[partition] = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            for (int partition = 0; partition < partitions; ++partition) {
+                if (filled[partition] > 0) {
+                    flushEdges(partition);
+                }
+            }
+
+            output.writeByte(ClusterProtocol.COUNTS);
+            for (long count : counts) {
+                Varints.write(output, count);
+            }
+
+            List<ClassHistogram.Entry> entries = histogram.getEntries();
+            output.writeByte(ClusterProtocol.HISTOGRAM);
+            Varints.write(output, entries.size());
+            for (ClassHistogram.Entry entry : entries) {
+                byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+                Varints.write(output, name.length);
+                output.write(name);
+                Varints.write(output, entry.getCount());
+                Varints.write(output, entry.getBytes());
+            }
+        }
+    }
+}
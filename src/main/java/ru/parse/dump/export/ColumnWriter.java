@@ -0,0 +1,87 @@
+package ru.parse.dump.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only writer of a single column file.
+ * Values are fixed-width little-endian primitives, collected in a direct buffer and flushed with large sequential writes.
+ */
+class ColumnWriter implements Closeable {
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long valuesWritten = 0;
+
+    ColumnWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void writeByte(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+        ++valuesWritten;
+    }
+
+    void writeInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+        ++valuesWritten;
+    }
+
+    void writeLong(long value) throws IOException {
+        ensureRemaining(8);
+        buffer.putLong(value);
+        ++valuesWritten;
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        valuesWritten += bytes.length;
+    }
+
+    long getValuesWritten() {
+        return valuesWritten;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package ru.parse.dump.export;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Exporter streaming parsed records into a self-describing columnar format.
+ * <p>
+ * Every column is a separate file of fixed-width little-endian values, so it can be memory-mapped independently:
+ * <ul>
+ * <li><b>address.bin</b>, <b>class_address.bin</b> and <b>shallow_size.bin</b> - int64 per row;</li>
+ * <li><b>hash.bin</b> - int32 per row;</li>
+ * <li><b>type.bin</b> - uint8 dictionary code per row, the dictionary is written to the schema;</li>
+ * <li><b>edge_offsets.bin</b> - int64, rows + 1 values, the references of the row <i>i</i> are
+ * <b>edges.bin</b>[edge_offsets[i] .. edge_offsets[i + 1]);</li>
+ * <li><b>edges.bin</b> - int64 reference addresses.</li>
+ * </ul>
+ * Class records are additionally written to <b>class_*.bin</b> columns with the names stored as UTF-8 in
+ * <b>class_name.bin</b> indexed by <b>class_name_offsets.bin</b>. The layout description is written to <b>schema.properties</b>.
+ * <p>
+ * The shallow size of a plain object is the instance size of its class. Instances met before their class record are
+ * written with an unknown size (-1) and patched in a sequential pass when the exporter is closed. PHD keeps no size
+ * of the class objects, so the class rows have the size 0, as the nodes of the reference graph do.
+ */
+public class ColumnarDumpExporter implements VirtualIndexSystem, Closeable {
+    static final long UNKNOWN_SIZE = -1;
+    private static final int PATCH_CHUNK_ROWS = 512 * 1024;
+
+    private final Path directory;
+    private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+
+    private final ColumnWriter addressColumn;
+    private final ColumnWriter classAddressColumn;
+    private final ColumnWriter hashColumn;
+    private final ColumnWriter shallowSizeColumn;
+    private final ColumnWriter typeColumn;
+    private final ColumnWriter edgeOffsetsColumn;
+    private final ColumnWriter edgesColumn;
+
+    private final ColumnWriter classAddressTableColumn;
+    private final ColumnWriter classSuperAddressColumn;
+    private final ColumnWriter classInstanceSizeColumn;
+    private final ColumnWriter classNameOffsetsColumn;
+    private final ColumnWriter classNameColumn;
+
+    private long rows = 0;
+    private long edges = 0;
+    private long unresolvedSizes = 0;
+    private boolean closed = false;
+
+    /**
+     * Create an exporter writing column files to the directory.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public ColumnarDumpExporter(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        addressColumn = new ColumnWriter(directory.resolve("address.bin"));
+        classAddressColumn = new ColumnWriter(directory.resolve("class_address.bin"));
+        hashColumn = new ColumnWriter(directory.resolve("hash.bin"));
+        shallowSizeColumn = new ColumnWriter(directory.resolve("shallow_size.bin"));
+        typeColumn = new ColumnWriter(directory.resolve("type.bin"));
+        edgeOffsetsColumn = new ColumnWriter(directory.resolve("edge_offsets.bin"));
+        edgesColumn = new ColumnWriter(directory.resolve("edges.bin"));
+
+        classAddressTableColumn = new ColumnWriter(directory.resolve("class_address_table.bin"));
+        classSuperAddressColumn = new ColumnWriter(directory.resolve("class_super_address.bin"));
+        classInstanceSizeColumn = new ColumnWriter(directory.resolve("class_instance_size.bin"));
+        classNameOffsetsColumn = new ColumnWriter(directory.resolve("class_name_offsets.bin"));
+        classNameColumn = new ColumnWriter(directory.resolve("class_name.bin"));
+
+        edgeOffsetsColumn.writeLong(0);
+        classNameOffsetsColumn.writeLong(0);
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(classes.find(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        try {
+            if (object instanceof DumpObject) {
+                DumpObject dumpObject = (DumpObject) object;
+                DumpClass aClass = classes.find(dumpObject.getClassAddress());
+                long size = (aClass != null ? aClass.getInstanceSize() : UNKNOWN_SIZE);
+                if (aClass == null) {
+                    ++unresolvedSizes;
+                }
+                writeRow(address, dumpObject.getClassAddress(), dumpObject.getHash(), size, DumpRecordKind.OBJECT, dumpObject.getReferences());
+            } else if (object instanceof DumpObjectArray) {
+                DumpObjectArray objectArray = (DumpObjectArray) object;
+                writeRow(address, objectArray.getClassAddress(), objectArray.getHash(), objectArray.getSize(), DumpRecordKind.OBJECT_ARRAY, objectArray.getReferences());
+            } else if (object instanceof DumpPrimitiveArray) {
+                DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+                writeRow(address, 0, primitiveArray.getHash(), primitiveArray.getSize(),
+                        DumpRecordKind.primitiveArray(primitiveArray.getType()), null);
+            }
+        } catch (IOException e) {
+            throw new ExportException(e);
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+        try {
+            writeRow(aClass.getAddress(), 0, aClass.getHash(), 0, DumpRecordKind.CLASS, aClass.getReferences());
+
+            classAddressTableColumn.writeLong(aClass.getAddress());
+            classSuperAddressColumn.writeLong(aClass.getSuperClassAddress());
+            classInstanceSizeColumn.writeLong(aClass.getInstanceSize());
+            classNameColumn.writeBytes(aClass.getClassName().getBytes(StandardCharsets.UTF_8));
+            classNameOffsetsColumn.writeLong(classNameColumn.getValuesWritten());
+        } catch (IOException e) {
+            throw new ExportException(e);
+        }
+    }
+
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    public long getEdgesWritten() {
+        return edges;
+    }
+
+    private void writeRow(long address, long classAddress, int hash, long size, int type, long[] references) throws IOException {
+        addressColumn.writeLong(address);
+        classAddressColumn.writeLong(classAddress);
+        hashColumn.writeInt(hash);
+        shallowSizeColumn.writeLong(size);
+        typeColumn.writeByte(type);
+        if (references != null) {
+            for (long reference : references) {
+                edgesColumn.writeLong(reference);
+            }
+            edges += references.length;
+        }
+        edgeOffsetsColumn.writeLong(edges);
+        ++rows;
+    }
+
+    /**
+     * Fill the sizes of objects written before their class record was met.
+     * Both columns are walked sequentially chunk by chunk, so the memory used does not depend on the dump size.
+     */
+    private void patchUnresolvedSizes() throws IOException {
+        classAddressColumn.flush();
+        shallowSizeColumn.flush();
+        typeColumn.flush();
+
+        FileChannel classChannel = classAddressColumn.getChannel();
+        FileChannel sizeChannel = shallowSizeColumn.getChannel();
+        FileChannel typeChannel = typeColumn.getChannel();
+        ByteBuffer classChunk = ByteBuffer.allocateDirect(PATCH_CHUNK_ROWS * 8).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer sizeChunk = ByteBuffer.allocateDirect(PATCH_CHUNK_ROWS * 8).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer typeChunk = ByteBuffer.allocateDirect(PATCH_CHUNK_ROWS);
+
+        for (long firstRow = 0; firstRow < rows && unresolvedSizes > 0; firstRow += PATCH_CHUNK_ROWS) {
+            int chunkRows = (int) Math.min(PATCH_CHUNK_ROWS, rows - firstRow);
+            readFully(classChannel, classChunk, firstRow * 8, chunkRows * 8);
+            readFully(sizeChannel, sizeChunk, firstRow * 8, chunkRows * 8);
+            readFully(typeChannel, typeChunk, firstRow, chunkRows);
+
+            boolean patched = false;
+            for (int i = 0; i < chunkRows; ++i) {
+                if (typeChunk.get(i) == DumpRecordKind.OBJECT && sizeChunk.getLong(i * 8) == UNKNOWN_SIZE) {
+                    DumpClass aClass = classes.find(classChunk.getLong(i * 8));
+                    if (aClass != null) {
+                        sizeChunk.putLong(i * 8, aClass.getInstanceSize());
+                        --unresolvedSizes;
+                        patched = true;
+                    }
+                }
+            }
+
+            if (patched) {
+                sizeChunk.position(0).limit(chunkRows * 8);
+                long position = firstRow * 8;
+                while (sizeChunk.hasRemaining()) {
+                    position += sizeChannel.write(sizeChunk, position);
+                }
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException(String.format("Cannot read %d bytes at %d", length, position));
+            }
+        }
+    }
+
+    private void writeSchema() throws IOException {
+        Properties schema = new Properties();
+        schema.setProperty("format", "phd-columnar");
+        schema.setProperty("version", "1");
+        schema.setProperty("byteOrder", "LITTLE_ENDIAN");
+        schema.setProperty("rows", Long.toString(rows));
+        schema.setProperty("edges", Long.toString(edges));
+        schema.setProperty("classes", Long.toString(classAddressTableColumn.getValuesWritten()));
+        schema.setProperty("unresolvedSizes", Long.toString(unresolvedSizes));
+
+        describeColumn(schema, "address", "address.bin", "int64", "rows");
+        describeColumn(schema, "classAddress", "class_address.bin", "int64", "rows");
+        describeColumn(schema, "hash", "hash.bin", "int32", "rows");
+        describeColumn(schema, "shallowSize", "shallow_size.bin", "int64", "rows");
+        describeColumn(schema, "type", "type.bin", "uint8", "rows");
+        describeColumn(schema, "edgeOffsets", "edge_offsets.bin", "int64", "rows+1");
+        describeColumn(schema, "edges", "edges.bin", "int64", "edges");
+        describeColumn(schema, "classAddressTable", "class_address_table.bin", "int64", "classes");
+        describeColumn(schema, "classSuperAddress", "class_super_address.bin", "int64", "classes");
+        describeColumn(schema, "classInstanceSize", "class_instance_size.bin", "int64", "classes");
+        describeColumn(schema, "classNameOffsets", "class_name_offsets.bin", "int64", "classes+1");
+        describeColumn(schema, "className", "class_name.bin", "utf8", "classNameOffsets");
+
+        for (byte kind : new byte[]{DumpRecordKind.OBJECT, DumpRecordKind.OBJECT_ARRAY, DumpRecordKind.CLASS}) {
+            schema.setProperty("type.dictionary." + kind, DumpRecordKind.name(kind));
+        }
+        for (DumpPrimitiveType type : DumpPrimitiveType.values()) {
+            byte kind = DumpRecordKind.primitiveArray(type);
+            schema.setProperty("type.dictionary." + kind, DumpRecordKind.name(kind));
+        }
+
+        try (OutputStream output = Files.newOutputStream(directory.resolve("schema.properties"))) {
+            schema.store(output, "Columnar export of a PHD file");
+        }
+    }
+
+    private static void describeColumn(Properties schema, String name, String file, String type, String length) {
+        schema.setProperty("column." + name + ".file", file);
+        schema.setProperty("column." + name + ".type", type);
+        schema.setProperty("column." + name + ".length", length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        IOException failure = null;
+        try {
+            if (unresolvedSizes > 0) {
+                patchUnresolvedSizes();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            // The columns are closed whatever the patch did
+            ColumnWriter[] columns = {addressColumn, classAddressColumn, hashColumn, shallowSizeColumn, typeColumn,
+                    edgeOffsetsColumn, edgesColumn, classAddressTableColumn, classSuperAddressColumn, classInstanceSizeColumn,
+                    classNameOffsetsColumn, classNameColumn};
+            for (ColumnWriter column : columns) {
+                try {
+                    column.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        writeSchema();
+    }
+
+    /**
+     * Unchecked wrapper of the I/O failures, because {@link VirtualIndexSystem} methods cannot throw checked exceptions.
+     */
+    public static class ExportException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExportException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package ru.parse.dump.export;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.util.LongArrayList;
+import ru.parse.dump.util.LongLongHashMap;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converter of a PHD file into the HPROF format.
+ * <p>
+ * The first pass is the class-only scan of {@link DumpParserStream#readClasses}, it writes the class names and
+ * the LOAD CLASS records. The second pass streams the records straight into HEAP DUMP SEGMENT records, nothing but
+ * the class addresses is kept in memory.
+ * <p>
+ * PHD keeps neither field values nor field layouts, and the number of references of instances of the same class may
+ * differ. So the root classes of the hierarchies declare one object field, {@value #REFERENCES_FIELD}, and every
+ * instance with references points by it to a synthetic array of them, identified by the instance address + 1.
+ * Primitive arrays are written zero-filled. Classes are the only GC roots, PHD has no root records.
+ * <p>
+ * A dump may lack the class records of some instances and arrays. Their classes are collected by the second pass and
+ * written after the heap records as placeholders: a LOAD CLASS record with the <code>&lt;unknown address&gt;</code>
+ * name and a root CLASS DUMP record with no fields but the synthetic references one.
+ */
+public class HprofConverter {
+    static final String REFERENCES_FIELD = "<references>";
+    static final String REFERENCES_CLASS = "[Lphd/References;";
+    /**
+     * Record addresses are word aligned, so the odd identifiers are free for the synthetic records.
+     */
+    static final long REFERENCES_CLASS_ID = 3;
+
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final long SEGMENT_LIMIT = 1024 * 1024 * 1024;
+    private static final long MAX_RECORD_LENGTH = 0xffffffffL;
+    private static final int STACK_TRACE_SERIAL = 1;
+
+    private static final int TAG_UTF8 = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_STACK_TRACE = 0x05;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1c;
+    private static final int TAG_HEAP_DUMP_END = 0x2c;
+
+    private static final int SUB_ROOT_STICKY_CLASS = 0x05;
+    private static final int SUB_CLASS_DUMP = 0x20;
+    private static final int SUB_INSTANCE_DUMP = 0x21;
+    private static final int SUB_OBJ_ARRAY_DUMP = 0x22;
+    private static final int SUB_PRIM_ARRAY_DUMP = 0x23;
+
+    private static final int TYPE_OBJECT = 2;
+
+    private final Path source;
+
+    public HprofConverter(Path source) {
+        this.source = source;
+    }
+
+    /**
+     * Convert the dump.
+     *
+     * @param target the HPROF file
+     * @return the statistics of the records written
+     * @throws IOException
+     */
+    public DumpParsingStatistics convert(Path target) throws IOException {
+        try (HprofWriter writer = new HprofWriter(target)) {
+            writer.writeBytes("JAVA PROFILE 1.0.2".getBytes(StandardCharsets.US_ASCII));
+            writer.writeU1(0);
+            writer.writeU4(HprofWriter.ID_SIZE);
+            writer.writeU8(Files.getLastModifiedTime(source).toMillis());
+
+            ClassNameWriter classNames = new ClassNameWriter(writer);
+            try (InputStream input = Files.newInputStream(source, StandardOpenOption.READ);
+                 DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+                stream.readClasses(classNames, null);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            classNames.finish();
+
+            writeRecordHeader(writer, TAG_STACK_TRACE, 12);
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeU4(0);
+            writer.writeU4(0);
+
+            RecordWriter recordWriter = new RecordWriter(writer, classNames);
+            DumpParsingStatistics statistics;
+            try (InputStream input = Files.newInputStream(source, StandardOpenOption.READ);
+                 DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+                recordWriter.writeReferencesClass();
+                statistics = stream.readObjects(recordWriter, null);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            recordWriter.endSegment();
+
+            // The classes of the records without the class records, known after the records are written only
+            LongArrayList placeholders = recordWriter.getPlaceholders();
+            for (int i = 0; i < placeholders.size(); ++i) {
+                classNames.loadClass(placeholders.get(i), unknownName(placeholders.get(i)));
+            }
+            for (int i = 0; i < placeholders.size(); ++i) {
+                recordWriter.writeClass(placeholders.get(i), 0, 0, new long[0]);
+            }
+            recordWriter.endSegment();
+
+            writeRecordHeader(writer, TAG_HEAP_DUMP_END, 0);
+            return statistics;
+        }
+    }
+
+    private static void writeRecordHeader(HprofWriter writer, int tag, long length) throws IOException {
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalStateException(String.format("HPROF record of %d bytes is too large", length));
+        }
+        writer.writeU1(tag);
+        writer.writeU4(0);
+        writer.writeU4((int) length);
+    }
+
+    private static String unknownName(long classAddress) {
+        return String.format("<unknown %x>", classAddress);
+    }
+
+    private static int primitiveType(DumpPrimitiveType type) {
+        switch (type) {
+            case BOOLEAN:
+                return 4;
+            case CHAR:
+                return 5;
+            case FLOAT:
+                return 6;
+            case DOUBLE:
+                return 7;
+            case BYTE:
+                return 8;
+            case SHORT:
+                return 9;
+            case INT:
+                return 10;
+            case LONG:
+                return 11;
+            default:
+                throw new IllegalStateException(String.format("Unknown primitive type %s", type));
+        }
+    }
+
+    private static int primitiveSize(DumpPrimitiveType type) {
+        switch (type) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * First pass: class names and LOAD CLASS records.
+     */
+    private static class ClassNameWriter implements VirtualIndexSystem {
+        private final HprofWriter writer;
+        private final LongLongHashMap classSerials = new LongLongHashMap();
+        private long nextStringId = 1;
+        private int maxStaticReferences = 0;
+        private long referencesFieldNameId;
+        private long staticNameIdBase;
+
+        ClassNameWriter(HprofWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return null;
+        }
+
+        @Override
+        public void save(long address, Object object) {
+
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            try {
+                if (classSerials.get(aClass.getAddress()) != LongLongHashMap.NO_VALUE) {
+                    return;
+                }
+                String name = (aClass.getClassName() != null ? aClass.getClassName() : unknownName(aClass.getAddress()));
+                loadClass(aClass.getAddress(), name);
+                maxStaticReferences = Math.max(maxStaticReferences, Math.min(aClass.getReferences().length, 0xffff));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            loadClass(REFERENCES_CLASS_ID, REFERENCES_CLASS);
+            referencesFieldNameId = writeString(REFERENCES_FIELD);
+            staticNameIdBase = nextStringId;
+            for (int i = 0; i < maxStaticReferences; ++i) {
+                writeString("<static " + i + ">");
+            }
+        }
+
+        boolean isKnown(long classAddress) {
+            return classSerials.get(classAddress) != LongLongHashMap.NO_VALUE;
+        }
+
+        void loadClass(long classId, String name) throws IOException {
+            long nameId = writeString(name);
+            int serial = classSerials.size() + 1;
+            classSerials.put(classId, serial);
+
+            writeRecordHeader(writer, TAG_LOAD_CLASS, 4 + HprofWriter.ID_SIZE + 4 + HprofWriter.ID_SIZE);
+            writer.writeU4(serial);
+            writer.writeId(classId);
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeId(nameId);
+        }
+
+        private long writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            long id = nextStringId++;
+            writeRecordHeader(writer, TAG_UTF8, HprofWriter.ID_SIZE + bytes.length);
+            writer.writeId(id);
+            writer.writeBytes(bytes);
+            return id;
+        }
+    }
+
+    /**
+     * Second pass: heap dump sub-records.
+     */
+    private static class RecordWriter implements VirtualIndexSystem {
+        private final HprofWriter writer;
+        private final ClassNameWriter classes;
+        private final LongLongHashMap placeholderIndexes = new LongLongHashMap();
+        private final LongArrayList placeholders = new LongArrayList();
+        private long segmentStart = -1;
+
+        RecordWriter(HprofWriter writer, ClassNameWriter classes) {
+            this.writer = writer;
+            this.classes = classes;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return null;
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            try {
+                if (object instanceof DumpObject) {
+                    writeInstance((DumpObject) object);
+                } else if (object instanceof DumpObjectArray) {
+                    DumpObjectArray objectArray = (DumpObjectArray) object;
+                    long[] references = objectArray.getReferences();
+                    checkClass(objectArray.getClassAddress());
+                    writeObjectArray(address, objectArray.getClassAddress(), Math.max(objectArray.getActualLength(), references.length), references);
+                } else if (object instanceof DumpPrimitiveArray) {
+                    writePrimitiveArray((DumpPrimitiveArray) object);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            try {
+                writeClass(aClass);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeReferencesClass() throws IOException {
+            beginRecord(1 + 7 * HprofWriter.ID_SIZE + 4 + 4 + 2 + 2 + 2);
+            writeClassDumpStart(REFERENCES_CLASS_ID, 0, 0);
+            writer.writeU2(0);
+            writer.writeU2(0);
+        }
+
+        private void writeClass(DumpClass aClass) throws IOException {
+            long superClassAddress = (classes.isKnown(aClass.getSuperClassAddress()) ? aClass.getSuperClassAddress() : 0);
+            writeClass(aClass.getAddress(), superClassAddress, aClass.getInstanceSize(), aClass.getReferences());
+        }
+
+        /**
+         * Remember the class of a record if the dump has no class record for it.
+         */
+        private void checkClass(long classAddress) {
+            if (classAddress != 0 && !classes.isKnown(classAddress) && placeholderIndexes.get(classAddress) == LongLongHashMap.NO_VALUE) {
+                placeholderIndexes.put(classAddress, placeholders.size());
+                placeholders.add(classAddress);
+            }
+        }
+
+        /**
+         * @return the classes referenced by the records written, but not loaded by the first pass
+         */
+        LongArrayList getPlaceholders() {
+            return placeholders;
+        }
+
+        void writeClass(long classAddress, long superClassAddress, long instanceSize, long[] references) throws IOException {
+            int staticFields = Math.min(references.length, 0xffff);
+            boolean root = (superClassAddress == 0);
+
+            beginRecord(1 + 7 * HprofWriter.ID_SIZE + 4 + 4 + 2 + 2 + staticFields * (HprofWriter.ID_SIZE + 1 + HprofWriter.ID_SIZE)
+                    + 2 + (root ? HprofWriter.ID_SIZE + 1 : 0));
+            writeClassDumpStart(classAddress, superClassAddress, instanceSize);
+            writer.writeU2(staticFields);
+            for (int i = 0; i < staticFields; ++i) {
+                writer.writeId(classes.staticNameIdBase + i);
+                writer.writeU1(TYPE_OBJECT);
+                writer.writeId(references[i]);
+            }
+            if (root) {
+                writer.writeU2(1);
+                writer.writeId(classes.referencesFieldNameId);
+                writer.writeU1(TYPE_OBJECT);
+            } else {
+                writer.writeU2(0);
+            }
+
+            beginRecord(1 + HprofWriter.ID_SIZE);
+            writer.writeU1(SUB_ROOT_STICKY_CLASS);
+            writer.writeId(classAddress);
+        }
+
+        private void writeClassDumpStart(long classId, long superClassId, long instanceSize) throws IOException {
+            writer.writeU1(SUB_CLASS_DUMP);
+            writer.writeId(classId);
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeId(superClassId);
+            // Class loader, signers, protection domain and two reserved identifiers
+            for (int i = 0; i < 5; ++i) {
+                writer.writeId(0);
+            }
+            writer.writeU4((int) instanceSize);
+            // Constant pool
+            writer.writeU2(0);
+        }
+
+        private void writeInstance(DumpObject object) throws IOException {
+            long[] references = object.getReferences();
+            long referencesId = (references.length > 0 ? object.getAddress() + 1 : 0);
+            checkClass(object.getClassAddress());
+
+            beginRecord(1 + HprofWriter.ID_SIZE + 4 + HprofWriter.ID_SIZE + 4 + HprofWriter.ID_SIZE);
+            writer.writeU1(SUB_INSTANCE_DUMP);
+            writer.writeId(object.getAddress());
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeId(object.getClassAddress());
+            writer.writeU4(HprofWriter.ID_SIZE);
+            writer.writeId(referencesId);
+
+            if (referencesId != 0) {
+                writeObjectArray(referencesId, REFERENCES_CLASS_ID, references.length, references);
+            }
+        }
+
+        private void writeObjectArray(long id, long classId, long length, long[] references) throws IOException {
+            beginRecord(1 + HprofWriter.ID_SIZE + 4 + 4 + HprofWriter.ID_SIZE + length * HprofWriter.ID_SIZE);
+            writer.writeU1(SUB_OBJ_ARRAY_DUMP);
+            writer.writeId(id);
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeU4((int) length);
+            writer.writeId(classId);
+            for (long reference : references) {
+                writer.writeId(reference);
+            }
+            writer.writeZeros((length - references.length) * HprofWriter.ID_SIZE);
+        }
+
+        private void writePrimitiveArray(DumpPrimitiveArray array) throws IOException {
+            long bytes = array.getLength() * primitiveSize(array.getType());
+            beginRecord(1 + HprofWriter.ID_SIZE + 4 + 4 + 1 + bytes);
+            writer.writeU1(SUB_PRIM_ARRAY_DUMP);
+            writer.writeId(array.getAddress());
+            writer.writeU4(STACK_TRACE_SERIAL);
+            writer.writeU4((int) array.getLength());
+            writer.writeU1(primitiveType(array.getType()));
+            writer.writeZeros(bytes);
+        }
+
+        /**
+         * Start a new segment, if the sub-record doesn't fit into the current one.
+         *
+         * @param length the length of the sub-record
+         * @throws IOException
+         */
+        private void beginRecord(long length) throws IOException {
+            if (segmentStart >= 0 && writer.position() - segmentStart + length > SEGMENT_LIMIT) {
+                endSegment();
+            }
+            if (segmentStart < 0) {
+                if (length > MAX_RECORD_LENGTH) {
+                    throw new IllegalStateException(String.format("HPROF record of %d bytes is too large", length));
+                }
+                writeRecordHeader(writer, TAG_HEAP_DUMP_SEGMENT, 0);
+                segmentStart = writer.position();
+            }
+        }
+
+        void endSegment() throws IOException {
+            if (segmentStart >= 0) {
+                writer.patchU4(segmentStart - 4, (int) (writer.position() - segmentStart));
+                segmentStart = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.parse.dump.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of HPROF primitives. Values are big-endian, collected in a direct buffer and flushed with large sequential
+ * writes. Identifiers are 8 bytes.
+ */
+class HprofWriter implements Closeable {
+    static final int ID_SIZE = 8;
+    private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long flushedBytes = 0;
+
+    HprofWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void writeU1(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    void writeU2(int value) throws IOException {
+        ensureRemaining(2);
+        buffer.putShort((short) value);
+    }
+
+    void writeU4(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    void writeU8(long value) throws IOException {
+        ensureRemaining(8);
+        buffer.putLong(value);
+    }
+
+    void writeId(long id) throws IOException {
+        writeU8(id);
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensureRemaining(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    void writeZeros(long count) throws IOException {
+        while (count > 0) {
+            ensureRemaining(1);
+            int length = (int) Math.min(Math.min(buffer.remaining(), ZEROS.length), count);
+            buffer.put(ZEROS, 0, length);
+            count -= length;
+        }
+    }
+
+    /**
+     * @return the file offset of the next byte written
+     */
+    long position() {
+        return flushedBytes + buffer.position();
+    }
+
+    /**
+     * Overwrite an already written u4 value.
+     *
+     * @param position the file offset of the value
+     * @param value
+     * @throws IOException
+     */
+    void patchU4(long position, int value) throws IOException {
+        if (position >= flushedBytes) {
+            buffer.putInt((int) (position - flushedBytes), value);
+            return;
+        }
+        ByteBuffer patch = ByteBuffer.allocate(4).putInt(0, value);
+        while (patch.hasRemaining()) {
+            channel.write(patch, position + patch.position());
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushedBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ru.parse.dump.export;
+
+import ru.parse.dump.DumpCheckpointIndex;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.page.DecodedPage;
+import ru.parse.dump.page.DecodedPageCache;
+import ru.parse.dump.util.IntArrayList;
+import ru.parse.dump.util.LongArrayList;
+import ru.parse.dump.util.LongLongHashMap;
+import ru.parse.dump.util.PrimitiveSort;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Extractor of the records reachable from the seeds into a standalone PHD file.
+ * <p>
+ * The references are walked breadth-first up to the depth and the record limits, every record is looked up by
+ * the checkpoint index and decoded from its page, the dump is never rescanned. The classes of the records and their
+ * superclasses are added beyond the limit. The records are written in the address order with the gaps re-encoded.
+ * The references to the records left out are kept dangling, so the records are unchanged and the output still parses
+ * on its own, though the validator reports them. They are dropped with {@link #setDropDanglingReferences(boolean)}.
+ */
+public class SubgraphExtractor {
+    private static final long PAGE_CACHE_BUDGET = 256 * 1024 * 1024;
+
+    private final DumpHeader header;
+    private final DecodedPageCache pages;
+    private boolean dropDanglingReferences = false;
+
+    /**
+     * @param header the header of the source dump
+     * @param pages  the pages of the source dump
+     */
+    public SubgraphExtractor(DumpHeader header, DecodedPageCache pages) {
+        this.header = header;
+        this.pages = pages;
+    }
+
+    /**
+     * Drop the references to the records left out instead of keeping them dangling. Off by default.
+     *
+     * @param dropDanglingReferences
+     */
+    public void setDropDanglingReferences(boolean dropDanglingReferences) {
+        this.dropDanglingReferences = dropDanglingReferences;
+    }
+
+    /**
+     * Index the dump and extract the subgraph.
+     *
+     * @param dump
+     * @param seeds
+     * @param maxDepth   the maximum number of references from a seed
+     * @param maxRecords the maximum number of records except the classes added
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    public static Extraction extract(Path dump, long[] seeds, int maxDepth, int maxRecords, Path target) throws IOException {
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, DumpCheckpointIndex.DEFAULT_RECORDS_PER_PAGE);
+        try (DecodedPageCache pages = new DecodedPageCache(dump, index, PAGE_CACHE_BUDGET)) {
+            return new SubgraphExtractor(index.getHeader(), pages).extract(seeds, maxDepth, maxRecords, target);
+        }
+    }
+
+    /**
+     * Extract the subgraph.
+     *
+     * @param seeds
+     * @param maxDepth   the maximum number of references from a seed
+     * @param maxRecords the maximum number of records except the classes added
+     * @param target
+     * @return
+     * @throws IOException
+     */
+    public Extraction extract(long[] seeds, int maxDepth, int maxRecords, Path target) throws IOException {
+        Extraction extraction = new Extraction();
+        List<Object> records = new ArrayList<>();
+        LongArrayList addresses = new LongArrayList();
+        LongLongHashMap included = new LongLongHashMap();
+
+        LongLongHashMap visited = new LongLongHashMap();
+        LongArrayList queue = new LongArrayList();
+        IntArrayList depths = new IntArrayList();
+        for (long seed : seeds) {
+            if (visited.put(seed, 0) == LongLongHashMap.NO_VALUE) {
+                queue.add(seed);
+                depths.add(0);
+            }
+        }
+
+        for (int head = 0; head < queue.size(); ++head) {
+            if (records.size() >= maxRecords) {
+                extraction.limitReached = true;
+                break;
+            }
+            long address = queue.get(head);
+            Object record = findRecord(address);
+            if (record == null) {
+                ++extraction.missingRecords;
+                continue;
+            }
+            add(address, record, records, addresses, included);
+
+            int depth = depths.get(head);
+            if (depth < maxDepth) {
+                for (long reference : references(record)) {
+                    if (reference != 0 && visited.put(reference, depth + 1) == LongLongHashMap.NO_VALUE) {
+                        queue.add(reference);
+                        depths.add(depth + 1);
+                    }
+                }
+            }
+        }
+
+        // The classes, then their superclasses, which are appended to the same list
+        for (int i = 0; i < records.size(); ++i) {
+            long classAddress = classAddress(records.get(i));
+            if (classAddress != 0 && included.get(classAddress) == LongLongHashMap.NO_VALUE) {
+                Object aClass = findRecord(classAddress);
+                if (aClass instanceof DumpClass) {
+                    add(classAddress, aClass, records, addresses, included);
+                    ++extraction.classesAdded;
+                } else {
+                    ++extraction.missingRecords;
+                }
+            }
+        }
+
+        int[] order = new int[records.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        long[] sortedAddresses = addresses.toArray();
+        PrimitiveSort.sort(sortedAddresses, order, 0, order.length);
+
+        try (OutputStream output = Files.newOutputStream(target);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(header);
+            for (int index : order) {
+                writer.writeRecord(withIncludedReferences(records.get(index), included, dropDanglingReferences, extraction));
+            }
+            extraction.statistics = writer.writeEnd();
+            extraction.bytesWritten = writer.getBytesWritten();
+        }
+        return extraction;
+    }
+
+    private Object findRecord(long address) throws IOException {
+        DecodedPage page = pages.findRecordPage(address);
+        return (page != null ? page.toRecord(page.findRecord(address)) : null);
+    }
+
+    private static void add(long address, Object record, List<Object> records, LongArrayList addresses, LongLongHashMap included) {
+        included.put(address, records.size());
+        records.add(record);
+        addresses.add(address);
+    }
+
+    private static long[] references(Object record) {
+        if (record instanceof DumpObject) {
+            return ((DumpObject) record).getReferences();
+        } else if (record instanceof DumpObjectArray) {
+            return ((DumpObjectArray) record).getReferences();
+        } else if (record instanceof DumpClass) {
+            return ((DumpClass) record).getReferences();
+        }
+        return new long[0];
+    }
+
+    private static long classAddress(Object record) {
+        if (record instanceof DumpObject) {
+            return ((DumpObject) record).getClassAddress();
+        } else if (record instanceof DumpObjectArray) {
+            return ((DumpObjectArray) record).getClassAddress();
+        } else if (record instanceof DumpClass) {
+            return ((DumpClass) record).getSuperClassAddress();
+        }
+        return 0;
+    }
+
+    private static Object withIncludedReferences(Object record, LongLongHashMap included, boolean dropDangling, Extraction extraction) {
+        long[] references = references(record);
+        int kept = 0;
+        long[] filtered = new long[references.length];
+        for (long reference : references) {
+            if (reference == 0 || included.get(reference) != LongLongHashMap.NO_VALUE) {
+                filtered[kept++] = reference;
+            }
+        }
+        if (kept == references.length) {
+            return record;
+        }
+        extraction.danglingReferences += references.length - kept;
+        if (!dropDangling) {
+            return record;
+        }
+        filtered = Arrays.copyOf(filtered, kept);
+
+        if (record instanceof DumpObject) {
+            DumpObject object = (DumpObject) record;
+            return new DumpObject(object.getAddress(), object.getClassAddress(), object.getHash(), filtered);
+        } else if (record instanceof DumpObjectArray) {
+            DumpObjectArray array = (DumpObjectArray) record;
+            return new DumpObjectArray(array.getAddress(), array.getClassAddress(), array.getHash(), array.getSize(),
+                    array.getActualLength(), filtered);
+        }
+        DumpClass aClass = (DumpClass) record;
+        return new DumpClass(aClass.getAddress(), aClass.getSuperClassAddress(), aClass.getInstanceSize(),
+                aClass.getClassName(), aClass.getHash(), filtered);
+    }
+
+    /**
+     * Result of the extraction.
+     */
+    public static class Extraction {
+        private DumpParsingStatistics statistics;
+        private long bytesWritten;
+        private long classesAdded;
+        private long danglingReferences;
+        private long missingRecords;
+        private boolean limitReached;
+
+        /**
+         * @return the statistics of the records written
+         */
+        public DumpParsingStatistics getStatistics() {
+            return statistics;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return the number of the classes and superclasses added beyond the record limit
+         */
+        public long getClassesAdded() {
+            return classesAdded;
+        }
+
+        /**
+         * @return the number of the references to the records left out, kept or dropped
+         */
+        public long getDanglingReferences() {
+            return danglingReferences;
+        }
+
+        /**
+         * @return the number of the seeds, references and classes not found in the dump
+         */
+        public long getMissingRecords() {
+            return missingRecords;
+        }
+
+        /**
+         * @return whether the walk stopped by the record limit
+         */
+        public boolean isLimitReached() {
+            return limitReached;
+        }
+
+        @Override
+        public String toString() {
+            return "Extraction{" +
+                    "statistics=" + statistics +
+                    ", bytesWritten=" + bytesWritten +
+                    ", classesAdded=" + classesAdded +
+                    ", danglingReferences=" + danglingReferences +
+                    ", missingRecords=" + missingRecords +
+                    ", limitReached=" + limitReached +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.parse.dump.graph;
+
+/**
+ * Mapping of the heap addresses into 32 bits: <code>(address - base) &gt;&gt;&gt; shift</code>.
+ * <p>
+ * The compressed value is stored shifted by {@link Integer#MIN_VALUE}, so the signed order of the compressed values is
+ * the order of the addresses and the plain int sorting and search apply. A heap of 32 Gb with 8 bytes alignment fits,
+ * except its last word.
+ */
+public final class AddressCompression {
+    /**
+     * The largest compressed value is reserved for the addresses which don't fit.
+     */
+    public static final int NOT_FITTING = Integer.MAX_VALUE;
+    private static final long MAX_OFFSET = 0xffffffffL - 1;
+
+    private final long base;
+    private final int shift;
+    private final long alignmentMask;
+
+    /**
+     * @param base  the lowest address
+     * @param shift log2 of the address alignment
+     */
+    public AddressCompression(long base, int shift) {
+        if (shift < 0 || shift > 16) {
+            throw new IllegalArgumentException(String.format("Unsupported alignment shift %d", shift));
+        }
+        this.base = base;
+        this.shift = shift;
+        this.alignmentMask = (1L << shift) - 1;
+    }
+
+    /**
+     * @param address
+     * @return whether the address can be compressed
+     */
+    public boolean fits(long address) {
+        long offset = address - base;
+        return offset >= 0 && (offset & alignmentMask) == 0 && (offset >>> shift) <= MAX_OFFSET;
+    }
+
+    public int compress(long address) {
+        if (!fits(address)) {
+            throw new IllegalArgumentException(String.format("Address %x doesn't fit into %s", address, this));
+        }
+        return (int) (((address - base) >>> shift) + Integer.MIN_VALUE);
+    }
+
+    public long decompress(int value) {
+        return base + (((long) value - Integer.MIN_VALUE) << shift);
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public int getShift() {
+        return shift;
+    }
+
+    @Override
+    public String toString() {
+        return "AddressCompression{" +
+                "base=" + Long.toHexString(base) +
+                ", shift=" + shift +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+package ru.parse.dump.graph;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+/**
+ * Index system measuring the range and the alignment of the record addresses, for the {@link AddressCompression}.
+ * Cheap enough to run along with any other first pass.
+ */
+public class AddressRange implements VirtualIndexSystem {
+    private static final int MAX_SHIFT = 3;
+
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private long alignmentBits = 0;
+    private long records = 0;
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        add(address);
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        add(aClass.getAddress());
+    }
+
+    public void add(long address) {
+        ++records;
+        min = Math.min(min, address);
+        max = Math.max(max, address);
+        alignmentBits |= address;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the largest power of two all the addresses are divisible by, up to 8
+     */
+    public int getAlignment() {
+        return 1 << shift();
+    }
+
+    /**
+     * The compression of the collected addresses.
+     *
+     * @return the compression or null if the addresses don't fit into 32 bits
+     */
+    public AddressCompression toCompression() {
+        if (records == 0) {
+            return null;
+        }
+        AddressCompression compression = new AddressCompression(min, shift());
+        return (compression.fits(max) ? compression : null);
+    }
+
+    private int shift() {
+        return (alignmentBits == 0 ? MAX_SHIFT : Math.min(MAX_SHIFT, Long.numberOfTrailingZeros(alignmentBits)));
+    }
+}
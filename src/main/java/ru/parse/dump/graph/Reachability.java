@@ -0,0 +1,413 @@
+package ru.parse.dump.graph;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpRecordKind;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records of the {@link ReferenceGraph} reachable from the class records, the closest thing to the GC roots PHD has,
+ * and from the optional anchors chosen by the user.
+ * <p>
+ * The marking is a parallel traversal over an atomic bitmap of the node ids. Every task walks its own stack of nodes
+ * and forks the older half of it while the pool has idle workers, the forked tasks are stolen by them. A node is
+ * claimed by setting its bit, so it is expanded once whatever the number of the tasks reaching it.
+ * <p>
+ * With the root attribution every node also has the owner: the root it was reached from, or shared if more than one
+ * root reaches it. An owner only changes from none to a root and from a root to shared, and a node is expanded on each
+ * change only, so the traversal is at most twice as long and the result doesn't depend on the task order. The memory
+ * is a bit per node, plus an int per node with the attribution.
+ */
+public class Reachability {
+    private static final int NO_OWNER = -1;
+    private static final int SHARED = -2;
+    /**
+     * A task forks a part of its stack when the stack is longer than this and the pool has few tasks queued.
+     */
+    private static final int SPLIT_THRESHOLD = 256;
+    private static final int ROOTS_PER_TASK = 1024;
+
+    private final ReferenceGraph graph;
+    private final AtomicLongArray marks;
+    private final AtomicIntegerArray owners;
+    private final int[] roots;
+
+    private Reachability(ReferenceGraph graph, int[] roots, boolean attributeRoots) {
+        this.graph = graph;
+        this.roots = roots;
+        this.marks = new AtomicLongArray((graph.getNodeCount() + 63) >>> 6);
+        if (attributeRoots) {
+            this.owners = new AtomicIntegerArray(graph.getNodeCount());
+            for (int id = 0; id < graph.getNodeCount(); ++id) {
+                owners.set(id, NO_OWNER);
+            }
+        } else {
+            this.owners = null;
+        }
+    }
+
+    /**
+     * Mark the records reachable from the classes in the common pool, with the root attribution.
+     *
+     * @param graph
+     * @return
+     */
+    public static Reachability mark(ReferenceGraph graph) {
+        return mark(graph, ForkJoinPool.commonPool(), true);
+    }
+
+    /**
+     * Mark the records reachable from the classes and the anchors.
+     *
+     * @param graph
+     * @param pool           the pool running the traversal
+     * @param attributeRoots whether the records are attributed to the roots reaching them
+     * @param anchors        the addresses of the records marked as the roots too
+     * @return
+     * @throws IllegalArgumentException if an anchor is not a record of the graph
+     */
+    public static Reachability mark(ReferenceGraph graph, ForkJoinPool pool, boolean attributeRoots, long... anchors) {
+        int[] roots = collectRoots(graph, anchors);
+        Reachability reachability = new Reachability(graph, roots, attributeRoots);
+        List<MarkTask> tasks = new ArrayList<>();
+        for (int start = 0; start < roots.length; start += ROOTS_PER_TASK) {
+            MarkTask task = reachability.new MarkTask(Math.min(ROOTS_PER_TASK, roots.length - start));
+            for (int root = start; root < Math.min(start + ROOTS_PER_TASK, roots.length); ++root) {
+                task.push(roots[root], root);
+            }
+            tasks.add(task);
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return reachability;
+    }
+
+    /**
+     * The class nodes in the id order, then the anchors not being classes.
+     */
+    private static int[] collectRoots(ReferenceGraph graph, long[] anchors) {
+        int count = 0;
+        int[] roots = new int[16];
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            if (graph.kinds[id] == DumpRecordKind.CLASS) {
+                roots = append(roots, count++, id);
+            }
+        }
+        Set<Integer> anchorIds = new HashSet<>();
+        for (long anchor : anchors) {
+            int id = graph.findNode(anchor);
+            if (id == ReferenceGraph.NO_NODE) {
+                throw new IllegalArgumentException(String.format("Anchor %x is not a record of the graph", anchor));
+            }
+            if (graph.kinds[id] != DumpRecordKind.CLASS && anchorIds.add(id)) {
+                roots = append(roots, count++, id);
+            }
+        }
+        return Arrays.copyOf(roots, count);
+    }
+
+    private static int[] append(int[] values, int size, int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size] = value;
+        return values;
+    }
+
+    /**
+     * Claim the node for the owner.
+     *
+     * @return the owner to propagate to the targets of the node or {@link #NO_OWNER} if the node is expanded already
+     */
+    private int claim(int id, int owner) {
+        if (owners == null) {
+            return (tryMark(id) ? owner : NO_OWNER);
+        }
+        while (true) {
+            int current = owners.get(id);
+            if (current == NO_OWNER) {
+                if (owners.compareAndSet(id, NO_OWNER, owner)) {
+                    tryMark(id);
+                    return owner;
+                }
+            } else if (current == owner || current == SHARED) {
+                return NO_OWNER;
+            } else if (owners.compareAndSet(id, current, SHARED)) {
+                return SHARED;
+            }
+        }
+    }
+
+    private boolean tryMark(int id) {
+        int word = id >>> 6;
+        long bit = 1L << id;
+        while (true) {
+            long current = marks.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (marks.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean isReachable(int id) {
+        return (marks.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    public ReferenceGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the number of the root nodes: the classes and the anchors
+     */
+    public int getRootCount() {
+        return roots.length;
+    }
+
+    public int getReachableCount() {
+        int count = 0;
+        for (int word = 0; word < marks.length(); ++word) {
+            count += Long.bitCount(marks.get(word));
+        }
+        return count;
+    }
+
+    /**
+     * @return the records no root reaches, the garbage not collected before the dump
+     */
+    public int getUnreachableCount() {
+        return graph.getNodeCount() - getReachableCount();
+    }
+
+    public long getUnreachableShallowSize() {
+        long size = 0;
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            if (!isReachable(id)) {
+                size += graph.shallowSizes[id];
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The unreachable records grouped by the type name, see {@link ReferenceGraph#getTypeName(int)}.
+     *
+     * @return the groups in the order of the shallow size descending
+     */
+    public List<StronglyConnectedComponents.ClassShare> getUnreachableByClass() {
+        Map<String, StronglyConnectedComponents.ClassShare> shares = new HashMap<>();
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            if (!isReachable(id)) {
+                shares.computeIfAbsent(graph.getTypeName(id), StronglyConnectedComponents.ClassShare::new)
+                        .add(graph.shallowSizes[id]);
+            }
+        }
+        List<StronglyConnectedComponents.ClassShare> result = new ArrayList<>(shares.values());
+        result.sort((first, second) -> {
+            int order = Long.compare(second.getShallowSize(), first.getShallowSize());
+            return (order != 0 ? order : first.getClassName().compareTo(second.getClassName()));
+        });
+        return result;
+    }
+
+    /**
+     * The records reachable from a single root, the root itself included, per root.
+     *
+     * @return the roots reaching any records in the order of the shallow size descending
+     * @throws IllegalStateException if the marking was done without the root attribution
+     */
+    public List<RootShare> getRootShares() {
+        checkAttribution();
+        long[] nodes = new long[roots.length];
+        long[] sizes = new long[roots.length];
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            int owner = owners.get(id);
+            if (owner >= 0) {
+                ++nodes[owner];
+                sizes[owner] += graph.shallowSizes[id];
+            }
+        }
+        List<RootShare> result = new ArrayList<>();
+        for (int root = 0; root < roots.length; ++root) {
+            if (nodes[root] > 0) {
+                result.add(new RootShare(roots[root], graph.getAddress(roots[root]), rootName(roots[root]), nodes[root], sizes[root]));
+            }
+        }
+        result.sort((first, second) -> {
+            int order = Long.compare(second.shallowSize, first.shallowSize);
+            return (order != 0 ? order : Integer.compare(first.id, second.id));
+        });
+        return result;
+    }
+
+    /**
+     * @return the number of the records reachable from more than one root
+     * @throws IllegalStateException if the marking was done without the root attribution
+     */
+    public int getSharedCount() {
+        checkAttribution();
+        int count = 0;
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            if (owners.get(id) == SHARED) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private String rootName(int id) {
+        if (graph.kinds[id] == DumpRecordKind.CLASS) {
+            DumpClass aClass = graph.findClass(graph.getAddress(id));
+            if (aClass != null && aClass.getClassName() != null) {
+                return aClass.getClassName();
+            }
+        }
+        return graph.getTypeName(id);
+    }
+
+    private void checkAttribution() {
+        if (owners == null) {
+            throw new IllegalStateException("Marking was done without the root attribution");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Reachability{" +
+                "nodes=" + graph.getNodeCount() +
+                ", roots=" + roots.length +
+                ", reachable=" + getReachableCount() +
+                '}';
+    }
+
+    /**
+     * Traversal over the explicit stack of the nodes and their owners.
+     */
+    private final class MarkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int[] nodes;
+        private int[] nodeOwners;
+        private int size = 0;
+
+        MarkTask(int capacity) {
+            nodes = new int[Math.max(capacity, 16)];
+            nodeOwners = new int[nodes.length];
+        }
+
+        void push(int id, int owner) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                nodeOwners = Arrays.copyOf(nodeOwners, size * 2);
+            }
+            nodes[size] = id;
+            nodeOwners[size] = owner;
+            ++size;
+        }
+
+        @Override
+        protected void compute() {
+            int[] offsets = graph.edgeOffsets;
+            int[] targets = graph.edgeTargets;
+            List<MarkTask> forked = new ArrayList<>();
+            while (size > 0) {
+                --size;
+                int id = nodes[size];
+                int owner = claim(id, nodeOwners[size]);
+                if (owner == NO_OWNER) {
+                    continue;
+                }
+                for (int edge = offsets[id]; edge < offsets[id + 1]; ++edge) {
+                    // Without the attribution a marked node is never claimed again, so it isn't pushed.
+                    // With it, a marked node may still become shared
+                    if (owners != null || !isReachable(targets[edge])) {
+                        push(targets[edge], owner);
+                    }
+                }
+                if (size > SPLIT_THRESHOLD && getQueuedTaskCount() == 0) {
+                    forked.add(split());
+                }
+            }
+            for (MarkTask task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * Fork the bottom half of the stack, the nodes pushed first, they lead to the larger subgraphs usually.
+         */
+        private MarkTask split() {
+            int half = size / 2;
+            MarkTask task = new MarkTask(half);
+            System.arraycopy(nodes, 0, task.nodes, 0, half);
+            System.arraycopy(nodeOwners, 0, task.nodeOwners, 0, half);
+            task.size = half;
+            System.arraycopy(nodes, half, nodes, 0, size - half);
+            System.arraycopy(nodeOwners, half, nodeOwners, 0, size - half);
+            size -= half;
+            task.fork();
+            return task;
+        }
+    }
+
+    /**
+     * Records reachable from a single root.
+     */
+    public static class RootShare {
+        private final int id;
+        private final long address;
+        private final String name;
+        private final long nodes;
+        private final long shallowSize;
+
+        RootShare(int id, long address, String name, long nodes, long shallowSize) {
+            this.id = id;
+            this.address = address;
+            this.name = name;
+            this.nodes = nodes;
+            this.shallowSize = shallowSize;
+        }
+
+        /**
+         * @return the node id of the root
+         */
+        public int getId() {
+            return id;
+        }
+
+        public long getAddress() {
+            return address;
+        }
+
+        /**
+         * @return the class name of a class root, the type name of an anchor
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getShallowSize() {
+            return shallowSize;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + Long.toHexString(address) + " x" + nodes + " (" + shallowSize + " bytes)";
+        }
+    }
+}
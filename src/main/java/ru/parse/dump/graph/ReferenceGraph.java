@@ -0,0 +1,169 @@
+package ru.parse.dump.graph;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpPrimitiveType;
+import ru.parse.dump.objects.DumpRecordKind;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+
+import java.util.Arrays;
+
+/**
+ * Reference graph of the dump over dense int node ids.
+ * <p>
+ * Nodes are numbered in the ascending address order. Outgoing references are kept in the compressed sparse row form:
+ * the targets of the node <i>id</i> are <code>edgeTargets[edgeOffsets[id] .. edgeOffsets[id + 1])</code>.
+ * References to addresses which are not records of the dump are dropped and only counted.
+ * The address table is either long or, with an {@link AddressCompression}, int.
+ * Built by {@link ReferenceGraphBuilder}.
+ */
+public class ReferenceGraph {
+    public static final int NO_NODE = -1;
+
+    private final long[] addresses;
+    private final int[] compressedAddresses;
+    private final AddressCompression compression;
+    final byte[] kinds;
+    final int[] classIds;
+    final long[] shallowSizes;
+    final int[] edgeOffsets;
+    final int[] edgeTargets;
+    private final DumpClassCacheRegion classes;
+    private final long danglingReferences;
+
+    ReferenceGraph(long[] addresses, int[] compressedAddresses, AddressCompression compression, byte[] kinds, int[] classIds,
+                   long[] shallowSizes, int[] edgeOffsets, int[] edgeTargets, DumpClassCacheRegion classes, long danglingReferences) {
+        this.addresses = addresses;
+        this.compressedAddresses = compressedAddresses;
+        this.compression = compression;
+        this.kinds = kinds;
+        this.classIds = classIds;
+        this.shallowSizes = shallowSizes;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.classes = classes;
+        this.danglingReferences = danglingReferences;
+    }
+
+    public int getNodeCount() {
+        return kinds.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * @return the number of references to addresses which are not records of the dump
+     */
+    public long getDanglingReferences() {
+        return danglingReferences;
+    }
+
+    /**
+     * Find the node by the record address.
+     *
+     * @param address
+     * @return the node id or {@link #NO_NODE}
+     */
+    public int findNode(long address) {
+        int id;
+        if (compression != null) {
+            if (!compression.fits(address)) {
+                return NO_NODE;
+            }
+            id = Arrays.binarySearch(compressedAddresses, compression.compress(address));
+        } else {
+            id = Arrays.binarySearch(addresses, address);
+        }
+        return (id >= 0 ? id : NO_NODE);
+    }
+
+    public long getAddress(int id) {
+        return (compression != null ? compression.decompress(compressedAddresses[id]) : addresses[id]);
+    }
+
+    /**
+     * @return the compression of the address table or null, if the addresses are kept as longs
+     */
+    public AddressCompression getCompression() {
+        return compression;
+    }
+
+    public byte getKind(int id) {
+        return kinds[id];
+    }
+
+    /**
+     * @return the node id of the record class or {@link #NO_NODE} for primitive arrays, classes and records whose class is absent
+     */
+    public int getClassId(int id) {
+        return classIds[id];
+    }
+
+    public long getShallowSize(int id) {
+        return shallowSizes[id];
+    }
+
+    public int getEdgesStart(int id) {
+        return edgeOffsets[id];
+    }
+
+    public int getEdgesEnd(int id) {
+        return edgeOffsets[id + 1];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public DumpClass findClass(long address) {
+        return classes.find(address);
+    }
+
+    /**
+     * The name of the record type: the class name for objects and object arrays, <code>java/lang/Class</code> for classes
+     * and the JVM descriptor for primitive arrays.
+     *
+     * @param id
+     * @return
+     */
+    public String getTypeName(int id) {
+        byte kind = kinds[id];
+        if (kind == DumpRecordKind.CLASS) {
+            return "java/lang/Class";
+        }
+        if (kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+            return primitiveArrayName(DumpRecordKind.primitiveType(kind));
+        }
+
+        int classId = classIds[id];
+        if (classId == NO_NODE) {
+            return "<unknown class>";
+        }
+        DumpClass aClass = classes.find(getAddress(classId));
+        return (aClass != null ? aClass.getClassName() : "<unknown class>");
+    }
+
+    static String primitiveArrayName(DumpPrimitiveType type) {
+        switch (type) {
+            case BOOLEAN:
+                return "[Z";
+            case CHAR:
+                return "[C";
+            case FLOAT:
+                return "[F";
+            case DOUBLE:
+                return "[D";
+            case BYTE:
+                return "[B";
+            case SHORT:
+                return "[S";
+            case INT:
+                return "[I";
+            case LONG:
+                return "[J";
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package ru.parse.dump.graph;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.util.ByteArrayList;
+import ru.parse.dump.util.IntArrayList;
+import ru.parse.dump.util.LongArrayList;
+import ru.parse.dump.util.PrimitiveSort;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.MemoryGovernor;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.util.Arrays;
+
+/**
+ * Index system collecting the records into primitive arrays and building the {@link ReferenceGraph} of them.
+ * The graph is limited by the Java array size: up to 2^31 - 1 records and references.
+ * The builder cannot be reused after {@link #build()}.
+ * <p>
+ * With an {@link AddressCompression} the addresses are kept as ints, in the builder and in the graph. References which
+ * don't fit are kept aside, they can only be dangling. The first record or class address which doesn't fit switches
+ * the builder back to long addresses.
+ * <p>
+ * With a {@link MemoryGovernor} the collected records and references are reserved in chunks while they come. The graph
+ * can't spill, so a refused reservation fails the parse with {@link IllegalStateException}. {@link #build()} releases
+ * the reservation, the graph belongs to the caller.
+ */
+public class ReferenceGraphBuilder implements VirtualIndexSystem {
+    // Kind, size, edge offset, address and class address of a node
+    private static final int NODE_BYTES = 1 + 8 + 4 + 8 + 8;
+    private static final int COMPRESSED_NODE_BYTES = 1 + 8 + 4 + 4 + 4;
+    private static final long RESERVATION_CHUNK = 1024 * 1024;
+
+    private AddressCompression compression;
+    private IntArrayList compressedAddresses;
+    private IntArrayList compressedClassAddresses;
+    private IntArrayList compressedEdgeTargets;
+    private LongArrayList notFittingReferences;
+
+    private LongArrayList addresses;
+    private LongArrayList classAddresses;
+    private LongArrayList edgeTargets;
+
+    private LongArrayList sizes = new LongArrayList();
+    private ByteArrayList kinds = new ByteArrayList();
+    private IntArrayList edgeOffsets = new IntArrayList();
+    private DumpClassCacheRegion classes = new DumpClassCacheRegion();
+
+    private final MemoryGovernor governor;
+    private long estimated = 0;
+    private long reserved = 0;
+
+    public ReferenceGraphBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param compression the compression of the addresses, null to keep them as longs
+     */
+    public ReferenceGraphBuilder(AddressCompression compression) {
+        this(compression, null);
+    }
+
+    /**
+     * @param compression the compression of the addresses, null to keep them as longs
+     * @param governor    the governor of the collected records, null for the unlimited ones
+     */
+    public ReferenceGraphBuilder(AddressCompression compression, MemoryGovernor governor) {
+        this.compression = compression;
+        this.governor = governor;
+        if (compression != null) {
+            compressedAddresses = new IntArrayList();
+            compressedClassAddresses = new IntArrayList();
+            compressedEdgeTargets = new IntArrayList();
+            notFittingReferences = new LongArrayList();
+        } else {
+            addresses = new LongArrayList();
+            classAddresses = new LongArrayList();
+            edgeTargets = new LongArrayList();
+        }
+        edgeOffsets.add(0);
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            return objectType.cast(classes.find(address));
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            DumpObject dumpObject = (DumpObject) object;
+            addNode(address, DumpRecordKind.OBJECT, dumpObject.getClassAddress(), -1, dumpObject.getReferences());
+        } else if (object instanceof DumpObjectArray) {
+            DumpObjectArray objectArray = (DumpObjectArray) object;
+            addNode(address, DumpRecordKind.OBJECT_ARRAY, objectArray.getClassAddress(), objectArray.getSize(), objectArray.getReferences());
+        } else if (object instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+            addNode(address, DumpRecordKind.primitiveArray(primitiveArray.getType()), 0,
+                    primitiveArray.getSize(), null);
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        classes.put(aClass);
+        addNode(aClass.getAddress(), DumpRecordKind.CLASS, 0, 0, aClass.getReferences());
+    }
+
+    public int getNodeCount() {
+        return kinds.size();
+    }
+
+    /**
+     * @return whether the addresses are kept compressed
+     */
+    public boolean isCompressed() {
+        return compression != null;
+    }
+
+    private void addNode(long address, byte kind, long classAddress, long size, long[] references) {
+        boolean hasClass = (kind == DumpRecordKind.OBJECT || kind == DumpRecordKind.OBJECT_ARRAY);
+        if (compression != null && !(compression.fits(address) && (!hasClass || compression.fits(classAddress)))) {
+            decompress();
+        }
+
+        kinds.add(kind);
+        sizes.add(size);
+        if (compression != null) {
+            compressedAddresses.add(compression.compress(address));
+            compressedClassAddresses.add(hasClass ? compression.compress(classAddress) : 0);
+            if (references != null) {
+                for (long reference : references) {
+                    if (compression.fits(reference)) {
+                        compressedEdgeTargets.add(compression.compress(reference));
+                    } else {
+                        compressedEdgeTargets.add(AddressCompression.NOT_FITTING);
+                        notFittingReferences.add(reference);
+                    }
+                }
+            }
+            edgeOffsets.add(compressedEdgeTargets.size());
+        } else {
+            addresses.add(address);
+            classAddresses.add(classAddress);
+            if (references != null) {
+                for (long reference : references) {
+                    edgeTargets.add(reference);
+                }
+            }
+            edgeOffsets.add(edgeTargets.size());
+        }
+
+        if (governor != null) {
+            int edges = (references != null ? references.length : 0);
+            estimated += (compression != null ? COMPRESSED_NODE_BYTES + 4L * edges : NODE_BYTES + 8L * edges);
+            if (estimated > reserved) {
+                reserve();
+            }
+        }
+    }
+
+    private void reserve() {
+        long bytes = Math.max(RESERVATION_CHUNK, estimated - reserved);
+        if (!governor.tryReserve(bytes)) {
+            throw new IllegalStateException(String.format("The memory budget is exceeded by the reference graph of %d nodes", kinds.size()));
+        }
+        reserved += bytes;
+    }
+
+    /**
+     * Fall back to the long addresses.
+     */
+    private void decompress() {
+        int nodeCount = compressedAddresses.size();
+        addresses = new LongArrayList(nodeCount + 1024);
+        classAddresses = new LongArrayList(nodeCount + 1024);
+        for (int index = 0; index < nodeCount; ++index) {
+            addresses.add(compression.decompress(compressedAddresses.get(index)));
+            byte kind = kinds.get(index);
+            boolean hasClass = (kind == DumpRecordKind.OBJECT || kind == DumpRecordKind.OBJECT_ARRAY);
+            classAddresses.add(hasClass ? compression.decompress(compressedClassAddresses.get(index)) : 0);
+        }
+        compressedAddresses = null;
+        compressedClassAddresses = null;
+
+        int edgeCount = compressedEdgeTargets.size();
+        edgeTargets = new LongArrayList(edgeCount + 1024);
+        int notFitting = 0;
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            int target = compressedEdgeTargets.get(edge);
+            edgeTargets.add(target == AddressCompression.NOT_FITTING ? notFittingReferences.get(notFitting++) : compression.decompress(target));
+        }
+        compressedEdgeTargets = null;
+        notFittingReferences = null;
+        compression = null;
+        estimated = (long) NODE_BYTES * nodeCount + 8L * edgeCount;
+    }
+
+    /**
+     * Number the nodes in the address order, resolve the references and the classes.
+     *
+     * @return
+     */
+    public ReferenceGraph build() {
+        int nodeCount = kinds.size();
+        boolean compressed = (compression != null);
+
+        int[] order = new int[nodeCount];
+        for (int i = 0; i < nodeCount; ++i) {
+            order[i] = i;
+        }
+        long[] sortedAddresses = null;
+        int[] sortedCompressedAddresses = null;
+        if (compressed) {
+            sortedCompressedAddresses = compressedAddresses.toArray();
+            PrimitiveSort.sort(sortedCompressedAddresses, order, 0, nodeCount);
+            compressedAddresses = null;
+        } else {
+            sortedAddresses = addresses.toArray();
+            PrimitiveSort.sort(sortedAddresses, order, 0, nodeCount);
+            addresses = null;
+        }
+
+        // order[id] is the insertion index of the node id
+        byte[] nodeKinds = new byte[nodeCount];
+        int[] classIds = new int[nodeCount];
+        long[] shallowSizes = new long[nodeCount];
+        for (int id = 0; id < nodeCount; ++id) {
+            int index = order[id];
+            byte kind = kinds.get(index);
+            nodeKinds[id] = kind;
+
+            long size = sizes.get(index);
+            int classId = ReferenceGraph.NO_NODE;
+            if (kind == DumpRecordKind.OBJECT || kind == DumpRecordKind.OBJECT_ARRAY) {
+                long classAddress;
+                if (compressed) {
+                    int compressedClassAddress = compressedClassAddresses.get(index);
+                    classId = binarySearch(sortedCompressedAddresses, compressedClassAddress);
+                    classAddress = compression.decompress(compressedClassAddress);
+                } else {
+                    classAddress = classAddresses.get(index);
+                    classId = binarySearch(sortedAddresses, classAddress);
+                }
+                if (kind == DumpRecordKind.OBJECT) {
+                    DumpClass aClass = classes.find(classAddress);
+                    size = (aClass != null ? aClass.getInstanceSize() : 0);
+                }
+            }
+            classIds[id] = classId;
+            shallowSizes[id] = size;
+        }
+        kinds = null;
+        classAddresses = null;
+        compressedClassAddresses = null;
+        sizes = null;
+
+        int[] rawOffsets = edgeOffsets.array();
+        int edgeCount = rawOffsets[nodeCount];
+        int[] offsets = new int[nodeCount + 1];
+        int[] resolved = new int[edgeCount];
+        long dangling = 0;
+        if (compressed) {
+            int[] rawTargets = compressedEdgeTargets.array();
+            for (int edge = 0; edge < edgeCount; ++edge) {
+                resolved[edge] = (rawTargets[edge] != AddressCompression.NOT_FITTING ? binarySearch(sortedCompressedAddresses, rawTargets[edge]) : ReferenceGraph.NO_NODE);
+            }
+        } else {
+            long[] rawTargets = edgeTargets.array();
+            for (int edge = 0; edge < edgeCount; ++edge) {
+                resolved[edge] = binarySearch(sortedAddresses, rawTargets[edge]);
+            }
+        }
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            if (resolved[edge] == ReferenceGraph.NO_NODE) {
+                ++dangling;
+            }
+        }
+        edgeTargets = null;
+        compressedEdgeTargets = null;
+        notFittingReferences = null;
+
+        for (int id = 0; id < nodeCount; ++id) {
+            int index = order[id];
+            int validEdges = 0;
+            for (int edge = rawOffsets[index]; edge < rawOffsets[index + 1]; ++edge) {
+                if (resolved[edge] != ReferenceGraph.NO_NODE) {
+                    ++validEdges;
+                }
+            }
+            offsets[id + 1] = offsets[id] + validEdges;
+        }
+
+        int[] targets = new int[offsets[nodeCount]];
+        for (int id = 0; id < nodeCount; ++id) {
+            int index = order[id];
+            int position = offsets[id];
+            for (int edge = rawOffsets[index]; edge < rawOffsets[index + 1]; ++edge) {
+                if (resolved[edge] != ReferenceGraph.NO_NODE) {
+                    targets[position++] = resolved[edge];
+                }
+            }
+        }
+        edgeOffsets = null;
+
+        ReferenceGraph graph = new ReferenceGraph(sortedAddresses, sortedCompressedAddresses, compression, nodeKinds, classIds,
+                shallowSizes, offsets, targets, classes, dangling);
+        classes = null;
+        if (governor != null) {
+            governor.release(reserved);
+            reserved = 0;
+        }
+        return graph;
+    }
+
+    private static int binarySearch(long[] sortedAddresses, long address) {
+        int low = 0;
+        int high = sortedAddresses.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = sortedAddresses[middle];
+            if (value < address) {
+                low = middle + 1;
+            } else if (value > address) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return ReferenceGraph.NO_NODE;
+    }
+
+    private static int binarySearch(int[] sortedAddresses, int address) {
+        int id = Arrays.binarySearch(sortedAddresses, address);
+        return (id >= 0 ? id : ReferenceGraph.NO_NODE);
+    }
+}
@@ -0,0 +1,284 @@
+package ru.parse.dump.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Strongly connected components of the {@link ReferenceGraph}.
+ * <p>
+ * Computed with the Tarjan algorithm turned into a loop over explicit primitive stacks, so deep reference chains
+ * don't overflow the thread stack. Memory use is five ints and a boolean per node.
+ */
+public class StronglyConnectedComponents {
+    private static final int DOMINANT_CLASSES_LIMIT = 5;
+
+    private final ReferenceGraph graph;
+    private final int[] componentOf;
+    private final int componentCount;
+    private final int[] componentNodes;
+    private final long[] componentShallowSizes;
+
+    private StronglyConnectedComponents(ReferenceGraph graph, int[] componentOf, int componentCount) {
+        this.graph = graph;
+        this.componentOf = componentOf;
+        this.componentCount = componentCount;
+
+        componentNodes = new int[componentCount];
+        componentShallowSizes = new long[componentCount];
+        for (int id = 0; id < componentOf.length; ++id) {
+            ++componentNodes[componentOf[id]];
+            componentShallowSizes[componentOf[id]] += graph.shallowSizes[id];
+        }
+    }
+
+    /**
+     * Compute the components of the graph.
+     *
+     * @param graph
+     * @return
+     */
+    public static StronglyConnectedComponents compute(ReferenceGraph graph) {
+        int nodeCount = graph.getNodeCount();
+        int[] offsets = graph.edgeOffsets;
+        int[] targets = graph.edgeTargets;
+
+        int[] index = new int[nodeCount];
+        int[] lowLink = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+
+        // Nodes of the components being built
+        int[] stack = new int[nodeCount];
+        int stackSize = 0;
+        // Emulated recursion: the visited node and the next edge to follow
+        int[] callNodes = new int[nodeCount];
+        int[] callEdges = new int[nodeCount];
+        int callDepth = 0;
+
+        Arrays.fill(index, -1);
+        int nextIndex = 0;
+        int componentCount = 0;
+
+        for (int root = 0; root < nodeCount; ++root) {
+            if (index[root] != -1) {
+                continue;
+            }
+
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callNodes[callDepth] = root;
+            callEdges[callDepth] = offsets[root];
+            ++callDepth;
+
+            while (callDepth > 0) {
+                int node = callNodes[callDepth - 1];
+                int edge = callEdges[callDepth - 1];
+                if (edge < offsets[node + 1]) {
+                    callEdges[callDepth - 1] = edge + 1;
+                    int target = targets[edge];
+                    if (index[target] == -1) {
+                        index[target] = lowLink[target] = nextIndex++;
+                        stack[stackSize++] = target;
+                        onStack[target] = true;
+                        callNodes[callDepth] = target;
+                        callEdges[callDepth] = offsets[target];
+                        ++callDepth;
+                    } else if (onStack[target] && index[target] < lowLink[node]) {
+                        lowLink[node] = index[target];
+                    }
+                    continue;
+                }
+
+                --callDepth;
+                if (lowLink[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        // The index of a finished node is not needed anymore, it keeps the component number instead
+                        index[member] = componentCount;
+                    } while (member != node);
+                    ++componentCount;
+                }
+                if (callDepth > 0) {
+                    int parent = callNodes[callDepth - 1];
+                    if (lowLink[node] < lowLink[parent]) {
+                        lowLink[parent] = lowLink[node];
+                    }
+                }
+            }
+        }
+
+        return new StronglyConnectedComponents(graph, index, componentCount);
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    public int getComponent(int nodeId) {
+        return componentOf[nodeId];
+    }
+
+    public int getComponentNodes(int component) {
+        return componentNodes[component];
+    }
+
+    public long getComponentShallowSize(int component) {
+        return componentShallowSizes[component];
+    }
+
+    /**
+     * Whether the component is a cycle: it has more than one node or the node references itself.
+     *
+     * @param component
+     * @return
+     */
+    public boolean isCyclic(int component) {
+        if (componentNodes[component] > 1) {
+            return true;
+        }
+        for (int id = 0; id < componentOf.length; ++id) {
+            if (componentOf[id] == component) {
+                for (int edge = graph.edgeOffsets[id]; edge < graph.edgeOffsets[id + 1]; ++edge) {
+                    if (graph.edgeTargets[edge] == id) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The cyclic components with the largest shallow size, with their dominant classes.
+     *
+     * @param limit
+     * @return components ordered by the shallow size descending
+     */
+    public List<ComponentSummary> getLargestCycles(int limit) {
+        // Self-referencing single nodes are rare and small, only multi-node components are ranked.
+        // The largest components are kept sorted descending in a small array, the limit is expected to be small.
+        int[] largest = new int[Math.max(0, Math.min(limit, componentCount))];
+        int largestCount = 0;
+        for (int component = 0; component < componentCount; ++component) {
+            if (componentNodes[component] < 2) {
+                continue;
+            }
+            long size = componentShallowSizes[component];
+            if (largestCount == largest.length && (largestCount == 0 || size <= componentShallowSizes[largest[largestCount - 1]])) {
+                continue;
+            }
+            int position = (largestCount < largest.length ? largestCount++ : largestCount - 1);
+            while (position > 0 && componentShallowSizes[largest[position - 1]] < size) {
+                largest[position] = largest[position - 1];
+                --position;
+            }
+            largest[position] = component;
+        }
+
+        int[] rankOf = new int[componentCount];
+        Arrays.fill(rankOf, -1);
+        List<Map<String, ClassShare>> sharesByRank = new ArrayList<>();
+        for (int rank = 0; rank < largestCount; ++rank) {
+            rankOf[largest[rank]] = rank;
+            sharesByRank.add(new HashMap<>());
+        }
+
+        for (int id = 0; id < componentOf.length; ++id) {
+            int rank = rankOf[componentOf[id]];
+            if (rank >= 0) {
+                String typeName = graph.getTypeName(id);
+                ClassShare share = sharesByRank.get(rank).computeIfAbsent(typeName, ClassShare::new);
+                share.add(graph.shallowSizes[id]);
+            }
+        }
+
+        List<ComponentSummary> result = new ArrayList<>();
+        for (int rank = 0; rank < largestCount; ++rank) {
+            int component = largest[rank];
+            List<ClassShare> shares = new ArrayList<>(sharesByRank.get(rank).values());
+            shares.sort((first, second) -> Long.compare(second.shallowSize, first.shallowSize));
+            result.add(new ComponentSummary(component, componentNodes[component], componentShallowSizes[component],
+                    Collections.unmodifiableList(new ArrayList<>(shares.subList(0, Math.min(DOMINANT_CLASSES_LIMIT, shares.size()))))));
+        }
+        return result;
+    }
+
+    public static class ComponentSummary {
+        private final int component;
+        private final int nodes;
+        private final long shallowSize;
+        private final List<ClassShare> dominantClasses;
+
+        ComponentSummary(int component, int nodes, long shallowSize, List<ClassShare> dominantClasses) {
+            this.component = component;
+            this.nodes = nodes;
+            this.shallowSize = shallowSize;
+            this.dominantClasses = dominantClasses;
+        }
+
+        public int getComponent() {
+            return component;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public long getShallowSize() {
+            return shallowSize;
+        }
+
+        public List<ClassShare> getDominantClasses() {
+            return dominantClasses;
+        }
+
+        @Override
+        public String toString() {
+            return "ComponentSummary{" +
+                    "component=" + component +
+                    ", nodes=" + nodes +
+                    ", shallowSize=" + shallowSize +
+                    ", dominantClasses=" + dominantClasses +
+                    '}';
+        }
+    }
+
+    public static class ClassShare {
+        private final String className;
+        private long instances;
+        private long shallowSize;
+
+        ClassShare(String className) {
+            this.className = className;
+        }
+
+        void add(long shallowSize) {
+            ++instances;
+            this.shallowSize += shallowSize;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getInstances() {
+            return instances;
+        }
+
+        public long getShallowSize() {
+            return shallowSize;
+        }
+
+        @Override
+        public String toString() {
+            return className + " x" + instances + " (" + shallowSize + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.parse.dump.mapped;
+
+import ru.parse.dump.objects.*;
+
+/**
+ * View of a record kept for later, e.g. in a result set.
+ * <p>
+ * The view holds the file offset, the address, the class and the kind only, about 48 bytes whatever the number of
+ * the references is. The other fields are decoded from the mapping on every access, nothing is cached, so a million
+ * views of large arrays cost as much as a million views of plain objects. The view is immutable and thread-safe.
+ */
+public final class LazyRecord {
+    private final MappedDump dump;
+    private final long offset;
+    private final long address;
+    private final long classAddress;
+    private final byte kind;
+
+    LazyRecord(MappedDump dump, long offset, long address, long classAddress, byte kind) {
+        this.dump = dump;
+        this.offset = offset;
+        this.address = address;
+        this.classAddress = classAddress;
+        this.kind = kind;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public byte getKind() {
+        return kind;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the class address of an object or an object array, 0 otherwise
+     */
+    public long getClassAddress() {
+        return classAddress;
+    }
+
+    public int getHash() {
+        return layout().hash;
+    }
+
+    /**
+     * @return the size of an array, 0 for objects and classes
+     */
+    public long getSize() {
+        return layout().size;
+    }
+
+    /**
+     * @return the number of elements of an array
+     */
+    public long getLength() {
+        return layout().length;
+    }
+
+    public int getReferenceCount() {
+        return layout().referenceCount;
+    }
+
+    /**
+     * Decode the references.
+     *
+     * @return a new array every time
+     */
+    public long[] getReferences() {
+        RecordLayout layout = layout();
+        long[] references = new long[layout.referenceCount];
+        for (int i = 0; i < references.length; ++i) {
+            references[i] = layout.reference(dump, address, i);
+        }
+        return references;
+    }
+
+    /**
+     * @return the class name of a class record, null otherwise
+     */
+    public String getClassName() {
+        if (kind != DumpRecordKind.CLASS) {
+            return null;
+        }
+        RecordLayout layout = layout();
+        return dump.getString(layout.nameOffset, layout.nameBytes);
+    }
+
+    /**
+     * Decode the whole record.
+     *
+     * @return {@link DumpObject}, {@link DumpObjectArray}, {@link DumpPrimitiveArray} or {@link DumpClass}
+     */
+    public Object toRecord() {
+        RecordLayout layout = layout();
+        if (kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+            return new DumpPrimitiveArray(address, DumpRecordKind.primitiveType(kind), layout.length,
+                    layout.hash, layout.size);
+        }
+        long[] references = getReferences();
+        if (kind == DumpRecordKind.OBJECT_ARRAY) {
+            return new DumpObjectArray(address, classAddress, layout.hash, layout.size, layout.length, references);
+        } else if (kind == DumpRecordKind.CLASS) {
+            return new DumpClass(address, layout.superClassAddress, layout.instanceSize,
+                    dump.getString(layout.nameOffset, layout.nameBytes), layout.hash, references);
+        }
+        return new DumpObject(address, classAddress, layout.hash, references);
+    }
+
+    private RecordLayout layout() {
+        RecordLayout layout = new RecordLayout();
+        layout.decode(dump, offset);
+        return layout;
+    }
+
+    @Override
+    public String toString() {
+        return "LazyRecord{" +
+                "offset=" + offset +
+                ", kind=" + kind +
+                ", address=" + address +
+                ", classAddress=" + classAddress +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+package ru.parse.dump.mapped;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpPlatform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The dump file mapped into memory for the record views.
+ * <p>
+ * The file is mapped in segments of 1 Gb. Every segment is mapped with a few extra bytes of the next one, so a number
+ * starting in a segment is always read from it, whatever the record boundaries are. The views read the mapping with
+ * absolute positions only, so they may be used from many threads.
+ */
+public class MappedDump implements Closeable {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int SEGMENT_OVERLAP = 8;
+    private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final DumpHeader header;
+    private final long bodyOffset;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+
+    private MappedDump(FileChannel channel, DumpHeader header, long bodyOffset, long size, MappedByteBuffer[] segments) {
+        this.channel = channel;
+        this.header = header;
+        this.bodyOffset = bodyOffset;
+        this.size = size;
+        this.segments = segments;
+    }
+
+    /**
+     * Map the dump file.
+     *
+     * @param dump
+     * @return
+     * @throws IOException
+     */
+    public static MappedDump open(Path dump) throws IOException {
+        FileChannel channel = FileChannel.open(dump, StandardOpenOption.READ);
+        try {
+            DumpHeader header;
+            long bodyOffset;
+            try (DumpParserStream stream = DumpParserStream.create(channel, 0, HEADER_BUFFER_SIZE)) {
+                header = stream.readBodyStart();
+                bodyOffset = stream.getBytesRead();
+            }
+
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int segment = 0; segment < segments.length; ++segment) {
+                long start = (long) segment << SEGMENT_BITS;
+                segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start));
+            }
+            return new MappedDump(channel, header, bodyOffset, size, segments);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public DumpHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the file offset of the first record
+     */
+    public long getBodyOffset() {
+        return bodyOffset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Create a cursor over the records from the body start.
+     *
+     * @return
+     */
+    public RecordCursor cursor() {
+        return new RecordCursor(this);
+    }
+
+    /**
+     * Create the view of a record found before, e.g. by {@link RecordCursor#getOffset()}.
+     *
+     * @param offset       the record offset
+     * @param address      the record address
+     * @param classAddress the class address of an object, it can't be restored from a short object record alone
+     * @return
+     */
+    public LazyRecord record(long offset, long address, long classAddress) {
+        RecordLayout layout = new RecordLayout();
+        layout.decode(this, offset);
+        return new LazyRecord(this, offset, address, classAddress, layout.kind);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping is released by the garbage collector, only the channel is closed
+        channel.close();
+    }
+
+    byte getByte(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    int getUnsignedByte(long offset) {
+        return 0xff & getByte(offset);
+    }
+
+    short getShort(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getShort((int) (offset & SEGMENT_MASK));
+    }
+
+    int getInt(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    long getLong(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * @return the signed number of the width
+     */
+    long getSigned(long offset, int width) {
+        switch (width) {
+            case 1:
+                return getByte(offset);
+            case 2:
+                return getShort(offset);
+            case 4:
+                return getInt(offset);
+            default:
+                return getLong(offset);
+        }
+    }
+
+    /**
+     * @return the word, unsigned on the 32-bit platform
+     */
+    long getWord(long offset) {
+        return (header.getPlatform() == DumpPlatform._64_BIT ? getLong(offset) : 0xffffffffL & getInt(offset));
+    }
+
+    String getString(long offset, int bytes) {
+        byte[] value = new byte[bytes];
+        for (int i = 0; i < bytes; ++i) {
+            value[i] = getByte(offset + i);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
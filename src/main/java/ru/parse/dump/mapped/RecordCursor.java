@@ -0,0 +1,164 @@
+package ru.parse.dump.mapped;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.objects.DumpPrimitiveType;
+import ru.parse.dump.objects.DumpRecordKind;
+
+/**
+ * Reusable cursor over the records of a {@link MappedDump}.
+ * <p>
+ * Moving to the next record decodes the fixed fields only: the address, the class and the positions of the variable
+ * parts. The references and the class names are read from the mapping when they are asked for, so a pass touching
+ * the addresses and the classes allocates nothing. The cursor isn't thread-safe, every thread should have its own one.
+ */
+public final class RecordCursor {
+    private final MappedDump dump;
+    private final RecordLayout layout = new RecordLayout();
+    private final DumpParserStream.ParsingContext context = new DumpParserStream.ParsingContext();
+    private long next;
+    private long address = 0;
+    private long classAddress;
+    private boolean positioned = false;
+
+    RecordCursor(MappedDump dump) {
+        this.dump = dump;
+        this.next = dump.getBodyOffset();
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false if the body end is reached
+     */
+    public boolean next() {
+        if (!layout.decode(dump, next)) {
+            positioned = false;
+            next = layout.offset;
+            return false;
+        }
+        next = layout.end;
+        positioned = true;
+
+        address += layout.addressGap * 4;
+        if (address < 0) {
+            throw new IllegalStateException(String.format("Got address %d at the offset %d", address, layout.offset));
+        }
+        if (layout.cacheIndex != RecordLayout.NO_CACHE_INDEX) {
+            classAddress = context.getFromCache(layout.cacheIndex);
+        } else {
+            classAddress = layout.classAddress;
+            if (layout.kind == DumpRecordKind.OBJECT) {
+                context.putToCache(classAddress);
+            }
+        }
+        return true;
+    }
+
+    public long getOffset() {
+        return layout.offset;
+    }
+
+    public byte getKind() {
+        checkPositioned();
+        return layout.kind;
+    }
+
+    public long getAddress() {
+        checkPositioned();
+        return address;
+    }
+
+    /**
+     * @return the class address of an object or an object array, 0 otherwise
+     */
+    public long getClassAddress() {
+        checkPositioned();
+        return classAddress;
+    }
+
+    public int getHash() {
+        checkPositioned();
+        return layout.hash;
+    }
+
+    /**
+     * @return the size of an array, 0 for objects and classes
+     */
+    public long getSize() {
+        checkPositioned();
+        return layout.size;
+    }
+
+    /**
+     * @return the number of elements of an array
+     */
+    public long getLength() {
+        checkPositioned();
+        return layout.length;
+    }
+
+    public DumpPrimitiveType getPrimitiveType() {
+        byte kind = getKind();
+        return (kind >= DumpRecordKind.PRIMITIVE_ARRAY ? DumpRecordKind.primitiveType(kind) : null);
+    }
+
+    public int getReferenceCount() {
+        checkPositioned();
+        return layout.referenceCount;
+    }
+
+    /**
+     * Read the reference from the mapping.
+     *
+     * @param index
+     * @return
+     */
+    public long getReference(int index) {
+        checkPositioned();
+        if (index < 0 || index >= layout.referenceCount) {
+            throw new IndexOutOfBoundsException(String.format("Record has %d references, but requested %d", layout.referenceCount, index));
+        }
+        return layout.reference(dump, address, index);
+    }
+
+    /**
+     * Read the class name of a class record from the mapping.
+     *
+     * @return the name or null if the record isn't a class
+     */
+    public String getClassName() {
+        return (getKind() == DumpRecordKind.CLASS ? dump.getString(layout.nameOffset, layout.nameBytes) : null);
+    }
+
+    /**
+     * @return the superclass address of a class record, 0 otherwise
+     */
+    public long getSuperClassAddress() {
+        checkPositioned();
+        return layout.superClassAddress;
+    }
+
+    /**
+     * @return the instance size of a class record, 0 otherwise
+     */
+    public long getInstanceSize() {
+        checkPositioned();
+        return layout.instanceSize;
+    }
+
+    /**
+     * Keep the current record. The view holds the offset, the address and the class only.
+     *
+     * @return
+     */
+    public LazyRecord toLazyRecord() {
+        checkPositioned();
+        return new LazyRecord(dump, layout.offset, address, classAddress, layout.kind);
+    }
+
+    private void checkPositioned() {
+        if (!positioned) {
+            throw new IllegalStateException("Cursor is not at a record");
+        }
+    }
+}
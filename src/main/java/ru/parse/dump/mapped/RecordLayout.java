@@ -0,0 +1,212 @@
+package ru.parse.dump.mapped;
+
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpPlatform;
+import ru.parse.dump.objects.DumpRecordKind;
+
+/**
+ * Fields of a record decoded from the mapping without its references and class name.
+ * The address is kept as the gap from the previous record, the references are kept as their position and width.
+ */
+final class RecordLayout {
+    static final int NO_CACHE_INDEX = -1;
+
+    long offset;
+    long end;
+    int tag;
+    byte kind;
+    long addressGap;
+    /**
+     * The class word of a medium or a long object or an object array.
+     */
+    long classAddress;
+    /**
+     * The class cache index of a short object, {@link #NO_CACHE_INDEX} otherwise.
+     */
+    int cacheIndex;
+    int hash;
+    long size;
+    long length;
+    int referenceCount;
+    int referenceWidth;
+    long referencesOffset;
+    long instanceSize;
+    long superClassAddress;
+    long nameOffset;
+    int nameBytes;
+
+    /**
+     * @param dump
+     * @param offset the record offset
+     * @return false if the tag is the body end
+     */
+    boolean decode(MappedDump dump, long offset) {
+        DumpHeader header = dump.getHeader();
+        int wordBytes = header.getPlatform().getBytes();
+        this.offset = offset;
+        tag = dump.getUnsignedByte(offset);
+        cacheIndex = NO_CACHE_INDEX;
+        classAddress = 0;
+        hash = 0;
+        size = 0;
+        length = 0;
+        referenceCount = 0;
+        referenceWidth = 1;
+        instanceSize = 0;
+        superClassAddress = 0;
+        nameBytes = 0;
+
+        long position = offset + 1;
+        if ((tag & 0x80) != 0) {
+            kind = DumpRecordKind.OBJECT;
+            cacheIndex = (tag >> 5) & 0x3;
+            referenceCount = (tag >> 3) & 0x3;
+            position = readObjectGap(dump, position, (tag >> 2) & 0x1);
+            referenceWidth = 1 << (tag & 0x3);
+            position = readShortHash(dump, header, position) + (long) referenceCount * referenceWidth;
+        } else if ((tag & 0x40) != 0) {
+            kind = DumpRecordKind.OBJECT;
+            referenceCount = (tag >> 3) & 0x7;
+            position = readObjectGap(dump, position, (tag >> 2) & 0x1);
+            referenceWidth = 1 << (tag & 0x3);
+            classAddress = dump.getWord(position);
+            position = readShortHash(dump, header, position + wordBytes) + (long) referenceCount * referenceWidth;
+        } else if ((tag & 0x20) != 0) {
+            kind = (byte) (DumpRecordKind.PRIMITIVE_ARRAY + ((tag >> 2) & 0x7));
+            int width = 1 << (tag & 0x3);
+            addressGap = dump.getSigned(position, width);
+            length = dump.getSigned(position + width, width);
+            if (width < 8) {
+                length &= (1L << (width * 8)) - 1;
+            }
+            position = readShortHash(dump, header, position + 2L * width);
+            size = readSize(dump, position);
+            position += 4;
+        } else if (tag == 4 || tag == 5 || tag == 8) {
+            kind = (tag == 4 ? DumpRecordKind.OBJECT : DumpRecordKind.OBJECT_ARRAY);
+            int flag = dump.getUnsignedByte(position++);
+            int gapWidth = 1 << ((flag >> 6) & 0x3);
+            referenceWidth = 1 << ((flag >> 4) & 0x3);
+            addressGap = dump.getSigned(position, gapWidth);
+            position += gapWidth;
+            classAddress = dump.getWord(position);
+            position = readHash(dump, header, position + wordBytes, ((flag >> 1) & 0x1) == 1);
+            position = readReferenceCount(dump, position);
+            if (tag != 4) {
+                size = readSize(dump, position);
+                position += 4;
+                length = referenceCount;
+                if (tag == 8) {
+                    length = 0xffffffffL & dump.getInt(position);
+                    position += 4;
+                }
+            }
+        } else if (tag == 6) {
+            kind = DumpRecordKind.CLASS;
+            int flag = dump.getUnsignedByte(position++);
+            int gapWidth = 1 << ((flag >> 6) & 0x3);
+            referenceWidth = 1 << ((flag >> 4) & 0x3);
+            addressGap = dump.getSigned(position, gapWidth);
+            position += gapWidth;
+            instanceSize = 0xffffffffL & dump.getInt(position);
+            position = readHash(dump, header, position + 4, ((flag >> 3) & 0x1) == 1);
+            superClassAddress = dump.getWord(position);
+            position += wordBytes;
+            position = readName(dump, position);
+            position = readReferenceCount(dump, position);
+        } else if (tag == 7) {
+            int flag = dump.getUnsignedByte(position++);
+            kind = (byte) (DumpRecordKind.PRIMITIVE_ARRAY + ((flag >> 5) & 0x7));
+            if (((flag >> 4) & 0x1) == 0) {
+                addressGap = dump.getByte(position);
+                length = dump.getUnsignedByte(position + 1);
+                position += 2;
+            } else {
+                addressGap = (header.getPlatform() == DumpPlatform._64_BIT ? dump.getLong(position) : dump.getInt(position));
+                length = dump.getWord(position + wordBytes);
+                position += 2L * wordBytes;
+            }
+            position = readHash(dump, header, position, ((flag >> 1) & 0x1) == 1);
+            size = readSize(dump, position);
+            position += 4;
+        } else if (tag == 3) {
+            end = position;
+            return false;
+        } else {
+            throw new IllegalStateException(String.format("Body has an invalid format at the offset %d", offset));
+        }
+        end = position;
+        return true;
+    }
+
+    /**
+     * @return the address of the reference of the record at the address
+     */
+    long reference(MappedDump dump, long address, int index) {
+        return address + dump.getSigned(referencesOffset + (long) index * referenceWidth, referenceWidth) * 4;
+    }
+
+    private long readObjectGap(MappedDump dump, long position, int gapSize) {
+        if (gapSize == 0) {
+            addressGap = dump.getByte(position);
+            return position + 1;
+        }
+        addressGap = dump.getShort(position);
+        return position + 2;
+    }
+
+    private long readShortHash(MappedDump dump, DumpHeader header, long position) {
+        referencesOffset = position;
+        if (header.isHashed()) {
+            hash = dump.getShort(position);
+            referencesOffset = position + 2;
+        }
+        return referencesOffset;
+    }
+
+    private long readHash(MappedDump dump, DumpHeader header, long position, boolean hashedAndMoved) {
+        if (header.isHashed()) {
+            hash = dump.getShort(position);
+            return position + 2;
+        } else if (hashedAndMoved) {
+            hash = dump.getInt(position);
+            return position + 4;
+        }
+        return position;
+    }
+
+    private long readReferenceCount(MappedDump dump, long position) {
+        referenceCount = dump.getInt(position);
+        referencesOffset = position + 4;
+        return referencesOffset + (long) referenceCount * referenceWidth;
+    }
+
+    private static long readSize(MappedDump dump, long position) {
+        return (0xffffffffL & dump.getInt(position)) * 4;
+    }
+
+    /**
+     * The name length is in symbols, the bytes are counted by the leading bytes of the symbols.
+     */
+    private long readName(MappedDump dump, long position) {
+        int symbols = 0xffff & dump.getShort(position);
+        nameOffset = position + 2;
+        long current = nameOffset;
+        for (int symbol = 0; symbol < symbols; ++symbol) {
+            int leading = dump.getUnsignedByte(current);
+            if (leading <= 0x7f) {
+                current += 1;
+            } else if (leading >= 0xc0 && leading <= 0xdf) {
+                current += 2;
+            } else if (leading >= 0xe0 && leading <= 0xef) {
+                current += 3;
+            } else if (leading >= 0xf0 && leading <= 0xf7) {
+                current += 4;
+            } else {
+                throw new IllegalStateException(String.format("Class name has an invalid byte %02x at the offset %d", leading, current));
+            }
+        }
+        nameBytes = (int) (current - nameOffset);
+        return current;
+    }
+}
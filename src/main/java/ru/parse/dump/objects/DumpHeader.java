@@ -4,18 +4,37 @@ package ru.parse.dump.objects;
  * Dump header.
  */
 public class DumpHeader {
+    public static final long FLAG_64_BIT = 1;
+    public static final long FLAG_HASHED = 2;
+    public static final long FLAG_J9_VM = 4;
+
     private final long version;
     private final DumpPlatform platform;
     private final boolean hashed;
     private final boolean j9VM;
     private final String jvmVersion;
+    private final long flags;
 
     public DumpHeader(long version, DumpPlatform platform, boolean hashed, boolean j9VM, String jvmVersion) {
+        this(version, platform, hashed, j9VM, jvmVersion,
+                (platform == DumpPlatform._64_BIT ? FLAG_64_BIT : 0) | (hashed ? FLAG_HASHED : 0) | (j9VM ? FLAG_J9_VM : 0));
+    }
+
+    /**
+     * @param version
+     * @param platform
+     * @param hashed
+     * @param j9VM
+     * @param jvmVersion
+     * @param flags the flags word as it is in the file, the unknown bits included
+     */
+    public DumpHeader(long version, DumpPlatform platform, boolean hashed, boolean j9VM, String jvmVersion, long flags) {
         this.version = version;
         this.platform = platform;
         this.hashed = hashed;
         this.j9VM = j9VM;
         this.jvmVersion = jvmVersion;
+        this.flags = flags;
     }
 
     public long getVersion() {
@@ -38,6 +57,10 @@ public class DumpHeader {
         return jvmVersion;
     }
 
+    public long getFlags() {
+        return flags;
+    }
+
     @Override
     public String toString() {
         return "DumpHeader{" +
@@ -46,6 +69,7 @@ public class DumpHeader {
                 ", hashed=" + hashed +
                 ", j9VM=" + j9VM +
                 ", jvmVersion='" + jvmVersion + '\'' +
+                ", flags=" + flags +
                 '}';
     }
 }
@@ -0,0 +1,54 @@
+package ru.parse.dump.objects;
+
+/**
+ * Codes of the record kinds, for the tables keeping the records in primitive arrays.
+ * A primitive array is {@link #PRIMITIVE_ARRAY} plus {@link DumpPrimitiveType#ordinal()}.
+ */
+public final class DumpRecordKind {
+    public static final byte OBJECT = 0;
+    public static final byte OBJECT_ARRAY = 1;
+    public static final byte CLASS = 2;
+    public static final byte PRIMITIVE_ARRAY = 16;
+
+    private static final DumpPrimitiveType[] PRIMITIVE_TYPES = DumpPrimitiveType.values();
+
+    private DumpRecordKind() {
+    }
+
+    /**
+     * @param type
+     * @return the kind of the primitive arrays of the type
+     */
+    public static byte primitiveArray(DumpPrimitiveType type) {
+        return (byte) (PRIMITIVE_ARRAY + type.ordinal());
+    }
+
+    public static boolean isPrimitiveArray(byte kind) {
+        return kind >= PRIMITIVE_ARRAY;
+    }
+
+    /**
+     * @param kind the kind of a primitive array
+     * @return the type of the elements
+     */
+    public static DumpPrimitiveType primitiveType(byte kind) {
+        return PRIMITIVE_TYPES[kind - PRIMITIVE_ARRAY];
+    }
+
+    /**
+     * @param kind
+     * @return the name of the kind, e.g. <code>PRIMITIVE_ARRAY_INT</code>
+     */
+    public static String name(byte kind) {
+        switch (kind) {
+            case OBJECT:
+                return "OBJECT";
+            case OBJECT_ARRAY:
+                return "OBJECT_ARRAY";
+            case CLASS:
+                return "CLASS";
+            default:
+                return "PRIMITIVE_ARRAY_" + primitiveType(kind).name();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package ru.parse.dump.page;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.util.ByteArrayList;
+import ru.parse.dump.util.IntArrayList;
+import ru.parse.dump.util.LongArrayList;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records of a checkpoint page decoded into primitive arrays.
+ * The record <i>i</i> of the page references <code>references[referenceOffsets[i] .. referenceOffsets[i + 1])</code>.
+ * Immutable, so it may be shared between threads.
+ */
+public final class DecodedPage {
+    public static final int NO_RECORD = -1;
+
+    private final int page;
+    private final long[] addresses;
+    private final byte[] kinds;
+    private final long[] classAddresses;
+    private final int[] hashes;
+    private final long[] sizes;
+    private final long[] lengths;
+    private final int[] referenceOffsets;
+    private final long[] references;
+    /**
+     * Class records are rare, they are kept apart with their indexes.
+     */
+    private final int[] classIndexes;
+    private final DumpClass[] classes;
+    private final boolean sorted;
+
+    private DecodedPage(int page, long[] addresses, byte[] kinds, long[] classAddresses, int[] hashes, long[] sizes,
+                        long[] lengths, int[] referenceOffsets, long[] references, int[] classIndexes, DumpClass[] classes) {
+        this.page = page;
+        this.addresses = addresses;
+        this.kinds = kinds;
+        this.classAddresses = classAddresses;
+        this.hashes = hashes;
+        this.sizes = sizes;
+        this.lengths = lengths;
+        this.referenceOffsets = referenceOffsets;
+        this.references = references;
+        this.classIndexes = classIndexes;
+        this.classes = classes;
+
+        boolean ascending = true;
+        for (int i = 1; i < addresses.length && ascending; ++i) {
+            ascending = addresses[i - 1] < addresses[i];
+        }
+        this.sorted = ascending;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getRecordCount() {
+        return addresses.length;
+    }
+
+    /**
+     * @param address
+     * @return the record index or {@link #NO_RECORD}
+     */
+    public int findRecord(long address) {
+        if (sorted) {
+            int index = Arrays.binarySearch(addresses, address);
+            return (index >= 0 ? index : NO_RECORD);
+        }
+        for (int index = 0; index < addresses.length; ++index) {
+            if (addresses[index] == address) {
+                return index;
+            }
+        }
+        return NO_RECORD;
+    }
+
+    public long getAddress(int index) {
+        return addresses[index];
+    }
+
+    public byte getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return the class address of an object or an object array, 0 otherwise
+     */
+    public long getClassAddress(int index) {
+        return classAddresses[index];
+    }
+
+    public int getHash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * @return the size of an array, 0 for objects and classes
+     */
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * @return the number of elements of an array
+     */
+    public long getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getReferenceCount(int index) {
+        return referenceOffsets[index + 1] - referenceOffsets[index];
+    }
+
+    public long getReference(int index, int reference) {
+        return references[referenceOffsets[index] + reference];
+    }
+
+    /**
+     * @return the class of a class record, null otherwise
+     */
+    public DumpClass getDumpClass(int index) {
+        if (kinds[index] != DumpRecordKind.CLASS) {
+            return null;
+        }
+        return classes[Arrays.binarySearch(classIndexes, index)];
+    }
+
+    /**
+     * Restore the record object.
+     *
+     * @param index
+     * @return {@link DumpObject}, {@link DumpObjectArray}, {@link DumpPrimitiveArray} or {@link DumpClass}
+     */
+    public Object toRecord(int index) {
+        byte kind = kinds[index];
+        if (kind == DumpRecordKind.CLASS) {
+            return getDumpClass(index);
+        }
+        if (kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+            return new DumpPrimitiveArray(addresses[index], DumpRecordKind.primitiveType(kind),
+                    lengths[index], hashes[index], sizes[index]);
+        }
+
+        long[] recordReferences = Arrays.copyOfRange(references, referenceOffsets[index], referenceOffsets[index + 1]);
+        if (kind == DumpRecordKind.OBJECT_ARRAY) {
+            return new DumpObjectArray(addresses[index], classAddresses[index], hashes[index], sizes[index], lengths[index],
+                    recordReferences);
+        }
+        return new DumpObject(addresses[index], classAddresses[index], hashes[index], recordReferences);
+    }
+
+    /**
+     * The approximate memory occupied by the page, in bytes.
+     *
+     * @return
+     */
+    public long memoryUsed() {
+        return addresses.length * (8L + 1 + 8 + 4 + 8 + 8 + 4 + 4) + references.length * 8L + 128;
+    }
+
+    /**
+     * Index system collecting the records of a page.
+     */
+    static class Collector implements VirtualIndexSystem {
+        private final LongArrayList addresses = new LongArrayList(256);
+        private final ByteArrayList kinds = new ByteArrayList(256);
+        private final LongArrayList classAddresses = new LongArrayList(256);
+        private final IntArrayList hashes = new IntArrayList(256);
+        private final LongArrayList sizes = new LongArrayList(256);
+        private final LongArrayList lengths = new LongArrayList(256);
+        private final IntArrayList referenceOffsets = new IntArrayList(256);
+        private final LongArrayList references = new LongArrayList(1024);
+        private final IntArrayList classIndexes = new IntArrayList(4);
+        private final List<DumpClass> classes = new ArrayList<>();
+
+        Collector() {
+            referenceOffsets.add(0);
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return null;
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            if (object instanceof DumpObject) {
+                DumpObject dumpObject = (DumpObject) object;
+                add(address, DumpRecordKind.OBJECT, dumpObject.getClassAddress(), dumpObject.getHash(), 0, 0, dumpObject.getReferences());
+            } else if (object instanceof DumpObjectArray) {
+                DumpObjectArray objectArray = (DumpObjectArray) object;
+                add(address, DumpRecordKind.OBJECT_ARRAY, objectArray.getClassAddress(), objectArray.getHash(), objectArray.getSize(),
+                        objectArray.getActualLength(), objectArray.getReferences());
+            } else if (object instanceof DumpPrimitiveArray) {
+                DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+                add(address, DumpRecordKind.primitiveArray(primitiveArray.getType()), 0, primitiveArray.getHash(),
+                        primitiveArray.getSize(), primitiveArray.getLength(), null);
+            }
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            classIndexes.add(addresses.size());
+            classes.add(aClass);
+            add(aClass.getAddress(), DumpRecordKind.CLASS, 0, aClass.getHash(), 0, 0, aClass.getReferences());
+        }
+
+        private void add(long address, byte kind, long classAddress, int hash, long size, long length, long[] recordReferences) {
+            addresses.add(address);
+            kinds.add(kind);
+            classAddresses.add(classAddress);
+            hashes.add(hash);
+            sizes.add(size);
+            lengths.add(length);
+            if (recordReferences != null) {
+                for (long reference : recordReferences) {
+                    references.add(reference);
+                }
+            }
+            referenceOffsets.add(references.size());
+        }
+
+        DecodedPage build(int page) {
+            return new DecodedPage(page, addresses.toArray(), kinds.toArray(), classAddresses.toArray(), hashes.toArray(),
+                    sizes.toArray(), lengths.toArray(), referenceOffsets.toArray(), references.toArray(),
+                    classIndexes.toArray(), classes.toArray(new DumpClass[0]));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ru.parse.dump.page;
+
+import ru.parse.dump.DumpCheckpointIndex;
+import ru.parse.dump.vind.MemoryGovernor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the decoded checkpoint pages of a dump for the random-access lookups.
+ * <p>
+ * Pages are evicted by the CLOCK algorithm when their total size exceeds the byte budget: a hit only sets
+ * the referenced bit of the page, the clock hand clears the bits and evicts the first page not referenced since
+ * the previous sweep. A page recently used survives, a page used once goes first.
+ * <p>
+ * With a {@link MemoryGovernor} a page is also reserved before it's cached. A refused page is returned without caching,
+ * it's decoded again on the next request.
+ * <p>
+ * Thread-safe. Hits don't lock. Misses decode the page without locks, two threads missing the same page may both
+ * decode it, the first one is kept. Eviction takes a short lock.
+ */
+public class DecodedPageCache implements Closeable {
+    private final DumpCheckpointIndex index;
+    private final FileChannel channel;
+    private final long byteBudget;
+    private final MemoryGovernor governor;
+
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Entry> clock = new ArrayList<>();
+    private int hand = 0;
+    private long bytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * @param dump       the dump file
+     * @param index      the checkpoints of the dump
+     * @param byteBudget the maximum size of the cached pages, in bytes
+     * @throws IOException
+     */
+    public DecodedPageCache(Path dump, DumpCheckpointIndex index, long byteBudget) throws IOException {
+        this(dump, index, byteBudget, null);
+    }
+
+    /**
+     * @param dump       the dump file
+     * @param index      the checkpoints of the dump
+     * @param byteBudget the maximum size of the cached pages, in bytes
+     * @param governor   the governor shared with the other structures, null for the own budget only
+     * @throws IOException
+     */
+    public DecodedPageCache(Path dump, DumpCheckpointIndex index, long byteBudget, MemoryGovernor governor) throws IOException {
+        this.index = index;
+        this.byteBudget = byteBudget;
+        this.governor = governor;
+        this.channel = FileChannel.open(dump, StandardOpenOption.READ);
+    }
+
+    /**
+     * Get the page, decoding it on a miss.
+     *
+     * @param page
+     * @return
+     * @throws IOException
+     */
+    public DecodedPage getPage(int page) throws IOException {
+        Entry entry = entries.get(page);
+        if (entry != null) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.page;
+        }
+
+        misses.increment();
+        DecodedPage.Collector collector = new DecodedPage.Collector();
+        index.decodePage(channel, page, collector);
+        Entry created = new Entry(collector.build(page));
+        if (governor != null && !governor.tryReserve(created.bytes)) {
+            refused.increment();
+            return created.page;
+        }
+        Entry existing = entries.putIfAbsent(page, created);
+        if (existing != null) {
+            release(created.bytes);
+            existing.referenced = true;
+            return existing.page;
+        }
+
+        synchronized (clock) {
+            clock.add(created);
+            bytes += created.bytes;
+            evict();
+        }
+        return created.page;
+    }
+
+    /**
+     * Find the page containing the record.
+     *
+     * @param address
+     * @return the page or null if there is no record with the address
+     * @throws IOException
+     */
+    public DecodedPage findRecordPage(long address) throws IOException {
+        for (int page : index.findPages(address)) {
+            DecodedPage decoded = getPage(page);
+            if (decoded.findRecord(address) != DecodedPage.NO_RECORD) {
+                return decoded;
+            }
+        }
+        return null;
+    }
+
+    private void evict() {
+        // The page just added is referenced, so a single page over the budget is kept until the next one comes
+        while (bytes > byteBudget && clock.size() > 1) {
+            if (hand >= clock.size()) {
+                hand = 0;
+            }
+            Entry candidate = clock.get(hand);
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                ++hand;
+            } else {
+                clock.remove(hand);
+                entries.remove(candidate.page.getPage(), candidate);
+                bytes -= candidate.bytes;
+                release(candidate.bytes);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void release(long pageBytes) {
+        if (governor != null) {
+            governor.release(pageBytes);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of the pages the governor refused to cache
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    /**
+     * @return the share of the hits among the requests, from 0 to 1
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return (total > 0 ? (double) hitCount / total : 0);
+    }
+
+    public long getBytes() {
+        synchronized (clock) {
+            return bytes;
+        }
+    }
+
+    public int getCachedPages() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        entries.clear();
+        synchronized (clock) {
+            clock.clear();
+            release(bytes);
+            bytes = 0;
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedPageCache{" +
+                "pages=" + entries.size() +
+                ", hits=" + hits.sum() +
+                ", misses=" + misses.sum() +
+                ", evictions=" + evictions.sum() +
+                '}';
+    }
+
+    private static class Entry {
+        final DecodedPage page;
+        final long bytes;
+        volatile boolean referenced = true;
+
+        Entry(DecodedPage page) {
+            this.page = page;
+            this.bytes = page.memoryUsed();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ru.parse.dump.pipeline;
+
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index system moving the work with the records off the decode thread.
+ * <p>
+ * Every consumer has its own {@link RecordRingBuffer} and thread, the parser thread copies each record into the rings
+ * and returns to decoding. The consumers receive every record, in the dump order, and run in parallel with the parser
+ * and with each other. When a ring is full, the parser waits for its consumer.
+ * <p>
+ * {@link #close()} waits until the consumers drain the rest and rethrows the first consumer failure.
+ * {@link #find} returns nothing, the lookups belong to the consumers.
+ */
+public class PipelinedVirtualIndexSystem implements VirtualIndexSystem, Closeable {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final int DEFAULT_REFERENCE_CAPACITY = 1024 * 1024;
+    private static final int BATCH_SIZE = 1024;
+
+    private final RecordRingBuffer[] rings;
+    private final List<Thread> threads = new ArrayList<>();
+    private final Throwable[] failures;
+    private boolean closed = false;
+
+    public PipelinedVirtualIndexSystem(RecordConsumer... consumers) {
+        this(DEFAULT_CAPACITY, DEFAULT_REFERENCE_CAPACITY, consumers);
+    }
+
+    /**
+     * Start a thread for each consumer.
+     *
+     * @param capacity          the number of record slots of a ring
+     * @param referenceCapacity the number of references of a ring
+     * @param consumers
+     */
+    public PipelinedVirtualIndexSystem(int capacity, int referenceCapacity, RecordConsumer... consumers) {
+        if (consumers.length == 0) {
+            throw new IllegalArgumentException("At least one consumer is required");
+        }
+        rings = new RecordRingBuffer[consumers.length];
+        failures = new Throwable[consumers.length];
+        for (int i = 0; i < consumers.length; ++i) {
+            RecordRingBuffer ring = new RecordRingBuffer(capacity, referenceCapacity);
+            RecordConsumer consumer = consumers[i];
+            int index = i;
+            rings[i] = ring;
+            Thread thread = new Thread(() -> consume(index, ring, consumer), "phd-pipeline-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    private void consume(int index, RecordRingBuffer ring, RecordConsumer consumer) {
+        try {
+            while (ring.drain(consumer, BATCH_SIZE) >= 0) {
+                // Drain until the end
+            }
+            consumer.onEnd();
+        } catch (Throwable e) {
+            failures[index] = e;
+            ring.fail(e);
+        }
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            DumpObject dumpObject = (DumpObject) object;
+            for (RecordRingBuffer ring : rings) {
+                ring.put(DumpRecordKind.OBJECT, address, dumpObject.getClassAddress(), dumpObject.getHash(), 0, 0,
+                        dumpObject.getReferences(), dumpObject);
+            }
+        } else if (object instanceof DumpObjectArray) {
+            DumpObjectArray objectArray = (DumpObjectArray) object;
+            for (RecordRingBuffer ring : rings) {
+                ring.put(DumpRecordKind.OBJECT_ARRAY, address, objectArray.getClassAddress(), objectArray.getHash(),
+                        objectArray.getSize(), objectArray.getActualLength(), objectArray.getReferences(), objectArray);
+            }
+        } else if (object instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray primitiveArray = (DumpPrimitiveArray) object;
+            byte kind = DumpRecordKind.primitiveArray(primitiveArray.getType());
+            for (RecordRingBuffer ring : rings) {
+                ring.put(kind, address, 0, primitiveArray.getHash(), primitiveArray.getSize(), primitiveArray.getLength(), null, primitiveArray);
+            }
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        for (RecordRingBuffer ring : rings) {
+            ring.put(DumpRecordKind.CLASS, aClass.getAddress(), 0, aClass.getHash(), 0, 0, aClass.getReferences(), aClass);
+        }
+    }
+
+    /**
+     * Publish the end of the records and wait for the consumers.
+     *
+     * @throws IllegalStateException if a consumer has failed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (RecordRingBuffer ring : rings) {
+            ring.end();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new IllegalStateException("Record consumer has failed", failure);
+            }
+        }
+    }
+}
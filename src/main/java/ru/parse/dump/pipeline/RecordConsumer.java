@@ -0,0 +1,37 @@
+package ru.parse.dump.pipeline;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpRecordKind;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+/**
+ * Consumer of the records drained from a {@link RecordRingBuffer}, called on the consumer thread.
+ */
+public interface RecordConsumer {
+    /**
+     * @param record the view of the slot, valid only until the method returns
+     */
+    void onRecord(RecordView record);
+
+    /**
+     * Called after the last record.
+     */
+    default void onEnd() {
+    }
+
+    /**
+     * Consumer saving the records into the index system. The index system receives the decoded records, not copies.
+     *
+     * @param virtualIndexSystem
+     * @return
+     */
+    static RecordConsumer of(VirtualIndexSystem virtualIndexSystem) {
+        return record -> {
+            if (record.getKind() == DumpRecordKind.CLASS) {
+                virtualIndexSystem.save((DumpClass) record.toRecord());
+            } else {
+                virtualIndexSystem.save(record.getAddress(), record.toRecord());
+            }
+        };
+    }
+}
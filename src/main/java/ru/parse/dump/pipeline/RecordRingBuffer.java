@@ -0,0 +1,272 @@
+package ru.parse.dump.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer single-consumer ring of record slots.
+ * <p>
+ * A slot is a row of preallocated primitive arrays, the references of the records are copied into a separate ring
+ * of longs. The producer publishes the written slots by an ordered store of the tail, the consumer frees the slots of
+ * a drained batch by an ordered store of the head, so neither side takes locks or allocates per record.
+ * Only a record with more references than the whole reference ring keeps its own array. A slot keeps the decoded
+ * record as well, so the consumers of the object model receive it without a copy.
+ */
+public class RecordRingBuffer {
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int mask;
+    private final byte[] kinds;
+    private final long[] addresses;
+    private final long[] classAddresses;
+    private final int[] hashes;
+    private final long[] sizes;
+    private final long[] lengths;
+    private final long[] referenceStarts;
+    private final int[] referenceCounts;
+    private final Object[] records;
+    private final long[][] largeReferences;
+
+    private final int referenceMask;
+    private final long[] references;
+
+    private final Sequence tail = new Sequence();
+    private final Sequence head = new Sequence();
+    private final Sequence referenceHead = new Sequence();
+
+    // Producer state
+    private long referenceTail = 0;
+    private long cachedHead = 0;
+    private long cachedReferenceHead = 0;
+
+    // Consumer state
+    private final RecordView view = new RecordView(this);
+    private boolean ended = false;
+
+    private volatile boolean endPublished = false;
+    private volatile Throwable consumerFailure;
+
+    /**
+     * @param capacity           the number of slots, rounded up to a power of two
+     * @param referenceCapacity the number of references, rounded up to a power of two
+     */
+    public RecordRingBuffer(int capacity, int referenceCapacity) {
+        int slots = powerOfTwo(capacity);
+        mask = slots - 1;
+        kinds = new byte[slots];
+        addresses = new long[slots];
+        classAddresses = new long[slots];
+        hashes = new int[slots];
+        sizes = new long[slots];
+        lengths = new long[slots];
+        referenceStarts = new long[slots];
+        referenceCounts = new int[slots];
+        records = new Object[slots];
+        largeReferences = new long[slots][];
+
+        int referenceSlots = powerOfTwo(referenceCapacity);
+        referenceMask = referenceSlots - 1;
+        references = new long[referenceSlots];
+    }
+
+    /**
+     * Write the record into the next slot, waiting for a free one.
+     *
+     * @param kind         one of the {@link RecordView} kinds
+     * @param address
+     * @param classAddress
+     * @param hash
+     * @param size
+     * @param length       the number of elements of an array
+     * @param refs         the references, may be null
+     * @param record       the decoded record, shared by the consumers, may be null
+     */
+    public void put(byte kind, long address, long classAddress, int hash, long size, long length, long[] refs, Object record) {
+        long position = tail.value;
+        int spins = 0;
+        while (position - cachedHead > mask) {
+            cachedHead = head.value;
+            if (position - cachedHead > mask) {
+                spins = await(spins);
+            }
+        }
+
+        int slot = (int) position & mask;
+        int count = (refs != null ? refs.length : 0);
+        if (count > references.length) {
+            largeReferences[slot] = refs;
+            referenceStarts[slot] = -1;
+        } else {
+            while (referenceTail + count - cachedReferenceHead > references.length) {
+                cachedReferenceHead = referenceHead.value;
+                if (referenceTail + count - cachedReferenceHead > references.length) {
+                    spins = await(spins);
+                }
+            }
+            for (int i = 0; i < count; ++i) {
+                references[(int) (referenceTail + i) & referenceMask] = refs[i];
+            }
+            referenceStarts[slot] = referenceTail;
+            referenceTail += count;
+        }
+
+        kinds[slot] = kind;
+        addresses[slot] = address;
+        classAddresses[slot] = classAddress;
+        hashes[slot] = hash;
+        sizes[slot] = size;
+        lengths[slot] = length;
+        referenceCounts[slot] = count;
+        records[slot] = record;
+        Sequence.UPDATER.lazySet(tail, position + 1);
+    }
+
+    /**
+     * Mark the end of the records. The consumer drains the rest and stops.
+     */
+    public void end() {
+        endPublished = true;
+    }
+
+    /**
+     * Pass the available records to the consumer, waiting for at least one.
+     *
+     * @param consumer
+     * @param maxBatch
+     * @return the number of the records passed or -1 when the ring is drained after the end
+     */
+    public int drain(RecordConsumer consumer, int maxBatch) {
+        if (ended) {
+            return -1;
+        }
+
+        long position = head.value;
+        long available;
+        int spins = 0;
+        while ((available = tail.value - position) == 0) {
+            if (endPublished) {
+                // The end is published after the last tail, so a tail read after it is final
+                if (tail.value == position) {
+                    ended = true;
+                    return -1;
+                }
+                continue;
+            }
+            spins = idle(spins);
+        }
+
+        int batch = (int) Math.min(available, maxBatch);
+        long referencePosition = referenceHead.value;
+        for (int i = 0; i < batch; ++i) {
+            int slot = (int) (position + i) & mask;
+            view.slot = slot;
+            consumer.onRecord(view);
+            if (referenceStarts[slot] >= 0) {
+                referencePosition = referenceStarts[slot] + referenceCounts[slot];
+            }
+            records[slot] = null;
+            largeReferences[slot] = null;
+        }
+        Sequence.UPDATER.lazySet(referenceHead, referencePosition);
+        Sequence.UPDATER.lazySet(head, position + batch);
+        return batch;
+    }
+
+    /**
+     * Report the consumer failure, so the producer stops waiting for the slots.
+     *
+     * @param failure
+     */
+    public void fail(Throwable failure) {
+        consumerFailure = failure;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of records written and not drained yet
+     */
+    public long size() {
+        return tail.value - head.value;
+    }
+
+    byte kind(int slot) {
+        return kinds[slot];
+    }
+
+    long address(int slot) {
+        return addresses[slot];
+    }
+
+    long classAddress(int slot) {
+        return classAddresses[slot];
+    }
+
+    int hash(int slot) {
+        return hashes[slot];
+    }
+
+    long recordSize(int slot) {
+        return sizes[slot];
+    }
+
+    long length(int slot) {
+        return lengths[slot];
+    }
+
+    int referenceCount(int slot) {
+        return referenceCounts[slot];
+    }
+
+    long reference(int slot, int index) {
+        if (referenceStarts[slot] < 0) {
+            return largeReferences[slot][index];
+        }
+        return references[(int) (referenceStarts[slot] + index) & referenceMask];
+    }
+
+    Object record(int slot) {
+        return records[slot];
+    }
+
+    private int await(int spins) {
+        Throwable failure = consumerFailure;
+        if (failure != null) {
+            throw new IllegalStateException("Record consumer has failed", failure);
+        }
+        return idle(spins);
+    }
+
+    private static int idle(int spins) {
+        // Busy spinning first, the next record usually comes within microseconds
+        if (spins < SPINS) {
+            return spins + 1;
+        }
+        if (spins < SPINS * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins + 1;
+    }
+
+    private static int powerOfTwo(int value) {
+        return (value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1);
+    }
+
+    /**
+     * Counter padded to its own cache line, so the producer and the consumer counters don't falsely share one.
+     */
+    @SuppressWarnings("unused")
+    static class Sequence {
+        static final AtomicLongFieldUpdater<Sequence> UPDATER = AtomicLongFieldUpdater.newUpdater(Sequence.class, "value");
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+        volatile long value;
+        private long p9, p10, p11, p12, p13, p14, p15;
+    }
+}
@@ -0,0 +1,97 @@
+package ru.parse.dump.pipeline;
+
+import ru.parse.dump.objects.*;
+
+/**
+ * Flyweight view of a {@link RecordRingBuffer} slot. The same instance is passed for every record, it's valid only
+ * during the {@link RecordConsumer#onRecord(RecordView)} call.
+ */
+public final class RecordView {
+    private final RecordRingBuffer ring;
+    int slot;
+
+    RecordView(RecordRingBuffer ring) {
+        this.ring = ring;
+    }
+
+    public byte getKind() {
+        return ring.kind(slot);
+    }
+
+    public long getAddress() {
+        return ring.address(slot);
+    }
+
+    /**
+     * @return the class address of an object or an object array, 0 otherwise
+     */
+    public long getClassAddress() {
+        return ring.classAddress(slot);
+    }
+
+    public int getHash() {
+        return ring.hash(slot);
+    }
+
+    /**
+     * @return the size of an array, 0 for objects and classes
+     */
+    public long getSize() {
+        return ring.recordSize(slot);
+    }
+
+    /**
+     * @return the number of elements of an array
+     */
+    public long getLength() {
+        return ring.length(slot);
+    }
+
+    public DumpPrimitiveType getPrimitiveType() {
+        byte kind = getKind();
+        return (kind >= DumpRecordKind.PRIMITIVE_ARRAY ? DumpRecordKind.primitiveType(kind) : null);
+    }
+
+    public int getReferenceCount() {
+        return ring.referenceCount(slot);
+    }
+
+    public long getReference(int index) {
+        return ring.reference(slot, index);
+    }
+
+    /**
+     * @return the class of a class record, null otherwise
+     */
+    public DumpClass getDumpClass() {
+        Object record = ring.record(slot);
+        return (record instanceof DumpClass ? (DumpClass) record : null);
+    }
+
+    /**
+     * The record for the consumers working with the object model. It's the decoded record itself, shared by all
+     * the consumers, so it must not be modified. Only a record put into the ring without it is copied.
+     *
+     * @return
+     */
+    public Object toRecord() {
+        Object record = ring.record(slot);
+        if (record != null) {
+            return record;
+        }
+
+        byte kind = getKind();
+        if (kind >= DumpRecordKind.PRIMITIVE_ARRAY) {
+            return new DumpPrimitiveArray(getAddress(), getPrimitiveType(), getLength(), getHash(), getSize());
+        }
+
+        long[] references = new long[getReferenceCount()];
+        for (int i = 0; i < references.length; ++i) {
+            references[i] = getReference(i);
+        }
+        if (kind == DumpRecordKind.OBJECT_ARRAY) {
+            return new DumpObjectArray(getAddress(), getClassAddress(), getHash(), getSize(), getLength(), references);
+        }
+        return new DumpObject(getAddress(), getClassAddress(), getHash(), references);
+    }
+}
@@ -0,0 +1,515 @@
+package ru.parse.dump.trend;
+
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpPlatform;
+import ru.parse.dump.util.Varints;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only store of the class histograms of periodic dumps of a JVM.
+ * <p>
+ * The file is memory-mapped. It starts with the magic and the format version, then every snapshot is a record of
+ * its length and the body:
+ * <ul>
+ * <li>the timestamp delta from the previous snapshot and the dump header with its raw flags word;</li>
+ * <li>the class names met for the first time, they get the next ids;</li>
+ * <li>the column of the class ids, as gaps from the previous id;</li>
+ * <li>the columns of the instance count and the shallow bytes deltas from the previous snapshot.</li>
+ * </ul>
+ * Only the classes changed since the previous snapshot have rows. All the numbers are varints, the deltas are
+ * zigzag-encoded, so a slowly changing heap costs a few bytes per class. A record is complete when its length is
+ * written, the length is written last, a torn record at the end is ignored on open.
+ * <p>
+ * The current values of all the classes are kept in memory, the values of an earlier snapshot are restored by
+ * subtracting the deltas of the later ones, so the queries over the last snapshots read only their records.
+ * <p>
+ * Thread-safe, the methods are synchronized.
+ */
+public class ClassTrendStore implements Closeable {
+    private static final int MAGIC = 0x50484454;
+    private static final int FORMAT_VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int MIN_MAPPED_SIZE = 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private int end;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private long[] counts = new long[256];
+    private long[] bytes = new long[256];
+    private final List<Snapshot> snapshots = new ArrayList<>();
+
+    private ClassTrendStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open the store, creating the file if needed.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ClassTrendStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ClassTrendStore store = new ClassTrendStore(channel);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Trend store of %d bytes is too large", size));
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, MIN_MAPPED_SIZE));
+        if (size == 0) {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, FORMAT_VERSION);
+            end = FILE_HEADER_SIZE;
+            return;
+        }
+
+        if (size < FILE_HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Not a trend store file");
+        }
+        if (mapped.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalStateException(String.format("Unsupported trend store version %d", mapped.getInt(4)));
+        }
+
+        end = FILE_HEADER_SIZE;
+        long timestamp = 0;
+        while (end + 4 <= size) {
+            int length = mapped.getInt(end);
+            if (length <= 0 || end + 4L + length > size) {
+                break;
+            }
+            Record record = decode(end);
+            timestamp += record.timestampDelta;
+            names.addAll(Arrays.asList(record.newNames));
+            for (String name : record.newNames) {
+                ids.put(name, ids.size());
+            }
+            ensureClasses(names.size());
+            for (int row = 0; row < record.ids.length; ++row) {
+                counts[record.ids[row]] += record.countDeltas[row];
+                bytes[record.ids[row]] += record.bytesDeltas[row];
+            }
+            snapshots.add(new Snapshot(snapshots.size(), timestamp, record.header, end));
+            end += 4 + length;
+        }
+    }
+
+    /**
+     * Parse the dump and append its histogram.
+     *
+     * @param dump
+     * @param timestamp the time the dump was taken, in milliseconds
+     * @return the snapshot appended
+     * @throws IOException
+     */
+    public Snapshot ingest(Path dump, long timestamp) throws IOException {
+        ClassHistogram histogram = new ClassHistogram();
+        DumpParsingStatistics statistics;
+        try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            statistics = stream.readObjects(histogram, null);
+        }
+        return append(statistics.getHeader(), timestamp, histogram.getEntries());
+    }
+
+    /**
+     * Append a snapshot. The classes missing from the entries have no instances at the snapshot.
+     *
+     * @param header
+     * @param timestamp the time the dump was taken, in milliseconds
+     * @param entries   the histogram, the entries of the same name are summed
+     * @return the snapshot appended
+     * @throws IOException
+     */
+    public synchronized Snapshot append(DumpHeader header, long timestamp, Collection<ClassHistogram.Entry> entries) throws IOException {
+        // The names and the values are committed after the record is written, a failed write leaves the store as it was
+        Map<String, Integer> newIds = new HashMap<>();
+        List<String> newNames = new ArrayList<>();
+        long[] snapshotCounts = new long[names.size() + entries.size()];
+        long[] snapshotBytes = new long[snapshotCounts.length];
+        for (ClassHistogram.Entry entry : entries) {
+            Integer id = ids.get(entry.getName());
+            if (id == null) {
+                id = newIds.get(entry.getName());
+            }
+            if (id == null) {
+                id = names.size() + newNames.size();
+                newIds.put(entry.getName(), id);
+                newNames.add(entry.getName());
+            }
+            snapshotCounts[id] += entry.getCount();
+            snapshotBytes[id] += entry.getBytes();
+        }
+        int classes = names.size() + newNames.size();
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(1024);
+        DataOutputStream body = new DataOutputStream(encoded);
+        long previousTimestamp = (snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1).timestamp);
+        Varints.writeSigned(body, timestamp - previousTimestamp);
+        Varints.write(body, header.getVersion());
+        body.writeByte(header.getPlatform().ordinal());
+        Varints.write(body, header.getFlags());
+        writeString(body, header.getJvmVersion());
+        Varints.write(body, newNames.size());
+        for (String name : newNames) {
+            writeString(body, name);
+        }
+
+        IntListBuilder changed = new IntListBuilder();
+        for (int id = 0; id < classes; ++id) {
+            if (snapshotCounts[id] != currentCount(id) || snapshotBytes[id] != currentBytes(id)) {
+                changed.add(id);
+            }
+        }
+        Varints.write(body, changed.size);
+        int previousId = 0;
+        for (int row = 0; row < changed.size; ++row) {
+            Varints.write(body, changed.values[row] - previousId);
+            previousId = changed.values[row];
+        }
+        for (int row = 0; row < changed.size; ++row) {
+            int id = changed.values[row];
+            Varints.writeSigned(body, snapshotCounts[id] - currentCount(id));
+        }
+        for (int row = 0; row < changed.size; ++row) {
+            int id = changed.values[row];
+            Varints.writeSigned(body, snapshotBytes[id] - currentBytes(id));
+        }
+
+        byte[] record = encoded.toByteArray();
+        int offset = end;
+        ensureMapped(offset + 4L + record.length);
+        ByteBuffer target = mapped.duplicate();
+        target.position(offset + 4);
+        target.put(record);
+        mapped.putInt(offset, record.length);
+        mapped.force();
+        end = offset + 4 + record.length;
+
+        names.addAll(newNames);
+        ids.putAll(newIds);
+        ensureClasses(names.size());
+        for (int row = 0; row < changed.size; ++row) {
+            int id = changed.values[row];
+            counts[id] = snapshotCounts[id];
+            bytes[id] = snapshotBytes[id];
+        }
+        Snapshot snapshot = new Snapshot(snapshots.size(), timestamp, header, offset);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    public synchronized int getSnapshotCount() {
+        return snapshots.size();
+    }
+
+    public synchronized List<Snapshot> getSnapshots() {
+        return new ArrayList<>(snapshots);
+    }
+
+    /**
+     * @return the number of the distinct class names in all the snapshots
+     */
+    public synchronized int getClassCount() {
+        return names.size();
+    }
+
+    /**
+     * @return the bytes of the file used by the snapshots
+     */
+    public synchronized long getFileSize() {
+        return end;
+    }
+
+    /**
+     * Find the classes whose shallow bytes grew the most from the first to the last of the latest snapshots.
+     *
+     * @param snapshotCount the number of the latest snapshots to compare, at least 2
+     * @param limit         the maximum number of the classes returned
+     * @return the growing classes, the fastest first
+     */
+    public synchronized List<ClassTrend> fastestGrowing(int snapshotCount, int limit) {
+        if (snapshotCount < 2) {
+            throw new IllegalArgumentException("At least two snapshots are needed for a trend");
+        }
+        int window = Math.min(snapshotCount, snapshots.size());
+        if (window < 2) {
+            return Collections.emptyList();
+        }
+
+        // Roll the current values back through the later snapshots of the window
+        long[] firstCounts = Arrays.copyOf(counts, names.size());
+        long[] firstBytes = Arrays.copyOf(bytes, names.size());
+        Snapshot first = snapshots.get(snapshots.size() - window);
+        Snapshot last = snapshots.get(snapshots.size() - 1);
+        for (int index = snapshots.size() - 1; index > first.index; --index) {
+            Record record = decode(snapshots.get(index).offset);
+            for (int row = 0; row < record.ids.length; ++row) {
+                firstCounts[record.ids[row]] -= record.countDeltas[row];
+                firstBytes[record.ids[row]] -= record.bytesDeltas[row];
+            }
+        }
+
+        List<ClassTrend> trends = new ArrayList<>();
+        for (int id = 0; id < names.size(); ++id) {
+            if (bytes[id] > firstBytes[id] || (bytes[id] == firstBytes[id] && counts[id] > firstCounts[id])) {
+                trends.add(new ClassTrend(names.get(id), firstCounts[id], counts[id], firstBytes[id], bytes[id],
+                        last.timestamp - first.timestamp));
+            }
+        }
+        trends.sort((a, b) -> {
+            int order = Long.compare(b.getBytesGrowth(), a.getBytesGrowth());
+            if (order == 0) {
+                order = Long.compare(b.getCountGrowth(), a.getCountGrowth());
+            }
+            return (order != 0 ? order : a.name.compareTo(b.name));
+        });
+        return (trends.size() > limit ? new ArrayList<>(trends.subList(0, limit)) : trends);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            mapped.force();
+            channel.close();
+        }
+    }
+
+    private Record decode(int offset) {
+        byte[] encoded = new byte[mapped.getInt(offset)];
+        ByteBuffer source = mapped.duplicate();
+        source.position(offset + 4);
+        source.get(encoded);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+
+        try {
+            Record record = new Record();
+            record.timestampDelta = Varints.readSigned(input);
+            long version = Varints.read(input);
+            DumpPlatform platform = DumpPlatform.values()[input.readByte()];
+            long flags = Varints.read(input);
+            String jvmVersion = readString(input);
+            record.header = new DumpHeader(version, platform, (flags & DumpHeader.FLAG_HASHED) != 0,
+                    (flags & DumpHeader.FLAG_J9_VM) != 0, jvmVersion, flags);
+
+            record.newNames = new String[(int) Varints.read(input)];
+            for (int i = 0; i < record.newNames.length; ++i) {
+                record.newNames[i] = readString(input);
+            }
+
+            int rows = (int) Varints.read(input);
+            record.ids = new int[rows];
+            int id = 0;
+            for (int row = 0; row < rows; ++row) {
+                id += (int) Varints.read(input);
+                record.ids[row] = id;
+            }
+            record.countDeltas = new long[rows];
+            for (int row = 0; row < rows; ++row) {
+                record.countDeltas[row] = Varints.readSigned(input);
+            }
+            record.bytesDeltas = new long[rows];
+            for (int row = 0; row < rows; ++row) {
+                record.bytesDeltas[row] = Varints.readSigned(input);
+            }
+            return record;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Trend store record at %d is corrupted", offset), e);
+        }
+    }
+
+    /**
+     * @return the current instance count of the class, 0 for a class not committed yet
+     */
+    private long currentCount(int id) {
+        return (id < counts.length ? counts[id] : 0);
+    }
+
+    private long currentBytes(int id) {
+        return (id < bytes.length ? bytes[id] : 0);
+    }
+
+    private void ensureMapped(long required) throws IOException {
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Trend store is full");
+        }
+        if (required > mapped.capacity()) {
+            long size = Math.min(Integer.MAX_VALUE, Math.max(required, mapped.capacity() * 2L));
+            mapped.force();
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void ensureClasses(int classes) {
+        if (classes > counts.length) {
+            int capacity = Math.max(classes, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            bytes = Arrays.copyOf(bytes, capacity);
+        }
+    }
+
+    private static void writeString(DataOutput target, String value) throws IOException {
+        byte[] encoded = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        Varints.write(target, encoded.length);
+        target.write(encoded);
+    }
+
+    private static String readString(DataInput source) throws IOException {
+        byte[] encoded = new byte[(int) Varints.read(source)];
+        source.readFully(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decoded snapshot record.
+     */
+    private static class Record {
+        long timestampDelta;
+        DumpHeader header;
+        String[] newNames;
+        int[] ids;
+        long[] countDeltas;
+        long[] bytesDeltas;
+    }
+
+    private static class IntListBuilder {
+        int[] values = new int[64];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Snapshot of the store.
+     */
+    public static class Snapshot {
+        private final int index;
+        private final long timestamp;
+        private final DumpHeader header;
+        private final int offset;
+
+        Snapshot(int index, long timestamp, DumpHeader header, int offset) {
+            this.index = index;
+            this.timestamp = timestamp;
+            this.header = header;
+            this.offset = offset;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public DumpHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "index=" + index +
+                    ", timestamp=" + timestamp +
+                    ", header=" + header +
+                    '}';
+        }
+    }
+
+    /**
+     * Change of a class between two snapshots.
+     */
+    public static class ClassTrend {
+        private final String name;
+        private final long firstCount;
+        private final long lastCount;
+        private final long firstBytes;
+        private final long lastBytes;
+        private final long millis;
+
+        ClassTrend(String name, long firstCount, long lastCount, long firstBytes, long lastBytes, long millis) {
+            this.name = name;
+            this.firstCount = firstCount;
+            this.lastCount = lastCount;
+            this.firstBytes = firstBytes;
+            this.lastBytes = lastBytes;
+            this.millis = millis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getFirstCount() {
+            return firstCount;
+        }
+
+        public long getLastCount() {
+            return lastCount;
+        }
+
+        public long getFirstBytes() {
+            return firstBytes;
+        }
+
+        public long getLastBytes() {
+            return lastBytes;
+        }
+
+        public long getCountGrowth() {
+            return lastCount - firstCount;
+        }
+
+        public long getBytesGrowth() {
+            return lastBytes - firstBytes;
+        }
+
+        /**
+         * @return the shallow bytes growth per hour, 0 if the snapshots have the same timestamp
+         */
+        public double getBytesGrowthPerHour() {
+            return (millis > 0 ? getBytesGrowth() * 3600000.0 / millis : 0);
+        }
+
+        @Override
+        public String toString() {
+            return "ClassTrend{" +
+                    "name='" + name + '\'' +
+                    ", count=" + firstCount + "->" + lastCount +
+                    ", bytes=" + firstBytes + "->" + lastBytes +
+                    '}';
+        }
+    }
+}
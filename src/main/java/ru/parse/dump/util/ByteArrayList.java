@@ -0,0 +1,81 @@
+package ru.parse.dump.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive bytes. Avoids boxing on collections of hundreds of millions of values.
+ */
+public class ByteArrayList {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private byte[] values;
+    private int size = 0;
+
+    public ByteArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ByteArrayList(int capacity) {
+        values = new byte[Math.max(1, capacity)];
+    }
+
+    public void add(byte value) {
+        if (size == values.length) {
+            grow(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    public byte get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Size is %d, but requested %d", size, index));
+        }
+        return values[index];
+    }
+
+    public void set(int index, byte value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Size is %d, but requested %d", size, index));
+        }
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * The backing array. Only the first {@link #size()} values are meaningful.
+     */
+    public byte[] array() {
+        return values;
+    }
+
+    public byte[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * The memory occupied by the backing array, in bytes.
+     */
+    public long capacityBytes() {
+        return values.length;
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("Cannot hold more than %d values", MAX_CAPACITY));
+        }
+        long newCapacity = Math.max(minCapacity, (long) values.length + (values.length >> 1));
+        values = Arrays.copyOf(values, (int) Math.min(MAX_CAPACITY, newCapacity));
+    }
+}
@@ -0,0 +1,81 @@
+package ru.parse.dump.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints. Avoids boxing on collections of hundreds of millions of values.
+ */
+public class IntArrayList {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private int[] values;
+    private int size = 0;
+
+    public IntArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntArrayList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            grow(size + 1);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Size is %d, but requested %d", size, index));
+        }
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Size is %d, but requested %d", size, index));
+        }
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * The backing array. Only the first {@link #size()} values are meaningful.
+     */
+    public int[] array() {
+        return values;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * The memory occupied by the backing array, in bytes.
+     */
+    public long capacityBytes() {
+        return (long) values.length * 4;
+    }
+
+    private void grow(int minCapacity) {
+        if (minCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("Cannot hold more than %d values", MAX_CAPACITY));
+        }
+        long newCapacity = Math.max(minCapacity, (long) values.length + (values.length >> 1));
+        values = Arrays.copyOf(values, (int) Math.min(MAX_CAPACITY, newCapacity));
+    }
+}
@@ -0,0 +1,159 @@
+package ru.parse.dump.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to long values without boxing.
+ * {@link Long#MIN_VALUE} cannot be used as a key, it marks the free slots.
+ */
+public class LongLongHashMap {
+    public static final long NO_VALUE = Long.MIN_VALUE;
+    private static final long FREE_KEY = Long.MIN_VALUE;
+    private static final double LOAD_FACTOR = 0.6;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+    private int resizeThreshold;
+
+    public LongLongHashMap() {
+        this(1024);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit((int) (expectedSize / LOAD_FACTOR)) << 1));
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return the previous value or {@link #NO_VALUE}
+     */
+    public long put(long key, long value) {
+        if (key == FREE_KEY) {
+            throw new IllegalArgumentException("The key is reserved");
+        }
+
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * @param key
+     * @return the value or {@link #NO_VALUE}
+     */
+    public long get(long key) {
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * @param key
+     * @return the removed value or {@link #NO_VALUE}
+     */
+    public long remove(long key) {
+        if (key == FREE_KEY) {
+            // The reserved key is never put, the probe would match a free slot
+            return NO_VALUE;
+        }
+
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == FREE_KEY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & mask;
+        }
+        long removed = values[slot];
+
+        // Shift the following keys of the probe chain back, so no tombstones are needed
+        int free = slot;
+        int next = (slot + 1) & mask;
+        while (keys[next] != FREE_KEY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = FREE_KEY;
+        --size;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The memory occupied by the slots, in bytes.
+     */
+    public long capacityBytes() {
+        return keys.length * 16L;
+    }
+
+    /**
+     * Call the consumer for every entry, in no particular order.
+     *
+     * @param consumer
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; ++slot) {
+            if (keys[slot] != FREE_KEY) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE_KEY);
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; ++slot) {
+            if (oldKeys[slot] != FREE_KEY) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+}
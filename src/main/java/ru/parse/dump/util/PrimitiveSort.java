@@ -0,0 +1,195 @@
+package ru.parse.dump.util;
+
+/**
+ * Sorting of primitive key arrays together with their payload, without boxing.
+ */
+public final class PrimitiveSort {
+    private static final int INSERTION_SORT_THRESHOLD = 24;
+
+    private PrimitiveSort() {
+    }
+
+    /**
+     * Sort the keys ascending in the range [from, to), moving the values along with them.
+     * Records of a dump are mostly ordered by address, so the already sorted input is detected in a linear pass.
+     *
+     * @param keys
+     * @param values
+     * @param from
+     * @param to
+     */
+    public static void sort(long[] keys, int[] values, int from, int to) {
+        if (isSorted(keys, from, to)) {
+            return;
+        }
+        quickSort(keys, values, from, to - 1);
+    }
+
+    public static boolean isSorted(long[] keys, int from, int to) {
+        for (int i = from + 1; i < to; ++i) {
+            if (keys[i - 1] > keys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Quick sort recursing into the smaller part only, so the depth is limited by log2(n).
+     */
+    private static void quickSort(long[] keys, int[] values, int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < keys[low]) {
+                swap(keys, values, middle, low);
+            }
+            if (keys[high] < keys[low]) {
+                swap(keys, values, high, low);
+            }
+            if (keys[high] < keys[middle]) {
+                swap(keys, values, high, middle);
+            }
+            long pivot = keys[middle];
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    ++i;
+                }
+                while (keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    ++i;
+                    --j;
+                }
+            }
+
+            if (j - low < high - i) {
+                quickSort(keys, values, low, j);
+                low = i;
+            } else {
+                quickSort(keys, values, i, high);
+                high = j;
+            }
+        }
+        insertionSort(keys, values, low, high);
+    }
+
+    private static void insertionSort(long[] keys, int[] values, int low, int high) {
+        for (int i = low + 1; i <= high; ++i) {
+            long key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                --j;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(long[] keys, int[] values, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * The int keys counterpart of {@link #sort(long[], int[], int, int)}.
+     *
+     * @param keys
+     * @param values
+     * @param from
+     * @param to
+     */
+    public static void sort(int[] keys, int[] values, int from, int to) {
+        if (isSorted(keys, from, to)) {
+            return;
+        }
+        quickSort(keys, values, from, to - 1);
+    }
+
+    public static boolean isSorted(int[] keys, int from, int to) {
+        for (int i = from + 1; i < to; ++i) {
+            if (keys[i - 1] > keys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void quickSort(int[] keys, int[] values, int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < keys[low]) {
+                swap(keys, values, middle, low);
+            }
+            if (keys[high] < keys[low]) {
+                swap(keys, values, high, low);
+            }
+            if (keys[high] < keys[middle]) {
+                swap(keys, values, high, middle);
+            }
+            int pivot = keys[middle];
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    ++i;
+                }
+                while (keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    ++i;
+                    --j;
+                }
+            }
+
+            if (j - low < high - i) {
+                quickSort(keys, values, low, j);
+                low = i;
+            } else {
+                quickSort(keys, values, i, high);
+                high = j;
+            }
+        }
+        insertionSort(keys, values, low, high);
+    }
+
+    private static void insertionSort(int[] keys, int[] values, int low, int high) {
+        for (int i = low + 1; i <= high; ++i) {
+            int key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                --j;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(int[] keys, int[] values, int i, int j) {
+        int key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.parse.dump.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length encoding of the numbers: 7 bits per byte, the low bits first, the high bit set on all the bytes
+ * but the last one. The signed numbers are zigzag-encoded first, so the small negative numbers are short as well.
+ */
+public final class Varints {
+    private static final int MAX_SHIFT = 64;
+
+    private Varints() {
+    }
+
+    public static void write(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            output.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    public static void writeSigned(DataOutput output, long value) throws IOException {
+        write(output, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param input
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException if the varint is longer than a long
+     */
+    public static long read(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < MAX_SHIFT; shift += 7) {
+            int current = input.readUnsignedByte();
+            value |= (long) (current & 0x7f) << shift;
+            if ((current & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint is too long");
+    }
+
+    public static long readSigned(DataInput input) throws IOException {
+        long value = read(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,222 @@
+package ru.parse.dump.validate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compressed set of record addresses in the roaring bitmap manner.
+ * <p>
+ * Addresses are kept in word units. The high bits of a word number select a 65536 words chunk, the chunk keeps
+ * its low 16 bits either in a sorted short array, while it's sparse, or in a 8 Kb bitmap, when it's dense.
+ * A dense heap costs about one bit per word, a sparse one about two bytes per record.
+ */
+public class AddressBitmap {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final int wordSize;
+    private final int wordShift;
+    private final Map<Long, Container> containers = new HashMap<>();
+
+    private long lastChunk = -1;
+    private Container lastContainer;
+    private long size = 0;
+
+    /**
+     * @param wordSize the alignment of the addresses, a power of two
+     */
+    public AddressBitmap(int wordSize) {
+        if (Integer.bitCount(wordSize) != 1) {
+            throw new IllegalArgumentException("Word size should be a power of two");
+        }
+        this.wordSize = wordSize;
+        this.wordShift = Integer.numberOfTrailingZeros(wordSize);
+    }
+
+    /**
+     * Add the address to the set.
+     *
+     * @param address
+     * @return false if the address is already in the set
+     */
+    public boolean add(long address) {
+        checkAlignment(address);
+        long word = address >>> wordShift;
+        long chunk = word >>> CHUNK_BITS;
+        Container container = container(chunk);
+        if (container == null) {
+            container = new ArrayContainer();
+            containers.put(chunk, container);
+            lastChunk = chunk;
+            lastContainer = container;
+        }
+
+        int low = (int) (word & CHUNK_MASK);
+        if (!container.add(low)) {
+            return false;
+        }
+        if (container instanceof ArrayContainer && ((ArrayContainer) container).isFull()) {
+            container = ((ArrayContainer) container).toBitmap();
+            containers.put(chunk, container);
+            lastContainer = container;
+        }
+        ++size;
+        return true;
+    }
+
+    public boolean contains(long address) {
+        if ((address & (wordSize - 1)) != 0) {
+            return false;
+        }
+        long word = address >>> wordShift;
+        Container container = container(word >>> CHUNK_BITS);
+        return container != null && container.contains((int) (word & CHUNK_MASK));
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getWordSize() {
+        return wordSize;
+    }
+
+    /**
+     * The approximate memory occupied by the containers, in bytes.
+     *
+     * @return
+     */
+    public long memoryUsed() {
+        long bytes = 0;
+        for (Container container : containers.values()) {
+            bytes += container.memoryUsed();
+        }
+        return bytes;
+    }
+
+    private void checkAlignment(long address) {
+        if ((address & (wordSize - 1)) != 0) {
+            throw new IllegalArgumentException(String.format("Address %x is not aligned by %d", address, wordSize));
+        }
+    }
+
+    private Container container(long chunk) {
+        // Records come mostly in the address order, so the same chunk is requested many times in a row
+        if (chunk == lastChunk) {
+            return lastContainer;
+        }
+        Container container = containers.get(chunk);
+        if (container != null) {
+            lastChunk = chunk;
+            lastContainer = container;
+        }
+        return container;
+    }
+
+    private interface Container {
+        boolean add(int low);
+
+        boolean contains(int low);
+
+        long memoryUsed();
+    }
+
+    private static class ArrayContainer implements Container {
+        static final int MAX_SIZE = 4096;
+
+        private short[] values = new short[16];
+        private int size = 0;
+
+        @Override
+        public boolean add(int low) {
+            // Appending in the ascending order is the common case
+            if (size == 0 || (values[size - 1] & 0xffff) < low) {
+                ensureCapacity();
+                values[size++] = (short) low;
+                return true;
+            }
+
+            int position = search(low);
+            if (position >= 0) {
+                return false;
+            }
+            position = -position - 1;
+            ensureCapacity();
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = (short) low;
+            ++size;
+            return true;
+        }
+
+        @Override
+        public boolean contains(int low) {
+            return search(low) >= 0;
+        }
+
+        @Override
+        public long memoryUsed() {
+            return values.length * 2L;
+        }
+
+        boolean isFull() {
+            return size >= MAX_SIZE;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; ++i) {
+                bitmap.add(values[i] & 0xffff);
+            }
+            return bitmap;
+        }
+
+        private int search(int low) {
+            int from = 0;
+            int to = size - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                int value = values[middle] & 0xffff;
+                if (value < low) {
+                    from = middle + 1;
+                } else if (value > low) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(from + 1);
+        }
+
+        private void ensureCapacity() {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_SIZE, values.length * 2));
+            }
+        }
+    }
+
+    private static class BitmapContainer implements Container {
+        private final long[] bits = new long[(1 << CHUNK_BITS) / 64];
+
+        @Override
+        public boolean add(int low) {
+            long mask = 1L << low;
+            int index = low >>> 6;
+            if ((bits[index] & mask) != 0) {
+                return false;
+            }
+            bits[index] |= mask;
+            return true;
+        }
+
+        @Override
+        public boolean contains(int low) {
+            return (bits[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public long memoryUsed() {
+            return bits.length * 8L;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package ru.parse.dump.validate;
+
+import ru.parse.dump.DumpParserListener;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.DumpClassCacheRegion;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Integrity validator of a PHD file.
+ * <p>
+ * The first pass collects the addresses of all records into an {@link AddressBitmap} and checks that the addresses
+ * increase within address regions. The second pass checks that every reference and every class address resolves to
+ * a record. Both passes stream the file, the memory used is the bitmap and the class table.
+ * A truncated or malformed file is reported instead of failing the validation.
+ */
+public class DumpValidator {
+    public static final long DEFAULT_REGION_GAP_THRESHOLD = 1024 * 1024;
+    private static final int WORD_SIZE = 4;
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_32_BIT_ADDRESS = 0xffffffffL;
+    /**
+     * The flag combinations of the J9 VM dumps: either platform, with or without the hashes in all records.
+     */
+    private static final long[] KNOWN_FLAG_COMBINATIONS = {
+            DumpHeader.FLAG_J9_VM,
+            DumpHeader.FLAG_J9_VM | DumpHeader.FLAG_64_BIT,
+            DumpHeader.FLAG_J9_VM | DumpHeader.FLAG_HASHED,
+            DumpHeader.FLAG_J9_VM | DumpHeader.FLAG_HASHED | DumpHeader.FLAG_64_BIT
+    };
+    private static final long KNOWN_FLAGS = DumpHeader.FLAG_64_BIT | DumpHeader.FLAG_HASHED | DumpHeader.FLAG_J9_VM;
+
+    private final Path dump;
+    private final long regionGapThreshold;
+
+    public DumpValidator(Path dump) {
+        this(dump, DEFAULT_REGION_GAP_THRESHOLD);
+    }
+
+    /**
+     * @param dump
+     * @param regionGapThreshold a backward address jump larger than this starts a new region, a smaller one is a violation
+     */
+    public DumpValidator(Path dump, long regionGapThreshold) {
+        this.dump = dump;
+        this.regionGapThreshold = regionGapThreshold;
+    }
+
+    public DumpValidationReport validate() throws IOException {
+        DumpValidationReport report = new DumpValidationReport();
+        AddressCollector collector = new AddressCollector(report);
+        runPass(collector, report);
+        if (report.header == null) {
+            return report;
+        }
+        checkHeader(report);
+
+        // References of a truncated dump are still checked up to the failure point
+        String firstPassFailure = report.failure;
+        runPass(new ReferenceChecker(collector.addresses, collector.classes, report), report);
+        if (firstPassFailure != null) {
+            report.failure = firstPassFailure;
+        }
+        return report;
+    }
+
+    private void runPass(VirtualIndexSystem virtualIndexSystem, DumpValidationReport report) throws IOException {
+        long[] bytesRead = new long[1];
+        try (InputStream input = Files.newInputStream(dump, StandardOpenOption.READ);
+             DumpParserStream stream = DumpParserStream.create(input, STREAM_BUFFER_SIZE)) {
+            stream.readObjects(virtualIndexSystem, new DumpParserListener() {
+                @Override
+                public void onHeaderReceive(long read, DumpHeader header) {
+                    report.header = header;
+                    bytesRead[0] = read;
+                }
+
+                @Override
+                public void onDataPortionReceive(long read, DumpParsingStatistics statistics) {
+                    bytesRead[0] = read;
+                }
+            });
+        } catch (IOException e) {
+            report.truncated = true;
+            report.failure = String.format("%s. About %d bytes parsed", e.getMessage(), bytesRead[0]);
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            report.failure = String.format("%s. About %d bytes parsed", e.getMessage(), bytesRead[0]);
+        }
+    }
+
+    private void checkHeader(DumpValidationReport report) {
+        DumpHeader header = report.header;
+        if (header.getVersion() < 4 || header.getVersion() > 6) {
+            report.headerProblems.add(String.format("Unknown format version %d", header.getVersion()));
+        }
+        if (!isKnownFlagCombination(header.getFlags())) {
+            if ((header.getFlags() & ~KNOWN_FLAGS) != 0) {
+                report.headerProblems.add(String.format("Unknown header flags %x", header.getFlags() & ~KNOWN_FLAGS));
+            }
+            if (!header.isJ9VM()) {
+                report.headerProblems.add("The J9 VM flag is not set");
+            }
+        }
+        if (header.getJvmVersion() == null) {
+            report.headerProblems.add("The JVM version record is absent");
+        }
+        if (header.getPlatform() == DumpPlatform._32_BIT && report.maxAddress > MAX_32_BIT_ADDRESS) {
+            report.headerProblems.add(String.format("The dump is marked as 32-bit, but contains the address %x", report.maxAddress));
+        }
+    }
+
+    private static boolean isKnownFlagCombination(long flags) {
+        for (long combination : KNOWN_FLAG_COMBINATIONS) {
+            if (flags == combination) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class AddressCollector implements VirtualIndexSystem {
+        private final DumpValidationReport report;
+        private final AddressBitmap addresses = new AddressBitmap(WORD_SIZE);
+        private final DumpClassCacheRegion classes = new DumpClassCacheRegion();
+        private long previousAddress = -1;
+
+        AddressCollector(DumpValidationReport report) {
+            this.report = report;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return null;
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            onRecord(address);
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            classes.put(aClass);
+            onRecord(aClass.getAddress());
+        }
+
+        private void onRecord(long address) {
+            ++report.records;
+            report.maxAddress = Math.max(report.maxAddress, address);
+            if (!addresses.add(address)) {
+                ++report.duplicateAddresses;
+            }
+
+            if (previousAddress < 0 || address < previousAddress - regionGapThreshold || address > previousAddress + regionGapThreshold) {
+                ++report.regions;
+            } else if (address <= previousAddress) {
+                ++report.nonMonotonicAddresses;
+            }
+            previousAddress = address;
+        }
+    }
+
+    private static class ReferenceChecker implements VirtualIndexSystem {
+        private final AddressBitmap addresses;
+        private final DumpClassCacheRegion classes;
+        private final DumpValidationReport report;
+
+        ReferenceChecker(AddressBitmap addresses, DumpClassCacheRegion classes, DumpValidationReport report) {
+            this.addresses = addresses;
+            this.classes = classes;
+            this.report = report;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return null;
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            if (object instanceof DumpObject) {
+                DumpObject dumpObject = (DumpObject) object;
+                checkClass(dumpObject.getClassAddress());
+                checkReferences(dumpObject.getClassAddress(), dumpObject.getReferences());
+            } else if (object instanceof DumpObjectArray) {
+                DumpObjectArray objectArray = (DumpObjectArray) object;
+                checkClass(objectArray.getClassAddress());
+                checkReferences(objectArray.getClassAddress(), objectArray.getReferences());
+            }
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            checkReferences(aClass.getAddress(), aClass.getReferences());
+        }
+
+        private void checkClass(long classAddress) {
+            if (classes.find(classAddress) == null) {
+                ++report.unresolvedClasses;
+            }
+        }
+
+        private void checkReferences(long classAddress, long[] references) {
+            report.references += references.length;
+            for (long reference : references) {
+                if (!addresses.contains(reference)) {
+                    ++report.danglingReferences;
+                    DumpClass aClass = classes.find(classAddress);
+                    String className = (aClass != null ? aClass.getClassName() : String.format("<unknown class %x>", classAddress));
+                    report.danglingByClass.merge(className, 1L, Long::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Result of the validation.
+     */
+    public static class DumpValidationReport {
+        private DumpHeader header;
+        private boolean truncated;
+        private String failure;
+        private final List<String> headerProblems = new ArrayList<>();
+
+        private long records;
+        private long regions;
+        private long maxAddress;
+        private long duplicateAddresses;
+        private long nonMonotonicAddresses;
+
+        private long references;
+        private long danglingReferences;
+        private long unresolvedClasses;
+        private final Map<String, Long> danglingByClass = new HashMap<>();
+
+        public boolean isValid() {
+            return failure == null && headerProblems.isEmpty() && duplicateAddresses == 0 && nonMonotonicAddresses == 0
+                    && danglingReferences == 0 && unresolvedClasses == 0;
+        }
+
+        public DumpHeader getHeader() {
+            return header;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * @return the reason the parsing has stopped before the body end, or null
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        public List<String> getHeaderProblems() {
+            return headerProblems;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getRegions() {
+            return regions;
+        }
+
+        public long getDuplicateAddresses() {
+            return duplicateAddresses;
+        }
+
+        public long getNonMonotonicAddresses() {
+            return nonMonotonicAddresses;
+        }
+
+        public long getReferences() {
+            return references;
+        }
+
+        public long getDanglingReferences() {
+            return danglingReferences;
+        }
+
+        /**
+         * @return the number of records whose class is not in the dump
+         */
+        public long getUnresolvedClasses() {
+            return unresolvedClasses;
+        }
+
+        /**
+         * @return dangling references count by the name of the referring record class
+         */
+        public Map<String, Long> getDanglingByClass() {
+            return danglingByClass;
+        }
+
+        @Override
+        public String toString() {
+            return "DumpValidationReport{" +
+                    "valid=" + isValid() +
+                    ", truncated=" + truncated +
+                    ", failure='" + failure + '\'' +
+                    ", headerProblems=" + headerProblems +
+                    ", records=" + records +
+                    ", regions=" + regions +
+                    ", duplicateAddresses=" + duplicateAddresses +
+                    ", nonMonotonicAddresses=" + nonMonotonicAddresses +
+                    ", references=" + references +
+                    ", danglingReferences=" + danglingReferences +
+                    ", unresolvedClasses=" + unresolvedClasses +
+                    ", danglingByClass=" + danglingByClass +
+                    '}';
+        }
+    }
+}
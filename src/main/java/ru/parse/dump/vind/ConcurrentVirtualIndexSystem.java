@@ -0,0 +1,139 @@
+package ru.parse.dump.vind;
+
+import ru.parse.dump.objects.DumpClass;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe counterpart of {@link StandardVirtualIndexSystem}.
+ * <p>
+ * The classes are split into stripes by address ranges, every stripe is a {@link DumpClassCacheRegion} guarded
+ * by its own read-write lock. Producers saving classes from different ranges don't contend, readers of a stripe
+ * don't block each other.
+ * <p>
+ * Memory visibility: a {@link #save(DumpClass)} returned on any thread happens-before every {@link #find} started
+ * afterwards on any thread, so the found class is fully initialized. A find running concurrently with the save of
+ * the same class may or may not see it.
+ * <p>
+ * All stripes share the optional {@link MemoryGovernor}, a stripe spills its classes once the common budget is spent.
+ * The spilled classes of all stripes go to one file.
+ */
+public class ConcurrentVirtualIndexSystem implements VirtualIndexSystem, Closeable {
+    public static final int DEFAULT_STRIPES = 64;
+    /**
+     * Addresses within a 64 Kb range go to the same stripe.
+     */
+    private static final int STRIPE_RANGE_BITS = 16;
+
+    private final DumpClassCacheRegion[] regions;
+    private final ReadWriteLock[] locks;
+    private final MappedClassStore spilled;
+    private final int stripeMask;
+
+    public ConcurrentVirtualIndexSystem() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    public ConcurrentVirtualIndexSystem(int stripes) {
+        this(stripes, null);
+    }
+
+    /**
+     * @param stripes  the number of stripes, rounded up to a power of two
+     * @param governor the heap budget of the class table, null for the unlimited one
+     */
+    public ConcurrentVirtualIndexSystem(int stripes, MemoryGovernor governor) {
+        int size = (stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1);
+        regions = new DumpClassCacheRegion[size];
+        locks = new ReadWriteLock[size];
+        spilled = (governor != null ? new MappedClassStore(MappedClassStore.DEFAULT_SEGMENT_SIZE, governor) : null);
+        for (int i = 0; i < size; ++i) {
+            regions[i] = new DumpClassCacheRegion(DumpClassCacheRegion.CAPACITY / size, governor, spilled);
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        stripeMask = size - 1;
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        if (objectType == DumpClass.class) {
+            int stripe = stripe(address);
+            locks[stripe].readLock().lock();
+            try {
+                return objectType.cast(regions[stripe].find(address));
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        int stripe = stripe(aClass.getAddress());
+        locks[stripe].writeLock().lock();
+        try {
+            regions[stripe].put(aClass);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * The number of classes. Not an atomic snapshot when classes are saved concurrently.
+     *
+     * @return
+     */
+    public int getClassesCount() {
+        int count = 0;
+        for (int stripe = 0; stripe < regions.length; ++stripe) {
+            locks[stripe].readLock().lock();
+            try {
+                count += regions[stripe].size();
+            } finally {
+                locks[stripe].readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int stripe = 0; stripe < regions.length; ++stripe) {
+            locks[stripe].writeLock().lock();
+            try {
+                regions[stripe].close();
+            } finally {
+                locks[stripe].writeLock().unlock();
+            }
+        }
+        if (spilled != null) {
+            spilled.close();
+        }
+    }
+
+    /**
+     * @return the number of classes kept in the spill file
+     */
+    int getSpilledCount() {
+        return (spilled != null ? spilled.size() : 0);
+    }
+
+    private int stripe(long address) {
+        long range = address >>> STRIPE_RANGE_BITS;
+        // Mix the range number, so neighbouring ranges are spread over the stripes
+        long mixed = range * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & stripeMask;
+    }
+}
@@ -2,22 +2,145 @@ package ru.parse.dump.vind;
 
 import ru.parse.dump.objects.DumpClass;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
-public class DumpClassCacheRegion {
-    private static final int CAPACITY = 100000;
-    private Map<Long, DumpClass> cached = new HashMap<>(CAPACITY);
+/**
+ * Classes by address.
+ * <p>
+ * With a {@link MemoryGovernor} the classes are kept on the heap while the governor grants their estimated size,
+ * the rest spills into a memory-mapped file. Spilled classes are found more slowly, but the heap doesn't grow.
+ * The file is created with the first spilled class, or is shared by several regions, see
+ * {@link #DumpClassCacheRegion(int, MemoryGovernor, MappedClassStore)}.
+ */
+public class DumpClassCacheRegion implements Closeable {
+    static final int CAPACITY = 100000;
+    private Map<Long, DumpClass> cached;
+    private final MemoryGovernor governor;
+    private final boolean ownsSpilled;
+    private MappedClassStore spilled;
+    private int spilledCount = 0;
+    private long reserved = 0;
+
+    public DumpClassCacheRegion() {
+        this(CAPACITY);
+    }
+
+    public DumpClassCacheRegion(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity the initial capacity of the heap part
+     * @param governor the governor of the heap part, null for the unlimited one
+     */
+    public DumpClassCacheRegion(int capacity, MemoryGovernor governor) {
+        this(capacity, governor, null);
+    }
+
+    /**
+     * @param capacity the initial capacity of the heap part
+     * @param governor the governor of the heap part, null for the unlimited one
+     * @param spilled  the store shared with the other regions, closed by its owner, or null for an own one
+     */
+    DumpClassCacheRegion(int capacity, MemoryGovernor governor, MappedClassStore spilled) {
+        this.governor = governor;
+        this.spilled = spilled;
+        this.ownsSpilled = (spilled == null);
+        // Don't preallocate a table the budget won't let to fill
+        cached = new HashMap<>(governor != null ? Math.min(capacity, 1024) : capacity);
+    }
 
     public void put(DumpClass aClass) {
-        cached.put(aClass.getAddress(), aClass);
+        if (governor == null) {
+            cached.put(aClass.getAddress(), aClass);
+            return;
+        }
+
+        // A class keeps its place: a spilled class is replaced in the file
+        boolean spilledBefore = (spilled != null && spilled.contains(aClass.getAddress()));
+        if (!spilledBefore) {
+            long size = estimateSize(aClass);
+            if (governor.tryReserve(size)) {
+                reserved += size;
+                DumpClass previous = cached.put(aClass.getAddress(), aClass);
+                if (previous != null) {
+                    release(estimateSize(previous));
+                }
+                return;
+            }
+
+            DumpClass previous = cached.remove(aClass.getAddress());
+            if (previous != null) {
+                release(estimateSize(previous));
+            }
+        }
+
+        if (spilled == null) {
+            spilled = new MappedClassStore(MappedClassStore.DEFAULT_SEGMENT_SIZE, governor);
+        }
+        spilled.put(aClass);
+        if (!spilledBefore) {
+            ++spilledCount;
+        }
     }
 
     public DumpClass find(long address) {
-        return cached.get(address);
+        DumpClass aClass = cached.get(address);
+        if (aClass == null && spilled != null) {
+            aClass = spilled.find(address);
+        }
+        return aClass;
     }
 
     public int size() {
-        return cached.size();
+        return cached.size() + getSpilledCount();
+    }
+
+    /**
+     * @return the number of classes kept in the file
+     */
+    public int getSpilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * Release the reserved memory and delete the own spill file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        cached.clear();
+        release(reserved);
+        if (spilled != null && ownsSpilled) {
+            spilled.close();
+            spilled = null;
+        }
+        spilledCount = 0;
+    }
+
+    private void release(long size) {
+        reserved -= size;
+        if (governor != null) {
+            governor.release(size);
+        }
+    }
+
+    /**
+     * The approximate heap footprint of a class kept in the map.
+     *
+     * @param aClass
+     * @return
+     */
+    static long estimateSize(DumpClass aClass) {
+        // Class and its fields, the map entry and the boxed key, the name and the references array
+        long size = 56 + 48 + 40 + 16 + aClass.getReferences().length * 8L;
+        if (aClass.getClassName() != null) {
+            size += aClass.getClassName().length() * 2L;
+        }
+        return size;
     }
 }
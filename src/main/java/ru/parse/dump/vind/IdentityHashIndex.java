@@ -0,0 +1,263 @@
+package ru.parse.dump.vind;
+
+import ru.parse.dump.objects.*;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Index from the identity hash code to the addresses of the records, collected while the dump is parsed.
+ * <p>
+ * The pairs are kept off-heap in direct buffers: 12 bytes per hashed record. {@link #build()} sorts them by the hash,
+ * after that {@link #findByIdentityHash(int)} is a binary search. Records without a hash, stored as 0, are skipped.
+ * <p>
+ * A hashed dump ({@link DumpHeader#isHashed()}) keeps only 16 bits of a hash, sign extended. Such an index is created
+ * with the truncated flag and matches the low 16 bits of the requested hash code, so it returns candidates rather
+ * than exact matches.
+ * <p>
+ * With a {@link MemoryGovernor} the buffers are reserved before they are allocated. The pairs can't spill, so a refused
+ * reservation fails the parse with {@link IllegalStateException} instead of running out of the direct memory.
+ * {@link #close()} releases the reservation.
+ */
+public class IdentityHashIndex implements VirtualIndexSystem, Closeable {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / 8;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final long[] NO_ADDRESSES = new long[0];
+
+    private final boolean truncated;
+    private final MemoryGovernor governor;
+    private long reserved = 0;
+    private IntBuffer hashes;
+    private LongBuffer addresses;
+    private int size = 0;
+    private boolean built = false;
+
+    public IdentityHashIndex() {
+        this(false);
+    }
+
+    /**
+     * @param truncated whether the dump keeps 16 bit hashes
+     */
+    public IdentityHashIndex(boolean truncated) {
+        this(truncated, null);
+    }
+
+    /**
+     * @param truncated whether the dump keeps 16 bit hashes
+     * @param governor  the governor of the buffers, null for the unlimited ones
+     * @throws IllegalStateException if the governor refuses the initial buffers
+     */
+    public IdentityHashIndex(boolean truncated, MemoryGovernor governor) {
+        this.truncated = truncated;
+        this.governor = governor;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public static IdentityHashIndex forHeader(DumpHeader header) {
+        return new IdentityHashIndex(header.isHashed());
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        return null;
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (object instanceof DumpObject) {
+            add(((DumpObject) object).getHash(), address);
+        } else if (object instanceof DumpObjectArray) {
+            add(((DumpObjectArray) object).getHash(), address);
+        } else if (object instanceof DumpPrimitiveArray) {
+            add(((DumpPrimitiveArray) object).getHash(), address);
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        add(aClass.getHash(), aClass.getAddress());
+    }
+
+    private void add(int hash, long address) {
+        if (hash == 0) {
+            return;
+        }
+        if (built) {
+            throw new IllegalStateException("The index is already built");
+        }
+        if (size == hashes.capacity()) {
+            grow();
+        }
+        hashes.put(size, hash);
+        addresses.put(size, address);
+        ++size;
+    }
+
+    /**
+     * Sort the collected pairs. Must be called after the parsing and before the lookups.
+     */
+    public void build() {
+        if (!built) {
+            sort(0, size - 1);
+            built = true;
+        }
+    }
+
+    /**
+     * The addresses of the records with the identity hash code, in the ascending order.
+     *
+     * @param identityHash the value of {@link System#identityHashCode(Object)}
+     * @return
+     */
+    public long[] findByIdentityHash(int identityHash) {
+        if (!built) {
+            throw new IllegalStateException("The index is not built");
+        }
+        int key = (truncated ? (short) identityHash : identityHash);
+        if (key == 0) {
+            return NO_ADDRESSES;
+        }
+
+        int from = lowerBound(key);
+        int to = from;
+        while (to < size && hashes.get(to) == key) {
+            ++to;
+        }
+        if (from == to) {
+            return NO_ADDRESSES;
+        }
+        long[] result = new long[to - from];
+        for (int i = from; i < to; ++i) {
+            result[i - from] = addresses.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * The off-heap memory allocated, in bytes.
+     *
+     * @return
+     */
+    public long memoryUsed() {
+        return hashes.capacity() * 12L;
+    }
+
+    /**
+     * Release the reservation. The index is not used after that.
+     */
+    @Override
+    public void close() {
+        release(reserved);
+    }
+
+    private int lowerBound(int key) {
+        int from = 0;
+        int to = size;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (hashes.get(middle) < key) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    private void allocate(int capacity) {
+        long bytes = capacity * 12L;
+        if (governor != null) {
+            if (!governor.tryReserve(bytes)) {
+                throw new IllegalStateException(String.format("The memory budget is exceeded by the identity hash index of %d records", size));
+            }
+            reserved += bytes;
+        }
+        hashes = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        addresses = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    private void grow() {
+        if (hashes.capacity() == MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("Too many hashed records, the limit is %d", MAX_CAPACITY));
+        }
+        IntBuffer oldHashes = hashes;
+        LongBuffer oldAddresses = addresses;
+        allocate((int) Math.min(MAX_CAPACITY, hashes.capacity() * 2L));
+
+        oldHashes.position(0).limit(size);
+        oldAddresses.position(0).limit(size);
+        hashes.put(oldHashes);
+        addresses.put(oldAddresses);
+        hashes.clear();
+        addresses.clear();
+        release(oldHashes.capacity() * 12L);
+    }
+
+    private void release(long bytes) {
+        reserved -= bytes;
+        if (governor != null) {
+            governor.release(bytes);
+        }
+    }
+
+    private void sort(int from, int to) {
+        // Quicksort by the hash, recursing into the smaller part
+        while (to - from >= INSERTION_SORT_THRESHOLD) {
+            int pivot = median(hashes.get(from), hashes.get((from + to) >>> 1), hashes.get(to));
+            int left = from;
+            int right = to;
+            while (left <= right) {
+                while (hashes.get(left) < pivot) {
+                    ++left;
+                }
+                while (hashes.get(right) > pivot) {
+                    --right;
+                }
+                if (left <= right) {
+                    swap(left++, right--);
+                }
+            }
+            if (right - from < to - left) {
+                sort(from, right);
+                from = left;
+            } else {
+                sort(left, to);
+                to = right;
+            }
+        }
+
+        for (int i = from + 1; i <= to; ++i) {
+            for (int j = i; j > from && hashes.get(j - 1) > hashes.get(j); --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private static int median(int a, int b, int c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private void swap(int i, int j) {
+        int hash = hashes.get(i);
+        hashes.put(i, hashes.get(j));
+        hashes.put(j, hash);
+        long address = addresses.get(i);
+        addresses.put(i, addresses.get(j));
+        addresses.put(j, address);
+    }
+}
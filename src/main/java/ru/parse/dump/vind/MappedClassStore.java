@@ -0,0 +1,165 @@
+package ru.parse.dump.vind;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.util.LongLongHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classes kept in a temporary file, mapped into memory by segments.
+ * <p>
+ * A class is serialized at the end of the last segment, a record never crosses a segment border. The heap keeps only
+ * the address index: 16 bytes per class at most, instead of the whole class with its name and references.
+ * Every {@link #find(long)} decodes a new class instance.
+ * <p>
+ * The store is thread-safe, so the stripes of {@link ConcurrentVirtualIndexSystem} share one file. The file is created
+ * with the first class put.
+ */
+class MappedClassStore implements Closeable {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int FIXED_RECORD_BYTES = 8 + 8 + 8 + 4 + 4 + 4;
+
+    private final int segmentSize;
+    private final MemoryGovernor governor;
+    private final LongLongHashMap index = new LongLongHashMap();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    private Path file;
+    private FileChannel channel;
+    private long fileSize = 0;
+    private long indexBytesReserved = 0;
+
+    /**
+     * @param segmentSize the size of a mapped segment, in bytes
+     * @param governor    the governor accounting the index, may be null
+     */
+    MappedClassStore(int segmentSize, MemoryGovernor governor) {
+        this.segmentSize = segmentSize;
+        this.governor = governor;
+    }
+
+    synchronized void put(DumpClass aClass) {
+        byte[] name = (aClass.getClassName() != null ? aClass.getClassName().getBytes(StandardCharsets.UTF_8) : null);
+        long[] references = aClass.getReferences();
+        int recordSize = FIXED_RECORD_BYTES + (name != null ? name.length : 0) + references.length * 8;
+
+        MappedByteBuffer segment = segmentFor(recordSize);
+        long position = ((long) (segments.size() - 1) << 32) | segment.position();
+        segment.putLong(aClass.getAddress());
+        segment.putLong(aClass.getSuperClassAddress());
+        segment.putLong(aClass.getInstanceSize());
+        segment.putInt(aClass.getHash());
+        if (name != null) {
+            segment.putInt(name.length);
+            segment.put(name);
+        } else {
+            segment.putInt(-1);
+        }
+        segment.putInt(references.length);
+        for (long reference : references) {
+            segment.putLong(reference);
+        }
+
+        index.put(aClass.getAddress(), position);
+        accountIndex();
+    }
+
+    synchronized DumpClass find(long address) {
+        long position = index.get(address);
+        if (position == LongLongHashMap.NO_VALUE) {
+            return null;
+        }
+
+        // Absolute reads, the segment position is the append point
+        MappedByteBuffer segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        long superClassAddress = segment.getLong(offset + 8);
+        long instanceSize = segment.getLong(offset + 16);
+        int hash = segment.getInt(offset + 24);
+        int nameLength = segment.getInt(offset + 28);
+        offset += 32;
+        String className = null;
+        if (nameLength >= 0) {
+            byte[] name = new byte[nameLength];
+            for (int i = 0; i < nameLength; ++i) {
+                name[i] = segment.get(offset + i);
+            }
+            className = new String(name, StandardCharsets.UTF_8);
+            offset += nameLength;
+        }
+        long[] references = new long[segment.getInt(offset)];
+        offset += 4;
+        for (int i = 0; i < references.length; ++i) {
+            references[i] = segment.getLong(offset + i * 8);
+        }
+        return new DumpClass(address, superClassAddress, instanceSize, className, hash, references);
+    }
+
+    synchronized boolean contains(long address) {
+        return index.get(address) != LongLongHashMap.NO_VALUE;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the bytes written to the file
+     */
+    synchronized long getFileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (governor != null) {
+            governor.release(indexBytesReserved);
+            indexBytesReserved = 0;
+        }
+        segments.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private MappedByteBuffer segmentFor(int recordSize) {
+        MappedByteBuffer last = (segments.isEmpty() ? null : segments.get(segments.size() - 1));
+        if (last != null && last.remaining() >= recordSize) {
+            return last;
+        }
+
+        try {
+            if (channel == null) {
+                file = Files.createTempFile("phd-classes", ".bin");
+                file.toFile().deleteOnExit();
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            int size = Math.max(segmentSize, recordSize);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            fileSize += size;
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map a class spill segment", e);
+        }
+    }
+
+    private void accountIndex() {
+        if (governor != null && index.capacityBytes() != indexBytesReserved) {
+            governor.forceReserve(index.capacityBytes() - indexBytesReserved);
+            indexBytesReserved = index.capacityBytes();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.parse.dump.vind;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory budget shared by the caches and indexes of a parse.
+ * <p>
+ * A structure reserves the estimated size of an entry before keeping it in memory. When the reservation is refused,
+ * the structure moves the entry to disk, drops it or fails, so the memory used by all of them together stays within
+ * the budget. Small bookkeeping, like the indexes of the spilled entries, is reserved with {@link #forceReserve(long)}:
+ * it's accounted but never refused.
+ * <p>
+ * The governed structures:
+ * <ul>
+ * <li>{@link DumpClassCacheRegion} spills the classes into a {@link MappedClassStore};</li>
+ * <li>{@link ru.parse.dump.page.DecodedPageCache} doesn't cache a refused page;</li>
+ * <li>{@link IdentityHashIndex} and {@link ru.parse.dump.graph.ReferenceGraphBuilder} can't spill and fail with
+ * {@link IllegalStateException}.</li>
+ * </ul>
+ * <p>
+ * Thread-safe.
+ */
+public class MemoryGovernor {
+    private final long budget;
+    private final AtomicLong reserved = new AtomicLong();
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * @param budget the budget, in bytes
+     */
+    public MemoryGovernor(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Budget should not be negative");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Reserve the bytes, if they fit into the budget.
+     *
+     * @param bytes
+     * @return false if the reservation would exceed the budget
+     */
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = reserved.get();
+            if (current + bytes > budget) {
+                refused.increment();
+                return false;
+            }
+        } while (!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Reserve the bytes even if the budget is exceeded.
+     *
+     * @param bytes
+     */
+    public void forceReserve(long bytes) {
+        reserved.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    public long getAvailable() {
+        return Math.max(0, budget - reserved.get());
+    }
+
+    /**
+     * @return the number of refused reservations
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryGovernor{" +
+                "budget=" + budget +
+                ", reserved=" + reserved.get() +
+                ", refused=" + refused.sum() +
+                '}';
+    }
+}
@@ -2,8 +2,22 @@ package ru.parse.dump.vind;
 
 import ru.parse.dump.objects.DumpClass;
 
-public class StandardVirtualIndexSystem implements VirtualIndexSystem {
-    private DumpClassCacheRegion classCacheRegion = new DumpClassCacheRegion();
+import java.io.Closeable;
+import java.io.IOException;
+
+public class StandardVirtualIndexSystem implements VirtualIndexSystem, Closeable {
+    private DumpClassCacheRegion classCacheRegion;
+
+    public StandardVirtualIndexSystem() {
+        this(null);
+    }
+
+    /**
+     * @param governor the heap budget of the class table, null for the unlimited one
+     */
+    public StandardVirtualIndexSystem(MemoryGovernor governor) {
+        classCacheRegion = new DumpClassCacheRegion(DumpClassCacheRegion.CAPACITY, governor);
+    }
 
     @Override
     public <T> T find(long address, Class<T> objectType) {
@@ -26,4 +40,16 @@ public class StandardVirtualIndexSystem implements VirtualIndexSystem {
     public int getClassesCount() {
         return classCacheRegion.size();
     }
+
+    /**
+     * @return the number of classes spilled to disk over the heap budget
+     */
+    public int getSpilledClassesCount() {
+        return classCacheRegion.getSpilledCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        classCacheRegion.close();
+    }
 }
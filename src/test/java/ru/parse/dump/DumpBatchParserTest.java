@@ -0,0 +1,141 @@
+package ru.parse.dump;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.objects.DumpPlatform;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DumpBatchParserTest {
+    private static final long NODE_CLASS = 0x800;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseDirectory() throws IOException, ExecutionException, InterruptedException {
+        Path directory = folder.newFolder().toPath();
+        for (int i = 0; i < 4; ++i) {
+            writeDump(directory.resolve("dump" + i + ".phd"), 10 + i);
+        }
+        Files.write(directory.resolve("notes.txt"), new byte[]{1, 2, 3});
+
+        Map<Path, RecordCollector> collectors = new ConcurrentHashMap<>();
+        List<String> violations = new ArrayList<>();
+        Map<Path, CompletableFuture<DumpParsingStatistics>> futures;
+        try (DumpBatchParser parser = new DumpBatchParser(1, 64 * 1024 * 1024)) {
+            futures = parser.parseDirectory(directory, "*.phd", dump -> {
+                // With a single parse at a time, the index systems of the other dumps are already filled
+                for (Map.Entry<Path, RecordCollector> entry : collectors.entrySet()) {
+                    if (entry.getValue().getRecords().size() != expectedRecords(entry.getKey())) {
+                        synchronized (violations) {
+                            violations.add(dump + " is started during " + entry.getKey());
+                        }
+                    }
+                }
+                if (dump.getFileName().toString().equals("dump2.phd")) {
+                    throw new IllegalStateException("No index system for " + dump);
+                }
+                RecordCollector collector = new RecordCollector();
+                collectors.put(dump, collector);
+                return collector;
+            });
+        }
+
+        assertEquals(4, futures.size());
+        assertTrue(violations.toString(), violations.isEmpty());
+        for (Map.Entry<Path, CompletableFuture<DumpParsingStatistics>> entry : futures.entrySet()) {
+            Path dump = entry.getKey();
+            if (dump.getFileName().toString().equals("dump2.phd")) {
+                // The factory failure fails the dump only
+                assertTrue(entry.getValue().isCompletedExceptionally());
+                assertFalse(collectors.containsKey(dump));
+            } else {
+                assertNotNull(entry.getValue().get());
+                assertEquals(expectedRecords(dump), collectors.get(dump).getRecords().size());
+            }
+        }
+    }
+
+    @Test
+    public void testCancelWaitingDump() throws Exception {
+        Path first = folder.newFile("first.phd").toPath();
+        Path second = folder.newFile("second.phd").toPath();
+        Path third = folder.newFile("third.phd").toPath();
+        for (Path dump : new Path[]{first, second, third}) {
+            writeDump(dump, 10);
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Path> created = new CopyOnWriteArrayList<>();
+        CompletableFuture<DumpParsingStatistics> secondFuture;
+        CompletableFuture<DumpParsingStatistics> thirdFuture;
+        try (DumpBatchParser parser = new DumpBatchParser(1, 64 * 1024 * 1024)) {
+            parser.submit(first, dump -> {
+                created.add(dump);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new RecordCollector();
+            }, null);
+            secondFuture = parser.submit(second, dump -> {
+                created.add(dump);
+                return new RecordCollector();
+            }, null);
+            thirdFuture = parser.submit(third, dump -> {
+                created.add(dump);
+                return new RecordCollector();
+            }, null);
+
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            secondFuture.cancel(true);
+            release.countDown();
+            // The cancelled dump doesn't hold the permits back from the next one
+            assertNotNull(thirdFuture.get(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(secondFuture.isCancelled());
+        assertEquals(Arrays.asList(first, third), created);
+    }
+
+    private static int expectedRecords(Path dump) {
+        String name = dump.getFileName().toString();
+        return 1 + 10 + Integer.parseInt(name.substring("dump".length(), name.indexOf('.')));
+    }
+
+    private static void writeDump(Path file, int objects) throws IOException {
+        try (OutputStream output = Files.newOutputStream(file);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(NODE_CLASS, 0, 24, "com/acme/Node", 0, new long[0]));
+            for (int i = 0; i < objects; ++i) {
+                long address = 0x1000 + i * 0x18L;
+                writer.writeObject(new DumpObject(address, NODE_CLASS, 0, (i == 0 ? new long[0] : new long[]{address - 0x18})));
+            }
+            writer.writeEnd();
+        }
+    }
+}
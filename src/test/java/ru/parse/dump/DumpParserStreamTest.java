@@ -6,17 +6,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.parse.dump.objects.DumpClass;
 import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpObjectArray;
 import ru.parse.dump.objects.DumpPlatform;
 import ru.parse.dump.vind.StandardVirtualIndexSystem;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
 public class DumpParserStreamTest {
+    private static final byte[] HEADER = new byte[]{0x00, 0x12, 0x70, 0x6F, 0x72, 0x74, 0x61, 0x62, 0x6C,
+            0x65, 0x20, 0x68, 0x65, 0x61, 0x70, 0x20, 0x64, 0x75, 0x6D, 0x70, 0x00, 0x00, 0x00, 0x06, 0x00, 0x00, 0x00,
+            0x05, 0x01, 0x04, 0x00, 0x45, 0x4A, 0x52, 0x45, 0x20, 0x31, 0x2E, 0x38, 0x2E, 0x30, 0x20, 0x4C, 0x69, 0x6E,
+            0x75, 0x78, 0x20, 0x61, 0x6D, 0x64, 0x36, 0x34, 0x2D, 0x36, 0x34, 0x20, 0x62, 0x75, 0x69, 0x6C, 0x64, 0x20,
+            0x20, 0x28, 0x70, 0x78, 0x61, 0x36, 0x34, 0x38, 0x30, 0x73, 0x72, 0x34, 0x66, 0x70, 0x35, 0x2D, 0x32, 0x30,
+            0x31, 0x37, 0x30, 0x34, 0x32, 0x31, 0x5F, 0x30, 0x31, 0x28, 0x53, 0x52, 0x34, 0x20, 0x46, 0x50, 0x35, 0x29,
+            0x20, 0x29, 0x02};
+
+    private static final byte[] BODY = new byte[]{0x02, 0x27, 0x00, 0x00, 0x00, 0x00, (byte) 0x88, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0F, 0x00, 0x00, 0x00, 0x0A, /**/ 0x24, 0x0A, 0x12, 0x00, 0x00,
+            0x00, 0x0C, /**/ 0x24, 0x0C, 0x20, 0x00, 0x00, 0x00, 0x12, /**/ 0x4A, 0x12, 0x00, 0x00, 0x00, 0x06, 0x5B, 0x39, (byte) 0xCD,
+            (byte) 0xE0, 0x00, 0x03, 0x2C, 0x3C, /**/ 0x24, 0x06, 0x15, 0x00, 0x00, 0x00, 0x0E, /**/ (byte) 0x8A, 0x0E, 0x00, 0x03, 0x2C, 0x3A, /**/
+            0x24, 0x06, 0x07, 0x00, 0x00, 0x00, 0x06, /**/ 0x24, 0x06, 0x20, 0x00, 0x00, 0x00, 0x12, /**/ 0x24, 0x12, 0x09, 0x00,
+            0x00, 0x00, 0x08, /**/ 0x24, 0x08, 0x20, 0x00, 0x00, 0x00, 0x12, /**/ 0x24, 0x12, 0x20, 0x00, 0x00, 0x00, 0x12, /**/ 0x40,
+            0x12, 0x00, 0x00, 0x00, 0x06, 0x5B, 0x3D, 0x02, 0x30, /**/ (byte) 0xA0, 0x06, /**/ (byte) 0x8A, 0x06, 0x00, 0x03, 0x2B, (byte) 0xF6, /**/ (byte) 0x8A,
+            0x06, 0x00, 0x03, 0x2B, (byte) 0xFA, /**/ (byte) 0xA0, 0x06, /**/ (byte) 0x8A, 0x06, 0x00, 0x03, 0x2B, (byte) 0xFA, /**/ 0x4A, 0x06, 0x00, 0x00, 0x00,
+            0x06, 0x5F, 0x62, 0x73, (byte) 0xE0, 0x00, 0x03, 0x2C, 0x06, /**/ (byte) 0x8A, 0x04, 0x00, 0x03, 0x2C, 0x08, /**/ (byte) 0xCA, 0x06, 0x00,
+            0x03, 0x2C, 0x10, /**/ (byte) 0x8A, 0x04, 0x00, 0x03, 0x2C, 0x12, /**/ (byte) 0x8A, 0x06, 0x00, 0x03, 0x2C, 0x12, /**/ (byte) 0xA0, 0x06, /**/ 0x40,
+            0x06, 0x00, 0x00, 0x00, 0x06, 0x49, (byte) 0xCF, 0x30, (byte) 0xF8, /**/ (byte) 0x8A, 0x04, 0x00, 0x03, 0x2C, 0x14, /**/ 0x03};
+
     @Test
     public void testReadUnsignedByte() throws IOException {
         try (DumpParserStream stream = DumpParserStream.create(new byte[]{(byte) 0x86})) {
@@ -118,6 +150,202 @@ public class DumpParserStreamTest {
         }
     }
 
+    @Test
+    public void testReadObjectsAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DumpParserStream stream = DumpParserStream.create(dump())) {
+            DumpParsingStatistics statistics = stream.readObjectsAsync(new StandardVirtualIndexSystem(), null, executor).get(10, TimeUnit.SECONDS);
+            assertEquals(16, statistics.getTotalObjectsParsed());
+            assertEquals(9, statistics.getTotalPrimitiveArraysParsed());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() throws IOException {
+        try (DumpParserStream stream = DumpParserStream.create(BODY)) {
+            DumpHeader header = new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0 Linux amd64-64 build  (pxa6480sr4fp5-20170421_01(SR4 FP5) )");
+            stream.cancel();
+            stream.readBody(header, new StandardVirtualIndexSystem(), null);
+        }
+    }
+
+    @Test
+    public void testFollowingFile() throws Exception {
+        Path file = Files.createTempFile("following", ".phd");
+        byte[] dump = dump();
+        int writtenPart = HEADER.length + BODY.length / 2;
+        Files.write(file, Arrays.copyOf(dump, writtenPart));
+
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+                Files.write(file, Arrays.copyOfRange(dump, writtenPart, dump.length), StandardOpenOption.APPEND);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writer.start();
+
+        AtomicInteger progressReports = new AtomicInteger();
+        try (DumpParserStream stream = DumpParserStream.createFollowing(file, 10, 10000)) {
+            DumpParsingStatistics statistics = stream.readObjects(new StandardVirtualIndexSystem(), new DumpParserListener() {
+                @Override
+                public void onHeaderReceive(long bytesRead, DumpHeader header) {
+                }
+
+                @Override
+                public void onDataPortionReceive(long bytesRead, DumpParsingStatistics statistics) {
+                    progressReports.incrementAndGet();
+                }
+            });
+            assertEquals(16, statistics.getTotalObjectsParsed());
+            assertEquals(9, statistics.getTotalPrimitiveArraysParsed());
+            assertTrue(progressReports.get() > 1);
+        } finally {
+            writer.join();
+            Files.delete(file);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelFollowingFile() throws Exception {
+        Path file = Files.createTempFile("following", ".phd");
+        byte[] dump = dump();
+        Files.write(file, Arrays.copyOf(dump, HEADER.length + BODY.length / 2));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DumpParserStream stream = DumpParserStream.createFollowing(file, 10, 60000)) {
+            CompletableFuture<DumpParsingStatistics> future = stream.readObjectsAsync(new StandardVirtualIndexSystem(), null, executor);
+            Thread.sleep(200);
+            future.cancel(true);
+            executor.shutdown();
+            // The parsing stops waiting for the file growth long before the idle timeout
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertTrue(stream.isCancelled());
+        } finally {
+            executor.shutdownNow();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testReadClasses() throws IOException {
+        byte[] dumpWithClass = dumpWithClass();
+
+        StandardVirtualIndexSystem classTable = new StandardVirtualIndexSystem();
+        DumpParsingStatistics scanStatistics;
+        try (DumpParserStream stream = DumpParserStream.create(dumpWithClass)) {
+            scanStatistics = stream.readClasses(classTable, null);
+        }
+        assertEquals(1, classTable.getClassesCount());
+        DumpClass aClass = classTable.find(9126806328L + 64, DumpClass.class);
+        assertEquals("java/lang/String", aClass.getClassName());
+        assertEquals(24, aClass.getInstanceSize());
+        assertArrayEquals(new long[]{9126806328L + 72}, aClass.getReferences());
+
+        try (DumpParserStream stream = DumpParserStream.create(dumpWithClass)) {
+            DumpParsingStatistics statistics = stream.readObjects(new StandardVirtualIndexSystem(), null);
+            assertEquals(statistics.getTotalClassesParsed(), scanStatistics.getTotalClassesParsed());
+            assertEquals(statistics.getTotalObjectsParsed(), scanStatistics.getTotalObjectsParsed());
+            assertEquals(statistics.getTotalPrimitiveArraysParsed(), scanStatistics.getTotalPrimitiveArraysParsed());
+        }
+    }
+
+    @Test
+    public void testLargeObjectArrays() throws IOException {
+        long address = 0x400000000L;
+        // The gaps of the widest reference take a byte, a short, an int and a long
+        long[] maxGaps = {100, 20000, 100000000, 0x100000000L};
+        for (long maxGap : maxGaps) {
+            long[] references = new long[200003];
+            for (int i = 0; i < references.length; ++i) {
+                long gap = (i * 7919L) % (2 * maxGap + 1) - maxGap;
+                references[i] = address + gap * 4;
+            }
+            references[references.length - 1] = address + maxGap * 4;
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (DumpWriterStream writer = DumpWriterStream.create(output)) {
+                writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, true, true, null));
+                writer.writeObjectArray(new DumpObjectArray(address, 0x1000, 0, references.length * 8L + 16, references));
+                writer.writeObjectArray(new DumpObjectArray(address + 0x2000000, 0x1000, 0, 64, 1000000, Arrays.copyOf(references, 5)));
+                writer.writeEnd();
+            }
+
+            List<DumpObjectArray> arrays = new ArrayList<>();
+            try (DumpParserStream stream = DumpParserStream.create(output.toByteArray())) {
+                stream.readObjects(new StandardVirtualIndexSystem() {
+                    @Override
+                    public void save(long objectAddress, Object object) {
+                        arrays.add((DumpObjectArray) object);
+                    }
+                }, null);
+            }
+            assertEquals(2, arrays.size());
+            assertArrayEquals(references, arrays.get(0).getReferences());
+            assertArrayEquals(Arrays.copyOf(references, 5), arrays.get(1).getReferences());
+            assertEquals(1000000, arrays.get(1).getActualLength());
+        }
+    }
+
+    /**
+     * Decoding benchmark: the same int-width gaps decoded in blocks, as the parser reads them, and with a read call
+     * per reference, the decoding before the blocks.
+     */
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkReferenceDecoding() throws IOException {
+        Random random = new Random(1);
+        int count = 4 * 1024 * 1024;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(output)) {
+            for (int i = 0; i < count; ++i) {
+                data.writeInt(random.nextInt(200000000) - 100000000);
+            }
+        }
+        byte[] gaps = output.toByteArray();
+        long address = 0x400000000L;
+
+        long[] blocks = new long[count];
+        long[] perReference = new long[count];
+        long blocksTime = Long.MAX_VALUE;
+        long perReferenceTime = Long.MAX_VALUE;
+        for (int round = 0; round < 10; ++round) {
+            long started = System.nanoTime();
+            decodeBlocks(gaps, address, blocks);
+            blocksTime = Math.min(blocksTime, System.nanoTime() - started);
+
+            started = System.nanoTime();
+            decodePerReference(gaps, address, perReference);
+            perReferenceTime = Math.min(perReferenceTime, System.nanoTime() - started);
+        }
+        assertArrayEquals(perReference, blocks);
+        assertTrue(String.format("blocks %d ms, per reference %d ms", blocksTime / 1000000, perReferenceTime / 1000000),
+                blocksTime < perReferenceTime);
+    }
+
+    private static void decodeBlocks(byte[] gaps, long address, long[] references) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        int referencesPerBlock = block.length / 4;
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(gaps))) {
+            for (int from = 0; from < references.length; from += referencesPerBlock) {
+                int portion = Math.min(referencesPerBlock, references.length - from);
+                input.readFully(block, 0, portion * 4);
+                DumpParserStream.decodeReferences(block, portion, 4, address, references, from);
+            }
+        }
+    }
+
+    private static void decodePerReference(byte[] gaps, long address, long[] references) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(gaps))) {
+            for (int i = 0; i < references.length; ++i) {
+                references[i] = address + input.readInt() * 4L;
+            }
+        }
+    }
+
     @Ignore
     @Test
     public void testReadClass() throws IOException {
@@ -156,4 +384,34 @@ public class DumpParserStreamTest {
             System.out.println(stat);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The test dump: 16 objects and 9 primitive arrays without classes.
+     *
+     * @return
+     */
+    public static byte[] dump() {
+        byte[] dump = new byte[HEADER.length + BODY.length];
+        System.arraycopy(HEADER, 0, dump, 0, HEADER.length);
+        System.arraycopy(BODY, 0, dump, HEADER.length, BODY.length);
+        return dump;
+    }
+
+    /**
+     * The test dump with the java/lang/String class placed after the instances, 16 words after the last one,
+     * with a static reference 2 words after it.
+     *
+     * @return
+     */
+    public static byte[] dumpWithClass() {
+        byte[] classRecord = new byte[]{0x06, 0x00, 0x10, 0x00, 0x00, 0x00, 0x18, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                0x00, 0x10, 0x6A, 0x61, 0x76, 0x61, 0x2F, 0x6C, 0x61, 0x6E, 0x67, 0x2F, 0x53, 0x74, 0x72, 0x69, 0x6E, 0x67,
+                0x00, 0x00, 0x00, 0x01, 0x02};
+        byte[] dump = dump();
+        byte[] dumpWithClass = new byte[dump.length + classRecord.length];
+        System.arraycopy(dump, 0, dumpWithClass, 0, dump.length - 1);
+        System.arraycopy(classRecord, 0, dumpWithClass, dump.length - 1, classRecord.length);
+        dumpWithClass[dumpWithClass.length - 1] = 0x03;
+        return dumpWithClass;
+    }
+}
@@ -0,0 +1,149 @@
+package ru.parse.dump;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.objects.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DumpSplitterTest {
+    private static final int CLASSES = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSplit() throws IOException {
+        Path dump = folder.newFile("heap.phd").toPath();
+        List<Object> records = new ArrayList<>();
+        Random random = new Random(17);
+        long address = 0x100000;
+        for (int i = 0; i < 3000; ++i) {
+            address += 8 * (1 + random.nextInt(300));
+            long classAddress = 0x1000 + 0x100 * random.nextInt(CLASSES);
+            if (i % 500 == 0) {
+                // Classes are spread over the body
+                long[] statics = {address + 8 * random.nextInt(100)};
+                records.add(new DumpClass(0x1000 + 0x100 * (i / 500), 0, 16, "com/acme/C" + i / 500, 0, statics));
+                records.add(new DumpObject(address, classAddress, 0, new long[0]));
+            } else if (i % 7 == 0) {
+                records.add(new DumpPrimitiveArray(address, DumpPrimitiveType.CHAR, random.nextInt(100), 0, 16));
+            } else if (i % 11 == 0) {
+                records.add(new DumpObjectArray(address, classAddress, 0, 24, new long[]{address - 8, address + 8}));
+            } else {
+                long[] references = new long[random.nextInt(9)];
+                for (int j = 0; j < references.length; ++j) {
+                    references[j] = address + 8L * (random.nextInt(20000) - 10000);
+                }
+                records.add(new DumpObject(address, classAddress, random.nextInt(0x8000), references));
+            }
+        }
+        DumpHeader header = new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0");
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(header);
+            for (Object record : records) {
+                writer.writeRecord(record);
+            }
+            writer.writeEnd();
+        }
+
+        Path directory = folder.newFolder("shards").toPath();
+        List<DumpSplitter.Shard> shards = new DumpSplitter(dump, 64).split(4, directory);
+        assertEquals(4, shards.size());
+
+        List<String> expected = new ArrayList<>();
+        for (Object record : records) {
+            if (!(record instanceof DumpClass)) {
+                expected.add(describe(record));
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        long total = 0;
+        long transferred = 0;
+        for (DumpSplitter.Shard shard : shards) {
+            assertEquals(Files.size(shard.getPath()), shard.getSize());
+            total += shard.getReencodedRecords() + shard.getTransferredRecords();
+            transferred += shard.getTransferredRecords();
+
+            RecordCollector shardRecords = new RecordCollector();
+            DumpParsingStatistics statistics;
+            try (DumpParserStream stream = DumpParserStream.create(Files.newInputStream(shard.getPath()))) {
+                statistics = stream.readObjects(shardRecords, null);
+            }
+            assertEquals(header.toString(), statistics.getHeader().toString());
+
+            // Every shard has all the classes once
+            Set<String> classNames = new HashSet<>();
+            for (Object record : shardRecords.getRecords()) {
+                if (record instanceof DumpClass) {
+                    assertTrue(classNames.add(((DumpClass) record).getClassName()));
+                } else {
+                    actual.add(describe(record));
+                }
+            }
+            assertEquals(CLASSES, classNames.size());
+        }
+        assertEquals(records.size(), total);
+        assertEquals(expected, actual);
+        // The state converges after a few records, the most of the shards is copied
+        assertTrue(transferred > records.size() / 2);
+        assertEquals("heap-3.phd", shards.get(3).getPath().getFileName().toString());
+    }
+
+    @Test
+    public void testMoreShardsThanPages() throws IOException {
+        Path dump = folder.newFile("small.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+
+        Path directory = folder.newFolder("shards").toPath();
+        List<DumpSplitter.Shard> shards = new DumpSplitter(dump, 2).split(100, directory);
+        int records = 0;
+        for (DumpSplitter.Shard shard : shards) {
+            records += shard.getReencodedRecords() + shard.getTransferredRecords();
+            try (DumpParserStream stream = DumpParserStream.create(Files.newInputStream(shard.getPath()))) {
+                stream.readObjects(new RecordCollector(), null);
+            }
+        }
+        DumpParsingStatistics statistics;
+        try (DumpParserStream stream = DumpParserStream.create(DumpParserStreamTest.dumpWithClass())) {
+            statistics = stream.readObjects(new RecordCollector(), null);
+        }
+        assertEquals(statistics.getTotalObjectsParsed() + statistics.getTotalObjectArraysParsed()
+                + statistics.getTotalPrimitiveArraysParsed() + statistics.getTotalClassesParsed(), records);
+        assertTrue(shards.size() <= (records + 1) / 2);
+    }
+
+    @Test
+    public void testShardName() {
+        assertEquals("heap-0.phd", DumpSplitter.shardName("heap.phd", 0));
+        assertEquals("heap.2024-12.phd", DumpSplitter.shardName("heap.2024.phd", 12));
+        assertEquals("heap-1", DumpSplitter.shardName("heap", 1));
+    }
+
+    private static String describe(Object record) {
+        if (record instanceof DumpObject) {
+            DumpObject object = (DumpObject) record;
+            return String.format("object %x %x %d %s", object.getAddress(), object.getClassAddress(), object.getHash(),
+                    Arrays.toString(object.getReferences()));
+        } else if (record instanceof DumpObjectArray) {
+            DumpObjectArray array = (DumpObjectArray) record;
+            return String.format("array %x %x %d %s", array.getAddress(), array.getClassAddress(), array.getSize(),
+                    Arrays.toString(array.getReferences()));
+        }
+        DumpPrimitiveArray array = (DumpPrimitiveArray) record;
+        return String.format("primitive %x %s %d", array.getAddress(), array.getType(), array.getLength());
+    }
+}
@@ -0,0 +1,134 @@
+package ru.parse.dump;
+
+import org.junit.Test;
+import ru.parse.dump.objects.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DumpWriterStreamTest {
+    @Test
+    public void testRewriteParsedDump() throws IOException {
+        byte[] source = DumpParserStreamTest.dumpWithClass();
+        RecordCollector collector = new RecordCollector();
+        DumpParsingStatistics statistics;
+        try (DumpParserStream stream = DumpParserStream.create(source)) {
+            statistics = stream.readObjects(collector, null);
+        }
+        List<Object> records = collector.getRecords();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(statistics.getHeader());
+            for (Object record : records) {
+                writer.writeRecord(record);
+            }
+            DumpParsingStatistics written = writer.writeEnd();
+            assertEquals(statistics.getTotalObjectsParsed(), written.getTotalObjectsParsed());
+            assertEquals(output.size(), writer.getBytesWritten());
+        }
+        // The fixture is written in the minimal form already
+        assertEquals(source.length, output.size());
+
+        assertRecordsEqual(records, output.toByteArray());
+    }
+
+    @Test
+    public void testWideRecords() throws IOException {
+        DumpHeader header = new DumpHeader(6, DumpPlatform._32_BIT, false, true, "JRE 1.8.0 \u041f\u0440\u043e\u0432\u0435\u0440\u043a\u0430");
+        long[] manyReferences = new long[12];
+        for (int i = 0; i < manyReferences.length; ++i) {
+            manyReferences[i] = 0x10000000L + i * 8;
+        }
+        List<Object> records = new ArrayList<>();
+        records.add(new DumpClass(0x1000, 0x800, 24, "com/acme/\u0411\u0443\u043a\u0432\u0430", 0x12345, new long[]{0x1010}));
+        records.add(new DumpObject(0x1010, 0x1000, 0, new long[]{0x1000, 0x1020}));
+        records.add(new DumpObject(0x1020, 0x1000, 0, new long[]{0x1010}));
+        records.add(new DumpObject(0x1030, 0x1000, 0x7fff0001, new long[0]));
+        records.add(new DumpObject(0x9001030, 0x1000, 0, manyReferences));
+        records.add(new DumpObjectArray(0x9001100, 0x1000, 0, 64, 40, new long[]{0x1010, 0}));
+        records.add(new DumpObjectArray(0x9001200, 0x1000, 0x55, 24, new long[]{0x1010, 0x1020}));
+        records.add(new DumpPrimitiveArray(0x9001300, DumpPrimitiveType.LONG, 100000, 0, 800016));
+        records.add(new DumpPrimitiveArray(0x1001300, DumpPrimitiveType.BYTE, 10, 0x4242, 24));
+        records.add(new DumpPrimitiveArray(0x2001300, DumpPrimitiveType.INT, 1000, 0x4343, 4016));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(header);
+            for (Object record : records) {
+                writer.writeRecord(record);
+            }
+            writer.writeEnd();
+        }
+
+        try (DumpParserStream stream = DumpParserStream.create(output.toByteArray())) {
+            DumpParsingStatistics statistics = stream.readObjects(new RecordCollector(), null);
+            assertEquals(header.toString(), statistics.getHeader().toString());
+        }
+        assertRecordsEqual(records, output.toByteArray());
+    }
+
+    @Test
+    public void testUnsignedArrayLengths() throws IOException {
+        DumpHeader header = new DumpHeader(6, DumpPlatform._64_BIT, false, true, null);
+        List<Object> records = new ArrayList<>();
+        records.add(new DumpPrimitiveArray(0x100, DumpPrimitiveType.BYTE, 200, 0, 216));
+        records.add(new DumpPrimitiveArray(0x1100, DumpPrimitiveType.CHAR, 40000, 0, 80016));
+        records.add(new DumpPrimitiveArray(0x1200, DumpPrimitiveType.BYTE, 3000000000L, 0, 0));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int[] sizes = new int[records.size()];
+        try (DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(header);
+            for (int i = 0; i < records.size(); ++i) {
+                long before = writer.getBytesWritten();
+                writer.writeRecord(records.get(i));
+                sizes[i] = (int) (writer.getBytesWritten() - before);
+            }
+            writer.writeEnd();
+        }
+        // The tag, the gap and the length in the narrowest unsigned width, the size
+        assertArrayEquals(new int[]{1 + 1 + 1 + 4, 1 + 2 + 2 + 4, 1 + 4 + 4 + 4}, sizes);
+        assertRecordsEqual(records, output.toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnalignedAddress() throws IOException {
+        try (DumpWriterStream writer = DumpWriterStream.create(new ByteArrayOutputStream())) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, true, true, null));
+            writer.writeObject(new DumpObject(0x1002, 0x1000, 0, new long[0]));
+        }
+    }
+
+    private static void assertRecordsEqual(List<Object> expected, byte[] dump) throws IOException {
+        List<Object> actual = RecordCollector.parse(dump).getRecords();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(describe(expected.get(i)), describe(actual.get(i)));
+        }
+    }
+
+    private static String describe(Object record) {
+        if (record instanceof DumpObject) {
+            DumpObject object = (DumpObject) record;
+            return String.format("object %x %x %d %s", object.getAddress(), object.getClassAddress(), object.getHash(),
+                    Arrays.toString(object.getReferences()));
+        } else if (record instanceof DumpObjectArray) {
+            DumpObjectArray array = (DumpObjectArray) record;
+            return String.format("array %x %x %d %d %d %s", array.getAddress(), array.getClassAddress(), array.getHash(),
+                    array.getSize(), array.getActualLength(), Arrays.toString(array.getReferences()));
+        } else if (record instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray array = (DumpPrimitiveArray) record;
+            return String.format("primitive %x %s %d %d %d", array.getAddress(), array.getType(), array.getLength(),
+                    array.getHash(), array.getSize());
+        }
+        DumpClass aClass = (DumpClass) record;
+        return String.format("class %x %x %d %s %d %s", aClass.getAddress(), aClass.getSuperClassAddress(),
+                aClass.getInstanceSize(), aClass.getClassName(), aClass.getHash(), Arrays.toString(aClass.getReferences()));
+    }
+}
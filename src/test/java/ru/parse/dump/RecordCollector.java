@@ -0,0 +1,89 @@
+package ru.parse.dump;
+
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index system of the tests keeping the parsed records in the dump order and by the address.
+ */
+public class RecordCollector implements VirtualIndexSystem {
+    private final boolean keepObjects;
+    private final List<Object> records = new ArrayList<>();
+    private final Map<Long, Object> byAddress = new HashMap<>();
+
+    public RecordCollector() {
+        this(true);
+    }
+
+    private RecordCollector(boolean keepObjects) {
+        this.keepObjects = keepObjects;
+    }
+
+    /**
+     * @return the collector keeping the classes only, the cheapest index system able to resolve them
+     */
+    public static RecordCollector classesOnly() {
+        return new RecordCollector(false);
+    }
+
+    /**
+     * Collect the records of {@link DumpParserStream#readObjects}, the classes included.
+     *
+     * @param dump
+     * @return
+     * @throws IOException
+     */
+    public static RecordCollector parse(byte[] dump) throws IOException {
+        RecordCollector collector = new RecordCollector();
+        try (DumpParserStream stream = DumpParserStream.create(dump)) {
+            stream.readObjects(collector, null);
+        }
+        return collector;
+    }
+
+    public static RecordCollector parse(Path dump) throws IOException {
+        return parse(Files.readAllBytes(dump));
+    }
+
+    @Override
+    public <T> T find(long address, Class<T> objectType) {
+        Object record = byAddress.get(address);
+        return (objectType.isInstance(record) ? objectType.cast(record) : null);
+    }
+
+    @Override
+    public void save(long address, Object object) {
+        if (keepObjects) {
+            records.add(object);
+            byAddress.put(address, object);
+        }
+    }
+
+    @Override
+    public void save(DumpClass aClass) {
+        records.add(aClass);
+        byAddress.put(aClass.getAddress(), aClass);
+    }
+
+    /**
+     * @return the records in the dump order
+     */
+    public List<Object> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the records by the address, the last one of an address
+     */
+    public Map<Long, Object> getByAddress() {
+        return byAddress;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.parse.dump.analysis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClassNameRollupTest {
+    @Test
+    public void testSplit() {
+        assertEquals(Arrays.asList("java", "util", "HashMap", "Node"), ClassNameRollup.split("java/util/HashMap$Node"));
+        assertEquals(Arrays.asList("com", "acme", "Service", "$$Lambda"),
+                ClassNameRollup.split("com/acme/Service$$Lambda$42/0x0000000800c0a000"));
+        assertEquals(Arrays.asList("com", "sun", "proxy", "$Proxy"), ClassNameRollup.split("com.sun.proxy.$Proxy17"));
+        assertEquals(Arrays.asList("com", "acme", "Dao", "$$EnhancerByCGLIB"),
+                ClassNameRollup.split("com/acme/Dao$$EnhancerByCGLIB$$5e4c9a1f"));
+        assertEquals(Arrays.asList("java", "lang", "String", "[]", "[]"), ClassNameRollup.split("[[Ljava/lang/String;"));
+        assertEquals(Arrays.asList(ClassNameRollup.PRIMITIVE_SEGMENT, "char", "[]"), ClassNameRollup.split("[C"));
+        assertEquals(Arrays.asList("Outer", "1"), ClassNameRollup.split("Outer$1"));
+    }
+
+    @Test
+    public void testRollup() {
+        ClassNameRollup rollup = ClassNameRollup.build(Arrays.asList(
+                new ClassHistogram.Entry("java/util/HashMap", 10, 480),
+                new ClassHistogram.Entry("java/util/HashMap$Node", 1000, 32000),
+                new ClassHistogram.Entry("java/lang/String", 500, 12000),
+                new ClassHistogram.Entry("com/acme/Service$$Lambda$1/0x01", 1, 16),
+                new ClassHistogram.Entry("com/acme/Service$$Lambda$2/0x02", 1, 16),
+                new ClassHistogram.Entry("[C", 500, 60000)));
+
+        ClassNameRollup.Node root = rollup.getRoot();
+        assertEquals(2012, root.getCount());
+        assertEquals(104512, root.getBytes());
+        assertEquals(6, root.getClassCount());
+
+        List<ClassNameRollup.Node> top = root.getChildren(2);
+        assertEquals(ClassNameRollup.PRIMITIVE_SEGMENT, top.get(0).getSegment());
+        assertEquals("java", top.get(1).getSegment());
+        assertEquals(3, root.getChildCount());
+
+        ClassNameRollup.Node util = rollup.find("java/util");
+        assertEquals(1010, util.getCount());
+        assertEquals(32480, util.getBytes());
+        ClassNameRollup.Node hashMap = util.getChildren().get(0);
+        assertEquals("java/util/HashMap", hashMap.getPath());
+        assertEquals(32480, hashMap.getBytes());
+        assertEquals(2, hashMap.getClassCount());
+        assertEquals(32000, hashMap.getChildren().get(0).getBytes());
+        assertEquals(util, hashMap.getParent());
+
+        ClassNameRollup.Node lambdas = rollup.find("com/acme/Service/$$Lambda");
+        assertEquals(2, lambdas.getCount());
+        assertEquals(2, lambdas.getClassCount());
+        assertNull(rollup.find("com/acme/Other"));
+    }
+}
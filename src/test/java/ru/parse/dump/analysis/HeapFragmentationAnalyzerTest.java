@@ -0,0 +1,69 @@
+package ru.parse.dump.analysis;
+
+import org.junit.Test;
+import ru.parse.dump.objects.*;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeapFragmentationAnalyzerTest {
+    private static final long NODE_CLASS = 0x800;
+
+    @Test
+    public void testKnownGaps() {
+        HeapFragmentationAnalyzer analyzer = new HeapFragmentationAnalyzer(null, HeapFragmentationAnalyzer.DEFAULT_REGION_GAP_THRESHOLD, 2);
+        analyzer.save(new DumpClass(NODE_CLASS, 0, 24, "com/acme/Node", 0, new long[0]));
+        // The first region: two adjacent objects, a class record out of the walk, then gaps of 16 and 168 bytes
+        saveObject(analyzer, 0x10000, NODE_CLASS);
+        saveObject(analyzer, 0x10018, NODE_CLASS);
+        analyzer.save(new DumpClass(0x900, 0, 16, "com/acme/Other", 0, new long[0]));
+        saveObject(analyzer, 0x10040, NODE_CLASS);
+        analyzer.save(0x10100, new DumpPrimitiveArray(0x10100, DumpPrimitiveType.LONG, 2, 0, 32));
+        // The second region after a large gap, with a gap of 8 bytes and an object of an unknown class
+        saveObject(analyzer, 0x900000, NODE_CLASS);
+        saveObject(analyzer, 0x900020, 0x7000);
+        saveObject(analyzer, 0x900100, NODE_CLASS);
+        // The third region after a backward jump, with an overlap
+        analyzer.save(0x20000, new DumpPrimitiveArray(0x20000, DumpPrimitiveType.LONG, 6, 0, 64));
+        analyzer.save(0x20020, new DumpPrimitiveArray(0x20020, DumpPrimitiveType.BYTE, 0, 0, 16));
+
+        assertEquals(9, analyzer.getRecords());
+        assertEquals(3, analyzer.getRegionCount());
+        assertEquals(16 + 168 + 8, analyzer.getFreeBytes());
+        assertEquals(3, analyzer.getFreeChunks());
+        assertEquals(1, analyzer.getUnknownGaps());
+        assertEquals(1, analyzer.getOverlaps());
+
+        long[] chunks = analyzer.getFreeChunksHistogram();
+        assertEquals(1, chunks[3]);
+        assertEquals(1, chunks[4]);
+        assertEquals(1, chunks[7]);
+        assertEquals(168, analyzer.getFreeBytesHistogram()[7]);
+
+        // Occupancies 104 / 288, 48 / 280 and full
+        long[] occupancy = analyzer.getOccupancyHistogram();
+        assertEquals(1, occupancy[3]);
+        assertEquals(1, occupancy[1]);
+        assertEquals(1, occupancy[9]);
+
+        List<HeapFragmentationAnalyzer.Region> top = analyzer.getTopRegions();
+        assertEquals(2, top.size());
+        assertEquals(0x10000, top.get(0).getStart());
+        assertEquals(0x10120, top.get(0).getEnd());
+        assertEquals(4, top.get(0).getRecords());
+        assertEquals(104, top.get(0).getUsedBytes());
+        assertEquals(184, top.get(0).getFreeBytes());
+        assertEquals(0x900000, top.get(1).getStart());
+        assertEquals(8, top.get(1).getFreeBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTopRegions() {
+        new HeapFragmentationAnalyzer(null, HeapFragmentationAnalyzer.DEFAULT_REGION_GAP_THRESHOLD, 0);
+    }
+
+    private static void saveObject(HeapFragmentationAnalyzer analyzer, long address, long classAddress) {
+        analyzer.save(address, new DumpObject(address, classAddress, 0, new long[0]));
+    }
+}
@@ -0,0 +1,66 @@
+package ru.parse.dump.analysis;
+
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InDegreeHotspotsTest {
+    private static final long CACHE = 0x7000;
+    private static final long REGISTRY = 0x7100;
+    private static final long CLASS = 0x100;
+
+    @Test
+    public void testTopHubs() {
+        InDegreeHotspots hotspots = new InDegreeHotspots(1 << 12, 4, 16);
+        hotspots.save(new DumpClass(CLASS, 0, 16, "com/acme/Cache", 0, new long[0]));
+        hotspots.save(CACHE, new DumpObject(CACHE, CLASS, 0, new long[0]));
+
+        Random random = new Random(3);
+        int objects = 20000;
+        for (int i = 0; i < objects; ++i) {
+            long address = 0x100000 + i * 16L;
+            long[] references;
+            if (i % 4 == 0) {
+                // Two references to the cache from the same referrer
+                references = new long[]{CACHE, CACHE, REGISTRY, 0x100000 + random.nextInt(objects) * 16L};
+            } else {
+                references = new long[]{CACHE, 0, 0x100000 + random.nextInt(objects) * 16L};
+            }
+            hotspots.save(address, new DumpObject(address, 0x200, 0, references));
+        }
+        hotspots.save(REGISTRY, new DumpObject(REGISTRY, CLASS, 0, new long[0]));
+
+        List<InDegreeHotspots.Hub> hubs = hotspots.getTopHubs(2);
+        assertEquals(2, hubs.size());
+
+        InDegreeHotspots.Hub cache = hubs.get(0);
+        long cacheInDegree = objects + objects / 4;
+        assertEquals(CACHE, cache.getAddress());
+        assertTrue(cache.getInDegree() >= cacheInDegree);
+        assertTrue(cache.getMinInDegree() <= cacheInDegree);
+        assertEquals(objects, cache.getDistinctReferrers(), objects * 4 * hotspots.getReferrersError());
+        // The cache record came before the references, so its class is unknown
+        assertEquals(0, cache.getClassAddress());
+
+        InDegreeHotspots.Hub registry = hubs.get(1);
+        assertEquals(REGISTRY, registry.getAddress());
+        assertEquals("com/acme/Cache", registry.getClassName());
+        assertTrue(registry.getInDegree() >= objects / 4);
+        assertTrue(registry.getInDegree() - registry.getMinInDegree() <= hotspots.getMaxOverestimate());
+
+        assertEquals(objects / 4 * 4 + objects * 3 / 4 * 2, hotspots.getTotalReferences());
+        assertTrue(hotspots.memoryUsed() < 1024 * 1024);
+
+        // The second pass finds the class of the cache
+        hotspots.classPass().save(CACHE, new DumpObject(CACHE, CLASS, 0, new long[0]));
+        hubs = hotspots.getTopHubs(2);
+        assertEquals(CLASS, hubs.get(0).getClassAddress());
+        assertEquals("com/acme/Cache", hubs.get(0).getClassName());
+        assertEquals(cache.getInDegree(), hubs.get(0).getInDegree());
+    }
+}
@@ -0,0 +1,270 @@
+package ru.parse.dump.analysis;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.VirtualIndexSystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LargestObjectsCollectorTest {
+    private static final long HOLDER_CLASS = 0x1000;
+    private static final long ARRAY_CLASS = 0x1100;
+    private static final long REGISTRY_CLASS = 0x1200;
+    private static final long HOLDER = 0x2000;
+    private static final long CACHE = 0x2100;
+    private static final long REGISTRY = 0x2200;
+    private static final long SMALL_ARRAY = 0x2800;
+    private static final long BUFFERS = 0x3000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLeakSuspects() throws IOException {
+        Path dump = folder.newFile("heap.phd").toPath();
+        long[] buffers = new long[6];
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(HOLDER_CLASS, 0, 16, "com/acme/Holder", 0, new long[0]));
+            writer.writeClass(new DumpClass(ARRAY_CLASS, 0, 0, "[Ljava/lang/Object;", 0, new long[0]));
+            writer.writeClass(new DumpClass(REGISTRY_CLASS, 0, 40, "com/acme/Registry", 0, new long[]{HOLDER}));
+            writer.writeObject(new DumpObject(HOLDER, HOLDER_CLASS, 0, new long[]{CACHE}));
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i] = BUFFERS + i * 0x1000L;
+            }
+            writer.writeObjectArray(new DumpObjectArray(CACHE, ARRAY_CLASS, 0, 16 + 8 * 8, 8,
+                    new long[]{buffers[0], buffers[1], buffers[2], buffers[3], buffers[4], buffers[5], 0, 0}));
+            writer.writeObject(new DumpObject(REGISTRY, REGISTRY_CLASS, 0, new long[]{HOLDER, CACHE, SMALL_ARRAY}));
+            writer.writeObjectArray(new DumpObjectArray(SMALL_ARRAY, ARRAY_CLASS, 0, 24, 1, new long[]{buffers[0]}));
+            for (int i = 0; i < buffers.length; ++i) {
+                writer.writePrimitiveArray(new DumpPrimitiveArray(buffers[i], DumpPrimitiveType.BYTE, 400 * i, 0, 16 + 400 * i));
+            }
+            writer.writeEnd();
+        }
+
+        LeakSuspectsReport report = LargestObjectsCollector.analyze(dump, 3);
+        assertEquals(10, report.getRecords());
+
+        List<LeakSuspectsReport.Suspect> primitiveArrays = report.getLargestPrimitiveArrays();
+        assertEquals(Arrays.asList(buffers[5], buffers[4], buffers[3]), addresses(primitiveArrays));
+        assertEquals(16 + 400 * 5, primitiveArrays.get(0).getSize());
+        assertEquals("[B", primitiveArrays.get(0).getClassName());
+        assertEquals(CACHE, primitiveArrays.get(0).getReferrerAddress());
+        assertEquals(1, primitiveArrays.get(0).getReferrerCount());
+
+        assertEquals(Arrays.asList(CACHE, SMALL_ARRAY), addresses(report.getLargestObjectArrays()));
+        LeakSuspectsReport.Suspect cache = report.getLargestObjectArrays().get(0);
+        assertEquals(6, cache.getOutDegree());
+        assertEquals(HOLDER, cache.getReferrerAddress());
+        assertEquals("com/acme/Holder", cache.getReferrerClassName());
+        assertEquals(2, cache.getReferrerCount());
+
+        assertEquals(Arrays.asList(CACHE, REGISTRY, HOLDER), addresses(report.getHighestOutDegree()));
+        LeakSuspectsReport.Suspect holder = report.getHighestOutDegree().get(2);
+        assertEquals(16, holder.getSize());
+        assertTrue(holder.isStaticReferrer());
+        assertEquals("com/acme/Registry", holder.getReferrerClassName());
+
+        // The cache holds the three largest buffers, so it is the first accumulation point
+        LeakSuspectsReport.Group first = report.getByReferrer().get(0);
+        assertEquals(CACHE, first.getReferrerAddress());
+        assertEquals("[Ljava/lang/Object;", first.getName());
+        assertEquals(3, first.getCount());
+        assertEquals(3 * 16 + 400 * (5 + 4 + 3), first.getBytes());
+        assertEquals(4, report.getByReferrer().size());
+        assertEquals("class com/acme/Registry", report.getByReferrer().get(3).getName());
+
+        LeakSuspectsReport.Group buffersGroup = report.getByClass().get(0);
+        assertEquals("[B", buffersGroup.getName());
+        assertEquals(3, buffersGroup.getCount());
+        assertEquals(4, report.getByClass().size());
+    }
+
+    @Test
+    public void testRankingsWithoutReferrers() {
+        int limit = 10;
+        LargestObjectsCollector collector = new LargestObjectsCollector(limit);
+        Random random = new Random(7);
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            long address = 0x100000 + i * 64L;
+            long size = 16 + 8L * random.nextInt(100000);
+            sizes.add(size);
+            collector.save(address, new DumpPrimitiveArray(address, DumpPrimitiveType.LONG, (size - 16) / 8, 0, size));
+            long[] references = new long[random.nextInt(50)];
+            Arrays.fill(references, address);
+            collector.save(address + 32, new DumpObject(address + 32, 0x100, 0, references));
+        }
+
+        LeakSuspectsReport report = collector.getReport();
+        sizes.sort(Collections.reverseOrder());
+        List<Long> largest = new ArrayList<>();
+        for (LeakSuspectsReport.Suspect suspect : report.getLargestPrimitiveArrays()) {
+            largest.add(suspect.getSize());
+            assertEquals(0, suspect.getReferrerCount());
+        }
+        assertEquals(sizes.subList(0, limit), largest);
+        assertEquals(49, report.getHighestOutDegree().get(limit - 1).getOutDegree());
+        assertEquals("<unknown 0x100>", report.getHighestOutDegree().get(0).getClassName());
+        assertTrue(report.getByReferrer().isEmpty());
+        assertTrue(collector.memoryUsed() < 64 * 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        new LargestObjectsCollector(0);
+    }
+
+    @Test
+    public void testMemoryBounded() throws IOException {
+        int limit = 5;
+        LargestObjectsCollector collector = new LargestObjectsCollector(limit);
+        long memoryUsed = collector.memoryUsed();
+        try (DumpParserStream stream = DumpParserStream.create(randomDump(100000))) {
+            stream.readObjects(collector, null);
+        }
+
+        // The rankings keep the limit of the records whatever the dump size, in the memory allocated upfront
+        assertEquals(memoryUsed, collector.memoryUsed());
+        LeakSuspectsReport report = collector.getReport();
+        assertEquals(100000, report.getRecords());
+        assertEquals(limit, report.getLargestPrimitiveArrays().size());
+        assertEquals(limit, report.getLargestObjectArrays().size());
+        assertEquals(limit, report.getHighestOutDegree().size());
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void testOverhead() throws IOException {
+        byte[] dump = randomDump(300000);
+
+        // The save calls are timed inside the parse, on the batches of the records just decoded, since two whole parses
+        // differ by the garbage collection more than by the collector. The plain parse saves into an index system
+        // keeping nothing, so the collector adds the difference of the save times. The first rounds warm up
+        long plain = Long.MAX_VALUE;
+        long collector = Long.MAX_VALUE;
+        long noop = Long.MAX_VALUE;
+        for (int round = 0; round < 20; ++round) {
+            long plainRound = time(dump, RecordCollector.classesOnly());
+            TimedSaves collectorSaves = new TimedSaves(new LargestObjectsCollector());
+            time(dump, collectorSaves);
+            collectorSaves.flush();
+            TimedSaves noopSaves = new TimedSaves(RecordCollector.classesOnly());
+            time(dump, noopSaves);
+            noopSaves.flush();
+            if (round >= 10) {
+                plain = Math.min(plain, plainRound);
+                collector = Math.min(collector, collectorSaves.nanos);
+                noop = Math.min(noop, noopSaves.nanos);
+            }
+        }
+        assertTrue(String.format("the collector adds %.1f%% to the parse time", 100.0 * (collector - noop) / plain),
+                collector - noop <= plain / 20);
+    }
+
+    private static byte[] randomDump(int records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Random random = new Random(11);
+        try (DumpWriterStream writer = DumpWriterStream.create(bytes)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(HOLDER_CLASS, 0, 16, "com/acme/Holder", 0, new long[0]));
+            long address = 0x100000;
+            for (int i = 0; i < records; ++i) {
+                long[] references = new long[random.nextInt(8)];
+                for (int j = 0; j < references.length; ++j) {
+                    references[j] = 0x100000 + 32L * random.nextInt(i + 1);
+                }
+                if (i % 10 == 0) {
+                    writer.writeObjectArray(new DumpObjectArray(address, HOLDER_CLASS, 0, 16 + 8 * references.length,
+                            references.length, references));
+                } else if (i % 10 == 1) {
+                    int length = random.nextInt(1000);
+                    writer.writePrimitiveArray(new DumpPrimitiveArray(address, DumpPrimitiveType.BYTE, length, 0, 16 + (length + 3) / 4 * 4));
+                } else {
+                    writer.writeObject(new DumpObject(address, HOLDER_CLASS, 0, references));
+                }
+                address += 32;
+            }
+            writer.writeEnd();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long time(byte[] dump, VirtualIndexSystem virtualIndexSystem) throws IOException {
+        System.gc();
+        long start = System.nanoTime();
+        try (DumpParserStream stream = DumpParserStream.create(dump)) {
+            stream.readObjects(virtualIndexSystem, null);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Passes the records to the index system in small batches, timing the index system only.
+     */
+    private static class TimedSaves implements VirtualIndexSystem {
+        private static final int BATCH_SIZE = 256;
+
+        private final VirtualIndexSystem virtualIndexSystem;
+        private final long[] addresses = new long[BATCH_SIZE];
+        private final Object[] records = new Object[BATCH_SIZE];
+        private int size = 0;
+        private long nanos = 0;
+
+        TimedSaves(VirtualIndexSystem virtualIndexSystem) {
+            this.virtualIndexSystem = virtualIndexSystem;
+        }
+
+        @Override
+        public <T> T find(long address, Class<T> objectType) {
+            return virtualIndexSystem.find(address, objectType);
+        }
+
+        @Override
+        public void save(long address, Object object) {
+            addresses[size] = address;
+            records[size] = object;
+            if (++size == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void save(DumpClass aClass) {
+            flush();
+            virtualIndexSystem.save(aClass);
+        }
+
+        void flush() {
+            long start = System.nanoTime();
+            for (int i = 0; i < size; ++i) {
+                virtualIndexSystem.save(addresses[i], records[i]);
+            }
+            nanos += System.nanoTime() - start;
+            Arrays.fill(records, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private static List<Long> addresses(List<LeakSuspectsReport.Suspect> suspects) {
+        List<Long> addresses = new ArrayList<>();
+        for (LeakSuspectsReport.Suspect suspect : suspects) {
+            addresses.add(suspect.getAddress());
+        }
+        return addresses;
+    }
+}
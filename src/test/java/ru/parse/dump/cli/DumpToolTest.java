@@ -0,0 +1,108 @@
+package ru.parse.dump.cli;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.analysis.ClassHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DumpToolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private final DumpTool tool = new DumpTool(new PrintStream(out, true), new PrintStream(err, true));
+
+    @Test
+    public void testStatsInBothModes() throws IOException {
+        Path dump = fixture("heap.phd");
+        String streamed = run(DumpTool.EXIT_OK, "stats", dump.toString());
+        assertTrue(streamed, streamed.contains("objects           16\n"));
+        assertEquals(streamed, run(DumpTool.EXIT_OK, "stats", "--mode=mapped", "--threads=2", dump.toString()));
+    }
+
+    @Test
+    public void testHistogramSidecar() throws IOException {
+        Path first = fixture("first.phd");
+        Path second = fixture("second.phd");
+        String computed = run(DumpTool.EXIT_OK, "histogram", "--threads", "2", "--memory=64m", first.toString(), second.toString());
+        assertTrue(computed, computed.startsWith("# " + first + "\n"));
+        assertTrue(Files.exists(HistogramSidecar.path(first)));
+        assertEquals(computed, run(DumpTool.EXIT_OK, "histogram", "--mode=mapped", "--no-sidecar", first.toString(), second.toString()));
+
+        // The sidecar is read instead of the dump, a fake one shows it
+        List<ClassHistogram.Entry> fake = Collections.singletonList(new ClassHistogram.Entry("com/acme/Fake", 7, 700));
+        HistogramSidecar.write(first, fake);
+        String cached = run(DumpTool.EXIT_OK, "histogram", "--top=1", first.toString());
+        assertTrue(cached, cached.contains("com/acme/Fake"));
+
+        // A changed dump makes the sidecar stale
+        Files.write(first, DumpParserStreamTest.dumpWithClass());
+        Files.setLastModifiedTime(first, FileTime.fromMillis(Files.getLastModifiedTime(first).toMillis() + 2000));
+        assertNull(HistogramSidecar.read(first));
+        assertFalse(run(DumpTool.EXIT_OK, "histogram", first.toString()).contains("com/acme/Fake"));
+    }
+
+    @Test
+    public void testValidateAndExport() throws IOException {
+        Path dump = fixture("heap.phd");
+        // The fixture is a part of a dump, its classes are missing
+        String report = run(DumpTool.EXIT_FAILURE, "validate", dump.toString());
+        assertTrue(report, report.contains("valid             false\n"));
+        assertTrue(report, report.contains("unresolved        16\n"));
+
+        Path columns = folder.getRoot().toPath().resolve("columns");
+        String exported = run(DumpTool.EXIT_OK, "export", "--output=" + columns, dump.toString());
+        assertTrue(Files.exists(columns.resolve("address.bin")));
+        assertEquals(exported, run(DumpTool.EXIT_OK, "export", "--mode=mapped", "--output=" + folder.getRoot().toPath().resolve("mapped"), dump.toString()));
+
+        Path hprof = folder.getRoot().toPath().resolve("heap.hprof");
+        run(DumpTool.EXIT_OK, "export", "--format=hprof", "--output=" + hprof, dump.toString());
+        assertTrue(Files.size(hprof) > 0);
+    }
+
+    @Test
+    public void testFailures() throws IOException {
+        run(DumpTool.EXIT_USAGE);
+        run(DumpTool.EXIT_USAGE, "stats");
+        run(DumpTool.EXIT_USAGE, "stats", "--mode=random", "heap.phd");
+        run(DumpTool.EXIT_USAGE, "stats", "--threads=0", "heap.phd");
+        run(DumpTool.EXIT_USAGE, "unknown", "heap.phd");
+        run(DumpTool.EXIT_USAGE, "export", fixture("heap.phd").toString());
+        run(DumpTool.EXIT_FAILURE, "stats", folder.getRoot().toPath().resolve("missing.phd").toString());
+        run(DumpTool.EXIT_FAILURE, "stats", "--mode=mapped", folder.getRoot().toPath().resolve("missing.phd").toString());
+        assertEquals(512L * 1024 * 1024, DumpTool.Options.parseSize("memory", "512m", true));
+    }
+
+    @Test
+    public void testSelfTest() {
+        assertEquals("OK\n", run(DumpTool.EXIT_OK, "selftest"));
+    }
+
+    private Path fixture(String name) throws IOException {
+        Path dump = folder.getRoot().toPath().resolve(name);
+        Files.write(dump, DumpParserStreamTest.dump());
+        return dump;
+    }
+
+    private String run(int expectedCode, String... args) {
+        out.reset();
+        err.reset();
+        int code = tool.run(args);
+        assertEquals(new String(err.toByteArray(), StandardCharsets.UTF_8), expectedCode, code);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
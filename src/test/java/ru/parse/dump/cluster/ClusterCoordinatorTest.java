@@ -0,0 +1,167 @@
+package ru.parse.dump.cluster;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpSplitter;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.objects.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClusterCoordinatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLocalWorkers() throws IOException {
+        Path dump = folder.newFile("heap.phd").toPath();
+        List<String> expectedEdges = new ArrayList<>();
+        Random random = new Random(3);
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(0x1000, 0, 24, "com/acme/Node", 0, new long[]{0x100000}));
+            writer.writeClass(new DumpClass(0x1100, 0, 40, "com/acme/Leaf", 0, new long[0]));
+            writer.writeClass(new DumpClass(0x1200, 0, 16, "[Lcom/acme/Node;", 0, new long[0]));
+            expectedEdges.add(edge(0x1000, 0x100000));
+            long address = 0x100000;
+            for (int i = 0; i < 5000; ++i) {
+                if (i % 10 == 0) {
+                    writer.writePrimitiveArray(new DumpPrimitiveArray(address, DumpPrimitiveType.INT, 4, 0, 32));
+                } else if (i % 13 == 0) {
+                    long[] elements = {address - 8, 0, address + 8};
+                    writer.writeObjectArray(new DumpObjectArray(address, 0x1200, 0, 40, elements));
+                    expectedEdges.add(edge(address, address - 8));
+                    expectedEdges.add(edge(address, address + 8));
+                } else {
+                    long[] references = new long[random.nextInt(4)];
+                    for (int j = 0; j < references.length; ++j) {
+                        references[j] = 0x100000 + 8L * random.nextInt(5000);
+                        expectedEdges.add(edge(address, references[j]));
+                    }
+                    writer.writeObject(new DumpObject(address, (i % 2 == 0 ? 0x1000 : 0x1100), 0, references));
+                }
+                address += 8;
+            }
+            writer.writeEnd();
+        }
+
+        List<Path> shards = new ArrayList<>();
+        for (DumpSplitter.Shard shard : new DumpSplitter(dump, 256).split(3, folder.newFolder("shards").toPath())) {
+            shards.add(shard.getPath());
+        }
+        assertEquals(3, shards.size());
+
+        ClusterCoordinator.Result result = new ClusterCoordinator(folder.newFolder("edges").toPath(), 4).analyzeLocally(shards);
+        assertEquals(3, result.getWorkers());
+        assertEquals(3, result.getClasses());
+        assertEquals(500, result.getPrimitiveArrays());
+        assertEquals(5000 - 500, result.getObjects() + result.getObjectArrays());
+        assertEquals(expectedEdges.size(), result.getReferences());
+
+        ClassHistogram histogram = new ClassHistogram();
+        try (DumpParserStream stream = DumpParserStream.create(Files.newInputStream(dump))) {
+            stream.readObjects(histogram, null);
+        }
+        assertEquals(histogram.getEntries().toString(), result.getEntries().toString());
+
+        List<String> edges = new ArrayList<>();
+        long total = 0;
+        for (int partition = 0; partition < result.getPartitions(); ++partition) {
+            total += result.getEdges(partition);
+            assertEquals(result.getEdges(partition) * 16, Files.size(result.getPartitionFile(partition)));
+            try (InputStream file = Files.newInputStream(result.getPartitionFile(partition));
+                 DataInputStream input = new DataInputStream(file)) {
+                for (long i = 0; i < result.getEdges(partition); ++i) {
+                    long source = input.readLong();
+                    long target = input.readLong();
+                    assertEquals(partition, ClusterProtocol.partition(target, result.getPartitions()));
+                    edges.add(edge(source, target));
+                }
+            }
+        }
+        assertEquals(result.getReferences(), total);
+        Collections.sort(edges);
+        Collections.sort(expectedEdges);
+        assertEquals(expectedEdges, edges);
+    }
+
+    @Test
+    public void testWorkerFailure() throws IOException {
+        Path shard = folder.newFile("broken.phd").toPath();
+        Files.write(shard, new byte[]{0, 18, 'n', 'o', 't'});
+        ClusterCoordinator coordinator = new ClusterCoordinator(folder.newFolder("edges").toPath(), 2);
+        // The worker runs in a thread of this JVM
+        ClusterCoordinator.WorkerLauncher launcher = (host, port, worker, path, partitions) -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    new ShardWorker(worker, path, partitions, 16).run(host, port);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            return null;
+        };
+        try {
+            coordinator.analyze(Collections.singletonList(shard), launcher, 60000);
+            fail("The failure of the worker is not reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("worker 0"));
+        }
+    }
+
+    @Test
+    public void testDuplicateWorker() throws IOException {
+        List<Path> shards = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            Path shard = folder.newFile("shard" + i + ".phd").toPath();
+            try (OutputStream output = Files.newOutputStream(shard);
+                 DumpWriterStream writer = DumpWriterStream.create(output)) {
+                writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0"));
+                writer.writeClass(new DumpClass(0x1000, 0, 24, "com/acme/Node", 0, new long[0]));
+                writer.writeObject(new DumpObject(0x100000 + i * 0x100, 0x1000, 0, new long[0]));
+                writer.writeEnd();
+            }
+            shards.add(shard);
+        }
+        ClusterCoordinator coordinator = new ClusterCoordinator(folder.newFolder("edges").toPath(), 2);
+        // Both workers say they are the worker 0
+        ClusterCoordinator.WorkerLauncher launcher = (host, port, worker, path, partitions) -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    new ShardWorker(0, path, partitions, 16).run(host, port);
+                } catch (IOException e) {
+                    // The connection of the rejected worker is closed
+                }
+            });
+            thread.start();
+            return null;
+        };
+        try {
+            coordinator.analyze(shards, launcher, 60000);
+            fail("The second handshake of the worker is accepted");
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+            assertEquals("Worker 0 is already connected", e.getCause().getMessage());
+        }
+    }
+
+    private static String edge(long source, long target) {
+        return String.format("%016x->%016x", source, target);
+    }
+}
@@ -0,0 +1,89 @@
+package ru.parse.dump.export;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.objects.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ColumnarDumpExporterTest {
+    private static final long NODE_CLASS = 0x3000;
+    private static final long ARRAY_CLASS = 0x3040;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testColumnsReadBack() throws IOException {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        try (DumpWriterStream writer = DumpWriterStream.create(dump)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0"));
+            // The first object comes before its class record, its size is patched on close
+            writer.writeObject(new DumpObject(0x2000, NODE_CLASS, 0, new long[]{0x2100, 0x3100}));
+            writer.writePrimitiveArray(new DumpPrimitiveArray(0x2100, DumpPrimitiveType.INT, 4, 0, 32));
+            writer.writeClass(new DumpClass(NODE_CLASS, 0, 24, "com/acme/Node", 0, new long[]{0x2000}));
+            writer.writeClass(new DumpClass(ARRAY_CLASS, 0, 0, "[Lcom/acme/Node;", 0, new long[0]));
+            writer.writeObject(new DumpObject(0x3100, NODE_CLASS, 0, new long[0]));
+            writer.writeObjectArray(new DumpObjectArray(0x3200, ARRAY_CLASS, 0, 32, new long[]{0x2000, 0x3100}));
+            writer.writeEnd();
+        }
+
+        Path directory = folder.getRoot().toPath().resolve("columns");
+        try (ColumnarDumpExporter exporter = new ColumnarDumpExporter(directory);
+             DumpParserStream stream = DumpParserStream.create(dump.toByteArray())) {
+            stream.readObjects(exporter, null);
+            assertEquals(6, exporter.getRowsWritten());
+            assertEquals(5, exporter.getEdgesWritten());
+        }
+
+        Properties schema = new Properties();
+        try (InputStream input = Files.newInputStream(directory.resolve("schema.properties"))) {
+            schema.load(input);
+        }
+        assertEquals("6", schema.getProperty("rows"));
+        assertEquals("5", schema.getProperty("edges"));
+        assertEquals("2", schema.getProperty("classes"));
+        assertEquals("0", schema.getProperty("unresolvedSizes"));
+        assertEquals("PRIMITIVE_ARRAY_INT", schema.getProperty("type.dictionary." + DumpRecordKind.primitiveArray(DumpPrimitiveType.INT)));
+        assertEquals("CLASS", schema.getProperty("type.dictionary." + DumpRecordKind.CLASS));
+
+        assertArrayEquals(new long[]{0x2000, 0x2100, NODE_CLASS, ARRAY_CLASS, 0x3100, 0x3200}, longs(directory, "address.bin"));
+        assertArrayEquals(new long[]{NODE_CLASS, 0, 0, 0, NODE_CLASS, ARRAY_CLASS}, longs(directory, "class_address.bin"));
+        assertArrayEquals(new long[]{24, 32, 0, 0, 24, 32}, longs(directory, "shallow_size.bin"));
+        assertArrayEquals(new byte[]{DumpRecordKind.OBJECT, DumpRecordKind.primitiveArray(DumpPrimitiveType.INT),
+                DumpRecordKind.CLASS, DumpRecordKind.CLASS, DumpRecordKind.OBJECT, DumpRecordKind.OBJECT_ARRAY}, bytes(directory, "type.bin"));
+        assertArrayEquals(new long[]{0, 2, 2, 3, 3, 3, 5}, longs(directory, "edge_offsets.bin"));
+        assertArrayEquals(new long[]{0x2100, 0x3100, 0x2000, 0x2000, 0x3100}, longs(directory, "edges.bin"));
+
+        assertArrayEquals(new long[]{NODE_CLASS, ARRAY_CLASS}, longs(directory, "class_address_table.bin"));
+        assertArrayEquals(new long[]{24, 0}, longs(directory, "class_instance_size.bin"));
+        long[] nameOffsets = longs(directory, "class_name_offsets.bin");
+        byte[] names = bytes(directory, "class_name.bin");
+        assertEquals("com/acme/Node", new String(names, (int) nameOffsets[0], (int) (nameOffsets[1] - nameOffsets[0]), StandardCharsets.UTF_8));
+        assertEquals("[Lcom/acme/Node;", new String(names, (int) nameOffsets[1], (int) (nameOffsets[2] - nameOffsets[1]), StandardCharsets.UTF_8));
+    }
+
+    private static long[] longs(Path directory, String file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(directory, file)).order(ByteOrder.LITTLE_ENDIAN);
+        long[] values = new long[buffer.remaining() / 8];
+        buffer.asLongBuffer().get(values);
+        return values;
+    }
+
+    private static byte[] bytes(Path directory, String file) throws IOException {
+        return Files.readAllBytes(directory.resolve(file));
+    }
+}
@@ -0,0 +1,135 @@
+package ru.parse.dump.export;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.objects.DumpObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class HprofConverterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConvert() throws IOException {
+        Path source = folder.newFile("dump.phd").toPath();
+        Files.write(source, DumpParserStreamTest.dumpWithClass());
+        Path target = folder.getRoot().toPath().resolve("dump.hprof");
+
+        DumpParsingStatistics statistics = new HprofConverter(source).convert(target);
+        assertEquals(1, statistics.getTotalClassesParsed());
+
+        long[] references = new long[2];
+        for (Object object : RecordCollector.parse(DumpParserStreamTest.dumpWithClass()).getRecords()) {
+            if (object instanceof DumpObject && ((DumpObject) object).getReferences().length > 0) {
+                ++references[0];
+                references[1] += ((DumpObject) object).getReferences().length;
+            }
+        }
+
+        ByteBuffer hprof = ByteBuffer.wrap(Files.readAllBytes(target));
+        byte[] title = new byte[18];
+        hprof.get(title);
+        assertEquals("JAVA PROFILE 1.0.2", new String(title, StandardCharsets.US_ASCII));
+        assertEquals(0, hprof.get());
+        assertEquals(8, hprof.getInt());
+        hprof.getLong();
+
+        Map<Integer, Integer> records = new HashMap<>();
+        Map<Integer, Integer> subRecords = new HashMap<>();
+        Set<Long> loadedClasses = new HashSet<>();
+        Set<Long> dumpedClasses = new HashSet<>();
+        Set<Long> instanceClasses = new HashSet<>();
+        long arrayElements = 0;
+        while (hprof.hasRemaining()) {
+            int tag = hprof.get() & 0xff;
+            hprof.getInt();
+            int length = hprof.getInt();
+            records.merge(tag, 1, Integer::sum);
+            if (tag == 0x02) {
+                hprof.getInt();
+                assertTrue(loadedClasses.add(hprof.getLong()));
+                hprof.position(hprof.position() + 4 + 8);
+                continue;
+            }
+            if (tag != 0x1c) {
+                hprof.position(hprof.position() + length);
+                continue;
+            }
+
+            int end = hprof.position() + length;
+            while (hprof.position() < end) {
+                int subTag = hprof.get() & 0xff;
+                subRecords.merge(subTag, 1, Integer::sum);
+                long id = hprof.getLong();
+                switch (subTag) {
+                    case 0x05:
+                        break;
+                    case 0x20:
+                        assertTrue(dumpedClasses.add(id));
+                        hprof.position(hprof.position() + 4 + 6 * 8);
+                        int instanceSize = hprof.getInt();
+                        if (id == 9126806328L + 64) {
+                            assertEquals(24, instanceSize);
+                        }
+                        hprof.getShort();
+                        int statics = hprof.getShort();
+                        hprof.position(hprof.position() + statics * 17);
+                        int fields = hprof.getShort();
+                        hprof.position(hprof.position() + fields * 9);
+                        break;
+                    case 0x21:
+                        hprof.getInt();
+                        instanceClasses.add(hprof.getLong());
+                        int bytes = hprof.getInt();
+                        assertEquals(8, bytes);
+                        hprof.position(hprof.position() + bytes);
+                        break;
+                    case 0x22:
+                        hprof.getInt();
+                        int elements = hprof.getInt();
+                        assertEquals(HprofConverter.REFERENCES_CLASS_ID, hprof.getLong());
+                        assertEquals(1, id & 3);
+                        arrayElements += elements;
+                        hprof.position(hprof.position() + elements * 8);
+                        break;
+                    case 0x23:
+                        hprof.getInt();
+                        int primitives = hprof.getInt();
+                        assertEquals(5, hprof.get());
+                        hprof.position(hprof.position() + primitives * 2);
+                        break;
+                    default:
+                        fail("Unexpected sub-record " + subTag);
+                }
+            }
+            assertEquals(end, hprof.position());
+        }
+
+        // Every instance has its class dumped, the classes without class records as placeholders
+        assertTrue(dumpedClasses.containsAll(instanceClasses));
+        assertEquals(loadedClasses, dumpedClasses);
+        assertTrue(dumpedClasses.size() > 2);
+        assertEquals(2, records.get(0x1c).intValue());
+        assertEquals(Integer.valueOf(1), records.get(0x2c));
+        assertEquals(dumpedClasses.size() - 1, subRecords.get(0x05).intValue());
+        assertEquals(Integer.valueOf(16), subRecords.get(0x21));
+        assertEquals(Integer.valueOf(9), subRecords.get(0x23));
+        assertEquals(Integer.valueOf((int) references[0]), subRecords.get(0x22));
+        assertEquals(references[1], arrayElements);
+    }
+}
@@ -0,0 +1,137 @@
+package ru.parse.dump.export;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpCheckpointIndex;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.page.DecodedPageCache;
+import ru.parse.dump.validate.DumpValidator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SubgraphExtractorTest {
+    private static final long BASE_CLASS = 0x10000;
+    private static final long CLASS = 0x10100;
+    private static final long ROOT = 0x20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtract() throws IOException {
+        Path dump = folder.newFile("dump.phd").toPath();
+        DumpHeader header = new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0");
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(header);
+            writer.writeClass(new DumpClass(BASE_CLASS, 0, 16, "java/lang/Object", 0, new long[0]));
+            writer.writeClass(new DumpClass(CLASS, BASE_CLASS, 24, "com/acme/Node", 0, new long[]{ROOT}));
+            // A chain of nodes from the root with a primitive array hanging off every node
+            for (int i = 0; i < 100; ++i) {
+                long address = ROOT + i * 0x100;
+                long[] references = (i < 99 ? new long[]{address + 0x100, address + 0x80} : new long[]{address + 0x80});
+                writer.writeObject(new DumpObject(address, CLASS, i, references));
+                writer.writePrimitiveArray(new DumpPrimitiveArray(address + 0x80, DumpPrimitiveType.BYTE, 16, 0, 32));
+            }
+            writer.writeEnd();
+        }
+
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 8);
+        Path target = folder.getRoot().toPath().resolve("subgraph.phd");
+        SubgraphExtractor.Extraction extraction;
+        try (DecodedPageCache pages = new DecodedPageCache(dump, index, 1024 * 1024)) {
+            extraction = new SubgraphExtractor(index.getHeader(), pages).extract(new long[]{ROOT + 0x500, 0x7777000}, 3, 1000, target);
+        }
+
+        // Nodes 5..8 and their arrays, except the array of the node 8 which is 4 references away
+        assertEquals(4, extraction.getStatistics().getTotalObjectsParsed());
+        assertEquals(3, extraction.getStatistics().getTotalPrimitiveArraysParsed());
+        assertEquals(2, extraction.getStatistics().getTotalClassesParsed());
+        assertEquals(2, extraction.getClassesAdded());
+        assertEquals(1, extraction.getMissingRecords());
+        // The node 8 references the node 9 and its array, the class references the node 0
+        assertEquals(3, extraction.getDanglingReferences());
+        assertFalse(extraction.isLimitReached());
+        assertEquals(Files.size(target), extraction.getBytesWritten());
+
+        // Only the dangling references are reported
+        DumpValidator.DumpValidationReport report = new DumpValidator(target).validate();
+        assertNull(report.getFailure());
+        assertEquals(0, report.getNonMonotonicAddresses());
+        assertEquals(0, report.getUnresolvedClasses());
+        assertEquals(3, report.getDanglingReferences());
+
+        Map<Long, Object> extracted = RecordCollector.parse(target).getByAddress();
+        DumpObject node = (DumpObject) extracted.get(ROOT + 0x500);
+        assertArrayEquals(new long[]{ROOT + 0x600, ROOT + 0x580}, node.getReferences());
+        assertEquals(5, node.getHash());
+        assertEquals("com/acme/Node", ((DumpClass) extracted.get(CLASS)).getClassName());
+        // The dangling references are kept by default
+        assertArrayEquals(new long[]{ROOT + 0x900, ROOT + 0x880}, ((DumpObject) extracted.get(ROOT + 0x800)).getReferences());
+        assertArrayEquals(new long[]{ROOT}, ((DumpClass) extracted.get(CLASS)).getReferences());
+
+        try (DecodedPageCache pages = new DecodedPageCache(dump, index, 1024 * 1024)) {
+            SubgraphExtractor extractor = new SubgraphExtractor(index.getHeader(), pages);
+            extractor.setDropDanglingReferences(true);
+            extraction = extractor.extract(new long[]{ROOT + 0x500, 0x7777000}, 3, 1000, target);
+        }
+        assertEquals(3, extraction.getDanglingReferences());
+        report = new DumpValidator(target).validate();
+        assertTrue(report.toString(), report.isValid());
+        extracted = RecordCollector.parse(target).getByAddress();
+        assertEquals(0, ((DumpObject) extracted.get(ROOT + 0x800)).getReferences().length);
+        assertEquals(0, ((DumpClass) extracted.get(CLASS)).getReferences().length);
+
+        // The record limit stops the walk
+        try (DecodedPageCache pages = new DecodedPageCache(dump, index, 1024 * 1024)) {
+            extraction = new SubgraphExtractor(index.getHeader(), pages).extract(new long[]{ROOT}, 1000, 10, target);
+        }
+        assertTrue(extraction.isLimitReached());
+        assertEquals(10, extraction.getStatistics().getTotalObjectsParsed() + extraction.getStatistics().getTotalPrimitiveArraysParsed());
+    }
+
+    @Test
+    public void testExtractAcrossRegions() throws IOException {
+        // A class below the objects, a chain in a high heap region continued in a low one written after it
+        Path dump = folder.newFile("regions.phd").toPath();
+        long lowClass = 0x800;
+        List<Long> chain = new ArrayList<>();
+        for (int i = 0; i < 35; ++i) {
+            chain.add(0x100000L + i * 16);
+        }
+        for (int i = 0; i < 40; ++i) {
+            chain.add(0x1000L + i * 16);
+        }
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(lowClass, 0, 16, "com/acme/Link", 0, new long[0]));
+            for (int i = 0; i < chain.size(); ++i) {
+                long[] references = (i + 1 < chain.size() ? new long[]{chain.get(i + 1)} : new long[0]);
+                writer.writeObject(new DumpObject(chain.get(i), lowClass, 0, references));
+            }
+            writer.writeEnd();
+        }
+
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 8);
+        Path target = folder.getRoot().toPath().resolve("regions-subgraph.phd");
+        SubgraphExtractor.Extraction extraction;
+        try (DecodedPageCache pages = new DecodedPageCache(dump, index, 1024 * 1024)) {
+            extraction = new SubgraphExtractor(index.getHeader(), pages).extract(new long[]{chain.get(0)}, 1000, 1000, target);
+        }
+        assertEquals(0, extraction.getMissingRecords());
+        assertEquals(chain.size(), extraction.getStatistics().getTotalObjectsParsed());
+        assertEquals(1, extraction.getClassesAdded());
+    }
+}
@@ -0,0 +1,218 @@
+package ru.parse.dump.graph;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.objects.DumpRecordKind;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ReachabilityTest {
+    private static final long CACHE_CLASS = 0x1000;
+    private static final long REGISTRY_CLASS = 0x1100;
+    private static final long ENTRY_CLASS = 0x1200;
+
+    @Test
+    public void testRootsAndGarbage() {
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        builder.save(new DumpClass(CACHE_CLASS, 0, 24, "app/Cache", 0, new long[]{0x3000}));
+        builder.save(new DumpClass(REGISTRY_CLASS, 0, 40, "app/Registry", 0, new long[]{0x4000}));
+        builder.save(new DumpClass(ENTRY_CLASS, 0, 16, "app/Entry", 0, new long[0]));
+        // The cache holds two entries, the registry holds one of them and its own one
+        saveObject(builder, 0x3000, CACHE_CLASS, 0x3100, 0x3200);
+        saveObject(builder, 0x3100, ENTRY_CLASS);
+        saveObject(builder, 0x3200, ENTRY_CLASS, 0x3000);
+        saveObject(builder, 0x4000, REGISTRY_CLASS, 0x3200, 0x4100);
+        saveObject(builder, 0x4100, ENTRY_CLASS);
+        // Garbage referencing the live records
+        saveObject(builder, 0x5000, CACHE_CLASS, 0x5100, 0x3000);
+        saveObject(builder, 0x5100, ENTRY_CLASS, 0x5000);
+        ReferenceGraph graph = builder.build();
+
+        Reachability reachability = Reachability.mark(graph);
+        assertEquals(3, reachability.getRootCount());
+        assertEquals(8, reachability.getReachableCount());
+        assertEquals(2, reachability.getUnreachableCount());
+        assertEquals(24 + 16, reachability.getUnreachableShallowSize());
+        assertFalse(reachability.isReachable(graph.findNode(0x5000)));
+        assertTrue(reachability.isReachable(graph.findNode(0x3100)));
+
+        List<StronglyConnectedComponents.ClassShare> garbage = reachability.getUnreachableByClass();
+        assertEquals("app/Cache", garbage.get(0).getClassName());
+        assertEquals(1, garbage.get(0).getInstances());
+        assertEquals("app/Entry", garbage.get(1).getClassName());
+
+        // The cycle 0x3000 <-> 0x3200 is reached from both roots, so it is shared with the entry 0x3100
+        assertEquals(3, reachability.getSharedCount());
+        List<Reachability.RootShare> shares = reachability.getRootShares();
+        assertEquals(3, shares.size());
+        assertEquals("app/Registry", shares.get(0).getName());
+        assertEquals(3, shares.get(0).getNodes());
+        assertEquals(graph.getShallowSize(graph.findNode(REGISTRY_CLASS)) + 40 + 16, shares.get(0).getShallowSize());
+        assertEquals("app/Cache", shares.get(1).getName());
+        assertEquals(1, shares.get(1).getNodes());
+
+        // An anchor makes the garbage live and owns it alone
+        Reachability anchored = Reachability.mark(graph, ForkJoinPool.commonPool(), true, 0x5100, ENTRY_CLASS);
+        assertEquals(4, anchored.getRootCount());
+        assertEquals(0, anchored.getUnreachableCount());
+        Reachability.RootShare anchor = null;
+        for (Reachability.RootShare share : anchored.getRootShares()) {
+            if (share.getAddress() == 0x5100) {
+                anchor = share;
+            }
+        }
+        assertNotNull(anchor);
+        assertEquals("app/Entry", anchor.getName());
+        assertEquals(2, anchor.getNodes());
+    }
+
+    @Test
+    public void testMatchesSequentialTraversal() {
+        Random random = new Random(5);
+        int classes = 40;
+        int objects = 200000;
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        for (int i = 0; i < classes; ++i) {
+            long[] statics = new long[random.nextInt(3)];
+            for (int j = 0; j < statics.length; ++j) {
+                statics[j] = objectAddress(random.nextInt(objects));
+            }
+            builder.save(new DumpClass(0x1000 + i * 0x100L, 0, 16, "app/Class" + i, 0, statics));
+        }
+        for (int i = 0; i < objects; ++i) {
+            // Sparse enough to leave garbage, a long chain keeps the traversal deep
+            long[] references = new long[random.nextInt(10) < 6 ? 1 : random.nextInt(4)];
+            for (int j = 0; j < references.length; ++j) {
+                references[j] = (j == 0 && i % 7 != 0 && i + 1 < objects ? objectAddress(i + 1) : objectAddress(random.nextInt(objects)));
+            }
+            saveObject(builder, objectAddress(i), 0x1000 + random.nextInt(classes) * 0x100L, references);
+        }
+        ReferenceGraph graph = builder.build();
+
+        // Reachability and the single owners by a traversal per root
+        int[] expectedOwners = new int[graph.getNodeCount()];
+        Arrays.fill(expectedOwners, -1);
+        int root = 0;
+        for (int id = 0; id < graph.getNodeCount(); ++id) {
+            if (graph.getKind(id) != DumpRecordKind.CLASS) {
+                continue;
+            }
+            BitSet visited = new BitSet();
+            Deque<Integer> stack = new ArrayDeque<>(Collections.singleton(id));
+            visited.set(id);
+            while (!stack.isEmpty()) {
+                int node = stack.pop();
+                expectedOwners[node] = (expectedOwners[node] == -1 ? root : -2);
+                for (int edge = graph.getEdgesStart(node); edge < graph.getEdgesEnd(node); ++edge) {
+                    int target = graph.getEdgeTarget(edge);
+                    if (!visited.get(target)) {
+                        visited.set(target);
+                        stack.push(target);
+                    }
+                }
+            }
+            ++root;
+        }
+
+        for (int threads : new int[]{1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Reachability reachability = Reachability.mark(graph, pool, true);
+                Reachability plain = Reachability.mark(graph, pool, false);
+                int shared = 0;
+                Map<Integer, Long> expectedNodes = new HashMap<>();
+                for (int id = 0; id < graph.getNodeCount(); ++id) {
+                    assertEquals(expectedOwners[id] != -1, reachability.isReachable(id));
+                    assertEquals(expectedOwners[id] != -1, plain.isReachable(id));
+                    if (expectedOwners[id] == -2) {
+                        ++shared;
+                    } else if (expectedOwners[id] >= 0) {
+                        expectedNodes.merge(expectedOwners[id], 1L, Long::sum);
+                    }
+                }
+                assertTrue(reachability.getUnreachableCount() > 0);
+                assertEquals(shared, reachability.getSharedCount());
+                Map<Integer, Long> nodes = new HashMap<>();
+                for (Reachability.RootShare share : reachability.getRootShares()) {
+                    nodes.put(classIndex(graph, share.getId()), share.getNodes());
+                }
+                assertEquals(expectedNodes, nodes);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharesNeedAttribution() {
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        builder.save(new DumpClass(CACHE_CLASS, 0, 24, "app/Cache", 0, new long[0]));
+        Reachability.mark(builder.build(), ForkJoinPool.commonPool(), false).getRootShares();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAnchor() {
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        builder.save(new DumpClass(CACHE_CLASS, 0, 24, "app/Cache", 0, new long[0]));
+        Reachability.mark(builder.build(), ForkJoinPool.commonPool(), true, 0x9000);
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkScaling() {
+        Random random = new Random(13);
+        int objects = 20000000;
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            builder.save(new DumpClass(0x1000 + i * 0x100L, 0, 16, "app/Class" + i, 0,
+                    new long[]{objectAddress(random.nextInt(objects))}));
+        }
+        for (int i = 0; i < objects; ++i) {
+            long[] references = new long[random.nextInt(4)];
+            for (int j = 0; j < references.length; ++j) {
+                references[j] = objectAddress(random.nextInt(objects));
+            }
+            saveObject(builder, objectAddress(i), 0x1000, references);
+        }
+        ReferenceGraph graph = builder.build();
+
+        long single = 0;
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; ++round) {
+                long start = System.nanoTime();
+                Reachability.mark(graph, pool, false);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            if (threads == 1) {
+                single = best;
+            }
+            System.out.printf("%d threads: %d ms, speedup %.1f%n", threads, best / 1000000, (double) single / best);
+        }
+    }
+
+    private static int classIndex(ReferenceGraph graph, int id) {
+        int index = 0;
+        for (int node = 0; node < id; ++node) {
+            if (graph.getKind(node) == DumpRecordKind.CLASS) {
+                ++index;
+            }
+        }
+        return index;
+    }
+
+    private static long objectAddress(int index) {
+        return 0x100000L + index * 16L;
+    }
+
+    private static void saveObject(ReferenceGraphBuilder builder, long address, long classAddress, long... references) {
+        builder.save(address, new DumpObject(address, classAddress, 0, references));
+    }
+}
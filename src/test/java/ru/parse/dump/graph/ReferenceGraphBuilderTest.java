@@ -0,0 +1,104 @@
+package ru.parse.dump.graph;
+
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.vind.MemoryGovernor;
+
+import static org.junit.Assert.*;
+
+public class ReferenceGraphBuilderTest {
+    private static final long HEAP_BASE = 0x7_0000_0000L;
+    private static final long NODE_CLASS = HEAP_BASE;
+
+    @Test
+    public void testCompressedAddresses() {
+        AddressRange range = new AddressRange();
+        range.add(HEAP_BASE);
+        range.add(HEAP_BASE + 0x7_fff0_0000L);
+        AddressCompression compression = range.toCompression();
+        assertEquals(HEAP_BASE, compression.getBase());
+        assertEquals(3, compression.getShift());
+        assertTrue(compression.compress(HEAP_BASE + 8) < compression.compress(HEAP_BASE + 0x7_0000_0000L));
+        assertEquals(HEAP_BASE + 0x7_0000_0000L, compression.decompress(compression.compress(HEAP_BASE + 0x7_0000_0000L)));
+        assertFalse(compression.fits(HEAP_BASE + 4));
+        assertFalse(compression.fits(HEAP_BASE - 8));
+
+        ReferenceGraph plain = build(new ReferenceGraphBuilder(), false);
+        ReferenceGraphBuilder compressedBuilder = new ReferenceGraphBuilder(compression);
+        ReferenceGraph compressed = build(compressedBuilder, false);
+        assertTrue(compressedBuilder.isCompressed());
+        assertNotNull(compressed.getCompression());
+        assertSameGraph(plain, compressed);
+        assertEquals(2, compressed.getDanglingReferences());
+    }
+
+    @Test
+    public void testFallbackToLongAddresses() {
+        AddressCompression compression = new AddressCompression(HEAP_BASE, 3);
+        ReferenceGraph plain = build(new ReferenceGraphBuilder(), true);
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder(compression);
+        ReferenceGraph fallback = build(builder, true);
+        assertFalse(builder.isCompressed());
+        assertNull(fallback.getCompression());
+        assertSameGraph(plain, fallback);
+        // The reference below the base was kept aside and resolves after the fallback
+        assertNotEquals(ReferenceGraph.NO_NODE, fallback.findNode(0x1000));
+        assertEquals(fallback.findNode(0x1000), fallback.getEdgeTarget(fallback.getEdgesStart(fallback.findNode(HEAP_BASE + 0x100 + 1000 * 32L))));
+    }
+
+    @Test
+    public void testGovernedBuilder() {
+        MemoryGovernor governor = new MemoryGovernor(64 * 1024 * 1024);
+        ReferenceGraph graph = build(new ReferenceGraphBuilder(null, governor), false);
+        assertEquals(1002, graph.getNodeCount());
+        // The graph belongs to the caller
+        assertEquals(0, governor.getReserved());
+
+        MemoryGovernor small = new MemoryGovernor(1024 * 1024);
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder(null, small);
+        try {
+            for (int i = 0; i < 100000; ++i) {
+                long address = HEAP_BASE + i * 32L;
+                builder.save(address, new DumpObject(address, NODE_CLASS, 0, new long[]{address}));
+            }
+            fail("The budget is exceeded");
+        } catch (IllegalStateException e) {
+            assertTrue(builder.getNodeCount() < 100000);
+            assertTrue(small.getReserved() <= small.getBudget());
+        }
+    }
+
+    private static ReferenceGraph build(ReferenceGraphBuilder builder, boolean withLowObject) {
+        builder.save(new DumpClass(NODE_CLASS, 0, 24, "app/Node", 0, new long[0]));
+        for (int i = 0; i < 1000; ++i) {
+            long address = HEAP_BASE + 0x100 + i * 32L;
+            long next = HEAP_BASE + 0x100 + ((i * 7 + 3) % 1000) * 32L;
+            builder.save(address, new DumpObject(address, NODE_CLASS, 0, new long[]{next}));
+        }
+        // References out of the compressed range
+        long last = HEAP_BASE + 0x100 + 1000 * 32L;
+        builder.save(last, new DumpObject(last, NODE_CLASS, 0, new long[]{0x1000, HEAP_BASE + 0x9_0000_0000L}));
+        if (withLowObject) {
+            builder.save(0x1000, new DumpObject(0x1000, NODE_CLASS, 0, new long[]{last}));
+        }
+        return builder.build();
+    }
+
+    private static void assertSameGraph(ReferenceGraph expected, ReferenceGraph actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+        assertEquals(expected.getDanglingReferences(), actual.getDanglingReferences());
+        for (int id = 0; id < expected.getNodeCount(); ++id) {
+            assertEquals(expected.getAddress(id), actual.getAddress(id));
+            assertEquals(id, actual.findNode(expected.getAddress(id)));
+            assertEquals(expected.getClassId(id), actual.getClassId(id));
+            assertEquals(expected.getShallowSize(id), actual.getShallowSize(id));
+            assertEquals(expected.getTypeName(id), actual.getTypeName(id));
+            assertEquals(expected.getEdgesEnd(id), actual.getEdgesEnd(id));
+        }
+        for (int edge = 0; edge < expected.getEdgeCount(); ++edge) {
+            assertEquals(expected.getEdgeTarget(edge), actual.getEdgeTarget(edge));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.parse.dump.graph;
+
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+import ru.parse.dump.objects.DumpObject;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StronglyConnectedComponentsTest {
+    private static final long LISTENER_CLASS = 0x1000;
+    private static final long OWNER_CLASS = 0x2000;
+
+    @Test
+    public void testCycles() {
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        builder.save(new DumpClass(LISTENER_CLASS, 0, 16, "app/Listener", 0, new long[0]));
+        builder.save(new DumpClass(OWNER_CLASS, 0, 40, "app/Owner", 0, new long[]{0x5000}));
+        // Listener <-> owner
+        saveObject(builder, 0x3000, LISTENER_CLASS, 0x3100);
+        saveObject(builder, 0x3100, OWNER_CLASS, 0x3000);
+        // Three owners in a ring
+        saveObject(builder, 0x4000, OWNER_CLASS, 0x4100);
+        saveObject(builder, 0x4100, OWNER_CLASS, 0x4200, 0x3000);
+        saveObject(builder, 0x4200, OWNER_CLASS, 0x4000, 0x9999);
+        // Not in a cycle
+        saveObject(builder, 0x5000, LISTENER_CLASS, 0x4000);
+
+        ReferenceGraph graph = builder.build();
+        assertEquals(8, graph.getNodeCount());
+        assertEquals(1, graph.getDanglingReferences());
+
+        StronglyConnectedComponents components = StronglyConnectedComponents.compute(graph);
+        assertEquals(components.getComponent(graph.findNode(0x3000)), components.getComponent(graph.findNode(0x3100)));
+        assertEquals(components.getComponent(graph.findNode(0x4000)), components.getComponent(graph.findNode(0x4200)));
+        assertNotEquals(components.getComponent(graph.findNode(0x3000)), components.getComponent(graph.findNode(0x4000)));
+        assertFalse(components.isCyclic(components.getComponent(graph.findNode(0x5000))));
+
+        List<StronglyConnectedComponents.ComponentSummary> largest = components.getLargestCycles(10);
+        assertEquals(2, largest.size());
+        assertEquals(3, largest.get(0).getNodes());
+        assertEquals(120, largest.get(0).getShallowSize());
+        assertEquals("app/Owner", largest.get(0).getDominantClasses().get(0).getClassName());
+        assertEquals(56, largest.get(1).getShallowSize());
+    }
+
+    @Test
+    public void testLongCycleDoesNotOverflowStack() {
+        ReferenceGraphBuilder builder = new ReferenceGraphBuilder();
+        builder.save(new DumpClass(LISTENER_CLASS, 0, 16, "app/Node", 0, new long[0]));
+        int length = 1000000;
+        for (int i = 0; i < length; ++i) {
+            long next = 0x100000L + ((i + 1) % length) * 16L;
+            saveObject(builder, 0x100000L + i * 16L, LISTENER_CLASS, next);
+        }
+
+        StronglyConnectedComponents components = StronglyConnectedComponents.compute(builder.build());
+        List<StronglyConnectedComponents.ComponentSummary> largest = components.getLargestCycles(1);
+        assertEquals(length, largest.get(0).getNodes());
+        assertEquals(16L * length, largest.get(0).getShallowSize());
+    }
+
+    private static void saveObject(ReferenceGraphBuilder builder, long address, long classAddress, long... references) {
+        builder.save(address, new DumpObject(address, classAddress, 0, references));
+    }
+}
@@ -0,0 +1,150 @@
+package ru.parse.dump.mapped;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.objects.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedDumpTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCursorOverFixture() throws IOException {
+        Path dump = folder.newFile("fixture.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+        assertCursorMatchesParser(dump);
+    }
+
+    @Test
+    public void testCursorOverAllRecordForms() throws IOException {
+        for (DumpHeader header : new DumpHeader[]{
+                new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0"),
+                new DumpHeader(6, DumpPlatform._32_BIT, false, true, null)}) {
+            Path dump = folder.newFile().toPath();
+            long[] manyReferences = new long[100000];
+            for (int i = 0; i < manyReferences.length; ++i) {
+                manyReferences[i] = 0x10000000L + (i % 1000) * 8L;
+            }
+            try (OutputStream output = Files.newOutputStream(dump);
+                 DumpWriterStream writer = DumpWriterStream.create(output)) {
+                writer.writeHeader(header);
+                writer.writeClass(new DumpClass(0x1000, 0x800, 24, "com/acme/\u0411\u0443\u043a\u0432\u0430\ud83d\ude00", 0x12, new long[]{0x1010}));
+                writer.writeObject(new DumpObject(0x1010, 0x1000, 0, new long[]{0x1000, 0x1020}));
+                writer.writeObject(new DumpObject(0x1020, 0x1000, 0, new long[]{0x1010}));
+                writer.writeObject(new DumpObject(0x1030, 0x1000, 0x7ff1, new long[0]));
+                writer.writeObject(new DumpObject(0x9001030, 0x1000, 0, Arrays.copyOf(manyReferences, 12)));
+                writer.writeObjectArray(new DumpObjectArray(0x9001100, 0x1000, 0, 64, 40, new long[]{0x1010, 0}));
+                writer.writeObjectArray(new DumpObjectArray(0x9001200, 0x1000, 0x55, 800016, manyReferences));
+                writer.writePrimitiveArray(new DumpPrimitiveArray(0x9001300, DumpPrimitiveType.LONG, 100000, 0, 800016));
+                writer.writePrimitiveArray(new DumpPrimitiveArray(0x1001300, DumpPrimitiveType.BYTE, 10, 0x42, 24));
+                writer.writePrimitiveArray(new DumpPrimitiveArray(0x2001300, DumpPrimitiveType.INT, 1000, 0x43, 4016));
+                writer.writeEnd();
+            }
+            assertCursorMatchesParser(dump);
+        }
+    }
+
+    @Test
+    public void testLazyRecords() throws IOException {
+        Path dump = folder.newFile("fixture.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+        List<Object> expected = parse(dump);
+
+        try (MappedDump mapped = MappedDump.open(dump)) {
+            List<LazyRecord> records = new ArrayList<>();
+            RecordCursor cursor = mapped.cursor();
+            while (cursor.next()) {
+                records.add(cursor.toLazyRecord());
+            }
+            assertFalse(cursor.next());
+            assertEquals(expected.size(), records.size());
+            for (int i = 0; i < records.size(); ++i) {
+                LazyRecord record = records.get(i);
+                assertEquals(describe(expected.get(i)), describe(record.toRecord()));
+                LazyRecord found = mapped.record(record.getOffset(), record.getAddress(), record.getClassAddress());
+                assertEquals(describe(expected.get(i)), describe(found.toRecord()));
+                assertEquals(record.getReferenceCount(), record.getReferences().length);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCursorBeforeFirstRecord() throws IOException {
+        Path dump = folder.newFile("fixture.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dump());
+        try (MappedDump mapped = MappedDump.open(dump)) {
+            mapped.cursor().getAddress();
+        }
+    }
+
+    private static void assertCursorMatchesParser(Path dump) throws IOException {
+        List<Object> expected = parse(dump);
+        try (MappedDump mapped = MappedDump.open(dump)) {
+            RecordCursor cursor = mapped.cursor();
+            int index = 0;
+            while (cursor.next()) {
+                Object record = expected.get(index++);
+                assertEquals(describe(record), describe(cursor));
+            }
+            assertEquals(expected.size(), index);
+            assertEquals(Files.size(dump) - 1, cursor.getOffset());
+        }
+    }
+
+    private static List<Object> parse(Path dump) throws IOException {
+        return RecordCollector.parse(dump).getRecords();
+    }
+
+    private static String describe(RecordCursor cursor) {
+        long[] references = new long[cursor.getReferenceCount()];
+        for (int i = 0; i < references.length; ++i) {
+            references[i] = cursor.getReference(i);
+        }
+        switch (cursor.getKind()) {
+            case DumpRecordKind.OBJECT:
+                return describe(new DumpObject(cursor.getAddress(), cursor.getClassAddress(), cursor.getHash(), references));
+            case DumpRecordKind.OBJECT_ARRAY:
+                return describe(new DumpObjectArray(cursor.getAddress(), cursor.getClassAddress(), cursor.getHash(),
+                        cursor.getSize(), cursor.getLength(), references));
+            case DumpRecordKind.CLASS:
+                return describe(new DumpClass(cursor.getAddress(), cursor.getSuperClassAddress(), cursor.getInstanceSize(),
+                        cursor.getClassName(), cursor.getHash(), references));
+            default:
+                return describe(new DumpPrimitiveArray(cursor.getAddress(), cursor.getPrimitiveType(), cursor.getLength(),
+                        cursor.getHash(), cursor.getSize()));
+        }
+    }
+
+    private static String describe(Object record) {
+        if (record instanceof DumpObject) {
+            DumpObject object = (DumpObject) record;
+            return String.format("object %x %x %d %s", object.getAddress(), object.getClassAddress(), object.getHash(),
+                    Arrays.toString(object.getReferences()));
+        } else if (record instanceof DumpObjectArray) {
+            DumpObjectArray array = (DumpObjectArray) record;
+            return String.format("array %x %x %d %d %d %s", array.getAddress(), array.getClassAddress(), array.getHash(),
+                    array.getSize(), array.getActualLength(), Arrays.hashCode(array.getReferences()));
+        } else if (record instanceof DumpPrimitiveArray) {
+            DumpPrimitiveArray array = (DumpPrimitiveArray) record;
+            return String.format("primitive %x %s %d %d %d", array.getAddress(), array.getType(), array.getLength(),
+                    array.getHash(), array.getSize());
+        }
+        DumpClass aClass = (DumpClass) record;
+        return String.format("class %x %x %d %s %d %s", aClass.getAddress(), aClass.getSuperClassAddress(),
+                aClass.getInstanceSize(), aClass.getClassName(), aClass.getHash(), Arrays.toString(aClass.getReferences()));
+    }
+}
@@ -0,0 +1,157 @@
+package ru.parse.dump.page;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpCheckpointIndex;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.MemoryGovernor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DecodedPageCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDecodedPagesMatchFullParse() throws IOException {
+        Path dump = folder.newFile("dump.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+
+        Map<Long, Object> parsed = RecordCollector.parse(DumpParserStreamTest.dumpWithClass()).getByAddress();
+
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 4);
+        assertEquals((parsed.size() + 3) / 4, index.getPageCount());
+
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, Long.MAX_VALUE)) {
+            int records = 0;
+            for (int page = 0; page < index.getPageCount(); ++page) {
+                records += cache.getPage(page).getRecordCount();
+            }
+            assertEquals(parsed.size(), records);
+
+            for (Map.Entry<Long, Object> entry : parsed.entrySet()) {
+                DecodedPage page = cache.findRecordPage(entry.getKey());
+                assertNotNull(Long.toHexString(entry.getKey()), page);
+                int record = page.findRecord(entry.getKey());
+                if (entry.getValue() instanceof DumpObject) {
+                    DumpObject object = (DumpObject) entry.getValue();
+                    assertEquals(DumpRecordKind.OBJECT, page.getKind(record));
+                    assertEquals(object.getClassAddress(), page.getClassAddress(record));
+                    assertEquals(object.getReferences().length, page.getReferenceCount(record));
+                } else if (entry.getValue() instanceof DumpClass) {
+                    assertEquals(((DumpClass) entry.getValue()).getClassName(), page.getDumpClass(record).getClassName());
+                }
+            }
+            assertNull(cache.findRecordPage(0x10));
+
+            assertEquals(index.getPageCount(), cache.getMisses());
+            assertEquals(parsed.size(), cache.getHits());
+            assertEquals(0, cache.getEvictions());
+        }
+    }
+
+    @Test
+    public void testNonMonotoneAddresses() throws IOException {
+        // A class far below the objects, then a jump back from a high heap region to a low one
+        Path dump = folder.newFile("regions.phd").toPath();
+        List<Long> addresses = new ArrayList<>();
+        try (OutputStream output = Files.newOutputStream(dump);
+             DumpWriterStream writer = DumpWriterStream.create(output)) {
+            writer.writeHeader(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0"));
+            writer.writeClass(new DumpClass(0x800, 0, 16, "app/Node", 0, new long[0]));
+            addresses.add(0x800L);
+            for (int i = 0; i < 35; ++i) {
+                addresses.add(0x100000L + i * 16);
+            }
+            for (int i = 0; i < 40; ++i) {
+                addresses.add(0x1000L + i * 16);
+            }
+            for (long address : addresses.subList(1, addresses.size())) {
+                writer.writeObject(new DumpObject(address, 0x800, 0, new long[0]));
+            }
+            writer.writeEnd();
+        }
+
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 8);
+        assertEquals(10, index.getPageCount());
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, Long.MAX_VALUE)) {
+            for (long address : addresses) {
+                assertNotEquals(Long.toHexString(address), DumpCheckpointIndex.NO_PAGE, index.findPage(address));
+                DecodedPage page = cache.findRecordPage(address);
+                assertNotNull(Long.toHexString(address), page);
+                assertEquals(address, page.getAddress(page.findRecord(address)));
+            }
+            assertNull(cache.findRecordPage(0x1008));
+            assertNull(cache.findRecordPage(0x200000));
+        }
+    }
+
+    @Test
+    public void testEvictionUnderBudget() throws IOException {
+        Path dump = folder.newFile("dump.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 4);
+
+        long largestPage = 0;
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, Long.MAX_VALUE)) {
+            for (int page = 0; page < index.getPageCount(); ++page) {
+                largestPage = Math.max(largestPage, cache.getPage(page).memoryUsed());
+            }
+        }
+
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, largestPage)) {
+            DecodedPage first = cache.getPage(0);
+            for (int page = 1; page < index.getPageCount(); ++page) {
+                cache.getPage(page);
+                assertTrue(cache.getBytes() <= largestPage);
+            }
+            assertTrue(cache.getEvictions() > 0);
+            assertEquals(index.getPageCount(), cache.getEvictions() + cache.getCachedPages());
+
+            // The last page is still cached, the first one is decoded again
+            cache.getPage(index.getPageCount() - 1);
+            assertEquals(1, cache.getHits());
+            assertEquals(first.getAddress(0), cache.getPage(0).getAddress(0));
+            assertEquals(index.getPageCount() + 1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void testGovernedPages() throws IOException {
+        Path dump = folder.newFile("dump.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+        DumpCheckpointIndex index = DumpCheckpointIndex.build(dump, 4);
+
+        MemoryGovernor governor = new MemoryGovernor(Long.MAX_VALUE);
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, Long.MAX_VALUE, governor)) {
+            for (int page = 0; page < index.getPageCount(); ++page) {
+                cache.getPage(page);
+            }
+            assertEquals(cache.getBytes(), governor.getReserved());
+        }
+        assertEquals(0, governor.getReserved());
+
+        // The pages refused by the governor are decoded on every request
+        MemoryGovernor spent = new MemoryGovernor(0);
+        try (DecodedPageCache cache = new DecodedPageCache(dump, index, Long.MAX_VALUE, spent)) {
+            DecodedPage first = cache.getPage(0);
+            assertEquals(first.getAddress(0), cache.getPage(0).getAddress(0));
+            assertEquals(0, cache.getCachedPages());
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.getRefused());
+        }
+        assertEquals(0, spent.getReserved());
+    }
+}
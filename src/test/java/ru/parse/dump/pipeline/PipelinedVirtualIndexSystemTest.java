@@ -0,0 +1,132 @@
+package ru.parse.dump.pipeline;
+
+import org.junit.Test;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.DumpParsingStatistics;
+import ru.parse.dump.RecordCollector;
+import ru.parse.dump.objects.*;
+import ru.parse.dump.vind.StandardVirtualIndexSystem;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PipelinedVirtualIndexSystemTest {
+
+    @Test
+    public void testRecordsPassThroughSmallRings() {
+        int records = 200000;
+        ChecksumConsumer first = new ChecksumConsumer();
+        ChecksumConsumer second = new ChecksumConsumer();
+        long expected = 0;
+        try (PipelinedVirtualIndexSystem pipeline = new PipelinedVirtualIndexSystem(8, 16, first, second)) {
+            for (int i = 0; i < records; ++i) {
+                long address = 0x1000 + i * 16L;
+                // Up to 40 references, more than the reference ring holds
+                long[] references = new long[i % 41];
+                for (int j = 0; j < references.length; ++j) {
+                    references[j] = address + j * 8L;
+                }
+                if (i % 1000 == 0) {
+                    pipeline.save(new DumpClass(address, 0, 24, "Class" + i, i, references));
+                } else if (i % 3 == 0) {
+                    pipeline.save(address, new DumpObjectArray(address, 0x800, i, 16 + references.length * 8L, references));
+                } else {
+                    pipeline.save(address, new DumpObject(address, 0x800, i, references));
+                }
+                expected = ChecksumConsumer.next(expected, address, i, references);
+            }
+        }
+
+        assertEquals(records, first.records);
+        assertEquals(expected, first.checksum);
+        assertEquals(expected, second.checksum);
+        assertEquals(200, first.classes);
+        assertTrue(first.ended);
+    }
+
+    @Test
+    public void testParseThroughPipeline() throws IOException {
+        int[] counts = new int[32];
+        StandardVirtualIndexSystem classTable = new StandardVirtualIndexSystem();
+        DumpParsingStatistics statistics;
+        try (PipelinedVirtualIndexSystem pipeline = new PipelinedVirtualIndexSystem(record -> ++counts[record.getKind()],
+                RecordConsumer.of(classTable));
+             DumpParserStream stream = DumpParserStream.create(DumpParserStreamTest.dumpWithClass())) {
+            statistics = stream.readObjects(pipeline, null);
+        }
+
+        assertEquals(statistics.getTotalObjectsParsed(), counts[DumpRecordKind.OBJECT]);
+        assertEquals(statistics.getTotalClassesParsed(), counts[DumpRecordKind.CLASS]);
+        assertEquals(9, counts[DumpRecordKind.PRIMITIVE_ARRAY + 1]);
+        assertEquals(1, classTable.getClassesCount());
+    }
+
+    @Test
+    public void testIndexSystemReceivesDecodedRecords() {
+        RecordCollector collector = new RecordCollector();
+        DumpClass aClass = new DumpClass(0x800, 0, 24, "com/acme/Node", 0, new long[0]);
+        DumpObject object = new DumpObject(0x1000, 0x800, 0, new long[]{0x1010});
+        DumpObjectArray objectArray = new DumpObjectArray(0x1010, 0x800, 0, 24, new long[]{0x1000});
+        DumpPrimitiveArray primitiveArray = new DumpPrimitiveArray(0x1028, DumpPrimitiveType.INT, 2, 0, 24);
+        try (PipelinedVirtualIndexSystem pipeline = new PipelinedVirtualIndexSystem(4, 4, RecordConsumer.of(collector))) {
+            pipeline.save(aClass);
+            pipeline.save(object.getAddress(), object);
+            pipeline.save(objectArray.getAddress(), objectArray);
+            pipeline.save(primitiveArray.getAddress(), primitiveArray);
+        }
+
+        assertEquals(4, collector.getRecords().size());
+        assertSame(aClass, collector.getRecords().get(0));
+        assertSame(object, collector.getRecords().get(1));
+        assertSame(objectArray, collector.getRecords().get(2));
+        assertSame(primitiveArray, collector.getRecords().get(3));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConsumerFailure() {
+        try (PipelinedVirtualIndexSystem pipeline = new PipelinedVirtualIndexSystem(4, 4, record -> {
+            throw new IllegalArgumentException("Broken consumer");
+        })) {
+            for (int i = 0; i < 100; ++i) {
+                pipeline.save(i * 8L, new DumpObject(i * 8L, 0x800, 0, new long[0]));
+            }
+        }
+    }
+
+    private static class ChecksumConsumer implements RecordConsumer {
+        long records;
+        long classes;
+        long checksum;
+        boolean ended;
+
+        @Override
+        public void onRecord(RecordView record) {
+            ++records;
+            long[] references = new long[record.getReferenceCount()];
+            for (int i = 0; i < references.length; ++i) {
+                references[i] = record.getReference(i);
+            }
+            if (record.getKind() == DumpRecordKind.CLASS) {
+                ++classes;
+                assertEquals(record.getAddress(), record.getDumpClass().getAddress());
+            }
+            checksum = next(checksum, record.getAddress(), record.getHash(), references);
+        }
+
+        @Override
+        public void onEnd() {
+            ended = true;
+        }
+
+        static long next(long checksum, long address, int hash, long[] references) {
+            checksum = checksum * 31 + address;
+            checksum = checksum * 31 + hash;
+            for (long reference : references) {
+                checksum = checksum * 31 + reference;
+            }
+            return checksum;
+        }
+    }
+}
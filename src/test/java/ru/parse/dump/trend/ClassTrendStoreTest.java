@@ -0,0 +1,112 @@
+package ru.parse.dump.trend;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpParserStream;
+import ru.parse.dump.DumpParserStreamTest;
+import ru.parse.dump.analysis.ClassHistogram;
+import ru.parse.dump.objects.DumpHeader;
+import ru.parse.dump.objects.DumpPlatform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClassTrendStoreTest {
+    private static final DumpHeader HEADER = new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFastestGrowing() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("trend.bin");
+        try (ClassTrendStore store = ClassTrendStore.open(file)) {
+            store.append(HEADER, 1000, Arrays.asList(entry("Leak", 10, 160), entry("Stable", 5, 80), entry("Gone", 3, 48)));
+            store.append(HEADER, 2000, Arrays.asList(entry("Leak", 100, 1600), entry("Stable", 5, 80), entry("Gone", 1, 16)));
+            store.append(HEADER, 3000, Arrays.asList(entry("Leak", 1000, 16000), entry("Stable", 5, 80), entry("New", 2, 64)));
+        }
+
+        try (ClassTrendStore store = ClassTrendStore.open(file)) {
+            assertEquals(3, store.getSnapshotCount());
+            assertEquals(4, store.getClassCount());
+            assertEquals(3000, store.getSnapshots().get(2).getTimestamp());
+            assertEquals("JRE 1.8.0", store.getSnapshots().get(0).getHeader().getJvmVersion());
+
+            List<ClassTrendStore.ClassTrend> trends = store.fastestGrowing(3, 10);
+            assertEquals(2, trends.size());
+            assertEquals("Leak", trends.get(0).getName());
+            assertEquals(10, trends.get(0).getFirstCount());
+            assertEquals(15840, trends.get(0).getBytesGrowth());
+            assertEquals("New", trends.get(1).getName());
+            assertEquals(0, trends.get(1).getFirstCount());
+
+            trends = store.fastestGrowing(2, 1);
+            assertEquals(1, trends.size());
+            assertEquals(100, trends.get(0).getFirstCount());
+            assertEquals(14400 * 3600.0, trends.get(0).getBytesGrowthPerHour(), 0.001);
+
+            // Appending after reopening continues the deltas
+            store.append(HEADER, 4000, Arrays.asList(entry("Leak", 1000, 16000), entry("Gone", 7, 112)));
+        }
+
+        try (ClassTrendStore store = ClassTrendStore.open(file)) {
+            List<ClassTrendStore.ClassTrend> trends = store.fastestGrowing(2, 10);
+            assertEquals(1, trends.size());
+            assertEquals("Gone", trends.get(0).getName());
+            assertEquals(0, trends.get(0).getFirstCount());
+            assertEquals(7, trends.get(0).getLastCount());
+        }
+    }
+
+    @Test
+    public void testHeaderFlags() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("flags.bin");
+        long flags = DumpHeader.FLAG_64_BIT | DumpHeader.FLAG_J9_VM | 0x100;
+        try (ClassTrendStore store = ClassTrendStore.open(file)) {
+            store.append(new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0", flags), 1000,
+                    Arrays.asList(entry("Leak", 10, 160)));
+        }
+
+        // The raw flags word is kept, the unknown bits included
+        try (ClassTrendStore store = ClassTrendStore.open(file)) {
+            DumpHeader header = store.getSnapshots().get(0).getHeader();
+            assertEquals(flags, header.getFlags());
+            assertEquals(DumpPlatform._64_BIT, header.getPlatform());
+            assertFalse(header.isHashed());
+            assertTrue(header.isJ9VM());
+        }
+    }
+
+    @Test
+    public void testIngest() throws IOException {
+        Path dump = folder.newFile("dump.phd").toPath();
+        Files.write(dump, DumpParserStreamTest.dumpWithClass());
+
+        try (ClassTrendStore store = ClassTrendStore.open(folder.getRoot().toPath().resolve("trend.bin"))) {
+            ClassTrendStore.Snapshot snapshot = store.ingest(dump, 1000);
+            assertEquals(6, snapshot.getHeader().getVersion());
+            store.ingest(dump, 2000);
+            assertTrue(store.fastestGrowing(2, 10).isEmpty());
+            assertTrue(store.getFileSize() < dump.toFile().length() * 2);
+        }
+
+        ClassHistogram histogram = new ClassHistogram();
+        try (DumpParserStream stream = DumpParserStream.create(DumpParserStreamTest.dumpWithClass())) {
+            stream.readObjects(histogram, null);
+        }
+        ClassHistogram.Entry chars = histogram.getEntries().stream()
+                .filter(entry -> entry.getName().equals("[C")).findFirst().orElse(null);
+        assertNotNull(chars);
+        assertEquals(9, chars.getCount());
+    }
+
+    private static ClassHistogram.Entry entry(String name, long count, long bytes) {
+        return new ClassHistogram.Entry(name, count, bytes);
+    }
+}
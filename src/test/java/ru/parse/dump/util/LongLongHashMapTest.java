@@ -0,0 +1,37 @@
+package ru.parse.dump.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongLongHashMapTest {
+    @Test
+    public void testPutRemove() {
+        LongLongHashMap map = new LongLongHashMap(16);
+        for (long key = 0; key < 1000; ++key) {
+            assertEquals(LongLongHashMap.NO_VALUE, map.put(key * 64, key));
+        }
+        assertEquals(1000, map.size());
+        assertEquals(7, map.put(7 * 64, 70));
+        assertEquals(1000, map.size());
+
+        for (long key = 0; key < 1000; key += 2) {
+            assertEquals(key == 7 ? 70 : key, map.remove(key * 64));
+        }
+        assertEquals(500, map.size());
+        assertEquals(LongLongHashMap.NO_VALUE, map.remove(0));
+        for (long key = 1; key < 1000; key += 2) {
+            assertEquals(key == 7 ? 70 : key, map.get(key * 64));
+        }
+        assertEquals(500, map.size());
+    }
+
+    @Test
+    public void testRemoveReservedKey() {
+        LongLongHashMap map = new LongLongHashMap(16);
+        map.put(1, 10);
+        assertEquals(LongLongHashMap.NO_VALUE, map.remove(Long.MIN_VALUE));
+        assertEquals(1, map.size());
+        assertEquals(10, map.get(1));
+    }
+}
@@ -0,0 +1,34 @@
+package ru.parse.dump.validate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressBitmapTest {
+    @Test
+    public void testSparseAndDenseChunks() {
+        AddressBitmap bitmap = new AddressBitmap(4);
+        // Dense chunk turning into a bitmap, added backwards to exercise the sorted insertion
+        for (long address = 0x40000L - 8; address >= 0; address -= 8) {
+            assertTrue(bitmap.add(address));
+        }
+        // Sparse addresses far away
+        assertTrue(bitmap.add(0x7_0000_0000L));
+        assertTrue(bitmap.add(0x7_0000_1000L));
+        assertFalse(bitmap.add(0x7_0000_1000L));
+
+        assertEquals(0x40000 / 8 + 2, bitmap.size());
+        assertTrue(bitmap.contains(0));
+        assertTrue(bitmap.contains(0x3fff8));
+        assertFalse(bitmap.contains(0x3fffc));
+        assertFalse(bitmap.contains(0x40000));
+        assertTrue(bitmap.contains(0x7_0000_1000L));
+        assertFalse(bitmap.contains(0x7_0000_0004L));
+        assertFalse(bitmap.contains(0x7_0000_0002L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnalignedAddress() {
+        new AddressBitmap(8).add(0x1004);
+    }
+}
@@ -0,0 +1,97 @@
+package ru.parse.dump.validate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.parse.dump.DumpWriterStream;
+import ru.parse.dump.objects.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DumpValidatorTest {
+    private static final long NODE_CLASS = 0x800;
+    private static final DumpHeader HEADER = new DumpHeader(6, DumpPlatform._64_BIT, true, true, "JRE 1.8.0");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValidDump() throws IOException {
+        byte[] dump = write(HEADER, 0x1000, 0x1018, 0x1030);
+        DumpValidator.DumpValidationReport report = new DumpValidator(save(dump)).validate();
+        assertTrue(report.toString(), report.isValid());
+        assertEquals(4, report.getRecords());
+        assertEquals(2, report.getReferences());
+    }
+
+    @Test
+    public void testTruncatedRecord() throws IOException {
+        byte[] dump = write(HEADER, 0x1000, 0x1018, 0x1030);
+        // The end tag and the last reference of the last object are cut off
+        DumpValidator.DumpValidationReport report = new DumpValidator(save(Arrays.copyOf(dump, dump.length - 2))).validate();
+        assertFalse(report.isValid());
+        assertTrue(report.isTruncated());
+        assertNotNull(report.getFailure());
+        assertEquals(3, report.getRecords());
+    }
+
+    @Test
+    public void testBadHeaderFlags() throws IOException {
+        // An unknown bit next to the J9 VM flag
+        DumpHeader unknownBit = new DumpHeader(6, DumpPlatform._64_BIT, false, true, "JRE 1.8.0",
+                DumpHeader.FLAG_64_BIT | DumpHeader.FLAG_J9_VM | 0x10);
+        DumpValidator.DumpValidationReport report = new DumpValidator(save(write(unknownBit, 0x1000))).validate();
+        assertFalse(report.isValid());
+        assertNull(report.getFailure());
+        assertEquals(Collections.singletonList("Unknown header flags 10"), report.getHeaderProblems());
+
+        // Flags of a dump of another VM
+        DumpHeader notJ9 = new DumpHeader(6, DumpPlatform._64_BIT, true, false, "JRE 1.8.0");
+        report = new DumpValidator(save(write(notJ9, 0x1000))).validate();
+        assertEquals(Collections.singletonList("The J9 VM flag is not set"), report.getHeaderProblems());
+    }
+
+    @Test
+    public void testOverlappingAddresses() throws IOException {
+        // The same address twice and a small step back within the region
+        byte[] dump = write(HEADER, 0x1000, 0x1018, 0x1018, 0x1030, 0x1020);
+        DumpValidator.DumpValidationReport report = new DumpValidator(save(dump)).validate();
+        assertFalse(report.isValid());
+        assertNull(report.getFailure());
+        assertTrue(report.getHeaderProblems().isEmpty());
+        assertEquals(1, report.getDuplicateAddresses());
+        assertEquals(2, report.getNonMonotonicAddresses());
+        assertEquals(1, report.getRegions());
+        assertEquals(0, report.getDanglingReferences());
+    }
+
+    /**
+     * Write a class and the objects, each object references the previous one.
+     */
+    private static byte[] write(DumpHeader header, long... objects) throws IOException {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        try (DumpWriterStream writer = DumpWriterStream.create(dump)) {
+            writer.writeHeader(header);
+            writer.writeClass(new DumpClass(NODE_CLASS, 0, 24, "com/acme/Node", 0, new long[0]));
+            for (int i = 0; i < objects.length; ++i) {
+                long[] references = (i == 0 ? new long[0] : new long[]{objects[i - 1]});
+                writer.writeObject(new DumpObject(objects[i], NODE_CLASS, 0, references));
+            }
+            writer.writeEnd();
+        }
+        return dump.toByteArray();
+    }
+
+    private Path save(byte[] dump) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, dump);
+        return file;
+    }
+}
@@ -0,0 +1,127 @@
+package ru.parse.dump.vind;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentVirtualIndexSystemTest {
+    private static final long[] NO_REFERENCES = new long[0];
+
+    @Test
+    public void testConcurrentSaveAndFind() throws InterruptedException {
+        ConcurrentVirtualIndexSystem system = new ConcurrentVirtualIndexSystem();
+        int writers = 4;
+        int classesPerWriter = 20000;
+        AtomicInteger missing = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int writer = 0; writer < writers; ++writer) {
+            long base = writer * 0x10000000L;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < classesPerWriter; ++i) {
+                    long address = base + i * 64L;
+                    system.save(new DumpClass(address, 0, 16, "Class" + i, 0, NO_REFERENCES));
+                    // A class saved by this thread is visible to it immediately
+                    DumpClass found = system.find(address, DumpClass.class);
+                    if (found == null || found.getAddress() != address) {
+                        missing.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        // Reader querying while the classes are loaded
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < classesPerWriter; ++i) {
+                DumpClass found = system.find(i * 64L, DumpClass.class);
+                if (found != null && found.getAddress() != i * 64L) {
+                    missing.incrementAndGet();
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, missing.get());
+        assertEquals(writers * classesPerWriter, system.getClassesCount());
+        assertEquals("Class7", system.find(3 * 0x10000000L + 7 * 64L, DumpClass.class).getClassName());
+    }
+
+    /**
+     * Contention benchmark: the striped system against the standard one behind a single lock.
+     */
+    @Ignore
+    @Test
+    public void benchmarkContention() throws InterruptedException {
+        int operations = 2000000;
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            StandardVirtualIndexSystem standard = new StandardVirtualIndexSystem();
+            VirtualIndexSystem locked = new VirtualIndexSystem() {
+                @Override
+                public synchronized <T> T find(long address, Class<T> objectType) {
+                    return standard.find(address, objectType);
+                }
+
+                @Override
+                public synchronized void save(long address, Object object) {
+                    standard.save(address, object);
+                }
+
+                @Override
+                public synchronized void save(DumpClass aClass) {
+                    standard.save(aClass);
+                }
+            };
+
+            for (int round = 0; round < 3; ++round) {
+                long lockedNanos = run(locked, threads, operations);
+                long stripedNanos = run(new ConcurrentVirtualIndexSystem(), threads, operations);
+                System.out.printf("threads %d: single lock %d ms, striped %d ms%n", threads, lockedNanos / 1000000, stripedNanos / 1000000);
+            }
+        }
+    }
+
+    private static long run(VirtualIndexSystem system, int threads, int operations) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int thread = 0; thread < threads; ++thread) {
+            long base = thread * 0x100000000L;
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < operations / threads; ++i) {
+                    long address = base + i * 64L;
+                    // One save per four lookups, as when resolving classes while they are still loading
+                    if ((i & 3) == 0) {
+                        system.save(new DumpClass(address, 0, 16, "Class", 0, NO_REFERENCES));
+                    } else {
+                        system.find(address - 64L, DumpClass.class);
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - started;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.parse.dump.vind;
+
+import org.junit.Test;
+import ru.parse.dump.objects.DumpClass;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DumpClassCacheRegionTest {
+
+    @Test
+    public void testSpillOverBudget() throws IOException {
+        MemoryGovernor governor = new MemoryGovernor(16 * 1024);
+        int classes = 5000;
+        try (DumpClassCacheRegion region = new DumpClassCacheRegion(DumpClassCacheRegion.CAPACITY, governor)) {
+            for (int i = 0; i < classes; ++i) {
+                long address = 0x1000 + i * 64L;
+                region.put(new DumpClass(address, address - 64, 24 + i % 7, "java/lang/Class" + i, i, new long[]{address + 8, address + 16}));
+            }
+            // Replacing a spilled class keeps one copy
+            region.put(new DumpClass(0x1000 + (classes - 1) * 64L, 0, 32, "Replaced", 0, new long[0]));
+
+            assertEquals(classes, region.size());
+            assertTrue(region.getSpilledCount() > 0);
+            assertTrue(region.getSpilledCount() < classes);
+            assertTrue(governor.getRefused() > 0);
+
+            for (int i = 0; i < classes - 1; ++i) {
+                long address = 0x1000 + i * 64L;
+                DumpClass aClass = region.find(address);
+                assertEquals(address, aClass.getAddress());
+                assertEquals(address - 64, aClass.getSuperClassAddress());
+                assertEquals(24 + i % 7, aClass.getInstanceSize());
+                assertEquals("java/lang/Class" + i, aClass.getClassName());
+                assertEquals(i, aClass.getHash());
+                assertArrayEquals(new long[]{address + 8, address + 16}, aClass.getReferences());
+            }
+            assertEquals("Replaced", region.find(0x1000 + (classes - 1) * 64L).getClassName());
+            assertNull(region.find(0x100));
+        }
+        assertEquals(0, governor.getReserved());
+    }
+
+    @Test
+    public void testCloseWithoutGovernor() throws IOException {
+        DumpClassCacheRegion region = new DumpClassCacheRegion();
+        region.put(new DumpClass(0x1000, 0, 16, "java/lang/Object", 0, new long[0]));
+        region.close();
+        assertEquals(0, region.size());
+        new StandardVirtualIndexSystem().close();
+        new ConcurrentVirtualIndexSystem().close();
+    }
+
+    @Test
+    public void testStripesShareSpillFile() throws IOException {
+        MemoryGovernor governor = new MemoryGovernor(16 * 1024);
+        int classes = 5000;
+        try (ConcurrentVirtualIndexSystem system = new ConcurrentVirtualIndexSystem(ConcurrentVirtualIndexSystem.DEFAULT_STRIPES, governor)) {
+            for (int i = 0; i < classes; ++i) {
+                long address = i * 0x10000L;
+                system.save(new DumpClass(address, 0, 16, "Class" + i, 0, new long[0]));
+            }
+            assertEquals(classes, system.getClassesCount());
+            assertTrue(system.getSpilledCount() > 0);
+            for (int i = 0; i < classes; ++i) {
+                assertEquals("Class" + i, system.find(i * 0x10000L, DumpClass.class).getClassName());
+            }
+        }
+        assertEquals(0, governor.getReserved());
+    }
+}
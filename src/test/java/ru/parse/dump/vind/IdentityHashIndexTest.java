@@ -0,0 +1,73 @@
+package ru.parse.dump.vind;
+
+import org.junit.Test;
+import ru.parse.dump.objects.DumpObject;
+import ru.parse.dump.objects.DumpPrimitiveArray;
+import ru.parse.dump.objects.DumpPrimitiveType;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IdentityHashIndexTest {
+    private static final long[] NO_REFERENCES = new long[0];
+
+    @Test
+    public void testFindByIdentityHash() {
+        IdentityHashIndex index = new IdentityHashIndex();
+        Random random = new Random(7);
+        int records = 200000;
+        int[] hashes = new int[records];
+        for (int i = 0; i < records; ++i) {
+            long address = 0x10000 + i * 16L;
+            // Every tenth record shares the hash with the previous one
+            hashes[i] = (i % 10 == 9 ? hashes[i - 1] : random.nextInt());
+            if (i % 2 == 0) {
+                index.save(address, new DumpObject(address, 0x100, hashes[i], NO_REFERENCES));
+            } else {
+                index.save(address, new DumpPrimitiveArray(address, DumpPrimitiveType.INT, 4, hashes[i], 32));
+            }
+        }
+        index.save(0x8, new DumpObject(0x8, 0x100, 0, NO_REFERENCES));
+        index.build();
+
+        assertEquals(records, index.size());
+        for (int i = 0; i < records; i += 97) {
+            long address = 0x10000 + i * 16L;
+            long[] found = index.findByIdentityHash(hashes[i]);
+            assertTrue(Arrays.binarySearch(found, address) >= 0);
+        }
+        assertArrayEquals(new long[]{0x10000 + 8 * 16L, 0x10000 + 9 * 16L}, index.findByIdentityHash(hashes[9]));
+        assertEquals(0, index.findByIdentityHash(0).length);
+    }
+
+    @Test
+    public void testGovernedBuffers() {
+        // The initial buffers only
+        MemoryGovernor governor = new MemoryGovernor(64 * 1024 * 12);
+        IdentityHashIndex index = new IdentityHashIndex(false, governor);
+        assertEquals(index.memoryUsed(), governor.getReserved());
+        try {
+            for (int i = 1; ; ++i) {
+                index.save(i * 16L, new DumpObject(i * 16L, 0x100, i, NO_REFERENCES));
+            }
+        } catch (IllegalStateException e) {
+            assertEquals(64 * 1024, index.size());
+        }
+        index.close();
+        assertEquals(0, governor.getReserved());
+    }
+
+    @Test
+    public void testTruncatedHashes() {
+        IdentityHashIndex index = new IdentityHashIndex(true);
+        index.save(0x1000, new DumpObject(0x1000, 0x100, (short) 0xbeef, NO_REFERENCES));
+        index.save(0x1010, new DumpObject(0x1010, 0x100, 0x1234, NO_REFERENCES));
+        index.build();
+
+        assertArrayEquals(new long[]{0x1000}, index.findByIdentityHash(0x7a3dbeef));
+        assertArrayEquals(new long[]{0x1010}, index.findByIdentityHash(0x00011234));
+        assertEquals(0, index.findByIdentityHash(0x4321).length);
+    }
+}